@@ -0,0 +1,60 @@
+package com.example.dropbox_file_uploader.controller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.mock.web.MockMultipartHttpServletRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the primary upload endpoint scans the parameters and files of a multipart request,
+ * including the log strings it builds, for requests using the expected part names and for requests
+ * where the file and the filename have to be found under other names.
+ * Logging runs at INFO level (see {@code logback-test.xml}), so only the cost of building the strings is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UploadRequestBenchmark {
+
+	@Param({"latin", "cyrillic"})
+	public String script;
+
+	@Param({"expected", "fallback"})
+	public String partNames;
+
+	private MockMultipartHttpServletRequest request;
+
+	@Setup
+	public void setUp() {
+		String fileName = script.equals("latin") ? "Invoice March 2025.pdf" : "Фактура март 2025.pdf";
+		String customName = script.equals("latin") ? "Acme invoice" : "Фактура Акме";
+		boolean expected = partNames.equals("expected");
+
+		request = new MockMultipartHttpServletRequest();
+		request.addFile(new MockMultipartFile(expected ? "file" : "document", fileName, "application/pdf",
+				fileName.getBytes(StandardCharsets.UTF_8)));
+		request.addParameter("async", "false");
+		request.addParameter("category", "invoices");
+		request.addParameter(expected ? "filename" : "name", customName);
+	}
+
+	@Benchmark
+	public FileUploadRestController.UploadRequest readUploadRequest() {
+		return FileUploadRestController.readUploadRequest(request);
+	}
+}
@@ -0,0 +1,74 @@
+package com.example.dropbox_file_uploader.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the path helpers that run for every uploaded file.
+ * Run with {@code -prof gc} to see the allocation per call as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DropboxPathsBenchmark {
+
+	@Param({"latin", "cyrillic"})
+	public String script;
+
+	private String fileName;
+	private String folder;
+	private String misencodedFolder;
+
+	@Setup
+	public void setUp() {
+		if (script.equals("latin")) {
+			fileName = "Invoice: March/2025 <final>.pdf";
+			folder = "\\Uploads\\Clients//Acme Ltd/2025/";
+		} else {
+			fileName = "Фактура: март/2025 <окончателна>.pdf";
+			folder = "\\Качвания\\Клиенти//Акме ООД/2025/";
+		}
+		misencodedFolder = new String(folder.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+	}
+
+	@Benchmark
+	public String sanitizeFileName() {
+		return DropboxPaths.sanitizeFileName(fileName);
+	}
+
+	@Benchmark
+	public String formatDropboxPath() {
+		return DropboxPaths.formatDropboxPath(folder, fileName);
+	}
+
+	@Benchmark
+	public String fixCyrillicEncoding() {
+		return DropboxPaths.fixCyrillicEncoding(misencodedFolder);
+	}
+
+	@Benchmark
+	public String getFileExtension() {
+		return DropboxPaths.getFileExtension(fileName);
+	}
+
+	@Benchmark
+	public String fullPathOfUpload() {
+		String targetFolder = DropboxPaths.fixCyrillicEncoding(misencodedFolder);
+		return DropboxPaths.formatDropboxPath(targetFolder, DropboxPaths.sanitizeFileName(fileName));
+	}
+}
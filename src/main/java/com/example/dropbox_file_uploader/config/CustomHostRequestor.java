@@ -0,0 +1,69 @@
+package com.example.dropbox_file_uploader.config;
+
+import com.dropbox.core.http.HttpRequestor;
+
+import java.io.IOException;
+
+/**
+ * HTTP requestor that sends the requests of the Dropbox client to a custom port, optionally over plain HTTP.
+ * The Dropbox client always builds {@code https://<host>/} URLs and accepts no port in its host names;
+ * this requestor rewrites the URLs before passing them on, so the client can talk to a local stand-in
+ * of the Dropbox API. It must never be used against the real Dropbox API.
+ */
+public class CustomHostRequestor extends HttpRequestor {
+
+    private static final String HTTPS = "https://";
+
+    private final HttpRequestor delegate;
+    private final String scheme;
+    private final int port;
+
+    /**
+     * Constructs a new CustomHostRequestor.
+     *
+     * @param delegate  The requestor that performs the rewritten requests
+     * @param plainHttp Whether requests are sent over plain HTTP instead of HTTPS
+     * @param port      The port requests are sent to, or -1 to keep the default port of the scheme
+     */
+    public CustomHostRequestor(HttpRequestor delegate, boolean plainHttp, int port) {
+        this.delegate = delegate;
+        this.scheme = plainHttp ? "http://" : HTTPS;
+        this.port = port;
+    }
+
+    @Override
+    public Response doGet(String url, Iterable<Header> headers) throws IOException {
+        return delegate.doGet(rewrite(url), headers);
+    }
+
+    @Override
+    public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+        return delegate.startPost(rewrite(url), headers);
+    }
+
+    @Override
+    public Uploader startPostInStreamingMode(String url, Iterable<Header> headers) throws IOException {
+        return delegate.startPostInStreamingMode(rewrite(url), headers);
+    }
+
+    @Override
+    public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+        return delegate.startPut(rewrite(url), headers);
+    }
+
+    /**
+     * Replaces the scheme of a URL built by the Dropbox client and adds the port to its host.
+     *
+     * @param url The URL built by the Dropbox client
+     * @return The URL pointing at the configured scheme and port
+     */
+    private String rewrite(String url) {
+        if (!url.startsWith(HTTPS)) {
+            return url;
+        }
+        int pathStart = url.indexOf('/', HTTPS.length());
+        String host = pathStart == -1 ? url.substring(HTTPS.length()) : url.substring(HTTPS.length(), pathStart);
+        String path = pathStart == -1 ? "" : url.substring(pathStart);
+        return scheme + host + (port > 0 ? ":" + port : "") + path;
+    }
+}
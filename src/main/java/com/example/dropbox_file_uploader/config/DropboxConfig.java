@@ -1,39 +1,313 @@
 package com.example.dropbox_file_uploader.config;
 
+import com.dropbox.core.DbxHost;
 import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.http.StandardHttpRequestor;
+import com.dropbox.core.oauth.DbxCredential;
 import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.common.PathRoot;
+import com.example.dropbox_file_uploader.service.DropboxAccount;
+import com.example.dropbox_file_uploader.service.DropboxAccountPool;
+import com.example.dropbox_file_uploader.service.DropboxCircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class DropboxConfig {
     private static final Logger logger = LoggerFactory.getLogger(DropboxConfig.class);
 
-    @Value("${dropbox.access-token}")
+    @Value("${dropbox.access-token:}")
     private String accessToken;
 
+    @Value("${dropbox.refresh-token:}")
+    private String refreshToken;
+
+    @Value("${dropbox.app-key:}")
+    private String appKey;
+
+    @Value("${dropbox.app-secret:}")
+    private String appSecret;
+
+    @Value("${dropbox.client.max-retries:0}")
+    private int maxRetries;
+
+    @Value("${dropbox.host.api:}")
+    private String apiHost;
+
+    @Value("${dropbox.host.content:}")
+    private String contentHost;
+
+    @Value("${dropbox.host.port:-1}")
+    private int port;
+
+    @Value("${dropbox.host.plain-http:false}")
+    private boolean plainHttp;
+
+    @Value("${dropbox.path-root:}")
+    private String pathRoot;
+
+    @Value("${dropbox.max-concurrent:0}")
+    private int maxConcurrent;
+
+    @Value("${dropbox.account-routing.strategy:key}")
+    private String routingStrategy;
+
+    @Value("${dropbox.account-routing.acquire-timeout:PT30S}")
+    private Duration acquireTimeout;
+
+    @Value("${dropbox.http.pooled:true}")
+    private boolean pooledHttp;
+
+    @Value("${dropbox.http.max-connections:64}")
+    private int maxConnections;
+
+    @Value("${dropbox.http.max-connections-per-host:32}")
+    private int maxConnectionsPerHost;
+
+    @Value("${dropbox.http.connect-timeout:PT10S}")
+    private Duration connectTimeout;
+
+    @Value("${dropbox.http.read-timeout:PT2M}")
+    private Duration readTimeout;
+
+    @Value("${dropbox.http.connection-request-timeout:PT30S}")
+    private Duration connectionRequestTimeout;
+
+    @Value("${dropbox.http.idle-timeout:PT50S}")
+    private Duration idleTimeout;
+
+    @Value("${dropbox.http.write-buffer-size:256KB}")
+    private DataSize writeBufferSize;
+
+    @Value("${dropbox.http.socket-buffer-size:1MB}")
+    private DataSize socketBufferSize;
+
+    /**
+     * Creates the credential the Dropbox client authenticates with.
+     * <p>
+     * If {@code dropbox.refresh-token} is set, the credential holds the refresh token and the app key and secret
+     * (the secret is left empty for apps using PKCE). Its access token starts out as expired, so that
+     * {@link com.example.dropbox_file_uploader.service.DropboxTokenRefresher} obtains a fresh one at startup and
+     * renews it in the background from then on. Otherwise the static {@code dropbox.access-token} is used as is.
+     * </p>
+     *
+     * @return The credential of the Dropbox client
+     * @throws IllegalStateException If neither an access token nor a refresh token with an app key is configured
+     */
+    @Bean
+    public DbxCredential dropboxCredential() {
+        return credential("dropbox", accessToken, refreshToken, appKey, appSecret);
+    }
+
+    /**
+     * Creates the HTTP transport shared by the clients of all Dropbox accounts.
+     * <p>
+     * By default calls go through a {@link PooledHttpRequestor}, which keeps up to {@code dropbox.http.max-connections}
+     * connections open for reuse until they were idle for {@code dropbox.http.idle-timeout}, so that calls do not pay
+     * for a new connection and TLS handshake, and publishes the state of its pool as metrics. With
+     * {@code dropbox.http.pooled=false} the default requestor of the Dropbox SDK is used with the same timeouts.
+     * </p>
+     *
+     * @param meterRegistry The registry the state of the connection pool is published to
+     * @return The HTTP requestor of the Dropbox clients
+     */
+    @Bean
+    public HttpRequestor dropboxHttpRequestor(MeterRegistry meterRegistry) {
+        if (!pooledHttp) {
+            logger.info("Dropbox clients use the standard HTTP transport");
+            return new StandardHttpRequestor(StandardHttpRequestor.Config.builder()
+                    .withConnectTimeout(connectTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                    .withReadTimeout(readTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                    .build());
+        }
+        return new PooledHttpRequestor(maxConnections, maxConnectionsPerHost, connectTimeout, readTimeout,
+                connectionRequestTimeout, idleTimeout, Math.toIntExact(writeBufferSize.toBytes()),
+                Math.toIntExact(socketBufferSize.toBytes()), meterRegistry);
+    }
+
     /**
      * Creates and configures a Dropbox client instance.
      * <p>
      * This method initializes a Dropbox client with specific configuration settings
-     * including auto-retry capability and Bulgarian locale. The client uses the access
-     * token specified in the application properties to authenticate with the Dropbox API.
+     * including the Bulgarian locale. Automatic retries are disabled unless configured,
+     * because a retried request keeps its thread waiting; rate limits and outages are handled by
+     * {@link com.example.dropbox_file_uploader.service.DropboxCircuitBreaker} instead, which backs off all calls
+     * of the account at once. The client authenticates
+     * with the credential, which reads its current access token on every request, so refreshed tokens are picked up
+     * without replacing the client.
+     * </p>
+     * <p>
+     * If {@code dropbox.host.api} is set, the client talks to that host instead of the Dropbox API,
+     * for example to a local stand-in server during load tests; {@code dropbox.host.port} and
+     * {@code dropbox.host.plain-http} then allow it to be reached on another port and without TLS.
+     * Custom hosts only support the static access token.
      * </p>
      * 
+     * @param credential    The credential the client authenticates with
+     * @param httpRequestor The HTTP transport the client sends its calls through
      * @return A configured {@link DbxClientV2} instance ready to interact with the Dropbox API
      */
     @Bean
-    public DbxClientV2 dropboxClient() {
+    public DbxClientV2 dropboxClient(DbxCredential credential, HttpRequestor httpRequestor) {
         logger.info("Initializing Dropbox client");
+        return client("dropbox", credential, httpRequestor);
+    }
+
+    /**
+     * Creates the pool of Dropbox accounts uploads are spread over.
+     * <p>
+     * The primary account, named "default", is the client configured above, acting in the namespace
+     * {@code dropbox.path-root} if set and running at most {@code dropbox.max-concurrent} uploads at once. Further accounts are configured as
+     * {@code dropbox.accounts.<name>.*} with the same credential properties ({@code access-token}, or
+     * {@code refresh-token}, {@code app-key} and {@code app-secret}), plus optionally the namespace they act in
+     * ({@code path-root}, for example the root namespace of a team space), the maximum number of uploads they run
+     * at once ({@code max-concurrent}) and the client ids and route names pinned to them ({@code keys}).
+     * Every account gets a circuit breaker of its own with the settings of the primary one, and all accounts share
+     * the HTTP transport and its connections.
+     * </p>
+     *
+     * @param dropboxClient  The client of the primary account
+     * @param credential     The credential of the primary account
+     * @param circuitBreaker The circuit breaker of the primary account
+     * @param httpRequestor  The HTTP transport the clients send their calls through
+     * @param environment    The environment the further accounts are read from
+     * @param meterRegistry  The registry the load of the accounts is published to
+     * @return The pool of Dropbox accounts
+     * @throws IllegalStateException If an account is configured without credentials
+     */
+    @Bean
+    public DropboxAccountPool dropboxAccountPool(DbxClientV2 dropboxClient, DbxCredential credential,
+                                                 DropboxCircuitBreaker circuitBreaker, HttpRequestor httpRequestor,
+                                                 Environment environment, MeterRegistry meterRegistry) {
+        List<DropboxAccount> accounts = new ArrayList<>();
+        accounts.add(new DropboxAccount(DropboxCircuitBreaker.PRIMARY_ACCOUNT,
+                pathRoot.isEmpty() ? dropboxClient : dropboxClient.withPathRoot(PathRoot.root(pathRoot)),
+                credential, circuitBreaker, pathRoot, Set.of(), maxConcurrent));
+
+        Map<String, AccountProperties> configured = Binder.get(environment)
+                .bind("dropbox.accounts", Bindable.mapOf(String.class, AccountProperties.class))
+                .orElse(Map.of());
+        configured.forEach((name, properties) -> {
+            if (name.equals(DropboxCircuitBreaker.PRIMARY_ACCOUNT)) {
+                throw new IllegalStateException("The Dropbox account name " + name + " is reserved for the primary account");
+            }
+            String prefix = "dropbox.accounts." + name;
+            DbxCredential accountCredential = credential(prefix, orEmpty(properties.accessToken()),
+                    orEmpty(properties.refreshToken()), orEmpty(properties.appKey()), orEmpty(properties.appSecret()));
+            DbxClientV2 client = client(prefix, accountCredential, httpRequestor);
+            String namespace = orEmpty(properties.pathRoot());
+            accounts.add(new DropboxAccount(name,
+                    namespace.isEmpty() ? client : client.withPathRoot(PathRoot.root(namespace)),
+                    accountCredential, circuitBreaker.forAccount(name), namespace,
+                    properties.keys() == null ? Set.of() : Set.copyOf(properties.keys()),
+                    properties.maxConcurrent() == null ? maxConcurrent : properties.maxConcurrent()));
+        });
+
+        return new DropboxAccountPool(accounts, DropboxAccountPool.Strategy.parse(routingStrategy), acquireTimeout,
+                meterRegistry);
+    }
 
-        DbxRequestConfig config = DbxRequestConfig.newBuilder("dropbox-file-uploader")
-                .withAutoRetryEnabled(3)
+    /**
+     * Creates the credential of a Dropbox account.
+     *
+     * @param prefix       The prefix of the properties the account is configured with, used in error messages
+     * @param accessToken  The static access token (can be empty)
+     * @param refreshToken The refresh token (can be empty)
+     * @param appKey       The app key, required with a refresh token
+     * @param appSecret    The app secret, empty for apps using PKCE
+     * @return The credential of the account
+     * @throws IllegalStateException If neither an access token nor a refresh token with an app key is configured
+     */
+    private DbxCredential credential(String prefix, String accessToken, String refreshToken, String appKey,
+                                     String appSecret) {
+        if (!refreshToken.isEmpty()) {
+            if (appKey.isEmpty()) {
+                throw new IllegalStateException(prefix + ".app-key is required when " + prefix + ".refresh-token is set");
+            }
+            logger.info("Dropbox client {} authenticates with a refresh token", prefix);
+            return new DbxCredential(accessToken, 0L, refreshToken, appKey, appSecret.isEmpty() ? null : appSecret);
+        }
+        if (accessToken.isEmpty()) {
+            throw new IllegalStateException("Either " + prefix + ".access-token or " + prefix + ".refresh-token must be set");
+        }
+        return new DbxCredential(accessToken);
+    }
+
+    /**
+     * Creates a Dropbox client authenticating with the given credential, talking to the configured hosts.
+     *
+     * @param prefix        The prefix of the properties the account is configured with, used in error messages
+     * @param credential    The credential the client authenticates with
+     * @param httpRequestor The HTTP transport the client sends its calls through
+     * @return The Dropbox client
+     * @throws IllegalStateException If a refresh token is used together with custom hosts
+     */
+    private DbxClientV2 client(String prefix, DbxCredential credential, HttpRequestor httpRequestor) {
+        DbxRequestConfig.Builder config = DbxRequestConfig.newBuilder("dropbox-file-uploader")
                 .withUserLocale("bg_BG")
-                .build();
+                .withHttpRequestor(httpRequestor);
+        if (maxRetries > 0) {
+            config.withAutoRetryEnabled(maxRetries);
+        } else {
+            config.withAutoRetryDisabled();
+        }
 
-        return new DbxClientV2(config, accessToken);
+        if (apiHost.isEmpty()) {
+            return credential.getRefreshToken() != null
+                    ? new DbxClientV2(config.build(), credential)
+                    : new DbxClientV2(config.build(), credential.getAccessToken());
+        }
+        if (credential.getRefreshToken() != null) {
+            throw new IllegalStateException(prefix + ".refresh-token is not supported together with dropbox.host.api");
+        }
+
+        String content = contentHost.isEmpty() ? apiHost : contentHost;
+        logger.warn("Dropbox client {} uses custom hosts: api={}, content={}, port={}, plain HTTP={}",
+                prefix, apiHost, content, port, plainHttp);
+        if (plainHttp || port > 0) {
+            config.withHttpRequestor(new CustomHostRequestor(httpRequestor, plainHttp, port));
+        }
+        return new DbxClientV2(config.build(), credential.getAccessToken(), new DbxHost(apiHost, content, apiHost, apiHost));
+    }
+
+    /**
+     * Replaces a missing property value with an empty string.
+     *
+     * @param value The property value (can be null)
+     * @return The value, or an empty string if it is missing
+     */
+    private static String orEmpty(String value) {
+        return value == null ? "" : value.trim();
+    }
+
+    /**
+     * The properties of a further Dropbox account, bound from {@code dropbox.accounts.<name>}.
+     *
+     * @param accessToken   The static access token
+     * @param refreshToken  The refresh token
+     * @param appKey        The app key, required with a refresh token
+     * @param appSecret     The app secret, empty for apps using PKCE
+     * @param pathRoot      The id of the namespace the account acts in, empty for its home namespace
+     * @param maxConcurrent The maximum number of uploads run through the account at once, 0 for no limit
+     * @param keys          The client ids and route names pinned to the account
+     */
+    record AccountProperties(String accessToken, String refreshToken, String appKey, String appSecret,
+                             String pathRoot, Integer maxConcurrent, List<String> keys) {
     }
 }
\ No newline at end of file
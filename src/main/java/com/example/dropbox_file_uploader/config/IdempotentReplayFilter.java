@@ -0,0 +1,100 @@
+package com.example.dropbox_file_uploader.config;
+
+import com.example.dropbox_file_uploader.controller.FileUploadRestController;
+import com.example.dropbox_file_uploader.model.dto.ApiResponse;
+import com.example.dropbox_file_uploader.service.UploadIdempotencyCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Answers a retried upload whose Idempotency-Key belongs to a recently finished upload with the response of that
+ * upload, before any of the body is read, so the file is neither received nor uploaded again. It runs ahead of
+ * the admission of uploads, so replays are never held back by the upload budgets.
+ * Only retries matching the endpoint, query string, routing headers and body length of the stored upload are
+ * answered here; other requests, retries of uploads still in progress and requests of unknown length pass on to
+ * the controller, which attaches them to the running upload or rejects a key reused for a different upload,
+ * see {@link UploadIdempotencyCache}.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class IdempotentReplayFilter extends OncePerRequestFilter {
+    private static final Logger logger = LoggerFactory.getLogger(IdempotentReplayFilter.class);
+
+    private final UploadIdempotencyCache idempotencyCache;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Constructs a new IdempotentReplayFilter.
+     *
+     * @param idempotencyCache The cache holding the responses of recent uploads by idempotency key
+     * @param objectMapper     The mapper used to write the stored response
+     */
+    public IdempotentReplayFilter(UploadIdempotencyCache idempotencyCache, ObjectMapper objectMapper) {
+        this.idempotencyCache = idempotencyCache;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Applies the filter only to POST requests of the single file upload endpoints that carry an idempotency key.
+     *
+     * @param request The HTTP request
+     * @return true if the request is not a retriable single file upload, false otherwise
+     */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return !HttpMethod.POST.matches(request.getMethod())
+                || !(path.equals("/upload") || path.equals("/api/upload"))
+                || request.getHeader(UploadIdempotencyCache.KEY_HEADER) == null;
+    }
+
+    /**
+     * Writes the stored response of a finished upload with the same key, or passes the request on.
+     *
+     * @param request     The HTTP request
+     * @param response    The HTTP response
+     * @param filterChain The remaining filters
+     * @throws ServletException If a later filter fails
+     * @throws IOException      If the response cannot be written
+     */
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String key = request.getHeader(UploadIdempotencyCache.KEY_HEADER);
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        Optional<ResponseEntity<ApiResponse>> stored = UploadIdempotencyCache.isValidKey(key)
+                && request.getContentLengthLong() >= 0
+                ? idempotencyCache.findFinished(key, UploadIdempotencyCache.requestFingerprint(path,
+                        request.getQueryString(), request.getHeader(FileUploadRestController.ROUTE_HEADER),
+                        request.getHeader(FileUploadRestController.CLIENT_HEADER), request.getContentLengthLong()))
+                : Optional.empty();
+        if (stored.isEmpty()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        logger.info("Answered retry of upload with idempotency key {} from the stored response", key);
+        ResponseEntity<ApiResponse> replay = stored.get();
+        response.setStatus(replay.getStatusCode().value());
+        replay.getHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        objectMapper.writeValue(response.getOutputStream(), replay.getBody());
+    }
+}
@@ -0,0 +1,469 @@
+package com.example.dropbox_file_uploader.config;
+
+import com.dropbox.core.http.HttpRequestor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.classic.methods.HttpPut;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * HTTP requestor of the Dropbox clients that keeps its connections open in a shared pool.
+ * <p>
+ * The default requestor of the Dropbox SDK goes through {@link java.net.HttpURLConnection}, which keeps only a few
+ * idle connections per host and offers no control over them, so calls regularly pay for a new TCP connection and
+ * TLS handshake. This requestor sends all calls of all accounts through one Apache HttpClient connection pool:
+ * connections are reused as long as Dropbox keeps them alive, idle ones are closed after the idle timeout and
+ * checked before reuse once they were idle for a second, and sockets get large send and receive buffers for the
+ * upload traffic. Retries and redirects are left to the Dropbox client and its circuit breaker.
+ * <p>
+ * Request bodies are collected in a write buffer. Bodies that fit into it, all API calls and small uploads, are
+ * sent in one piece with a fixed length once the client finishes writing them. Larger bodies, the chunks of upload
+ * sessions, are streamed: the request is started on a sender thread as soon as the buffer is full and every full
+ * buffer is handed over to it while the client writes the next one. Sender threads are platform threads, since a
+ * virtual thread could wait for a carrier thread held by the very caller waiting for its body.
+ * <p>
+ * The state of the pool is published as the gauges {@code dropbox.http.pool.leased}, {@code .available},
+ * {@code .pending} and {@code .max}.
+ */
+public class PooledHttpRequestor extends HttpRequestor implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(PooledHttpRequestor.class);
+
+    /**
+     * How long a pooled connection may be idle before it is checked to still be open when it is reused.
+     */
+    private static final TimeValue VALIDATE_AFTER_INACTIVITY = TimeValue.ofSeconds(1);
+
+    /**
+     * The size the write buffer of a request starts at, so that small API calls do not allocate a full buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The number of full write buffers that may wait to be sent while the client writes the next one.
+     */
+    private static final int QUEUED_BUFFERS = 2;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final ExecutorService senders;
+    private final int writeBufferSize;
+
+    /**
+     * Constructs a new PooledHttpRequestor and registers the metrics of its connection pool.
+     *
+     * @param maxConnections           The maximum number of connections kept open
+     * @param maxConnectionsPerRoute   The maximum number of connections kept open to one Dropbox host
+     * @param connectTimeout           How long establishing a connection may take
+     * @param readTimeout              How long a connection may stay without data while waiting for a response
+     * @param connectionRequestTimeout How long a call waits for a connection when all of them are in use
+     * @param idleTimeout              How long an unused connection is kept open
+     * @param writeBufferSize          The size of the buffer request bodies are collected in
+     * @param socketBufferSize         The size of the send and receive buffers of the sockets, 0 for the system default
+     * @param meterRegistry            The registry the state of the connection pool is published to
+     */
+    public PooledHttpRequestor(int maxConnections, int maxConnectionsPerRoute, Duration connectTimeout,
+                               Duration readTimeout, Duration connectionRequestTimeout, Duration idleTimeout,
+                               int writeBufferSize, int socketBufferSize, MeterRegistry meterRegistry) {
+        this.writeBufferSize = Math.max(INITIAL_BUFFER_SIZE, writeBufferSize);
+        CustomizableThreadFactory senderThreads = new CustomizableThreadFactory("dropbox-http-");
+        senderThreads.setDaemon(true);
+        this.senders = Executors.newCachedThreadPool(senderThreads);
+        SocketConfig.Builder socketConfig = SocketConfig.custom()
+                .setTcpNoDelay(true)
+                .setSoKeepAlive(true)
+                .setSoTimeout(Timeout.of(readTimeout));
+        if (socketBufferSize > 0) {
+            socketConfig.setSndBufSize(socketBufferSize).setRcvBufSize(socketBufferSize);
+        }
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultSocketConfig(socketConfig.build())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY)
+                        .build())
+                .build();
+        this.client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(connectionRequestTimeout))
+                        .setResponseTimeout(Timeout.of(readTimeout))
+                        .setConnectionKeepAlive(TimeValue.of(idleTimeout))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(idleTimeout))
+                .disableAutomaticRetries()
+                .disableRedirectHandling()
+                .disableCookieManagement()
+                .disableContentCompression()
+                .disableDefaultUserAgent()
+                .build();
+
+        gauge(meterRegistry, "dropbox.http.pool.leased", PoolStats::getLeased, "Connections to Dropbox currently in use");
+        gauge(meterRegistry, "dropbox.http.pool.available", PoolStats::getAvailable, "Idle connections to Dropbox kept open for reuse");
+        gauge(meterRegistry, "dropbox.http.pool.pending", PoolStats::getPending, "Calls to Dropbox waiting for a connection");
+        gauge(meterRegistry, "dropbox.http.pool.max", PoolStats::getMax, "Maximum number of connections to Dropbox");
+        logger.info("Pooled Dropbox HTTP transport: max {} connections ({} per host), connect timeout {}, read timeout {}, idle timeout {}, write buffer {}B",
+                maxConnections, maxConnectionsPerRoute, connectTimeout, readTimeout, idleTimeout, this.writeBufferSize);
+    }
+
+    @Override
+    public Response doGet(String url, Iterable<Header> headers) throws IOException {
+        HttpGet request = new HttpGet(url);
+        copyHeaders(headers, request);
+        return execute(request);
+    }
+
+    @Override
+    public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+        HttpPost request = new HttpPost(url);
+        return new BufferedUploader(request, copyHeaders(headers, request));
+    }
+
+    @Override
+    public Uploader startPostInStreamingMode(String url, Iterable<Header> headers) throws IOException {
+        return startPost(url, headers);
+    }
+
+    @Override
+    public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+        HttpPut request = new HttpPut(url);
+        return new BufferedUploader(request, copyHeaders(headers, request));
+    }
+
+    /**
+     * Gets the current state of the connection pool.
+     *
+     * @return the number of connections in use, idle and waited for, and the maximum number of connections
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Closes all pooled connections and stops the background eviction of idle connections.
+     *
+     * @throws IOException If the connections cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        senders.shutdownNow();
+        client.close();
+    }
+
+    /**
+     * Sends a request and wraps its response for the Dropbox client.
+     * The connection returns to the pool once the client has read and closed the response body.
+     *
+     * @param request The request to send
+     * @return The response of Dropbox
+     * @throws IOException If the request cannot be sent or no response arrives in time
+     */
+    @SuppressWarnings("deprecation")
+    private Response execute(HttpUriRequestBase request) throws IOException {
+        CloseableHttpResponse response = client.execute(request);
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (org.apache.hc.core5.http.Header header : response.getHeaders()) {
+            headers.computeIfAbsent(header.getName(), name -> new ArrayList<>()).add(header.getValue());
+        }
+        HttpEntity entity = response.getEntity();
+        InputStream body = entity != null ? entity.getContent() : InputStream.nullInputStream();
+        return new Response(response.getCode(), body, headers);
+    }
+
+    /**
+     * Copies the headers set by the Dropbox client to a request. The length of the body is taken from the
+     * {@code Content-Length} header rather than copied, since it is set from the body when the request is sent.
+     *
+     * @param headers The headers set by the Dropbox client
+     * @param request The request to copy them to
+     * @return The declared length of the body, or -1 if it is unknown
+     */
+    private static long copyHeaders(Iterable<Header> headers, HttpUriRequestBase request) {
+        long contentLength = -1;
+        for (Header header : headers) {
+            if (header.getKey().equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH)) {
+                contentLength = Long.parseLong(header.getValue().trim());
+            } else if (!header.getKey().equalsIgnoreCase(HttpHeaders.TRANSFER_ENCODING)) {
+                request.addHeader(header.getKey(), header.getValue());
+            }
+        }
+        return contentLength;
+    }
+
+    /**
+     * Registers a gauge of the state of the connection pool.
+     *
+     * @param meterRegistry The registry to register the gauge with
+     * @param name          The name of the gauge
+     * @param value         The value of the pool statistics the gauge shows
+     * @param description   The description of the gauge
+     */
+    private void gauge(MeterRegistry meterRegistry, String name, ToDoubleFunction<PoolStats> value, String description) {
+        Gauge.builder(name, this, requestor -> value.applyAsDouble(requestor.getPoolStats()))
+                .description(description)
+                .register(meterRegistry);
+    }
+
+    /**
+     * A part of a streamed request body, handed over from the Dropbox client to the thread sending the request.
+     *
+     * @param data   The buffer holding the part
+     * @param length The number of bytes of the buffer that belong to the body
+     */
+    private record Chunk(byte[] data, int length) {
+        static final Chunk END = new Chunk(new byte[0], 0);
+        static final Chunk ABORT = new Chunk(new byte[0], 0);
+    }
+
+    /**
+     * Collects the body of a POST or PUT request written by the Dropbox client and sends the request.
+     */
+    private final class BufferedUploader extends Uploader {
+        private final HttpUriRequestBase request;
+        private final long contentLength;
+        private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(QUEUED_BUFFERS + 1);
+        private final OutputStream body = new Body();
+        private byte[] buffer;
+        private int count;
+        private Future<Response> exchange;
+        private boolean finished;
+
+        /**
+         * Constructs a new BufferedUploader.
+         *
+         * @param request       The request the body is written for
+         * @param contentLength The declared length of the body, or -1 if it is unknown
+         */
+        BufferedUploader(HttpUriRequestBase request, long contentLength) {
+            this.request = request;
+            this.contentLength = contentLength;
+            this.buffer = new byte[(int) Math.min(writeBufferSize, contentLength >= 0 ? Math.max(contentLength, 1) : INITIAL_BUFFER_SIZE)];
+        }
+
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() {
+            if (!finished) {
+                abort();
+            }
+        }
+
+        @Override
+        public void abort() {
+            finished = true;
+            if (exchange != null) {
+                chunks.clear();
+                chunks.offer(Chunk.ABORT);
+            }
+            request.cancel();
+        }
+
+        @Override
+        public Response finish() throws IOException {
+            try {
+                if (exchange == null) {
+                    request.setEntity(new ByteArrayEntity(buffer, 0, count, null));
+                    return execute(request);
+                }
+                if (count > 0) {
+                    handOver(new Chunk(buffer, count));
+                }
+                handOver(Chunk.END);
+                return exchange.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort();
+                throw new InterruptedIOException("Interrupted while waiting for the response of Dropbox");
+            } finally {
+                finished = true;
+            }
+        }
+
+        /**
+         * Sends the full write buffer, starting the request if it has not been started yet.
+         *
+         * @throws IOException If the request has already failed
+         */
+        private void flushBuffer() throws IOException {
+            if (exchange == null) {
+                request.setEntity(new StreamedEntity(contentLength, chunks));
+                exchange = senders.submit(() -> execute(request));
+            }
+            handOver(new Chunk(buffer, count));
+            buffer = new byte[writeBufferSize];
+            count = 0;
+        }
+
+        /**
+         * Hands a part of the body over to the thread sending the request, waiting while it is behind.
+         *
+         * @param chunk The part of the body
+         * @throws IOException If the request fails before the part is taken
+         */
+        private void handOver(Chunk chunk) throws IOException {
+            try {
+                while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    if (exchange.isDone()) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort();
+                throw new InterruptedIOException("Interrupted while sending the request body to Dropbox");
+            }
+            if (exchange.isDone() && chunk != Chunk.END) {
+                try {
+                    exchange.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("The request to Dropbox failed before its body was sent", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                throw new IOException("Dropbox answered before the request body was sent");
+            }
+        }
+
+        /**
+         * The request body as written by the Dropbox client.
+         */
+        private final class Body extends OutputStream {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (finished) {
+                    throw new IOException("The request to Dropbox has already been sent or aborted");
+                }
+                while (len > 0) {
+                    if (count == buffer.length) {
+                        if (buffer.length < writeBufferSize) {
+                            buffer = Arrays.copyOf(buffer, (int) Math.min(writeBufferSize, 2L * buffer.length));
+                        } else {
+                            flushBuffer();
+                        }
+                    }
+                    int n = Math.min(len, buffer.length - count);
+                    System.arraycopy(b, off, buffer, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+        }
+    }
+
+    /**
+     * A request body that is sent as its parts are handed over by the Dropbox client,
+     * with a fixed length if the client declared one and chunked otherwise.
+     */
+    private static final class StreamedEntity extends AbstractHttpEntity {
+        private final long length;
+        private final BlockingQueue<Chunk> chunks;
+
+        /**
+         * Constructs a new StreamedEntity.
+         *
+         * @param length The declared length of the body, or -1 if it is unknown
+         * @param chunks The parts of the body, ending with {@link Chunk#END} or {@link Chunk#ABORT}
+         */
+        StreamedEntity(long length, BlockingQueue<Chunk> chunks) {
+            super((String) null, null, length < 0);
+            this.length = length;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try {
+                for (Chunk chunk = chunks.take(); chunk != Chunk.END; chunk = chunks.take()) {
+                    if (chunk == Chunk.ABORT) {
+                        throw new IOException("The upload to Dropbox was aborted");
+                    }
+                    out.write(chunk.data(), 0, chunk.length());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sending the request body to Dropbox");
+            }
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public InputStream getContent() {
+            throw new UnsupportedOperationException("The request body is streamed");
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.dropbox_file_uploader.config;
 
+import jakarta.servlet.DispatcherType;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
@@ -7,9 +8,12 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.annotation.web.configurers.LogoutConfigurer;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.csrf.CookieCsrfTokenRepository;
 
+import static org.springframework.security.config.Customizer.withDefaults;
+
 /**
  * Configuration class for Spring Security settings.
  * Defines security filter chains for different parts of the application.
@@ -31,7 +35,7 @@ public class SecurityConfig {
     @Order(1)
     public SecurityFilterChain apiFilterChain(HttpSecurity http) throws Exception {
         http
-                .securityMatcher("/upload", "/api/upload", "/test-connection")
+                .securityMatcher("/upload", "/api/upload", "/api/upload/batch", "/api/upload/stream", "/api/upload/zip", "/api/upload/resumable", "/api/upload/resumable/**", "/api/uploads/*", "/test-connection")
                 .csrf(AbstractHttpConfigurer::disable)
                 .authorizeHttpRequests(auth -> auth
                         .anyRequest().permitAll()
@@ -40,24 +44,53 @@ public class SecurityConfig {
         return http.build();
     }
 
+    /**
+     * Configures security for endpoints that expose stored documents or internal data, such as the files in the
+     * target folder, the timelines of other users' uploads and the metrics of the Dropbox accounts.
+     * This filter chain applies after the public API endpoints (Order 2) and requires requests to be authenticated
+     * with HTTP Basic as the user configured in {@code spring.security.user.*}, without a session.
+     * Health stays open to anyone, but only authenticated requests see its details.
+     *
+     * @param http The HttpSecurity object to configure
+     * @return A SecurityFilterChain configured for protected endpoints
+     * @throws Exception If an error occurs during security configuration
+     */
+    @Bean
+    @Order(2)
+    public SecurityFilterChain protectedFilterChain(HttpSecurity http) throws Exception {
+        http
+                .securityMatcher("/api/files", "/api/files/**", "/api/uploads/*/timeline", "/api/uploads/timelines/**",
+                        "/actuator/health/**", "/actuator/metrics", "/actuator/metrics/**", "/actuator/prometheus")
+                .authorizeHttpRequests(auth -> auth
+                        .requestMatchers("/actuator/health/**").permitAll()
+                        .anyRequest().authenticated()
+                )
+                .httpBasic(withDefaults())
+                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS));
+
+        return http.build();
+    }
+
     /**
      * Configures security for web endpoints.
-     * This filter chain has lower precedence (Order 2) and applies to all remaining endpoints.
-     * It enables CSRF protection with non-HttpOnly cookies, permits access to static resources,
-     * requires authentication for all other requests, disables form login, and configures logout.
+     * This filter chain has the lowest precedence (Order 3) and applies to all remaining endpoints.
+     * It enables CSRF protection with non-HttpOnly cookies, permits access to static resources and to error
+     * dispatches, so that the status of an error sent by another chain (such as a 401 with its WWW-Authenticate
+     * header) is kept, requires authentication for all other requests, disables form login, and configures logout.
      *
      * @param http The HttpSecurity object to configure
      * @return A SecurityFilterChain configured for web endpoints
      * @throws Exception If an error occurs during security configuration
      */
     @Bean
-    @Order(2)
+    @Order(3)
     public SecurityFilterChain webFilterChain(HttpSecurity http) throws Exception {
         http
                 .securityMatcher("/**")
                 .csrf(csrf -> csrf
                         .csrfTokenRepository(CookieCsrfTokenRepository.withHttpOnlyFalse()))
                 .authorizeHttpRequests(auth -> auth
+                        .dispatcherTypeMatchers(DispatcherType.ERROR).permitAll()
                         .requestMatchers("/", "/css/**", "/js/**", "/images/**").permitAll()
                         .anyRequest().authenticated()
                 )
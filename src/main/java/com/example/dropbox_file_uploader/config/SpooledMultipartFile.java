@@ -0,0 +1,174 @@
+package com.example.dropbox_file_uploader.config;
+
+import com.example.dropbox_file_uploader.service.ContentHashed;
+import com.example.dropbox_file_uploader.service.DropboxContentHasher;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A file part of a multipart upload received by {@link UploadMultipartResolver}.
+ * Small files are kept in memory; once a file grows beyond the threshold it is written to a temporary file,
+ * which is deleted when the request completes unless it has been moved away with {@link #transferTo(File)}.
+ * The Dropbox content hash is computed in the same pass, so deduplication does not read the file again.
+ */
+final class SpooledMultipartFile implements MultipartFile, ContentHashed {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String name;
+    private final String originalFilename;
+    private final String contentType;
+    private final long size;
+    private final byte[] content;
+    private final String contentHash;
+    private Path file;
+
+    private SpooledMultipartFile(String name, String originalFilename, String contentType, long size,
+                                 byte[] content, Path file, String contentHash) {
+        this.name = name;
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.size = size;
+        this.content = content;
+        this.file = file;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Receives the content of a file part, hashing it as it is read.
+     *
+     * @param name             The name of the part
+     * @param originalFilename The file name sent by the client
+     * @param contentType      The content type declared by the client
+     * @param head             The first bytes of the file, already read from the part
+     * @param in               The rest of the file
+     * @param threshold        The size above which the file is written to disk
+     * @param directory        The directory temporary files are created in
+     * @return The received file
+     * @throws IOException If the part cannot be read or the temporary file cannot be written
+     */
+    static SpooledMultipartFile receive(String name, String originalFilename, String contentType, byte[] head,
+                                        InputStream in, long threshold, Path directory) throws IOException {
+        ByteArrayOutputStream memory = new ByteArrayOutputStream(Math.max(head.length, 32));
+        memory.write(head);
+        DropboxContentHasher hasher = new DropboxContentHasher();
+        hasher.update(head, 0, head.length);
+        long size = head.length;
+        Path file = null;
+        OutputStream out = memory;
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (file == null && size + read > threshold) {
+                    file = Files.createTempFile(directory, "upload-", ".tmp");
+                    out = Files.newOutputStream(file);
+                    memory.writeTo(out);
+                    memory = null;
+                }
+                out.write(buffer, 0, read);
+                hasher.update(buffer, 0, read);
+                size += read;
+            }
+        } catch (IOException | RuntimeException e) {
+            if (file != null) {
+                out.close();
+                Files.deleteIfExists(file);
+            }
+            throw e;
+        }
+        if (file == null) {
+            return new SpooledMultipartFile(name, originalFilename, contentType, size, memory.toByteArray(), null,
+                    hasher.finish());
+        }
+        out.close();
+        return new SpooledMultipartFile(name, originalFilename, contentType, size, null, file, hasher.finish());
+    }
+
+    /**
+     * Deletes the temporary file, if the content was written to disk and not moved away.
+     *
+     * @throws IOException If the file cannot be deleted
+     */
+    void delete() throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        return content != null ? content : Files.readAllBytes(spooledFile());
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return content != null ? new ByteArrayInputStream(content) : Files.newInputStream(spooledFile());
+    }
+
+    /**
+     * Writes the content to a file. A file already written to disk is moved there, so it can be transferred only once.
+     *
+     * @param dest The destination file
+     * @throws IOException If the file cannot be written or moved
+     */
+    @Override
+    public void transferTo(File dest) throws IOException {
+        transferTo(dest.toPath());
+    }
+
+    @Override
+    public void transferTo(Path dest) throws IOException {
+        if (content != null) {
+            Files.write(dest, content);
+            return;
+        }
+        Files.move(spooledFile(), dest, StandardCopyOption.REPLACE_EXISTING);
+        file = null;
+    }
+
+    private Path spooledFile() throws IOException {
+        if (file == null) {
+            throw new IOException("The content of " + originalFilename + " has already been moved");
+        }
+        return file;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.dropbox_file_uploader.config;
+
+import com.example.dropbox_file_uploader.model.dto.ApiResponse;
+import com.example.dropbox_file_uploader.service.UploadAdmission;
+import com.example.dropbox_file_uploader.service.UploadMetrics;
+import com.example.dropbox_file_uploader.service.UploadMetrics.RejectionReason;
+import com.example.dropbox_file_uploader.service.UploadTrace.Phase;
+import com.example.dropbox_file_uploader.service.UploadTracer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Admits uploads before any of their body is read.
+ * <p>
+ * Multipart uploads whose declared Content-Length exceeds the maximum request size are rejected with 413.
+ * Requests without a Content-Length (chunked transfer) pass and are limited while their body is parsed,
+ * see {@link UploadMultipartResolver}.
+ * <p>
+ * Every other upload, including the chunks of resumable uploads, is charged against the global upload budgets of
+ * {@link UploadAdmission} until it has been answered: the heap it may hold, up to
+ * {@code upload.admission.max-memory-per-upload}; the disk its body is spooled to, when it is larger than the
+ * multipart file size threshold; and one of the upload slots. An upload that does not fit in time is answered with
+ * 503 and a Retry-After header.
+ * <p>
+ * Refusals close the connection, so the client does not get to send the rest of the file.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 3)
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+    private static final Logger logger = LoggerFactory.getLogger(UploadAdmissionFilter.class);
+
+    private final UploadMetrics uploadMetrics;
+    private final ObjectMapper objectMapper;
+    private final UploadAdmission uploadAdmission;
+    private final UploadTracer uploadTracer;
+
+    @Value("${spring.servlet.multipart.max-request-size:10MB}")
+    private DataSize maxRequestSize;
+
+    @Value("${spring.servlet.multipart.file-size-threshold:0B}")
+    private DataSize fileSizeThreshold;
+
+    @Value("${upload.admission.max-memory-per-upload:40MB}")
+    private DataSize maxMemoryPerUpload;
+
+    /**
+     * Constructs a new UploadAdmissionFilter.
+     *
+     * @param uploadMetrics   The metrics rejected uploads are counted in
+     * @param objectMapper    The mapper used to write the error response
+     * @param uploadAdmission The global budgets uploads are admitted under
+     * @param uploadTracer    The tracer the wait for admission is recorded in
+     */
+    public UploadAdmissionFilter(UploadMetrics uploadMetrics, ObjectMapper objectMapper,
+                                 UploadAdmission uploadAdmission, UploadTracer uploadTracer) {
+        this.uploadMetrics = uploadMetrics;
+        this.objectMapper = objectMapper;
+        this.uploadAdmission = uploadAdmission;
+        this.uploadTracer = uploadTracer;
+    }
+
+    /**
+     * Applies the filter only to multipart POST requests and to the chunks of resumable uploads.
+     *
+     * @param request The HTTP request
+     * @return true if the request is not an upload, false otherwise
+     */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !isMultipartPost(request) && !isResumableChunk(request);
+    }
+
+    /**
+     * Answers an oversized upload with 413 Payload Too Large, or passes the request on.
+     *
+     * @param request     The HTTP request
+     * @param response    The HTTP response
+     * @param filterChain The remaining filters
+     * @throws ServletException If a later filter fails
+     * @throws IOException      If the response cannot be written
+     */
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        boolean multipart = isMultipartPost(request);
+        long contentLength = request.getContentLengthLong();
+        if (multipart && contentLength > maxRequestSize.toBytes()) {
+            logger.warn("Rejected upload to {} of {} bytes before reading it, the limit is {}",
+                    request.getRequestURI(), contentLength, maxRequestSize);
+            uploadMetrics.rejected(RejectionReason.SIZE);
+            reject(response, HttpStatus.PAYLOAD_TOO_LARGE,
+                    ApiResponse.error("Заявката е твърде голяма (максимум " + maxRequestSize.toMegabytes() + "MB)"));
+            return;
+        }
+
+        long length = contentLength >= 0 ? contentLength : maxRequestSize.toBytes();
+        boolean spooled = multipart && !isStreamingUpload(request) && length > fileSizeThreshold.toBytes();
+        long start = System.nanoTime();
+        UploadAdmission.Permit permit;
+        try {
+            permit = uploadAdmission.tryAdmit(Math.min(length, maxMemoryPerUpload.toBytes()), spooled ? length : 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permit = null;
+        }
+        uploadTracer.record(Phase.ADMIT, start);
+        if (permit == null) {
+            long retryAfter = uploadAdmission.getRetryAfterSeconds();
+            logger.warn("Rejected upload to {} of {} bytes, the upload budgets are exhausted ({} waiting)",
+                    request.getRequestURI(), contentLength, uploadAdmission.getWaiting());
+            uploadMetrics.rejected(RejectionReason.OVERLOADED);
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+            reject(response, HttpStatus.SERVICE_UNAVAILABLE, ApiResponse.error(
+                    "Сървърът е претоварен. Моля, опитайте отново след " + retryAfter + " секунди."));
+            return;
+        }
+
+        boolean released = false;
+        try {
+            filterChain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleasingListener(permit));
+                released = true;
+            }
+        } finally {
+            if (!released) {
+                permit.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the refusal of an upload and closes the connection.
+     *
+     * @param response The HTTP response
+     * @param status   The status of the refusal
+     * @param body     The error message
+     * @throws IOException If the response cannot be written
+     */
+    private void reject(HttpServletResponse response, HttpStatus status, ApiResponse body) throws IOException {
+        response.setStatus(status.value());
+        response.setHeader(HttpHeaders.CONNECTION, "close");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        objectMapper.writeValue(response.getOutputStream(), body);
+    }
+
+    private static boolean isMultipartPost(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return HttpMethod.POST.matches(request.getMethod())
+                && contentType != null
+                && contentType.toLowerCase(Locale.ROOT).startsWith("multipart/");
+    }
+
+    private static boolean isResumableChunk(HttpServletRequest request) {
+        return HttpMethod.PATCH.matches(request.getMethod()) && path(request).startsWith("/api/upload/resumable/");
+    }
+
+    private static boolean isStreamingUpload(HttpServletRequest request) {
+        String path = path(request);
+        return path.equals("/api/upload/stream") || path.equals("/api/upload/zip");
+    }
+
+    private static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    /**
+     * Gives the charge of an asynchronously answered upload back once its response has been written,
+     * or the request has failed or timed out.
+     */
+    private static final class ReleasingListener implements AsyncListener {
+        private final UploadAdmission.Permit permit;
+
+        ReleasingListener(UploadAdmission.Permit permit) {
+            this.permit = permit;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            permit.close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            permit.close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            permit.close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
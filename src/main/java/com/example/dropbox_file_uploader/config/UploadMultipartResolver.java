@@ -0,0 +1,232 @@
+package com.example.dropbox_file_uploader.config;
+
+import com.example.dropbox_file_uploader.service.FileSignatures;
+import com.example.dropbox_file_uploader.service.UploadRejectedException;
+import com.example.dropbox_file_uploader.service.UploadTrace.Phase;
+import com.example.dropbox_file_uploader.service.UploadTracer;
+import jakarta.servlet.http.HttpServletRequest;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.core.FileUploadSizeException;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletDiskFileUpload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.multipart.support.AbstractMultipartHttpServletRequest;
+import org.springframework.web.multipart.support.DefaultMultipartHttpServletRequest;
+import org.springframework.web.servlet.DispatcherServlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Multipart resolver that checks every uploaded file while it is being received, replacing the resolver of the
+ * servlet container, which only hands over files after the whole request body has been read and spooled to disk.
+ * <p>
+ * The body is parsed part by part. The first {@link FileSignatures#SNIFF_LENGTH} bytes of each file are compared
+ * with the content type the client declared, and a file whose content is not an accepted type of that kind aborts
+ * the request with an {@link UploadRejectedException} before the rest of the body is read. The size limits of
+ * {@code spring.servlet.multipart} are enforced while reading, so an oversized file is also rejected as soon as
+ * the limit is crossed. Files within the size threshold stay in memory, larger ones are written to the
+ * multipart location.
+ * <p>
+ * With {@code spring.servlet.multipart.resolve-lazily} the body is parsed only when a handler asks for the parts,
+ * which keeps the bodies of {@code /api/upload/stream} and {@code /api/upload/zip} untouched for their own parsing.
+ */
+@Component(DispatcherServlet.MULTIPART_RESOLVER_BEAN_NAME)
+public class UploadMultipartResolver implements MultipartResolver {
+    private static final Logger logger = LoggerFactory.getLogger(UploadMultipartResolver.class);
+
+    private final UploadTracer uploadTracer;
+
+    @Value("${spring.servlet.multipart.max-file-size:1MB}")
+    private DataSize maxFileSize;
+
+    @Value("${spring.servlet.multipart.max-request-size:10MB}")
+    private DataSize maxRequestSize;
+
+    @Value("${spring.servlet.multipart.file-size-threshold:0B}")
+    private DataSize fileSizeThreshold;
+
+    @Value("${spring.servlet.multipart.location:${java.io.tmpdir}}")
+    private String location;
+
+    @Value("${spring.servlet.multipart.resolve-lazily:false}")
+    private boolean resolveLazily;
+
+    /**
+     * Constructs a new UploadMultipartResolver.
+     *
+     * @param uploadTracer The tracer the time spent receiving the body is recorded in
+     */
+    public UploadMultipartResolver(UploadTracer uploadTracer) {
+        this.uploadTracer = uploadTracer;
+    }
+
+    /**
+     * Checks whether a request is a multipart request.
+     *
+     * @param request The HTTP request
+     * @return true for multipart/form-data and other multipart content types, false otherwise
+     */
+    @Override
+    public boolean isMultipart(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("multipart/");
+    }
+
+    /**
+     * Wraps a multipart request, parsing its body right away unless resolution is lazy.
+     *
+     * @param request The HTTP request
+     * @return The multipart request giving access to the files and form fields
+     * @throws MultipartException If the body cannot be parsed, exceeds a size limit or contains a rejected file
+     */
+    @Override
+    public MultipartHttpServletRequest resolveMultipart(HttpServletRequest request) throws MultipartException {
+        ReceivingMultipartRequest multipartRequest = new ReceivingMultipartRequest(request);
+        if (!resolveLazily) {
+            multipartRequest.parse();
+        }
+        return multipartRequest;
+    }
+
+    /**
+     * Deletes the temporary files of a request once it has been handled.
+     *
+     * @param request The multipart request
+     */
+    @Override
+    public void cleanupMultipart(MultipartHttpServletRequest request) {
+        if (request instanceof AbstractMultipartHttpServletRequest abstractRequest && !abstractRequest.isResolved()) {
+            return;
+        }
+        for (List<MultipartFile> files : request.getMultiFileMap().values()) {
+            deleteFiles(files);
+        }
+    }
+
+    /**
+     * Receives the parts of a request body, checking each file as soon as its first bytes arrive.
+     *
+     * @param request The HTTP request
+     * @param files   The map the received files are added to
+     * @param params  The map the received form fields are added to
+     * @param types   The map the content types of the form fields are added to
+     * @throws MultipartException If the body cannot be parsed, exceeds a size limit or contains a rejected file
+     */
+    private void receive(HttpServletRequest request, MultiValueMap<String, MultipartFile> files,
+                         Map<String, String[]> params, Map<String, String> types) {
+        JakartaServletDiskFileUpload upload = new JakartaServletDiskFileUpload();
+        upload.setHeaderCharset(StandardCharsets.UTF_8);
+        upload.setFileSizeMax(maxFileSize.toBytes());
+        upload.setSizeMax(maxRequestSize.toBytes());
+        Path directory = Path.of(location);
+        long start = System.nanoTime();
+
+        try {
+            FileItemInputIterator items = upload.getItemIterator(request);
+            while (items.hasNext()) {
+                FileItemInput item = items.next();
+                try (InputStream in = item.getInputStream()) {
+                    if (item.isFormField()) {
+                        String value = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                        String[] values = params.get(item.getFieldName());
+                        params.put(item.getFieldName(), values == null ? new String[]{value} : append(values, value));
+                        types.put(item.getFieldName(), item.getContentType());
+                        continue;
+                    }
+
+                    byte[] head = in.readNBytes(FileSignatures.SNIFF_LENGTH);
+                    if (head.length > 0 && !FileSignatures.matches(item.getContentType(), head, head.length)) {
+                        logger.warn("Rejected upload of {} declared as {}, its content does not match",
+                                item.getName(), item.getContentType());
+                        throw new UploadRejectedException(item.getName(), item.getContentType());
+                    }
+                    files.add(item.getFieldName(), SpooledMultipartFile.receive(item.getFieldName(), item.getName(),
+                            item.getContentType(), head, in, fileSizeThreshold.toBytes(), directory));
+                }
+            }
+            uploadTracer.record(Phase.RECEIVE, start);
+        } catch (IOException e) {
+            files.values().forEach(this::deleteFiles);
+            if (NestedExceptionUtils.getMostSpecificCause(e) instanceof FileUploadSizeException sizeException) {
+                throw new MaxUploadSizeExceededException(sizeException.getPermitted(), e);
+            }
+            throw new MultipartException("Failed to parse multipart request: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            files.values().forEach(this::deleteFiles);
+            throw e;
+        }
+    }
+
+    private void deleteFiles(List<MultipartFile> files) {
+        for (MultipartFile file : files) {
+            if (file instanceof SpooledMultipartFile spooledFile) {
+                try {
+                    spooledFile.delete();
+                } catch (IOException e) {
+                    logger.warn("Failed to delete temporary upload file of {}: {}", file.getOriginalFilename(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static String[] append(String[] values, String value) {
+        String[] appended = new String[values.length + 1];
+        System.arraycopy(values, 0, appended, 0, values.length);
+        appended[values.length] = value;
+        return appended;
+    }
+
+    /**
+     * A multipart request whose body is parsed by this resolver, on first access when resolution is lazy.
+     * A failed parse is remembered, since the body cannot be read a second time.
+     */
+    private class ReceivingMultipartRequest extends DefaultMultipartHttpServletRequest {
+        private MultipartException failure;
+
+        private ReceivingMultipartRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        protected void initializeMultipart() {
+            parse();
+        }
+
+        private void parse() {
+            if (failure != null) {
+                throw failure;
+            }
+            MultiValueMap<String, MultipartFile> files = new LinkedMultiValueMap<>();
+            Map<String, String[]> params = new HashMap<>();
+            Map<String, String> types = new HashMap<>();
+            try {
+                receive(getRequest(), files, params, types);
+            } catch (MultipartException e) {
+                failure = e;
+                throw e;
+            }
+            setMultipartFiles(files);
+            setMultipartParameters(params);
+            setMultipartParameterContentTypes(types);
+        }
+    }
+}
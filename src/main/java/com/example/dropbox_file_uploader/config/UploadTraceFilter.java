@@ -0,0 +1,105 @@
+package com.example.dropbox_file_uploader.config;
+
+import com.example.dropbox_file_uploader.service.UploadTrace;
+import com.example.dropbox_file_uploader.service.UploadTrace.Phase;
+import com.example.dropbox_file_uploader.service.UploadTracer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Starts the trace of every upload request and returns its id in the X-Trace-Id header.
+ * A client may send its own id in the same header. The trace is bound to the request thread while the request is
+ * handled, and again while the response of an asynchronously completed upload is written, which is recorded as
+ * the {@link Phase#RESPOND} phase. The trace is finished once the response has been written.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class UploadTraceFilter extends OncePerRequestFilter {
+
+    /**
+     * The header carrying the trace id.
+     */
+    public static final String TRACE_ID_HEADER = "X-Trace-Id";
+
+    private static final String TRACE_ATTRIBUTE = UploadTraceFilter.class.getName() + ".trace";
+
+    private final UploadTracer uploadTracer;
+
+    /**
+     * Constructs a new UploadTraceFilter.
+     *
+     * @param uploadTracer The tracer keeping the timelines of recent uploads
+     */
+    public UploadTraceFilter(UploadTracer uploadTracer) {
+        this.uploadTracer = uploadTracer;
+    }
+
+    /**
+     * Applies the filter only to POST and PATCH requests of the upload endpoints.
+     *
+     * @param request The HTTP request
+     * @return true if the request does not upload anything, false otherwise
+     */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        boolean upload = path.equals("/upload") || path.equals("/api/upload") || path.startsWith("/api/upload/");
+        return !upload || !(HttpMethod.POST.matches(request.getMethod()) || HttpMethod.PATCH.matches(request.getMethod()));
+    }
+
+    /**
+     * Also filters the dispatch that writes the response of an asynchronously completed upload.
+     *
+     * @return false
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    /**
+     * Binds the trace of the request to the thread while the request is handled.
+     *
+     * @param request     The HTTP request
+     * @param response    The HTTP response
+     * @param filterChain The remaining filters
+     * @throws ServletException If a later filter fails
+     * @throws IOException      If the response cannot be written
+     */
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        boolean asyncDispatch = isAsyncDispatch(request);
+        UploadTrace trace = request.getAttribute(TRACE_ATTRIBUTE) instanceof UploadTrace started ? started : null;
+        if (trace == null) {
+            trace = uploadTracer.start(request.getMethod() + " " + request.getRequestURI(), request.getHeader(TRACE_ID_HEADER));
+            request.setAttribute(TRACE_ATTRIBUTE, trace);
+            response.setHeader(TRACE_ID_HEADER, trace.getTraceId());
+        }
+
+        long start = System.nanoTime();
+        UploadTrace previous = uploadTracer.attach(trace);
+        boolean failed = true;
+        try {
+            filterChain.doFilter(request, response);
+            failed = false;
+        } finally {
+            uploadTracer.attach(previous);
+            if (asyncDispatch) {
+                trace.record(Phase.RESPOND, start);
+            }
+            if (!request.isAsyncStarted()) {
+                uploadTracer.finish(trace, failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus());
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.dropbox_file_uploader.controller;
+
+import com.dropbox.core.DbxException;
+import com.example.dropbox_file_uploader.model.dto.ApiResponse;
+import com.example.dropbox_file_uploader.model.dto.FileEntry;
+import com.example.dropbox_file_uploader.service.DropboxUnavailableException;
+import com.example.dropbox_file_uploader.service.FileDownloadService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * REST controller serving the content of the files stored in the target folder, for downloads and previews.
+ * Content is served from the local download cache, which fetches each revision of a file from Dropbox once.
+ * Responses carry the revision of the file as their ETag, so clients revalidate with If-None-Match and get 304
+ * while the file is unchanged, and single byte ranges are served as 206 Partial Content.
+ * <p>
+ * Cached files are handed to Tomcat to be sent with sendfile where the connector supports it, so their content
+ * is copied to the socket by the kernel; elsewhere they are sent with {@link FileChannel#transferTo}.
+ */
+@RestController
+@RequestMapping("/api/files")
+public class FileDownloadController {
+    private static final Logger logger = LoggerFactory.getLogger(FileDownloadController.class);
+
+    /**
+     * The request attributes through which Tomcat sends a file with sendfile after the handler returned.
+     */
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String BUSY_RETRY_AFTER_SECONDS = "5";
+
+    private final FileDownloadService downloadService;
+
+    /**
+     * Constructs a new FileDownloadController with the specified service.
+     *
+     * @param downloadService The service serving the content of files from the download cache
+     */
+    public FileDownloadController(FileDownloadService downloadService) {
+        this.downloadService = downloadService;
+    }
+
+    /**
+     * Sends the content of a file, or the requested byte range of it.
+     *
+     * @param path     The path of the file, relative to the target folder
+     * @param request  The HTTP request, with optional If-None-Match, Range and If-Range headers
+     * @param response The HTTP response the content is written to
+     * @return null once the content has been sent, or a ResponseEntity containing:
+     * - 304 Not Modified if the revision in If-None-Match is still current
+     * - 400 Bad Request if the path leaves the target folder
+     * - 404 Not Found if there is no such file
+     * - 416 Range Not Satisfiable if the requested range lies beyond the end of the file
+     * - 503 Service Unavailable if Dropbox service is unavailable or too many files are being downloaded
+     * @throws IOException If the content cannot be sent
+     */
+    @GetMapping("/{*path}")
+    public ResponseEntity<ApiResponse> downloadFile(@PathVariable("path") String path,
+                                                    HttpServletRequest request, HttpServletResponse response) throws IOException {
+        FileEntry file;
+        try {
+            file = downloadService.locate(path);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Rejected download of {}: {}", path, e.getMessage());
+            return ResponseEntity.badRequest().body(ApiResponse.error("Невалиден път до файл"));
+        } catch (DbxException e) {
+            return dropboxError(e);
+        }
+        if (file == null) {
+            return notFound();
+        }
+
+        String etag = "\"" + file.getRev() + "\"";
+        if (matchesAny(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .build();
+        }
+
+        try (FileDownloadService.Download download = downloadService.open(file)) {
+            long size = download.getSize();
+            long start = 0;
+            long end = size - 1;
+            List<HttpRange> ranges = requestedRanges(request, etag);
+            if (ranges.size() == 1) {
+                try {
+                    start = ranges.get(0).getRangeStart(size);
+                    end = ranges.get(0).getRangeEnd(size);
+                } catch (IllegalArgumentException e) {
+                    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                            .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                            .build();
+                }
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+
+            long length = end - start + 1;
+            response.setHeader(HttpHeaders.ETAG, etag);
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                    ContentDisposition.inline().filename(file.getName(), StandardCharsets.UTF_8).build().toString());
+            if (file.getModified() != null) {
+                response.setDateHeader(HttpHeaders.LAST_MODIFIED, file.getModified().toEpochMilli());
+            }
+            response.setContentType(MediaTypeFactory.getMediaType(file.getName())
+                    .orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+            response.setContentLengthLong(length);
+
+            if (length > 0 && !HttpMethod.HEAD.matches(request.getMethod())) {
+                send(request, response, download.getPath(), start, length);
+            }
+            return null;
+        } catch (NoSuchElementException e) {
+            logger.info("File {} disappeared from Dropbox: {}", file.getPath(), e.getMessage());
+            return notFound();
+        } catch (RejectedExecutionException e) {
+            logger.warn("Download of {} rejected: {}", file.getPath(), e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, BUSY_RETRY_AFTER_SECONDS)
+                    .body(ApiResponse.error("Сървърът е претоварен. Моля, опитайте отново по-късно."));
+        } catch (DbxException e) {
+            return dropboxError(e);
+        }
+    }
+
+    /**
+     * Sends a range of a cached file: through Tomcat's sendfile when the connector supports it,
+     * otherwise by transferring it from the file channel to the response.
+     *
+     * @param request  The HTTP request
+     * @param response The HTTP response
+     * @param file     The cached file
+     * @param start    The offset of the first byte sent
+     * @param length   The number of bytes sent
+     * @throws IOException If the file cannot be read or the response cannot be written
+     */
+    private void send(HttpServletRequest request, HttpServletResponse response, Path file, long start, long length)
+            throws IOException {
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) {
+                    throw new EOFException("Cached file " + file + " ended at " + position);
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    /**
+     * Determines the byte ranges to send. The Range header is ignored if it is malformed, or if an If-Range header
+     * names another revision, in which case the whole file is sent.
+     *
+     * @param request The HTTP request
+     * @param etag    The ETag of the current revision
+     * @return The requested ranges, empty if the whole file is sent
+     */
+    private List<HttpRange> requestedRanges(HttpServletRequest request, String etag) {
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range == null || (ifRange != null && !ifRange.trim().equals(etag))) {
+            return List.of();
+        }
+        try {
+            return HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Ignoring malformed range {}: {}", range, e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Checks whether an If-None-Match header names the current revision.
+     *
+     * @param ifNoneMatch The header value (can be null)
+     * @param etag        The ETag of the current revision
+     * @return true if the client already has the current revision, false otherwise
+     */
+    private static boolean matchesAny(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the 404 response for a file that does not exist.
+     *
+     * @return A 404 response with the error message
+     */
+    private static ResponseEntity<ApiResponse> notFound() {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ApiResponse.error("Файлът не е намерен"));
+    }
+
+    /**
+     * Builds the 503 response for a failed Dropbox operation, with a Retry-After header if Dropbox is known to be
+     * unavailable for a while.
+     *
+     * @param e The Dropbox error
+     * @return A 503 response with the error message
+     */
+    private static ResponseEntity<ApiResponse> dropboxError(DbxException e) {
+        Duration retryAfter = DropboxUnavailableException.retryAfterOf(e).orElse(null);
+        if (retryAfter == null) {
+            logger.error("Dropbox API error: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(ApiResponse.error("Грешка при изтегляне на файла от Dropbox: " + e.getMessage()));
+        }
+
+        long seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        logger.warn("Dropbox unavailable, retry after {} s: {}", seconds, e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(seconds))
+                .body(ApiResponse.error("Dropbox е временно недостъпен. Моля, опитайте отново след " + seconds + " секунди."));
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.dropbox_file_uploader.controller;
+
+import com.example.dropbox_file_uploader.model.dto.ApiResponse;
+import com.example.dropbox_file_uploader.service.DropboxFolderMirror;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * REST controller listing the files stored in the target folder.
+ * Listings are served from the local mirror of the folder, without calling Dropbox.
+ */
+@RestController
+@RequestMapping("/api/files")
+public class FileListController {
+
+    private static final String NOT_READY_RETRY_AFTER_SECONDS = "5";
+
+    private final DropboxFolderMirror folderMirror;
+
+    /**
+     * Constructs a new FileListController with the specified mirror.
+     *
+     * @param folderMirror The local mirror of the target folder
+     */
+    public FileListController(DropboxFolderMirror folderMirror) {
+        this.folderMirror = folderMirror;
+    }
+
+    /**
+     * Lists a page of the files and folders in the target folder, ordered by path.
+     *
+     * @param prefix A path prefix, absolute or relative to the target folder, to list only part of the tree
+     * @param query  A part of the name of the entries, matched regardless of case
+     * @param page   The number of the page, starting at 0
+     * @param size   The maximum number of entries per page
+     * @return A ResponseEntity containing:
+     * - 200 OK with the entries of the page, the number of matching entries and the time of the last sync
+     * - 503 Service Unavailable with a Retry-After header while the mirror is still being built
+     */
+    @GetMapping(produces = "application/json;charset=UTF-8")
+    public ResponseEntity<?> listFiles(@RequestParam(value = "prefix", required = false) String prefix,
+                                       @RequestParam(value = "q", required = false) String query,
+                                       @RequestParam(value = "page", defaultValue = "0") int page,
+                                       @RequestParam(value = "size", defaultValue = "100") int size) {
+        if (!folderMirror.isReady()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, NOT_READY_RETRY_AFTER_SECONDS)
+                    .body(ApiResponse.error("Списъкът с файлове все още се зарежда. Моля, опитайте отново след малко."));
+        }
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .body(folderMirror.list(prefix, query, page, size));
+    }
+}
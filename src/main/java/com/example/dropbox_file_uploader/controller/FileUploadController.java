@@ -1,10 +1,12 @@
 package com.example.dropbox_file_uploader.controller;
 
-import com.example.dropbox_file_uploader.service.DropboxService;
+import com.example.dropbox_file_uploader.service.DropboxHealthIndicator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 
@@ -17,29 +19,41 @@ import org.springframework.web.bind.annotation.RequestMapping;
 public class FileUploadController {
     private static final Logger logger = LoggerFactory.getLogger(FileUploadController.class);
 
-    private final DropboxService dropboxService;
+    private final DropboxHealthIndicator dropboxHealth;
+
+    @Value("${spring.servlet.multipart.max-file-size:10MB}")
+    private DataSize maxFileSize;
+
+    @Value("${upload.resumable.chunk-size:4MB}")
+    private DataSize resumableChunkSize;
 
     /**
-     * Constructs a new FileUploadController with the specified Dropbox service.
+     * Constructs a new FileUploadController with the specified Dropbox health probe.
      *
-     * @param dropboxService the service used to interact with Dropbox API
+     * @param dropboxHealth the background probe holding the last known Dropbox connection status
      */
-    public FileUploadController(DropboxService dropboxService) {
-        this.dropboxService = dropboxService;
+    public FileUploadController(DropboxHealthIndicator dropboxHealth) {
+        this.dropboxHealth = dropboxHealth;
     }
 
     /**
      * Handles requests to the root endpoint and renders the index page.
-     * Tests the connection to Dropbox and adds the connection status to the model.
+     * Adds the last known Dropbox connection status, as checked in the background, to the model.
      * If the connection fails, an error message is added to the model.
+     * The maximum accepted file size is added to the model for client-side validation,
+     * together with the size of the chunks files are sent in.
      *
      * @param model the Spring MVC model to which attributes are added for rendering in the view
      * @return the name of the view to render (index)
      */
     @GetMapping("/")
     public String index(Model model) {
+        model.addAttribute("maxFileSize", maxFileSize.toBytes());
+        model.addAttribute("maxFileSizeMb", maxFileSize.toMegabytes());
+        model.addAttribute("chunkSize", resumableChunkSize.toBytes());
+
         try {
-            boolean connectionStatus = dropboxService.testConnection();
+            boolean connectionStatus = dropboxHealth.isConnected();
             model.addAttribute("connectionStatus", connectionStatus);
 
             if (!connectionStatus) {
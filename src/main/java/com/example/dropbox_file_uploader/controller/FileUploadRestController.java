@@ -1,20 +1,73 @@
 package com.example.dropbox_file_uploader.controller;
 
 import com.dropbox.core.DbxException;
+import com.example.dropbox_file_uploader.model.ResumableUpload;
+import com.example.dropbox_file_uploader.model.UploadJob;
 import com.example.dropbox_file_uploader.model.dto.ApiResponse;
+import com.example.dropbox_file_uploader.model.dto.FileUploadResult;
+import com.example.dropbox_file_uploader.service.ArchiveRejectedException;
+import com.example.dropbox_file_uploader.service.DropboxExecutor;
+import com.example.dropbox_file_uploader.service.DropboxHealthIndicator;
 import com.example.dropbox_file_uploader.service.DropboxService;
+import com.example.dropbox_file_uploader.service.DropboxUnavailableException;
+import com.example.dropbox_file_uploader.service.FileSignatures;
+import com.example.dropbox_file_uploader.service.ImageRecompressor;
+import com.example.dropbox_file_uploader.service.ResumableUploadService;
+import com.example.dropbox_file_uploader.service.TargetFolderRouter;
+import com.example.dropbox_file_uploader.service.UploadIdempotencyCache;
+import com.example.dropbox_file_uploader.service.UploadIdempotencyCache.Fingerprint;
+import com.example.dropbox_file_uploader.service.UploadMetrics;
+import com.example.dropbox_file_uploader.service.UploadMetrics.RejectionReason;
+import com.example.dropbox_file_uploader.service.UploadOffsetConflictException;
+import com.example.dropbox_file_uploader.service.UploadQueueService;
+import com.example.dropbox_file_uploader.service.UploadRejectedException;
+import com.example.dropbox_file_uploader.service.UploadRoutingException;
+import com.example.dropbox_file_uploader.service.UploadTrace.Phase;
+import com.example.dropbox_file_uploader.service.UploadTracer;
+import io.micrometer.core.instrument.Timer;
 import jakarta.servlet.http.HttpServletRequest;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.core.FileUploadSizeException;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletDiskFileUpload;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartException;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import java.util.zip.ZipException;
 
 /**
  * REST controller responsible for handling file upload operations to Dropbox.
@@ -26,15 +79,87 @@ public class FileUploadRestController {
 
     private static final Logger logger = LoggerFactory.getLogger(FileUploadRestController.class);
 
+    /**
+     * The maximum number of bytes read from a form field of a streamed upload.
+     */
+    private static final int MAX_FORM_FIELD_BYTES = 1024;
+
+    /**
+     * The number of seconds a client is asked to wait when all upload slots are busy.
+     */
+    private static final String BUSY_RETRY_AFTER_SECONDS = "5";
+
+    /**
+     * The request parameter and header naming the upload route, see {@link TargetFolderRouter}.
+     */
+    private static final String ROUTE_PARAMETER = "route";
+    public static final String ROUTE_HEADER = "X-Upload-Route";
+
+    /**
+     * The request parameter and header carrying the client id used by route templates.
+     */
+    private static final String CLIENT_PARAMETER = "client";
+    public static final String CLIENT_HEADER = "X-Client-Id";
+
+    /**
+     * Headers and content type of the resumable upload protocol, following tus 1.0.
+     */
+    private static final String TUS_RESUMABLE_HEADER = "Tus-Resumable";
+    private static final String TUS_VERSION = "1.0.0";
+    private static final String UPLOAD_LENGTH_HEADER = "Upload-Length";
+    private static final String UPLOAD_OFFSET_HEADER = "Upload-Offset";
+    private static final String UPLOAD_METADATA_HEADER = "Upload-Metadata";
+    private static final String OFFSET_OCTET_STREAM = "application/offset+octet-stream";
+
     private final DropboxService dropboxService;
+    private final UploadQueueService uploadQueueService;
+    private final DropboxHealthIndicator dropboxHealth;
+    private final DropboxExecutor dropboxExecutor;
+    private final UploadMetrics uploadMetrics;
+    private final TargetFolderRouter targetFolderRouter;
+    private final ImageRecompressor imageRecompressor;
+    private final ResumableUploadService resumableUploadService;
+    private final UploadTracer uploadTracer;
+    private final UploadIdempotencyCache idempotencyCache;
+
+    @Value("${spring.servlet.multipart.max-file-size:10MB}")
+    private DataSize maxFileSize;
+
+    @Value("${upload.resumable.max-chunk-size:32MB}")
+    private DataSize maxChunkSize;
+
+    @Value("${spring.servlet.multipart.max-request-size:10MB}")
+    private DataSize maxRequestSize;
 
     /**
-     * Constructs a new FileUploadRestController with the specified DropboxService.
+     * Constructs a new FileUploadRestController with the specified services.
      *
-     * @param dropboxService The service used for Dropbox operations
+     * @param dropboxService     The service used for Dropbox operations
+     * @param uploadQueueService The queue used for asynchronous uploads
+     * @param dropboxHealth      The background probe holding the last known Dropbox connection status
+     * @param dropboxExecutor    The executor the transfers to Dropbox run on, off the servlet container threads
+     * @param uploadMetrics      The metrics of the upload hot path
+     * @param targetFolderRouter The router choosing the Dropbox folder of each upload
+     * @param imageRecompressor  The stage shrinking uploaded images before they are sent to Dropbox
+     * @param resumableUploadService The service keeping the state of resumable uploads
+     * @param uploadTracer       The tracer the phases of uploads are recorded in
+     * @param idempotencyCache   The cache running each upload sent with an Idempotency-Key header only once
      */
-    public FileUploadRestController(DropboxService dropboxService) {
+    public FileUploadRestController(DropboxService dropboxService, UploadQueueService uploadQueueService,
+                                    DropboxHealthIndicator dropboxHealth, DropboxExecutor dropboxExecutor,
+                                    UploadMetrics uploadMetrics, TargetFolderRouter targetFolderRouter,
+                                    ImageRecompressor imageRecompressor, ResumableUploadService resumableUploadService,
+                                    UploadTracer uploadTracer, UploadIdempotencyCache idempotencyCache) {
         this.dropboxService = dropboxService;
+        this.uploadQueueService = uploadQueueService;
+        this.dropboxHealth = dropboxHealth;
+        this.dropboxExecutor = dropboxExecutor;
+        this.uploadMetrics = uploadMetrics;
+        this.targetFolderRouter = targetFolderRouter;
+        this.imageRecompressor = imageRecompressor;
+        this.resumableUploadService = resumableUploadService;
+        this.uploadTracer = uploadTracer;
+        this.idempotencyCache = idempotencyCache;
     }
 
     /**
@@ -43,47 +168,106 @@ public class FileUploadRestController {
      * custom filename from the multipart request, validates the file, and uploads it to Dropbox.
      * <p>
      * The method supports:
-     * - File size validation (max 10MB)
-     * - File type validation (images and PDFs only)
+     * - File size validation (configured by spring.servlet.multipart.max-file-size)
+     * - File type validation (images and PDFs only), checked against the first bytes of the file as it is received
      * - Custom filename specification
+     * - Target folder routing (parameters route and client, or headers X-Upload-Route and X-Client-Id)
+     * - Asynchronous mode (parameter async=true), where the file is queued and a job id is returned
+     * - Recompression of large images, when enabled (upload.image.recompression.enabled)
+     * - Idempotent retries (header Idempotency-Key), which are answered with the response of the first upload
      * - Robust error handling for various failure scenarios
+     * <p>
+     * The transfer to Dropbox runs on the Dropbox executor, so the container thread is released while it is in progress.
      *
      * @param request The HTTP request containing the multipart file data and optional parameters
-     * @return A ResponseEntity containing an ApiResponse with the upload result:
+     * @return A future of a ResponseEntity containing an ApiResponse with the upload result:
      * - 200 OK with success message and file path if upload is successful
-     * - 400 Bad Request if file is missing, empty, or invalid
+     * - 202 Accepted with the job id if the file was queued in asynchronous mode
+     * - 400 Bad Request if file is missing, empty, or invalid, the upload route is unknown, or the
+     * Idempotency-Key is malformed
+     * - 413 Payload Too Large if the file exceeds the maximum size while it is received
+     * - 422 Unprocessable Entity if the Idempotency-Key was already used for a different upload
      * - 503 Service Unavailable if Dropbox service is unavailable
      * - 500 Internal Server Error for other unexpected errors
      */
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = "application/json;charset=UTF-8")
-    public ResponseEntity<ApiResponse> uploadFile(
+    public CompletableFuture<ResponseEntity<ApiResponse>> uploadFile(
             HttpServletRequest request) {
 
         logger.debug("Content-Type: {}", request.getContentType());
 
+        String idempotencyKey = request.getHeader(UploadIdempotencyCache.KEY_HEADER);
+        if (idempotencyKey != null && !UploadIdempotencyCache.isValidKey(idempotencyKey)) {
+            return CompletableFuture.completedFuture(invalidIdempotencyKey());
+        }
+
+        UploadRequest uploadRequest = readUploadRequest(request);
+        MultipartFile file = uploadRequest.file();
+        String cyrillicFileName = uploadRequest.fileName();
+        boolean async = uploadRequest.async();
+
+        if (file == null) {
+            logger.error("File is null - not properly sent from client");
+            uploadMetrics.rejected(RejectionReason.MISSING_FILE);
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(ApiResponse.error("Файлът не е изпратен правилно. Моля, проверете заявката.")));
+        }
+
+        logger.debug("Uploading file: name={}, size={}, contentType={}",
+                file.getOriginalFilename(), file.getSize(), file.getContentType());
+
+        String validationError = validateFile(file);
+        if (validationError != null) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(ApiResponse.error(validationError)));
+        }
+
+        if (cyrillicFileName != null && !cyrillicFileName.isEmpty()) {
+            logger.debug("Custom filename provided: {}", cyrillicFileName);
+        }
+
+        String folder;
+        try {
+            folder = resolveFolder(request, uploadRequest.route(), uploadRequest.client(), file.getContentType());
+        } catch (UploadRoutingException e) {
+            return CompletableFuture.completedFuture(routingError(e));
+        }
+        String routingKey = routingKey(request, uploadRequest.route(), uploadRequest.client());
+
+        MultipartFile uploadedFile = file;
+        String customFileName = cyrillicFileName;
+        Fingerprint fingerprint = fingerprint(request, file, customFileName, async, folder, routingKey);
+        if (async) {
+            return idempotent(idempotencyKey, fingerprint, () -> CompletableFuture.completedFuture(
+                    enqueueUpload(uploadedFile, customFileName, folder, routingKey)));
+        }
+
+        return idempotent(idempotencyKey, fingerprint, () -> transferAsync("single", () -> upload(uploadedFile, customFileName, folder, routingKey)));
+    }
+
+    /**
+     * Extracts the file, the optional custom filename, the routing parameters and the asynchronous flag
+     * from a multipart request. The file is taken from the "file" part, or from the first file part if there is
+     * none with that name; the filename is taken from the "filename" parameter, or from the first other
+     * non-empty parameter that has no other meaning.
+     *
+     * @param request The HTTP request containing the multipart file data and optional parameters
+     * @return The parts of the upload request; the file is null if the request contains no file
+     * @throws MultipartException If the body exceeds a size limit or contains a file whose content was rejected
+     */
+    static UploadRequest readUploadRequest(HttpServletRequest request) {
         MultipartFile file = null;
         String cyrillicFileName = null;
+        boolean async = false;
+        String route = null;
+        String client = null;
 
         try {
             if (request instanceof MultipartHttpServletRequest) {
                 MultipartHttpServletRequest multipartRequest = (MultipartHttpServletRequest) request;
 
                 Map<String, String[]> paramMap = multipartRequest.getParameterMap();
-                StringBuilder paramLog = new StringBuilder("All parameters: ");
-                for (Map.Entry<String, String[]> entry : paramMap.entrySet()) {
-                    paramLog.append(entry.getKey()).append("=");
-                    for (String value : entry.getValue()) {
-                        paramLog.append(value).append(", ");
-                    }
-                }
-                logger.debug(paramLog.toString());
-
                 Map<String, MultipartFile> fileMap = multipartRequest.getFileMap();
-                StringBuilder fileLog = new StringBuilder("All files: ");
-                for (Map.Entry<String, MultipartFile> entry : fileMap.entrySet()) {
-                    fileLog.append(entry.getKey()).append("=").append(entry.getValue().getOriginalFilename()).append(", ");
-                }
-                logger.debug(fileLog.toString());
+                logger.debug("Multipart parameters: {}, file parts: {}", paramMap.keySet(), fileMap.keySet());
 
                 file = multipartRequest.getFile("file");
                 if (file == null) {
@@ -101,53 +285,133 @@ public class FileUploadRestController {
                 if (cyrillicFileName == null || cyrillicFileName.isEmpty()) {
                     for (String key : paramMap.keySet()) {
                         String value = multipartRequest.getParameter(key);
-                        if (value != null && !value.isEmpty() && !key.equals("file")) {
+                        if (value != null && !value.isEmpty() && !key.equals("file") && !key.equals("async")
+                                && !key.equals(ROUTE_PARAMETER) && !key.equals(CLIENT_PARAMETER)) {
                             cyrillicFileName = value;
                             logger.debug("Found filename with parameter name: {}", key);
                             break;
                         }
                     }
                 }
+
+                async = Boolean.parseBoolean(multipartRequest.getParameter("async"));
+                route = multipartRequest.getParameter(ROUTE_PARAMETER);
+                client = multipartRequest.getParameter(CLIENT_PARAMETER);
             } else {
                 logger.error("Request is not a MultipartHttpServletRequest");
             }
+        } catch (MultipartException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error processing multipart request", e);
         }
 
-        if (file == null) {
-            logger.error("File is null - not properly sent from client");
-            return ResponseEntity.badRequest().body(ApiResponse.error("Файлът не е изпратен правилно. Моля, проверете заявката."));
+        return new UploadRequest(file, cyrillicFileName, async, route, client);
+    }
+
+    /**
+     * Reports the connection status to the Dropbox service.
+     * The status comes from the last background check, so the endpoint does not wait for Dropbox.
+     *
+     * @return A ResponseEntity containing an ApiResponse with the connection test result:
+     * - 200 OK with success message if connection is successful
+     * - 503 Service Unavailable if connection fails
+     */
+    @GetMapping("/test-connection")
+    public ResponseEntity<ApiResponse> testConnection() {
+        boolean connected = dropboxHealth.isConnected();
+
+        if (connected) {
+            return ResponseEntity.ok(ApiResponse.success("Връзката с Dropbox е успешна", null));
+        } else {
+            return ResponseEntity.status(503).body(ApiResponse.error("Грешка при връзка с Dropbox"));
         }
+    }
 
-        logger.debug("Uploading file: name={}, size={}, contentType={}",
-                file.getOriginalFilename(), file.getSize(), file.getContentType());
+    /**
+     * Alternative endpoint for file uploads that uses Spring's annotation-based parameter binding.
+     * This provides a more straightforward implementation compared to the primary upload endpoint,
+     * but with the same validation and functionality.
+     *
+     * @param file             The multipart file to be uploaded
+     * @param cyrillicFileName Optional custom filename to use when storing the file (can contain Cyrillic characters)
+     * @param async            Whether to queue the file and return immediately instead of waiting for Dropbox
+     * @param route            Optional name of the upload route choosing the target folder
+     * @param client           Optional client id used by the route template
+     * @param request          The HTTP request, whose headers may name the route and client instead, and may carry
+     *                         an Idempotency-Key making retries return the response of the first upload
+     * @return A future of a ResponseEntity containing an ApiResponse with the upload result:
+     * - 200 OK with success message and file path if upload is successful
+     * - 202 Accepted with the job id if the file was queued in asynchronous mode
+     * - 400 Bad Request if file is missing, empty, or invalid, the upload route is unknown, or the
+     * Idempotency-Key is malformed
+     * - 413 Payload Too Large if the file exceeds the maximum size while it is received
+     * - 422 Unprocessable Entity if the Idempotency-Key was already used for a different upload
+     * - 503 Service Unavailable if Dropbox service is unavailable
+     * - 500 Internal Server Error for other unexpected errors
+     */
+    @PostMapping(value = "/api/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = "application/json;charset=UTF-8")
+    public CompletableFuture<ResponseEntity<ApiResponse>> uploadFileAlternative(
+            @RequestPart(value = "file") MultipartFile file,
+            @RequestParam(value = "filename", required = false) String cyrillicFileName,
+            @RequestParam(value = "async", defaultValue = "false") boolean async,
+            @RequestParam(value = ROUTE_PARAMETER, required = false) String route,
+            @RequestParam(value = CLIENT_PARAMETER, required = false) String client,
+            HttpServletRequest request) {
 
-        if (file.isEmpty()) {
-            return ResponseEntity.badRequest().body(ApiResponse.error("Моля, изберете файл за качване"));
+        logger.debug("Alternative upload endpoint called");
+        logger.debug("File: {}, Filename: {}", file != null ? file.getOriginalFilename() : "null", cyrillicFileName);
+
+        String idempotencyKey = request.getHeader(UploadIdempotencyCache.KEY_HEADER);
+        if (idempotencyKey != null && !UploadIdempotencyCache.isValidKey(idempotencyKey)) {
+            return CompletableFuture.completedFuture(invalidIdempotencyKey());
         }
 
-        String contentType = file.getContentType();
-        if (contentType == null || !(contentType.startsWith("image/") || contentType.equals("application/pdf"))) {
-            return ResponseEntity.badRequest().body(ApiResponse.error("Неподдържан тип файл. Моля, изберете изображение или PDF."));
+        if (file == null) {
+            uploadMetrics.rejected(RejectionReason.MISSING_FILE);
+        }
+        String validationError = file == null ? "Моля, изберете файл за качване" : validateFile(file);
+        if (validationError != null) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(ApiResponse.error(validationError)));
         }
 
-        if (file.getSize() > 10 * 1024 * 1024) {
-            return ResponseEntity.badRequest().body(ApiResponse.error("Файлът е твърде голям (максимум 10MB)"));
+        String folder;
+        try {
+            folder = resolveFolder(request, route, client, file.getContentType());
+        } catch (UploadRoutingException e) {
+            return CompletableFuture.completedFuture(routingError(e));
         }
+        String routingKey = routingKey(request, route, client);
+        Fingerprint fingerprint = fingerprint(request, file, cyrillicFileName, async, folder, routingKey);
 
-        if (cyrillicFileName != null && !cyrillicFileName.isEmpty()) {
-            logger.debug("Custom filename provided: {}", cyrillicFileName);
+        if (async) {
+            return idempotent(idempotencyKey, fingerprint, () -> CompletableFuture.completedFuture(
+                    enqueueUpload(file, cyrillicFileName, folder, routingKey)));
         }
 
+        return idempotent(idempotencyKey, fingerprint, () -> transferAsync("single", () -> upload(file, cyrillicFileName, folder, routingKey)));
+    }
+
+    /**
+     * Uploads a validated file to Dropbox and builds the response describing the outcome.
+     * Images are recompressed first, if enabled.
+     *
+     * @param file             The file to upload
+     * @param cyrillicFileName Optional custom filename to use when storing the file (can be null)
+     * @param folder           The Dropbox folder the file is uploaded to
+     * @param routingKey       The client id or route the Dropbox account is chosen by (can be null)
+     * @return A ResponseEntity containing an ApiResponse with the upload result
+     */
+    private ResponseEntity<ApiResponse> upload(MultipartFile file, String cyrillicFileName, String folder, String routingKey) {
         try {
-            String uploadedPath = dropboxService.uploadFile(file, cyrillicFileName);
+            long recompressStart = System.nanoTime();
+            MultipartFile processedFile = imageRecompressor.recompress(file);
+            uploadTracer.record(Phase.RECOMPRESS, recompressStart);
+            String uploadedPath = dropboxService.uploadFile(processedFile, cyrillicFileName, folder, routingKey);
             logger.info("File uploaded successfully to: {}", uploadedPath);
             return ResponseEntity.ok(ApiResponse.success("Файлът е качен успешно!", uploadedPath));
         } catch (DbxException e) {
-            logger.error("Dropbox API error: {}", e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
-                    .body(ApiResponse.error("Грешка при качване на файла в Dropbox: " + e.getMessage()));
+            return dropboxError(e, "Грешка при качване на файла в Dropbox: ");
         } catch (IOException e) {
             logger.error("IO error: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -160,73 +424,842 @@ public class FileUploadRestController {
     }
 
     /**
-     * Tests the connection to the Dropbox service.
+     * Uploads many files sent in one multipart request and commits them to Dropbox together.
+     * Every file is validated on its own; valid files are uploaded concurrently and committed with
+     * a single batch call, and the response carries the result of each file in the order received.
+     * A file whose content does not match its declared type is detected while the request is received and rejects
+     * the whole request, since the rest of the body is not read.
      *
-     * @return A ResponseEntity containing an ApiResponse with the connection test result:
-     * - 200 OK with success message if connection is successful
-     * - 503 Service Unavailable if connection fails
+     * @param files   The multipart files to be uploaded, all sent under the "files" part name
+     * @param route   Optional name of the upload route choosing the target folder of every file
+     * @param client  Optional client id used by the route template
+     * @param request The HTTP request, whose headers may name the route and client instead
+     * @return A future of a ResponseEntity containing an ApiResponse with the per-file results:
+     * - 200 OK with the results of all files; success is true only if every file was uploaded
+     * - 400 Bad Request if no files were sent, or a file is not of its declared type
+     * - 413 Payload Too Large if a file exceeds the maximum size while it is received
+     * - 503 Service Unavailable if Dropbox service is unavailable
+     * - 500 Internal Server Error for other unexpected errors
      */
-    @GetMapping("/test-connection")
-    public ResponseEntity<ApiResponse> testConnection() {
-        boolean connected = dropboxService.testConnection();
+    @PostMapping(value = "/api/upload/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = "application/json;charset=UTF-8")
+    public CompletableFuture<ResponseEntity<ApiResponse>> uploadFiles(@RequestPart(value = "files", required = false) List<MultipartFile> files,
+                                                                      @RequestParam(value = ROUTE_PARAMETER, required = false) String route,
+                                                                      @RequestParam(value = CLIENT_PARAMETER, required = false) String client,
+                                                                      HttpServletRequest request) {
+        if (files == null || files.isEmpty()) {
+            uploadMetrics.rejected(RejectionReason.MISSING_FILE);
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(ApiResponse.error("Моля, изберете файлове за качване")));
+        }
 
-        if (connected) {
-            return ResponseEntity.ok(ApiResponse.success("Връзката с Dropbox е успешна", null));
-        } else {
-            return ResponseEntity.status(503).body(ApiResponse.error("Грешка при връзка с Dropbox"));
+        logger.debug("Batch upload of {} files", files.size());
+
+        FileUploadResult[] results = new FileUploadResult[files.size()];
+        List<MultipartFile> validFiles = new ArrayList<>(files.size());
+        List<String> folders = new ArrayList<>(files.size());
+        List<Integer> validIndexes = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            MultipartFile file = files.get(i);
+            String validationError = validateFile(file);
+            if (validationError != null) {
+                results[i] = FileUploadResult.error(file.getOriginalFilename(), validationError);
+                continue;
+            }
+            try {
+                folders.add(resolveFolder(request, route, client, file.getContentType()));
+            } catch (UploadRoutingException e) {
+                return CompletableFuture.completedFuture(routingError(e));
+            }
+            validFiles.add(file);
+            validIndexes.add(i);
         }
+
+        String routingKey = routingKey(request, route, client);
+        return transferAsync("batch", () -> uploadBatch(files, results, validFiles, folders, validIndexes, routingKey));
     }
 
     /**
-     * Alternative endpoint for file uploads that uses Spring's annotation-based parameter binding.
-     * This provides a more straightforward implementation compared to the primary upload endpoint,
-     * but with the same validation and functionality.
+     * Uploads the valid files of a batch to Dropbox and builds the response with the result of every file.
+     * Images of the batch are recompressed in parallel first, if enabled.
      *
-     * @param file             The multipart file to be uploaded
-     * @param cyrillicFileName Optional custom filename to use when storing the file (can contain Cyrillic characters)
-     * @return A ResponseEntity containing an ApiResponse with the upload result:
+     * @param files        All files of the batch, in the order received
+     * @param results      The results of the batch, already holding the validation errors of invalid files
+     * @param validFiles   The files that passed validation
+     * @param folders      The Dropbox folder of each valid file
+     * @param validIndexes The position of each valid file within the batch
+     * @param routingKey   The client id or route the Dropbox account is chosen by (can be null)
+     * @return A ResponseEntity containing an ApiResponse with the per-file results
+     */
+    private ResponseEntity<ApiResponse> uploadBatch(List<MultipartFile> files, FileUploadResult[] results,
+                                                    List<MultipartFile> validFiles, List<String> folders,
+                                                    List<Integer> validIndexes, String routingKey) {
+        try {
+            if (!validFiles.isEmpty()) {
+                long recompressStart = System.nanoTime();
+                List<MultipartFile> processedFiles = validFiles.stream()
+                        .map(imageRecompressor::recompressAsync)
+                        .toList().stream()
+                        .map(CompletableFuture::join)
+                        .toList();
+                uploadTracer.record(Phase.RECOMPRESS, recompressStart);
+                List<FileUploadResult> uploaded = dropboxService.uploadFiles(processedFiles, folders, routingKey);
+                for (int i = 0; i < uploaded.size(); i++) {
+                    results[validIndexes.get(i)] = uploaded.get(i);
+                }
+            }
+
+            long succeeded = Arrays.stream(results).filter(FileUploadResult::isSuccess).count();
+            logger.info("Batch upload: {} of {} files uploaded", succeeded, files.size());
+            return ResponseEntity.ok(ApiResponse.batch(
+                    "Качени файлове: " + succeeded + " от " + files.size(), Arrays.asList(results)));
+        } catch (DbxException e) {
+            return dropboxError(e, "Грешка при качване на файловете в Dropbox: ");
+        } catch (Exception e) {
+            logger.error("Unexpected error: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Неочаквана грешка: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Streams a file straight from the multipart request body into Dropbox, without spooling it.
+     * The multipart body is parsed incrementally and the file part is forwarded chunk by chunk as it arrives,
+     * so memory per request stays bounded and nothing is written to local disk.
+     * <p>
+     * Because the body is read in order, an optional "filename" form field is only honoured if it is sent
+     * before the file part; it can also be given as a "filename" query parameter. Parts after the first file are ignored.
+     * The upload route and client id are taken from the query string or the X-Upload-Route and X-Client-Id headers.
+     * The body is read and forwarded on the Dropbox executor, so the container thread is released right away.
+     * The first bytes of the file are checked against its declared content type before anything is sent to Dropbox.
+     *
+     * @param request The HTTP request whose body is the multipart upload
+     * @return A future of a ResponseEntity containing an ApiResponse with the upload result:
      * - 200 OK with success message and file path if upload is successful
-     * - 400 Bad Request if file is missing, empty, or invalid
+     * - 400 Bad Request if the file is missing, empty, too large, of an unsupported type or not of its declared type,
+     * or the upload route is unknown
      * - 503 Service Unavailable if Dropbox service is unavailable
      * - 500 Internal Server Error for other unexpected errors
      */
-    @PostMapping(value = "/api/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = "application/json;charset=UTF-8")
-    public ResponseEntity<ApiResponse> uploadFileAlternative(
-            @RequestPart(value = "file") MultipartFile file,
-            @RequestParam(value = "filename", required = false) String cyrillicFileName) {
+    @PostMapping(value = "/api/upload/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = "application/json;charset=UTF-8")
+    public CompletableFuture<ResponseEntity<ApiResponse>> uploadFileStreaming(HttpServletRequest request) {
+        // Request parameters must not be touched here, reading them would make the container parse the whole body
+        String fileName = queryParameter(request, "filename");
+        String route = queryParameter(request, ROUTE_PARAMETER);
+        String client = queryParameter(request, CLIENT_PARAMETER);
+        return transferAsync("stream", () -> uploadStream(request, fileName, route, client));
+    }
 
-        logger.debug("Alternative upload endpoint called");
-        logger.debug("File: {}, Filename: {}", file != null ? file.getOriginalFilename() : "null", cyrillicFileName);
+    /**
+     * Parses a streamed multipart request and forwards its first file part to Dropbox.
+     *
+     * @param request          The HTTP request whose body is the multipart upload
+     * @param cyrillicFileName Optional custom filename given as a query parameter (can be null)
+     * @param route            Optional upload route given as a query parameter (can be null)
+     * @param client           Optional client id given as a query parameter (can be null)
+     * @return A ResponseEntity containing an ApiResponse with the upload result
+     */
+    private ResponseEntity<ApiResponse> uploadStream(HttpServletRequest request, String cyrillicFileName,
+                                                     String route, String client) {
+        JakartaServletDiskFileUpload upload = new JakartaServletDiskFileUpload();
+        upload.setHeaderCharset(StandardCharsets.UTF_8);
+        upload.setFileSizeMax(maxFileSize.toBytes());
+
+        try {
+            FileItemInputIterator items = upload.getItemIterator(request);
+            while (items.hasNext()) {
+                FileItemInput item = items.next();
+
+                if (item.isFormField()) {
+                    if ("filename".equals(item.getFieldName()) && (cyrillicFileName == null || cyrillicFileName.isEmpty())) {
+                        try (InputStream in = item.getInputStream()) {
+                            cyrillicFileName = new String(in.readNBytes(MAX_FORM_FIELD_BYTES), StandardCharsets.UTF_8);
+                        }
+                    }
+                    continue;
+                }
+
+                logger.debug("Streaming file: name={}, contentType={}", item.getName(), item.getContentType());
+
+                if (!isSupportedContentType(item.getContentType())) {
+                    uploadMetrics.rejected(RejectionReason.CONTENT_TYPE);
+                    return ResponseEntity.badRequest().body(ApiResponse.error("Неподдържан тип файл. Моля, изберете изображение или PDF."));
+                }
 
-        if (file == null || file.isEmpty()) {
+                String folder = resolveFolder(request, route, client, item.getContentType());
+                try (InputStream in = item.getInputStream()) {
+                    byte[] head = in.readNBytes(FileSignatures.SNIFF_LENGTH);
+                    if (head.length > 0 && !FileSignatures.matches(item.getContentType(), head, head.length)) {
+                        return rejectedContentError(new UploadRejectedException(item.getName(), item.getContentType()));
+                    }
+                    InputStream content = new SequenceInputStream(new ByteArrayInputStream(head), in);
+                    String uploadedPath = dropboxService.uploadStream(content, item.getName(), cyrillicFileName, folder,
+                            routingKey(request, route, client));
+                    logger.info("File streamed successfully to: {}", uploadedPath);
+                    return ResponseEntity.ok(ApiResponse.success("Файлът е качен успешно!", uploadedPath));
+                }
+            }
+
+            logger.error("No file part found in streamed request");
+            uploadMetrics.rejected(RejectionReason.MISSING_FILE);
+            return ResponseEntity.badRequest().body(ApiResponse.error("Файлът не е изпратен правилно. Моля, проверете заявката."));
+        } catch (UploadRoutingException e) {
+            return routingError(e);
+        } catch (IllegalArgumentException e) {
+            uploadMetrics.rejected(RejectionReason.EMPTY_FILE);
             return ResponseEntity.badRequest().body(ApiResponse.error("Моля, изберете файл за качване"));
+        } catch (DbxException e) {
+            return dropboxError(e, "Грешка при качване на файла в Dropbox: ");
+        } catch (IOException e) {
+            if (NestedExceptionUtils.getMostSpecificCause(e) instanceof FileUploadSizeException) {
+                uploadMetrics.rejected(RejectionReason.SIZE);
+                return ResponseEntity.badRequest().body(ApiResponse.error(fileTooLargeMessage()));
+            }
+            logger.error("IO error: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Грешка при четене на файла: " + e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Unexpected error: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Неочаквана грешка: " + e.getMessage()));
         }
+    }
 
-        String contentType = file.getContentType();
-        if (contentType == null || !(contentType.startsWith("image/") || contentType.equals("application/pdf"))) {
-            return ResponseEntity.badRequest().body(ApiResponse.error("Неподдържан тип файл. Моля, изберете изображение или PDF."));
-        }
+    /**
+     * Uploads the images and PDF files of a ZIP archive, streamed from the multipart request body, to Dropbox.
+     * The archive is read entry by entry as it arrives, without being spooled or extracted to disk, and its files are
+     * uploaded concurrently and committed together. The folders of the archive are kept under the target folder of
+     * each file. The type of each file is detected from its content; other files, and files whose path would leave
+     * the target folder, are reported in the results without failing the rest of the archive.
+     * <p>
+     * The first file part of the request is read as the archive, and parts after it are ignored.
+     * The upload route and client id are taken from the query string or the X-Upload-Route and X-Client-Id headers.
+     *
+     * @param request The HTTP request whose body is the multipart upload
+     * @return A future of a ResponseEntity containing an ApiResponse with the per-file results:
+     * - 200 OK with the results of all files of the archive; success is true only if every file was uploaded
+     * - 400 Bad Request if no archive was sent, the archive is not a valid ZIP archive, holds no files or exceeds
+     * the limits of archive uploads, or the upload route is unknown
+     * - 503 Service Unavailable if Dropbox service is unavailable
+     * - 500 Internal Server Error for other unexpected errors
+     */
+    @PostMapping(value = "/api/upload/zip", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = "application/json;charset=UTF-8")
+    public CompletableFuture<ResponseEntity<ApiResponse>> uploadArchive(HttpServletRequest request) {
+        // Request parameters must not be touched here, reading them would make the container parse the whole body
+        String route = queryParameter(request, ROUTE_PARAMETER);
+        String client = queryParameter(request, CLIENT_PARAMETER);
+        return transferAsync("zip", () -> uploadArchive(request, route, client));
+    }
 
-        if (file.getSize() > 10 * 1024 * 1024) {
-            return ResponseEntity.badRequest().body(ApiResponse.error("Файлът е твърде голям (максимум 10MB)"));
-        }
+    /**
+     * Parses a streamed multipart request and uploads the files of its first file part, read as a ZIP archive.
+     *
+     * @param request The HTTP request whose body is the multipart upload
+     * @param route   Optional upload route given as a query parameter (can be null)
+     * @param client  Optional client id given as a query parameter (can be null)
+     * @return A ResponseEntity containing an ApiResponse with the per-file results
+     */
+    private ResponseEntity<ApiResponse> uploadArchive(HttpServletRequest request, String route, String client) {
+        JakartaServletDiskFileUpload upload = new JakartaServletDiskFileUpload();
+        upload.setHeaderCharset(StandardCharsets.UTF_8);
+        upload.setFileSizeMax(maxRequestSize.toBytes());
 
         try {
-            String uploadedPath = dropboxService.uploadFile(file, cyrillicFileName);
-            logger.info("File uploaded successfully to: {}", uploadedPath);
-            return ResponseEntity.ok(ApiResponse.success("Файлът е качен успешно!", uploadedPath));
+            // Fails early for unknown routes, before any of the archive is read
+            resolveFolder(request, route, client, null);
+
+            FileItemInputIterator items = upload.getItemIterator(request);
+            while (items.hasNext()) {
+                FileItemInput item = items.next();
+                if (item.isFormField()) continue;
+
+                logger.debug("Streaming archive: name={}, contentType={}", item.getName(), item.getContentType());
+                List<FileUploadResult> results;
+                try (InputStream in = item.getInputStream()) {
+                    results = dropboxService.uploadArchive(in,
+                            contentType -> resolveFolder(request, route, client, contentType),
+                            routingKey(request, route, client));
+                }
+                if (results.isEmpty()) {
+                    uploadMetrics.rejected(RejectionReason.EMPTY_FILE);
+                    return ResponseEntity.badRequest().body(ApiResponse.error("Архивът не съдържа файлове или не е ZIP архив."));
+                }
+
+                long succeeded = results.stream().filter(FileUploadResult::isSuccess).count();
+                logger.info("Archive upload: {} of {} files uploaded", succeeded, results.size());
+                return ResponseEntity.ok(ApiResponse.batch("Качени файлове: " + succeeded + " от " + results.size(), results));
+            }
+
+            logger.error("No archive found in streamed request");
+            uploadMetrics.rejected(RejectionReason.MISSING_FILE);
+            return ResponseEntity.badRequest().body(ApiResponse.error("Моля, изберете ZIP архив за качване"));
+        } catch (UploadRoutingException e) {
+            return routingError(e);
         } catch (DbxException e) {
-            logger.error("Dropbox API error: {}", e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
-                    .body(ApiResponse.error("Грешка при качване на файла в Dropbox: " + e.getMessage()));
+            return dropboxError(e, "Грешка при качване на файловете в Dropbox: ");
+        } catch (ArchiveRejectedException e) {
+            logger.warn("Archive rejected: {}", e.getMessage());
+            uploadMetrics.rejected(RejectionReason.SIZE);
+            return ResponseEntity.badRequest().body(ApiResponse.error("Архивът надвишава ограниченията за качване: " + e.getMessage()));
+        } catch (ZipException e) {
+            logger.warn("Invalid archive: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(ApiResponse.error("Невалиден ZIP архив: " + e.getMessage()));
         } catch (IOException e) {
+            if (NestedExceptionUtils.getMostSpecificCause(e) instanceof FileUploadSizeException) {
+                uploadMetrics.rejected(RejectionReason.SIZE);
+                return ResponseEntity.badRequest().body(ApiResponse.error(
+                        "Архивът е твърде голям (максимум " + maxRequestSize.toMegabytes() + "MB)"));
+            }
             logger.error("IO error: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(ApiResponse.error("Грешка при четене на файла: " + e.getMessage()));
+                    .body(ApiResponse.error("Грешка при четене на архива: " + e.getMessage()));
         } catch (Exception e) {
             logger.error("Unexpected error: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(ApiResponse.error("Неочаквана грешка: " + e.getMessage()));
         }
     }
+
+    /**
+     * Creates a resumable upload, to which the file is then sent in chunks with PATCH requests.
+     * The protocol follows tus 1.0: the total size of the file is given in the Upload-Length header, and the
+     * file name, content type and optional custom name as base64 values of the keys filename, filetype and
+     * customname in the Upload-Metadata header. The upload route and client id are taken from the query string
+     * or the X-Upload-Route and X-Client-Id headers.
+     * <p>
+     * Resumable uploads are sent to Dropbox chunk by chunk as they arrive, so images are not recompressed.
+     *
+     * @param length   The total size of the file in bytes
+     * @param metadata The tus metadata of the file
+     * @param route    Optional name of the upload route choosing the target folder
+     * @param client   Optional client id used by the route template
+     * @param request  The HTTP request, whose headers may name the route and client instead
+     * @return A future of a ResponseEntity containing an ApiResponse with the id of the upload:
+     * - 201 Created with the URL of the upload in the Location header
+     * - 400 Bad Request if the file is empty, too large, unnamed or of an unsupported type, or the upload route is unknown
+     * - 503 Service Unavailable if Dropbox service is unavailable
+     */
+    @PostMapping(value = "/api/upload/resumable", produces = "application/json;charset=UTF-8")
+    public CompletableFuture<ResponseEntity<ApiResponse>> createResumableUpload(
+            @RequestHeader(UPLOAD_LENGTH_HEADER) long length,
+            @RequestHeader(value = UPLOAD_METADATA_HEADER, required = false) String metadata,
+            @RequestParam(value = ROUTE_PARAMETER, required = false) String route,
+            @RequestParam(value = CLIENT_PARAMETER, required = false) String client,
+            HttpServletRequest request) {
+        Map<String, String> fileMetadata = parseUploadMetadata(metadata);
+        String fileName = fileMetadata.get("filename");
+        String contentType = fileMetadata.get("filetype");
+
+        String validationError = null;
+        if (length <= 0 || fileName == null || fileName.isBlank()) {
+            uploadMetrics.rejected(length <= 0 ? RejectionReason.EMPTY_FILE : RejectionReason.MISSING_FILE);
+            validationError = "Моля, изберете файл за качване";
+        } else if (!isSupportedContentType(contentType)) {
+            uploadMetrics.rejected(RejectionReason.CONTENT_TYPE);
+            validationError = "Неподдържан тип файл. Моля, изберете изображение или PDF.";
+        } else if (length > maxFileSize.toBytes()) {
+            uploadMetrics.rejected(RejectionReason.SIZE);
+            validationError = fileTooLargeMessage();
+        }
+        if (validationError != null) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                    .header(TUS_RESUMABLE_HEADER, TUS_VERSION)
+                    .body(ApiResponse.error(validationError)));
+        }
+
+        String folder;
+        try {
+            folder = resolveFolder(request, route, client, contentType);
+        } catch (UploadRoutingException e) {
+            return CompletableFuture.completedFuture(routingError(e));
+        }
+
+        return transferAsync("resumable_create", () -> {
+            try {
+                ResumableUpload upload = resumableUploadService.create(length, fileName, fileMetadata.get("customname"),
+                        contentType, folder, routingKey(request, route, client));
+                return ResponseEntity.created(URI.create("/api/upload/resumable/" + upload.getId()))
+                        .header(TUS_RESUMABLE_HEADER, TUS_VERSION)
+                        .header(UPLOAD_OFFSET_HEADER, "0")
+                        .body(ApiResponse.accepted("Качването е започнато", upload.getId()));
+            } catch (DbxException e) {
+                return dropboxError(e, "Грешка при започване на качването в Dropbox: ");
+            } catch (IOException e) {
+                logger.error("Failed to create resumable upload: {}", e.getMessage(), e);
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(ApiResponse.error("Грешка при записване на качването: " + e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Reports how much of a resumable upload has been received, so that the client knows where to continue.
+     *
+     * @param id The id of the upload
+     * @return A ResponseEntity without body:
+     * - 200 OK with the Upload-Offset and Upload-Length headers
+     * - 404 Not Found if the upload is unknown or has expired
+     */
+    @RequestMapping(value = "/api/upload/resumable/{id}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> getResumableUploadOffset(@PathVariable String id) {
+        return resumableUploadService.find(id)
+                .map(upload -> ResponseEntity.ok()
+                        .header(TUS_RESUMABLE_HEADER, TUS_VERSION)
+                        .header(UPLOAD_OFFSET_HEADER, String.valueOf(upload.getOffset()))
+                        .header(UPLOAD_LENGTH_HEADER, String.valueOf(upload.getLength()))
+                        .cacheControl(CacheControl.noStore())
+                        .<Void>build())
+                .orElseGet(() -> ResponseEntity.notFound().header(TUS_RESUMABLE_HEADER, TUS_VERSION).build());
+    }
+
+    /**
+     * Returns the state of a resumable upload, including its Dropbox path once it is complete.
+     *
+     * @param id The id of the upload
+     * @return A ResponseEntity containing the upload:
+     * - 200 OK with the offset reached and the Dropbox path once complete
+     * - 404 Not Found if the upload is unknown or has expired
+     */
+    @GetMapping(value = "/api/upload/resumable/{id}", produces = "application/json;charset=UTF-8")
+    public ResponseEntity<ResumableUpload> getResumableUpload(@PathVariable String id) {
+        return resumableUploadService.find(id)
+                .map(upload -> ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(upload))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Receives the next chunk of a resumable upload and forwards it into the Dropbox upload session.
+     * The chunk has to start at the offset reached so far, given in the Upload-Offset header, and to declare
+     * its length. The chunk that completes the file commits it to Dropbox.
+     *
+     * @param id      The id of the upload
+     * @param offset  The offset the chunk starts at
+     * @param request The HTTP request whose body is the chunk
+     * @return A future of a ResponseEntity with the new offset in the Upload-Offset header:
+     * - 204 No Content if the chunk was received and more are expected
+     * - 200 OK with success message and file path if the chunk completed the file
+     * - 400 Bad Request if the first chunk shows that the file is not of the declared type; the upload is cancelled
+     * - 409 Conflict if the chunk does not start at the current offset, which the response carries
+     * - 404 Not Found if the upload is unknown or has expired
+     * - 411 Length Required or 413 Payload Too Large if the chunk has no length or is larger than allowed
+     * - 503 Service Unavailable if Dropbox service is unavailable
+     */
+    @PatchMapping(value = "/api/upload/resumable/{id}", consumes = OFFSET_OCTET_STREAM, produces = "application/json;charset=UTF-8")
+    public CompletableFuture<ResponseEntity<ApiResponse>> appendResumableUpload(@PathVariable String id,
+                                                                                @RequestHeader(UPLOAD_OFFSET_HEADER) long offset,
+                                                                                HttpServletRequest request) {
+        long length = request.getContentLengthLong();
+        if (length < 0) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.LENGTH_REQUIRED)
+                    .header(TUS_RESUMABLE_HEADER, TUS_VERSION)
+                    .body(ApiResponse.error("Липсва размерът на частта")));
+        }
+        if (length > maxChunkSize.toBytes()) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .header(TUS_RESUMABLE_HEADER, TUS_VERSION)
+                    .body(ApiResponse.error("Частта е твърде голяма (максимум " + maxChunkSize.toMegabytes() + "MB)")));
+        }
+
+        return transferAsync("resumable", () -> appendChunk(id, offset, request, length));
+    }
+
+    /**
+     * Forwards one chunk of a resumable upload and builds the response describing the outcome.
+     * The first bytes of the first chunk are checked against the declared content type, and an upload whose
+     * content does not match is cancelled.
+     *
+     * @param id      The id of the upload
+     * @param offset  The offset the chunk starts at
+     * @param request The HTTP request whose body is the chunk
+     * @param length  The size of the chunk in bytes
+     * @return A ResponseEntity with the new offset, and the upload result once the file is complete
+     */
+    private ResponseEntity<ApiResponse> appendChunk(String id, long offset, HttpServletRequest request, long length) {
+        try (InputStream in = request.getInputStream()) {
+            InputStream chunk = in;
+            if (offset == 0) {
+                byte[] head = in.readNBytes((int) Math.min(length, FileSignatures.SNIFF_LENGTH));
+                ResumableUpload created = resumableUploadService.find(id).orElse(null);
+                if (created != null && created.getOffset() == 0 && head.length > 0
+                        && !FileSignatures.matches(created.getContentType(), head, head.length)) {
+                    resumableUploadService.delete(id);
+                    return rejectedContentError(new UploadRejectedException(created.getOriginalFileName(), created.getContentType()));
+                }
+                chunk = new SequenceInputStream(new ByteArrayInputStream(head), in);
+            }
+            ResumableUpload upload = resumableUploadService.append(id, offset, chunk, length);
+            if (upload.isComplete()) {
+                logger.info("Resumable upload {} completed: {}", id, upload.getPath());
+                return ResponseEntity.ok()
+                        .header(TUS_RESUMABLE_HEADER, TUS_VERSION)
+                        .header(UPLOAD_OFFSET_HEADER, String.valueOf(upload.getOffset()))
+                        .body(ApiResponse.success("Файлът е качен успешно!", upload.getPath()));
+            }
+            return ResponseEntity.noContent()
+                    .header(TUS_RESUMABLE_HEADER, TUS_VERSION)
+                    .header(UPLOAD_OFFSET_HEADER, String.valueOf(upload.getOffset()))
+                    .build();
+        } catch (UploadOffsetConflictException e) {
+            logger.debug("Chunk of resumable upload {} rejected: {}", id, e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .header(TUS_RESUMABLE_HEADER, TUS_VERSION)
+                    .header(UPLOAD_OFFSET_HEADER, String.valueOf(e.getOffset()))
+                    .body(ApiResponse.error("Частта не продължава качването от правилното място"));
+        } catch (NoSuchElementException e) {
+            logger.warn("Chunk of unknown resumable upload: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .header(TUS_RESUMABLE_HEADER, TUS_VERSION)
+                    .body(ApiResponse.error("Качването не е намерено или е изтекло. Моля, започнете отначало."));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid chunk of resumable upload {}: {}", id, e.getMessage());
+            return ResponseEntity.badRequest()
+                    .header(TUS_RESUMABLE_HEADER, TUS_VERSION)
+                    .body(ApiResponse.error("Невалидна част от файла: " + e.getMessage()));
+        } catch (DbxException e) {
+            return dropboxError(e, "Грешка при качване на файла в Dropbox: ");
+        } catch (IOException e) {
+            logger.warn("Chunk of resumable upload {} interrupted: {}", id, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Грешка при четене на частта: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Cancels a resumable upload.
+     *
+     * @param id The id of the upload
+     * @return A ResponseEntity without body:
+     * - 204 No Content if the upload was cancelled
+     * - 404 Not Found if the upload is unknown or has expired
+     */
+    @DeleteMapping("/api/upload/resumable/{id}")
+    public ResponseEntity<Void> deleteResumableUpload(@PathVariable String id) {
+        HttpStatus status = resumableUploadService.delete(id) ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND;
+        return ResponseEntity.status(status).header(TUS_RESUMABLE_HEADER, TUS_VERSION).build();
+    }
+
+    /**
+     * Runs a transfer on the Dropbox executor within the upload bulkhead.
+     * If the bulkhead stays full for longer than its maximum wait, the client is told to retry later.
+     * The transfer is counted as in flight until it is answered, and its end-to-end latency is recorded.
+     *
+     * @param endpoint The kind of upload, used to tag the latency
+     * @param transfer The transfer, which builds its own response for every outcome
+     * @return A future completing with the response of the transfer
+     */
+    private CompletableFuture<ResponseEntity<ApiResponse>> transferAsync(String endpoint,
+                                                                         Callable<ResponseEntity<ApiResponse>> transfer) {
+        Timer.Sample sample = uploadMetrics.uploadStarted();
+        return dropboxExecutor.submit(DropboxExecutor.Bulkhead.UPLOAD, transfer)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof RejectedExecutionException) {
+                        logger.warn("Upload rejected: {}", cause.getMessage());
+                        uploadMetrics.rejected(RejectionReason.BUSY);
+                        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                                .header(HttpHeaders.RETRY_AFTER, BUSY_RETRY_AFTER_SECONDS)
+                                .body(ApiResponse.error("Сървърът е претоварен. Моля, опитайте отново по-късно."));
+                    }
+                    logger.error("Unexpected error: {}", cause.getMessage(), cause);
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body(ApiResponse.error("Неочаквана грешка: " + cause.getMessage()));
+                })
+                .thenApply(response -> {
+                    uploadMetrics.uploadFinished(sample, endpoint, response.getStatusCode().value());
+                    return response;
+                });
+    }
+
+    /**
+     * Runs an upload once per idempotency key: a retry of an upload still in progress is attached to it, and a retry
+     * of a finished upload gets its response without uploading again. A key reused for a different upload is
+     * rejected with 422.
+     *
+     * @param idempotencyKey The validated Idempotency-Key of the request, or null to always run the upload
+     * @param fingerprint    What the upload asks for, bound to the key
+     * @param upload         Starts the upload and returns a future of its response
+     * @return A future of the response of the upload
+     */
+    private CompletableFuture<ResponseEntity<ApiResponse>> idempotent(String idempotencyKey, Fingerprint fingerprint,
+                                                                      Supplier<CompletableFuture<ResponseEntity<ApiResponse>>> upload) {
+        return idempotencyKey == null ? upload.get() : idempotencyCache.execute(idempotencyKey, fingerprint, upload);
+    }
+
+    /**
+     * Describes a single file upload, so that an Idempotency-Key can only be reused for the same upload.
+     *
+     * @param request          The HTTP request
+     * @param file             The uploaded file
+     * @param cyrillicFileName The custom filename (can be null)
+     * @param async            Whether the file is queued
+     * @param folder           The resolved Dropbox folder
+     * @param routingKey       The client id or route the Dropbox account is chosen by (can be null)
+     * @return The fingerprint of the upload
+     */
+    private static Fingerprint fingerprint(HttpServletRequest request, MultipartFile file, String cyrillicFileName,
+                                           boolean async, String folder, String routingKey) {
+        String endpoint = request.getRequestURI().substring(request.getContextPath().length());
+        String upload = String.join("\n", endpoint, String.valueOf(file.getOriginalFilename()),
+                String.valueOf(cyrillicFileName), String.valueOf(file.getSize()), String.valueOf(async),
+                folder, String.valueOf(routingKey));
+        return new Fingerprint(UploadIdempotencyCache.requestFingerprint(endpoint, request.getQueryString(),
+                request.getHeader(ROUTE_HEADER), request.getHeader(CLIENT_HEADER), request.getContentLengthLong()),
+                upload);
+    }
+
+    /**
+     * Builds the 400 response for a malformed Idempotency-Key header.
+     *
+     * @return A 400 response with the error message
+     */
+    private ResponseEntity<ApiResponse> invalidIdempotencyKey() {
+        return ResponseEntity.badRequest().body(ApiResponse.error(
+                "Невалиден Idempotency-Key: до 255 знака, само латински букви, цифри и . _ : -"));
+    }
+
+    /**
+     * Builds the 503 response for a failed Dropbox operation.
+     * If Dropbox is known to be unavailable for a while, because the circuit breaker is open or a rate limit
+     * was hit, the response carries a Retry-After header telling the client when to try again.
+     *
+     * @param e      The Dropbox error
+     * @param prefix The message shown before the error details
+     * @return A 503 response with the error message
+     */
+    private ResponseEntity<ApiResponse> dropboxError(DbxException e, String prefix) {
+        Duration retryAfter = DropboxUnavailableException.retryAfterOf(e).orElse(null);
+        if (retryAfter == null) {
+            logger.error("Dropbox API error: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(ApiResponse.error(prefix + e.getMessage()));
+        }
+
+        long seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        uploadMetrics.rejected(RejectionReason.DROPBOX_UNAVAILABLE);
+        logger.warn("Dropbox unavailable, retry after {} s: {}", seconds, e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(seconds))
+                .body(ApiResponse.error("Dropbox е временно недостъпен. Моля, опитайте отново след " + seconds + " секунди."));
+    }
+
+    /**
+     * Checks that a file is not empty, is an image or a PDF, and does not exceed the maximum size.
+     * Rejected files are counted by reason in the upload metrics.
+     *
+     * @param file The file to validate
+     * @return the localized error message if the file is invalid, or null if it is valid
+     */
+    private String validateFile(MultipartFile file) {
+        if (file.isEmpty()) {
+            uploadMetrics.rejected(RejectionReason.EMPTY_FILE);
+            return "Моля, изберете файл за качване";
+        }
+
+        if (!isSupportedContentType(file.getContentType())) {
+            uploadMetrics.rejected(RejectionReason.CONTENT_TYPE);
+            return "Неподдържан тип файл. Моля, изберете изображение или PDF.";
+        }
+
+        if (file.getSize() > maxFileSize.toBytes()) {
+            uploadMetrics.rejected(RejectionReason.SIZE);
+            return fileTooLargeMessage();
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a content type is accepted for upload.
+     *
+     * @param contentType The content type declared by the client
+     * @return true for images and PDFs, false otherwise
+     */
+    private boolean isSupportedContentType(String contentType) {
+        return contentType != null && (contentType.startsWith("image/") || contentType.equals("application/pdf"));
+    }
+
+    /**
+     * Reads a parameter from the query string only, without triggering parsing of the request body.
+     *
+     * @param request The HTTP request
+     * @param name    The name of the query parameter
+     * @return the decoded parameter value, or null if the query string does not contain it
+     */
+    private String queryParameter(HttpServletRequest request, String name) {
+        if (request.getQueryString() == null) {
+            return null;
+        }
+        String value = UriComponentsBuilder.newInstance().query(request.getQueryString()).build()
+                .getQueryParams().getFirst(name);
+        return value != null ? UriUtils.decode(value, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Spools the file into the asynchronous upload queue and answers with the id of the new job.
+     * Images are recompressed before they are spooled, if enabled.
+     * The client can follow the job through the Location header, which points to the job status endpoint.
+     *
+     * @param file             The validated file to queue
+     * @param cyrillicFileName Optional custom filename to use when storing the file
+     * @param folder           The Dropbox folder the file is uploaded to
+     * @param routingKey       The client id or route the Dropbox account is chosen by (can be null)
+     * @return A ResponseEntity containing an ApiResponse with the queueing result:
+     * - 202 Accepted with the job id if the file was queued
+     * - 503 Service Unavailable if the queue is full
+     * - 500 Internal Server Error if the file could not be spooled
+     */
+    private ResponseEntity<ApiResponse> enqueueUpload(MultipartFile file, String cyrillicFileName, String folder,
+                                                      String routingKey) {
+        try {
+            UploadJob job = uploadQueueService.enqueue(imageRecompressor.recompress(file), cyrillicFileName, folder, routingKey);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/uploads/" + job.getId()))
+                    .body(ApiResponse.accepted("Файлът е приет и ще бъде качен в Dropbox", job.getId()));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Upload queue rejected file: {}", e.getMessage());
+            uploadMetrics.rejected(RejectionReason.QUEUE_FULL);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(ApiResponse.error("Опашката за качване е пълна. Моля, опитайте отново по-късно."));
+        } catch (IOException e) {
+            logger.error("Failed to queue file: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Грешка при записване на файла: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Parses the Upload-Metadata header of the resumable upload protocol,
+     * a comma separated list of keys, each followed by a space and its base64 encoded UTF-8 value.
+     *
+     * @param header The header value (can be null)
+     * @return The decoded values by key; keys without a value map to an empty string
+     */
+    static Map<String, String> parseUploadMetadata(String header) {
+        Map<String, String> metadata = new HashMap<>();
+        if (header == null || header.isBlank()) {
+            return metadata;
+        }
+        for (String pair : header.split(",")) {
+            String[] keyValue = pair.trim().split(" ", 2);
+            try {
+                String value = keyValue.length > 1
+                        ? new String(Base64.getDecoder().decode(keyValue[1].trim()), StandardCharsets.UTF_8)
+                        : "";
+                metadata.put(keyValue[0], value);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Ignoring invalid upload metadata value of {}", keyValue[0]);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Determines the Dropbox folder of an upload from its route and client id.
+     * Values given as request parameters take precedence over the X-Upload-Route and X-Client-Id headers.
+     *
+     * @param request     The HTTP request, whose headers are consulted for values not given as parameters
+     * @param route       The route given as a request parameter (can be null)
+     * @param client      The client id given as a request parameter (can be null)
+     * @param contentType The content type of the uploaded file
+     * @return The formatted Dropbox folder
+     * @throws UploadRoutingException If the route is unknown or needs a client id that was not sent
+     */
+    private String resolveFolder(HttpServletRequest request, String route, String client, String contentType) {
+        return targetFolderRouter.resolve(
+                route != null ? route : request.getHeader(ROUTE_HEADER),
+                client != null ? client : request.getHeader(CLIENT_HEADER),
+                contentType);
+    }
+
+    /**
+     * Determines the key the Dropbox account of an upload is chosen by: the client id if one was sent,
+     * otherwise the route. Like the folder, values given as request parameters take precedence over the headers.
+     *
+     * @param request The HTTP request, whose headers are consulted for values not given as parameters
+     * @param route   The route given as a request parameter (can be null)
+     * @param client  The client id given as a request parameter (can be null)
+     * @return The routing key, or null if the upload names neither a client nor a route
+     */
+    private String routingKey(HttpServletRequest request, String route, String client) {
+        String clientId = client != null ? client : request.getHeader(CLIENT_HEADER);
+        if (clientId != null && !clientId.isBlank()) {
+            return clientId.trim();
+        }
+        String routeName = route != null ? route : request.getHeader(ROUTE_HEADER);
+        return routeName != null && !routeName.isBlank() ? routeName.trim() : null;
+    }
+
+    /**
+     * Builds the 400 response for an upload whose target folder cannot be determined.
+     *
+     * @param e The routing error
+     * @return A 400 response with the error message
+     */
+    private ResponseEntity<ApiResponse> routingError(UploadRoutingException e) {
+        logger.warn("Upload not routed: {}", e.getMessage());
+        uploadMetrics.rejected(RejectionReason.ROUTE);
+        return ResponseEntity.badRequest().body(ApiResponse.error("Не може да се определи папката за качване: " + e.getMessage()));
+    }
+
+    /**
+     * Answers uploads rejected while their multipart body was being received, before it was read completely.
+     * The connection is closed, so the client stops sending the rest of the body.
+     *
+     * @param e The reason the body was not accepted
+     * @return A ResponseEntity containing an ApiResponse with the error:
+     * - 400 Bad Request if a file is not of its declared type, or the body is not a valid multipart request
+     * - 413 Payload Too Large if a file or the whole body exceeds the configured maximum size
+     */
+    @ExceptionHandler(MultipartException.class)
+    public ResponseEntity<ApiResponse> handleMultipartException(MultipartException e) {
+        if (e instanceof UploadRejectedException rejected) {
+            return rejectedContentError(rejected);
+        }
+        if (e instanceof MaxUploadSizeExceededException) {
+            logger.warn("Upload rejected while receiving it: {}", e.getMessage());
+            uploadMetrics.rejected(RejectionReason.SIZE);
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .header(HttpHeaders.CONNECTION, "close")
+                    .body(ApiResponse.error(fileTooLargeMessage()));
+        }
+        logger.warn("Invalid multipart request: {}", e.getMessage());
+        uploadMetrics.rejected(RejectionReason.MISSING_FILE);
+        return ResponseEntity.badRequest()
+                .header(HttpHeaders.CONNECTION, "close")
+                .body(ApiResponse.error("Файлът не е изпратен правилно. Моля, проверете заявката."));
+    }
+
+    /**
+     * Builds the response to a file whose content does not match its declared type.
+     *
+     * @param e The rejection naming the file
+     * @return A 400 response with the error message that closes the connection
+     */
+    private ResponseEntity<ApiResponse> rejectedContentError(UploadRejectedException e) {
+        logger.warn("Upload rejected: {}", e.getMessage());
+        uploadMetrics.rejected(RejectionReason.CONTENT_TYPE);
+        return ResponseEntity.badRequest()
+                .header(HttpHeaders.CONNECTION, "close")
+                .body(ApiResponse.error("Съдържанието на файла " + e.getFileName()
+                        + " не отговаря на типа му. Моля, изберете изображение или PDF."));
+    }
+
+    /**
+     * Builds the error message returned when a file exceeds the configured maximum size.
+     *
+     * @return the localized error message including the size limit
+     */
+    private String fileTooLargeMessage() {
+        return "Файлът е твърде голям (максимум " + maxFileSize.toMegabytes() + "MB)";
+    }
+
+    /**
+     * The parts of a multipart upload request.
+     *
+     * @param file     The file to upload, or null if the request contains none
+     * @param fileName The custom filename, or null if none was given
+     * @param async    Whether the file should be queued instead of uploaded right away
+     * @param route    The name of the upload route, or null for the default route
+     * @param client   The client id used by the route template, or null if none was given
+     */
+    record UploadRequest(MultipartFile file, String fileName, boolean async, String route, String client) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.example.dropbox_file_uploader.controller;
+
+import com.example.dropbox_file_uploader.model.UploadJob;
+import com.example.dropbox_file_uploader.service.UploadQueueService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * REST controller exposing the status of asynchronous upload jobs.
+ * Clients that submitted a file in async mode poll this endpoint until the job is finished.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadJobController {
+
+    private final UploadQueueService uploadQueueService;
+
+    /**
+     * Constructs a new UploadJobController with the specified upload queue.
+     *
+     * @param uploadQueueService The queue holding the asynchronous upload jobs
+     */
+    public UploadJobController(UploadQueueService uploadQueueService) {
+        this.uploadQueueService = uploadQueueService;
+    }
+
+    /**
+     * Returns the current status of an asynchronous upload job.
+     *
+     * @param id The id of the job returned when the file was accepted
+     * @return A ResponseEntity containing the job:
+     * - 200 OK with the job status, attempts, and the Dropbox path once completed
+     * - 404 Not Found if no job with this id is known
+     */
+    @GetMapping(value = "/{id}", produces = "application/json;charset=UTF-8")
+    public ResponseEntity<UploadJob> getJob(@PathVariable String id) {
+        return uploadQueueService.findJob(id)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
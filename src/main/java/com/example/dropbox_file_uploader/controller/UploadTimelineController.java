@@ -0,0 +1,59 @@
+package com.example.dropbox_file_uploader.controller;
+
+import com.example.dropbox_file_uploader.service.UploadTrace;
+import com.example.dropbox_file_uploader.service.UploadTracer;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * REST controller exposing the phase timelines of recent uploads, to find out where the time of a slow upload went.
+ * Every upload response carries its trace id in the X-Trace-Id header.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadTimelineController {
+
+    private final UploadTracer uploadTracer;
+
+    /**
+     * Constructs a new UploadTimelineController with the specified tracer.
+     *
+     * @param uploadTracer The tracer keeping the timelines of recent uploads
+     */
+    public UploadTimelineController(UploadTracer uploadTracer) {
+        this.uploadTracer = uploadTracer;
+    }
+
+    /**
+     * Returns the timeline of a recent upload.
+     *
+     * @param traceId The trace id returned in the X-Trace-Id header of the upload
+     * @return A ResponseEntity containing the timeline:
+     * - 200 OK with the duration and status of the upload and the start and duration of each phase
+     * - 404 Not Found if the trace is unknown or has been overwritten by newer uploads
+     */
+    @GetMapping(value = "/{traceId}/timeline", produces = "application/json;charset=UTF-8")
+    public ResponseEntity<UploadTrace> getTimeline(@PathVariable String traceId) {
+        return uploadTracer.find(traceId)
+                .map(trace -> ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(trace))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Returns the timelines of the slowest recent uploads that have been answered.
+     *
+     * @param limit The maximum number of timelines returned
+     * @return A ResponseEntity containing the timelines, slowest first
+     */
+    @GetMapping(value = "/timelines/slowest", produces = "application/json;charset=UTF-8")
+    public ResponseEntity<List<UploadTrace>> getSlowestTimelines(@RequestParam(value = "limit", defaultValue = "10") int limit) {
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(uploadTracer.slowest(limit));
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.dropbox_file_uploader.model;
+
+import java.time.Instant;
+
+/**
+ * A resumable upload persisted in the local upload directory.
+ * The file arrives in chunks that are forwarded into a Dropbox upload session as they come in;
+ * the session id and the offset reached are kept so that the client can resume after
+ * a dropped connection, even across a restart of the application.
+ */
+public class ResumableUpload {
+
+    private String id;
+    private String sessionId;
+    private String account;
+    private long length;
+    private long offset;
+    private String originalFileName;
+    private String customFileName;
+    private String contentType;
+    private String targetFolder;
+    private String path;
+    private Instant createdAt;
+    private Instant updatedAt;
+
+    /**
+     * Default constructor for ResumableUpload.
+     */
+    public ResumableUpload() {
+    }
+
+    /**
+     * Gets the unique id of the upload.
+     *
+     * @return the upload id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Sets the unique id of the upload.
+     *
+     * @param id the upload id
+     */
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Gets the id of the Dropbox upload session the chunks are appended to.
+     *
+     * @return the upload session id
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Sets the id of the Dropbox upload session the chunks are appended to.
+     *
+     * @param sessionId the upload session id
+     */
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * Gets the name of the Dropbox account holding the upload session.
+     *
+     * @return the account name, or null for uploads created before accounts were pooled, which belong to the primary account
+     */
+    public String getAccount() {
+        return account;
+    }
+
+    /**
+     * Sets the name of the Dropbox account holding the upload session.
+     *
+     * @param account the account name
+     */
+    public void setAccount(String account) {
+        this.account = account;
+    }
+
+    /**
+     * Gets the total size of the file in bytes, as announced when the upload was created.
+     *
+     * @return the file size
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Sets the total size of the file in bytes, as announced when the upload was created.
+     *
+     * @param length the file size
+     */
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    /**
+     * Gets the number of bytes received and forwarded to Dropbox so far.
+     *
+     * @return the upload offset
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Sets the number of bytes received and forwarded to Dropbox so far.
+     *
+     * @param offset the upload offset
+     */
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * Gets the original name of the file as sent by the client.
+     *
+     * @return the original file name
+     */
+    public String getOriginalFileName() {
+        return originalFileName;
+    }
+
+    /**
+     * Sets the original name of the file as sent by the client.
+     *
+     * @param originalFileName the original file name
+     */
+    public void setOriginalFileName(String originalFileName) {
+        this.originalFileName = originalFileName;
+    }
+
+    /**
+     * Gets the custom name for the file in Dropbox.
+     *
+     * @return the custom file name, or null if none was given
+     */
+    public String getCustomFileName() {
+        return customFileName;
+    }
+
+    /**
+     * Sets the custom name for the file in Dropbox.
+     *
+     * @param customFileName the custom file name, or null if none was given
+     */
+    public void setCustomFileName(String customFileName) {
+        this.customFileName = customFileName;
+    }
+
+    /**
+     * Gets the content type of the file.
+     *
+     * @return the content type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Sets the content type of the file.
+     *
+     * @param contentType the content type
+     */
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * Gets the formatted Dropbox folder the file is uploaded to.
+     *
+     * @return the target folder
+     */
+    public String getTargetFolder() {
+        return targetFolder;
+    }
+
+    /**
+     * Sets the formatted Dropbox folder the file is uploaded to.
+     *
+     * @param targetFolder the target folder
+     */
+    public void setTargetFolder(String targetFolder) {
+        this.targetFolder = targetFolder;
+    }
+
+    /**
+     * Gets the path of the file in Dropbox once the upload is complete.
+     *
+     * @return the Dropbox path, or null while chunks are still expected
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Sets the path of the file in Dropbox once the upload is complete.
+     *
+     * @param path the Dropbox path, or null while chunks are still expected
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Gets the time the upload was created.
+     *
+     * @return the creation time
+     */
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Sets the time the upload was created.
+     *
+     * @param createdAt the creation time
+     */
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * Gets the time the last chunk was received.
+     *
+     * @return the last update time
+     */
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Sets the time the last chunk was received.
+     *
+     * @param updatedAt the last update time
+     */
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    /**
+     * Checks whether every byte of the file has been received and the file is stored in Dropbox.
+     *
+     * @return true if the upload is complete, false otherwise
+     */
+    public boolean isComplete() {
+        return path != null;
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.dropbox_file_uploader.model;
+
+import java.time.Instant;
+
+/**
+ * An asynchronous upload job persisted in the local upload queue.
+ * Holds everything needed to resume the upload after a restart,
+ * together with its current status and the outcome of the last attempt.
+ */
+public class UploadJob {
+
+    private String id;
+    private UploadJobStatus status;
+    private String originalFileName;
+    private String customFileName;
+    private String contentType;
+    private long size;
+    private int attempts;
+    private String targetFolder;
+    private String routingKey;
+    private String path;
+    private String error;
+    private Instant createdAt;
+    private Instant updatedAt;
+    private Instant nextAttemptAt;
+
+    /**
+     * Default constructor for UploadJob.
+     */
+    public UploadJob() {
+    }
+
+    /**
+     * Gets the unique id of the job.
+     *
+     * @return the job id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Sets the unique id of the job.
+     *
+     * @param id the job id
+     */
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Gets the current status of the job.
+     *
+     * @return the job status
+     */
+    public UploadJobStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Sets the current status of the job.
+     *
+     * @param status the job status
+     */
+    public void setStatus(UploadJobStatus status) {
+        this.status = status;
+    }
+
+    /**
+     * Gets the original name of the file as sent by the client.
+     *
+     * @return the original file name
+     */
+    public String getOriginalFileName() {
+        return originalFileName;
+    }
+
+    /**
+     * Sets the original name of the file as sent by the client.
+     *
+     * @param originalFileName the original file name
+     */
+    public void setOriginalFileName(String originalFileName) {
+        this.originalFileName = originalFileName;
+    }
+
+    /**
+     * Gets the custom name requested for the file in Dropbox.
+     *
+     * @return the custom file name, or null if none was requested
+     */
+    public String getCustomFileName() {
+        return customFileName;
+    }
+
+    /**
+     * Sets the custom name requested for the file in Dropbox.
+     *
+     * @param customFileName the custom file name
+     */
+    public void setCustomFileName(String customFileName) {
+        this.customFileName = customFileName;
+    }
+
+    /**
+     * Gets the content type of the file as sent by the client.
+     *
+     * @return the content type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Sets the content type of the file as sent by the client.
+     *
+     * @param contentType the content type
+     */
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * Gets the size of the file in bytes.
+     *
+     * @return the file size
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the size of the file in bytes.
+     *
+     * @param size the file size
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Gets the number of upload attempts made so far.
+     *
+     * @return the attempt count
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Sets the number of upload attempts made so far.
+     *
+     * @param attempts the attempt count
+     */
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * Gets the Dropbox folder the file is uploaded to.
+     *
+     * @return the Dropbox folder, or null for jobs queued before routing existed
+     */
+    public String getTargetFolder() {
+        return targetFolder;
+    }
+
+    /**
+     * Sets the Dropbox folder the file is uploaded to.
+     *
+     * @param targetFolder the Dropbox folder
+     */
+    public void setTargetFolder(String targetFolder) {
+        this.targetFolder = targetFolder;
+    }
+
+    /**
+     * Gets the client id or route the Dropbox account of the upload is chosen by.
+     *
+     * @return the routing key, or null if the upload named none
+     */
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    /**
+     * Sets the client id or route the Dropbox account of the upload is chosen by.
+     *
+     * @param routingKey the routing key
+     */
+    public void setRoutingKey(String routingKey) {
+        this.routingKey = routingKey;
+    }
+
+    /**
+     * Gets the Dropbox path of the uploaded file.
+     *
+     * @return the Dropbox path, or null if the upload has not completed
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Sets the Dropbox path of the uploaded file.
+     *
+     * @param path the Dropbox path
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Gets the error message of the last failed attempt.
+     *
+     * @return the error message, or null if no attempt has failed
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Sets the error message of the last failed attempt.
+     *
+     * @param error the error message
+     */
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * Gets the time the job was created.
+     *
+     * @return the creation time
+     */
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Sets the time the job was created.
+     *
+     * @param createdAt the creation time
+     */
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * Gets the time the job was last updated.
+     *
+     * @return the last update time
+     */
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Sets the time the job was last updated.
+     *
+     * @param updatedAt the last update time
+     */
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    /**
+     * Gets the time of the next scheduled attempt.
+     *
+     * @return the next attempt time, or null if no retry is scheduled
+     */
+    public Instant getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    /**
+     * Sets the time of the next scheduled attempt.
+     *
+     * @param nextAttemptAt the next attempt time
+     */
+    public void setNextAttemptAt(Instant nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+}
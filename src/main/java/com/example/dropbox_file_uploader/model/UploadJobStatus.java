@@ -0,0 +1,41 @@
+package com.example.dropbox_file_uploader.model;
+
+/**
+ * Lifecycle states of an asynchronous upload job.
+ */
+public enum UploadJobStatus {
+
+    /**
+     * The file is spooled locally and waiting for a worker.
+     */
+    QUEUED,
+
+    /**
+     * A worker is currently transferring the file to Dropbox.
+     */
+    UPLOADING,
+
+    /**
+     * The last attempt failed and the job is waiting for its next retry.
+     */
+    RETRYING,
+
+    /**
+     * The file was uploaded to Dropbox.
+     */
+    COMPLETED,
+
+    /**
+     * The upload failed permanently and will not be retried.
+     */
+    FAILED;
+
+    /**
+     * Checks whether the job has reached a final state.
+     *
+     * @return true if the job is completed or failed, false otherwise
+     */
+    public boolean isFinished() {
+        return this == COMPLETED || this == FAILED;
+    }
+}
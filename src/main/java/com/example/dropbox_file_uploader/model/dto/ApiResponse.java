@@ -1,9 +1,14 @@
 package com.example.dropbox_file_uploader.model.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
 /**
  * Data transfer object representing an API response.
  * Contains information about the success status of an operation,
- * a descriptive message, and an optional path.
+ * a descriptive message, an optional path, the id of an asynchronous job if one was started,
+ * and the per-file results of a batch upload.
  */
 public class ApiResponse {
 
@@ -11,6 +16,12 @@ public class ApiResponse {
     private String message;
     private String path;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String jobId;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<FileUploadResult> results;
+
     /**
      * Default constructor for ApiResponse.
      */
@@ -71,6 +82,42 @@ public class ApiResponse {
         this.path = path;
     }
 
+    /**
+     * Gets the id of the asynchronous job started by the operation.
+     *
+     * @return the job id, or null if the operation was not asynchronous
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * Sets the id of the asynchronous job started by the operation.
+     *
+     * @param jobId the job id
+     */
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    /**
+     * Gets the per-file results of a batch operation.
+     *
+     * @return the list of file results, or null if the operation was not a batch
+     */
+    public List<FileUploadResult> getResults() {
+        return results;
+    }
+
+    /**
+     * Sets the per-file results of a batch operation.
+     *
+     * @param results the list of file results
+     */
+    public void setResults(List<FileUploadResult> results) {
+        this.results = results;
+    }
+
     /**
      * Creates a successful API response with the specified message and path.
      * 
@@ -98,4 +145,35 @@ public class ApiResponse {
         response.setMessage(message);
         return response;
     }
+
+    /**
+     * Creates an API response for an operation that was accepted for asynchronous processing.
+     *
+     * @param message the message to include in the response
+     * @param jobId the id of the job that tracks the operation
+     * @return a new ApiResponse object with success status set to true and the job id set
+     */
+    public static ApiResponse accepted(String message, String jobId) {
+        ApiResponse response = new ApiResponse();
+        response.setSuccess(true);
+        response.setMessage(message);
+        response.setJobId(jobId);
+        return response;
+    }
+
+    /**
+     * Creates an API response for a batch operation with the result of every file.
+     * The response is successful only if every file succeeded.
+     *
+     * @param message the message to include in the response
+     * @param results the per-file results of the batch
+     * @return a new ApiResponse object with the results set
+     */
+    public static ApiResponse batch(String message, List<FileUploadResult> results) {
+        ApiResponse response = new ApiResponse();
+        response.setSuccess(results.stream().allMatch(FileUploadResult::isSuccess));
+        response.setMessage(message);
+        response.setResults(results);
+        return response;
+    }
 }
\ No newline at end of file
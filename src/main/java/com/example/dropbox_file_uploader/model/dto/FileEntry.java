@@ -0,0 +1,149 @@
+package com.example.dropbox_file_uploader.model.dto;
+
+import java.time.Instant;
+
+/**
+ * Data transfer object describing a file or folder of the mirrored target folder.
+ */
+public class FileEntry {
+
+    private String path;
+    private String name;
+    private boolean folder;
+    private long size;
+    private Instant modified;
+    private String rev;
+    private String contentHash;
+
+    /**
+     * Default constructor for FileEntry.
+     */
+    public FileEntry() {
+    }
+
+    /**
+     * Gets the Dropbox path of the entry, in the case it was stored with.
+     *
+     * @return the Dropbox path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Sets the Dropbox path of the entry.
+     *
+     * @param path the Dropbox path
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Gets the name of the file or folder, the last component of its path.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the name of the file or folder.
+     *
+     * @param name the name
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Checks if the entry is a folder.
+     *
+     * @return true for a folder, false for a file
+     */
+    public boolean isFolder() {
+        return folder;
+    }
+
+    /**
+     * Sets whether the entry is a folder.
+     *
+     * @param folder true for a folder, false for a file
+     */
+    public void setFolder(boolean folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Gets the size of the file.
+     *
+     * @return the size in bytes, 0 for folders
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the size of the file.
+     *
+     * @param size the size in bytes
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Gets the time the file was last modified in Dropbox.
+     *
+     * @return the modification time, or null for folders
+     */
+    public Instant getModified() {
+        return modified;
+    }
+
+    /**
+     * Sets the time the file was last modified in Dropbox.
+     *
+     * @param modified the modification time
+     */
+    public void setModified(Instant modified) {
+        this.modified = modified;
+    }
+
+    /**
+     * Gets the revision of the file.
+     *
+     * @return the Dropbox revision, or null for folders
+     */
+    public String getRev() {
+        return rev;
+    }
+
+    /**
+     * Sets the revision of the file.
+     *
+     * @param rev the Dropbox revision
+     */
+    public void setRev(String rev) {
+        this.rev = rev;
+    }
+
+    /**
+     * Gets the Dropbox content hash of the file.
+     *
+     * @return the content hash, or null for folders
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Sets the Dropbox content hash of the file.
+     *
+     * @param contentHash the content hash
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+}
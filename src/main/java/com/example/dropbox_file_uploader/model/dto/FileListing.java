@@ -0,0 +1,131 @@
+package com.example.dropbox_file_uploader.model.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Data transfer object holding one page of the files of the mirrored target folder.
+ */
+public class FileListing {
+
+    private String root;
+    private Instant syncedAt;
+    private int total;
+    private int page;
+    private int size;
+    private List<FileEntry> entries;
+
+    /**
+     * Default constructor for FileListing.
+     */
+    public FileListing() {
+    }
+
+    /**
+     * Gets the Dropbox folder whose tree is mirrored.
+     *
+     * @return the root folder
+     */
+    public String getRoot() {
+        return root;
+    }
+
+    /**
+     * Sets the Dropbox folder whose tree is mirrored.
+     *
+     * @param root the root folder
+     */
+    public void setRoot(String root) {
+        this.root = root;
+    }
+
+    /**
+     * Gets the time the mirror was last brought up to date with Dropbox.
+     *
+     * @return the time of the last sync
+     */
+    public Instant getSyncedAt() {
+        return syncedAt;
+    }
+
+    /**
+     * Sets the time the mirror was last brought up to date with Dropbox.
+     *
+     * @param syncedAt the time of the last sync
+     */
+    public void setSyncedAt(Instant syncedAt) {
+        this.syncedAt = syncedAt;
+    }
+
+    /**
+     * Gets the number of entries matching the query, across all pages.
+     *
+     * @return the number of matching entries
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Sets the number of entries matching the query, across all pages.
+     *
+     * @param total the number of matching entries
+     */
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    /**
+     * Gets the number of the page, starting at 0.
+     *
+     * @return the page number
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * Sets the number of the page, starting at 0.
+     *
+     * @param page the page number
+     */
+    public void setPage(int page) {
+        this.page = page;
+    }
+
+    /**
+     * Gets the maximum number of entries per page.
+     *
+     * @return the page size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the maximum number of entries per page.
+     *
+     * @param size the page size
+     */
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Gets the entries of the page, ordered by path.
+     *
+     * @return the entries
+     */
+    public List<FileEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Sets the entries of the page.
+     *
+     * @param entries the entries
+     */
+    public void setEntries(List<FileEntry> entries) {
+        this.entries = entries;
+    }
+}
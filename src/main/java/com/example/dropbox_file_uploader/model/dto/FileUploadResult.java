@@ -0,0 +1,120 @@
+package com.example.dropbox_file_uploader.model.dto;
+
+/**
+ * Data transfer object describing the outcome of uploading one file of a batch.
+ */
+public class FileUploadResult {
+
+    private String fileName;
+    private boolean success;
+    private String path;
+    private String message;
+
+    /**
+     * Default constructor for FileUploadResult.
+     */
+    public FileUploadResult() {
+    }
+
+    /**
+     * Gets the name of the file as sent by the client.
+     *
+     * @return the file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Sets the name of the file as sent by the client.
+     *
+     * @param fileName the file name
+     */
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Checks if the file was uploaded successfully.
+     *
+     * @return true if the file was uploaded, false otherwise
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Sets whether the file was uploaded successfully.
+     *
+     * @param success true if the file was uploaded, false otherwise
+     */
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    /**
+     * Gets the Dropbox path of the uploaded file.
+     *
+     * @return the Dropbox path, or null if the upload failed
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Sets the Dropbox path of the uploaded file.
+     *
+     * @param path the Dropbox path
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Gets the error message describing why the upload failed.
+     *
+     * @return the error message, or null if the upload succeeded
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Sets the error message describing why the upload failed.
+     *
+     * @param message the error message
+     */
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    /**
+     * Creates a result for a file that was uploaded successfully.
+     *
+     * @param fileName the name of the file as sent by the client
+     * @param path the Dropbox path of the uploaded file
+     * @return a new FileUploadResult with success status set to true
+     */
+    public static FileUploadResult success(String fileName, String path) {
+        FileUploadResult result = new FileUploadResult();
+        result.setFileName(fileName);
+        result.setSuccess(true);
+        result.setPath(path);
+        return result;
+    }
+
+    /**
+     * Creates a result for a file that could not be uploaded.
+     *
+     * @param fileName the name of the file as sent by the client
+     * @param message the error message
+     * @return a new FileUploadResult with success status set to false
+     */
+    public static FileUploadResult error(String fileName, String message) {
+        FileUploadResult result = new FileUploadResult();
+        result.setFileName(fileName);
+        result.setSuccess(false);
+        result.setMessage(message);
+        return result;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.dropbox_file_uploader.service;
+
+import java.io.IOException;
+
+/**
+ * Thrown while a ZIP archive is being read, when the archive as a whole exceeds the limits of archive uploads,
+ * such as the number of files or their total uncompressed size. The rest of the archive is not read.
+ */
+public class ArchiveRejectedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new ArchiveRejectedException.
+     *
+     * @param message The limit the archive exceeds
+     */
+    public ArchiveRejectedException(String message) {
+        super(message);
+    }
+}
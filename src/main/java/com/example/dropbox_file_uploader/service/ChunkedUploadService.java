@@ -0,0 +1,359 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.CommitInfo;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.UploadSessionCursor;
+import com.dropbox.core.v2.files.UploadSessionFinishArg;
+import com.dropbox.core.v2.files.UploadSessionFinishBatchResultEntry;
+import com.dropbox.core.v2.files.UploadSessionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Service that uploads large files to Dropbox through concurrent upload sessions.
+ * The input stream is cut into fixed-size chunks and several chunks are appended
+ * to the session at once, so a single large file uses more than one request's worth of throughput.
+ * Memory per upload is bounded by the chunk size times the number of chunks in flight.
+ * Several files can also be uploaded into sessions at once and committed together with one batch call.
+ * Chunks and files run on the {@link DropboxExecutor} under its CHUNK and BATCH_FILE bulkheads.
+ */
+@Service
+public class ChunkedUploadService {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    /**
+     * Dropbox requires every chunk of a concurrent session, except the last one, to be a multiple of 4 MB.
+     */
+    private static final int CHUNK_ALIGNMENT = 4 * 1024 * 1024;
+
+    /**
+     * The maximum number of entries Dropbox accepts in one upload_session/finish_batch call.
+     */
+    private static final int MAX_BATCH_ENTRIES = 1000;
+
+    private final int chunkSize;
+    private final int parallelChunks;
+    private final DropboxExecutor dropboxExecutor;
+
+    /**
+     * Constructs a new ChunkedUploadService.
+     *
+     * @param chunkSize       The size of each appended chunk, rounded down to a multiple of 4 MB
+     * @param parallelChunks  The maximum number of chunks of a single upload in flight at once
+     * @param dropboxExecutor The executor the chunks and the files of batch uploads run on
+     */
+    public ChunkedUploadService(@Value("${dropbox.upload.chunk-size:8MB}") DataSize chunkSize,
+                                @Value("${dropbox.upload.parallel-chunks:4}") int parallelChunks,
+                                DropboxExecutor dropboxExecutor) {
+        this.chunkSize = Math.toIntExact(Math.max(CHUNK_ALIGNMENT, chunkSize.toBytes() / CHUNK_ALIGNMENT * CHUNK_ALIGNMENT));
+        this.parallelChunks = Math.max(1, parallelChunks);
+        this.dropboxExecutor = dropboxExecutor;
+    }
+
+    /**
+     * Uploads the stream through a concurrent upload session and commits it.
+     *
+     * @param account The Dropbox account the content is uploaded through
+     * @param in      The content to upload
+     * @param commit  The commit information describing where and how to store the file
+     * @return The metadata of the committed file
+     * @throws IOException  If there's an error reading the stream
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    public FileMetadata upload(DropboxAccount account, InputStream in, CommitInfo commit) throws IOException, DbxException {
+        UploadSessionCursor cursor = uploadToSession(account, in);
+        logger.debug("Finishing upload session {} ({} bytes) to {}", cursor.getSessionId(), cursor.getOffset(), commit.getPath());
+        return account.execute("upload_session_finish", () -> account.files().uploadSessionFinish(cursor, commit).finish());
+    }
+
+    /**
+     * Uploads the whole stream into a new, closed concurrent upload session without committing it.
+     * The stream is read ahead by one chunk so that the last chunk can be sent with the close flag.
+     *
+     * @param account The Dropbox account the content is uploaded through
+     * @param in      The content to upload
+     * @return The cursor pointing at the end of the closed session, ready to be finished
+     * @throws IOException  If there's an error reading the stream
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    public UploadSessionCursor uploadToSession(DropboxAccount account, InputStream in) throws IOException, DbxException {
+        return uploadToSession(account, readChunk(in), in);
+    }
+
+    /**
+     * Uploads a stream of unknown length and commits it, without buffering more than a few chunks.
+     * Content that ends within the first chunk is sent with a single upload request,
+     * anything longer continues through a pipelined concurrent upload session.
+     *
+     * @param account The Dropbox account the content is uploaded through
+     * @param in      The content to upload
+     * @param commit  The commit information describing where and how to store the file
+     * @return The metadata of the committed file
+     * @throws IOException              If there's an error reading the stream
+     * @throws DbxException             If there's an error with the Dropbox API
+     * @throws IllegalArgumentException If the stream is empty
+     */
+    public FileMetadata uploadStream(DropboxAccount account, InputStream in, CommitInfo commit) throws IOException, DbxException {
+        Chunk first = readChunk(in);
+        if (first.length() == 0) {
+            throw new IllegalArgumentException("File is empty");
+        }
+
+        if (first.length() < chunkSize) {
+            logger.debug("Stream of {} bytes fits into one request", first.length());
+            return account.execute("upload", () -> account.files().uploadBuilder(commit.getPath())
+                    .withMode(commit.getMode())
+                    .uploadAndFinish(new ByteArrayInputStream(first.data(), 0, first.length()), first.length()));
+        }
+
+        UploadSessionCursor cursor = uploadToSession(account, first, in);
+        logger.debug("Finishing upload session {} ({} bytes) to {}", cursor.getSessionId(), cursor.getOffset(), commit.getPath());
+        return account.execute("upload_session_finish", () -> account.files().uploadSessionFinish(cursor, commit).finish());
+    }
+
+    /**
+     * Uploads an already read first chunk followed by the rest of the stream into a new concurrent session.
+     * The last chunk, which closes the session, is only sent once all earlier chunks have been appended.
+     *
+     * @param account The Dropbox account the content is uploaded through
+     * @param first   The first chunk of the content, already read from the stream
+     * @param in      The stream positioned right after the first chunk
+     * @return The cursor pointing at the end of the closed session, ready to be finished
+     * @throws IOException  If there's an error reading the stream
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    private UploadSessionCursor uploadToSession(DropboxAccount account, Chunk first, InputStream in) throws IOException, DbxException {
+        String sessionId = account.execute("upload_session_start", () -> account.files().uploadSessionStartBuilder()
+                .withSessionType(UploadSessionType.CONCURRENT)
+                .uploadAndFinish(InputStream.nullInputStream()))
+                .getSessionId();
+
+        Semaphore inFlight = new Semaphore(parallelChunks);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Future<?>> appends = new ArrayList<>();
+        long offset = 0;
+
+        try {
+            Chunk current = first;
+            while (true) {
+                Chunk next = current.length() == chunkSize ? readChunk(in) : Chunk.EMPTY;
+                boolean last = next.length() == 0;
+
+                if (last) {
+                    // Once Dropbox has processed the close, it rejects appends that are still in flight
+                    for (Future<?> append : appends) {
+                        append.get();
+                    }
+                    if (failure.get() != null) break;
+                }
+
+                inFlight.acquire();
+                if (failure.get() != null) {
+                    inFlight.release();
+                    break;
+                }
+
+                Chunk chunk = current;
+                long chunkOffset = offset;
+                appends.add(dropboxExecutor.submit(DropboxExecutor.Bulkhead.CHUNK, () -> {
+                    try {
+                        append(account, sessionId, chunkOffset, chunk, last);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                    return null;
+                }));
+                offset += chunk.length();
+
+                if (last) break;
+                current = next;
+            }
+
+            for (Future<?> append : appends) {
+                append.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            appends.forEach(append -> append.cancel(true));
+            throw new IOException("Interrupted while uploading session " + sessionId, e);
+        } catch (ExecutionException e) {
+            failure.compareAndSet(null, new IOException("Chunk upload failed", e.getCause()));
+        }
+
+        Exception error = failure.get();
+        if (error != null) {
+            appends.forEach(append -> append.cancel(true));
+            logger.error("Upload session {} failed after {} bytes", sessionId, offset, error);
+            if (error instanceof DbxException dbxException) {
+                throw dbxException;
+            }
+            if (error instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Chunk upload failed", error);
+        }
+
+        logger.debug("Uploaded {} bytes in {} chunks to session {}", offset, appends.size(), sessionId);
+        return new UploadSessionCursor(sessionId, offset);
+    }
+
+    /**
+     * Uploads the content of one file into a closed upload session in the background.
+     * Content that fits into a single chunk is sent with the session start request itself,
+     * larger content goes through a pipelined concurrent session.
+     *
+     * @param account The Dropbox account the content is uploaded through
+     * @param source  The source of the content to upload
+     * @param size    The size of the content in bytes
+     * @return A future completing with the cursor of the closed session, ready to be finished
+     */
+    public CompletableFuture<UploadSessionCursor> uploadToSessionAsync(DropboxAccount account, InputStreamSource source, long size) {
+        return dropboxExecutor.submit(DropboxExecutor.Bulkhead.BATCH_FILE, () -> {
+            try (InputStream in = source.getInputStream()) {
+                if (size > chunkSize) {
+                    return uploadToSession(account, in);
+                }
+                String sessionId = account.execute("upload_session_start", () -> account.files().uploadSessionStartBuilder()
+                        .withClose(true)
+                        .uploadAndFinish(in, size))
+                        .getSessionId();
+                return new UploadSessionCursor(sessionId, size);
+            }
+        });
+    }
+
+    /**
+     * Commits closed upload sessions with as few upload_session/finish_batch calls as possible,
+     * one call per 1000 sessions.
+     *
+     * @param account The Dropbox account the content is uploaded through
+     * @param entries The sessions to commit and where to commit them
+     * @return The result of each entry, in the same order as the entries
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    public List<UploadSessionFinishBatchResultEntry> finishBatch(DropboxAccount account, List<UploadSessionFinishArg> entries) throws DbxException {
+        List<UploadSessionFinishBatchResultEntry> results = new ArrayList<>(entries.size());
+        for (int from = 0; from < entries.size(); from += MAX_BATCH_ENTRIES) {
+            List<UploadSessionFinishArg> batch = entries.subList(from, Math.min(entries.size(), from + MAX_BATCH_ENTRIES));
+            logger.debug("Finishing batch of {} upload sessions", batch.size());
+            results.addAll(account.execute("upload_session_finish_batch", () -> account.files().uploadSessionFinishBatchV2(batch)).getEntries());
+        }
+        return results;
+    }
+
+    /**
+     * Starts an empty sequential upload session, to which content is appended in order as it arrives.
+     *
+     * @param account The Dropbox account the content is uploaded through
+     * @return The id of the new upload session
+     * @throws IOException  If there's an error sending the request
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    public String startSession(DropboxAccount account) throws IOException, DbxException {
+        return account.execute("upload_session_start", () -> account.files().uploadSessionStartBuilder()
+                .uploadAndFinish(InputStream.nullInputStream()))
+                .getSessionId();
+    }
+
+    /**
+     * Forwards content of known length from a stream into a sequential upload session, without buffering it.
+     *
+     * @param account The Dropbox account the content is uploaded through
+     * @param cursor  The session and the offset the content starts at
+     * @param in      The content to append
+     * @param length  The number of bytes to read from the stream and append
+     * @throws IOException  If there's an error reading the stream
+     * @throws DbxException If there's an error with the Dropbox API, such as an offset Dropbox does not expect
+     */
+    public void appendToSession(DropboxAccount account, UploadSessionCursor cursor, InputStream in, long length) throws IOException, DbxException {
+        account.execute("upload_session_append", () -> account.files().uploadSessionAppendV2Builder(cursor)
+                .uploadAndFinish(in, length));
+        logger.trace("Appended {} bytes at offset {} to session {}", length, cursor.getOffset(), cursor.getSessionId());
+    }
+
+    /**
+     * Forwards the last content of a sequential upload session and commits the session in the same request.
+     *
+     * @param account The Dropbox account the content is uploaded through
+     * @param cursor  The session and the offset the content starts at
+     * @param in      The last content of the file
+     * @param length  The number of bytes to read from the stream
+     * @param commit  The commit information describing where and how to store the file
+     * @return The metadata of the committed file
+     * @throws IOException  If there's an error reading the stream
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    public FileMetadata finishSession(DropboxAccount account, UploadSessionCursor cursor, InputStream in, long length, CommitInfo commit)
+            throws IOException, DbxException {
+        return account.execute("upload_session_finish", () -> account.files().uploadSessionFinish(cursor, commit)
+                .uploadAndFinish(in, length));
+    }
+
+    /**
+     * Gets the size of the chunks appended to upload sessions.
+     *
+     * @return the chunk size in bytes
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Appends one chunk to the upload session at the given offset.
+     *
+     * @param account   The Dropbox account the content is uploaded through
+     * @param sessionId The id of the upload session
+     * @param offset    The offset of the chunk within the file
+     * @param chunk     The chunk to append
+     * @param last      true if this is the last chunk and the session should be closed
+     * @throws IOException  If there's an error sending the chunk
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    private void append(DropboxAccount account, String sessionId, long offset, Chunk chunk, boolean last) throws IOException, DbxException {
+        account.execute("upload_session_append", () -> account.files().uploadSessionAppendV2Builder(new UploadSessionCursor(sessionId, offset))
+                .withClose(last)
+                .uploadAndFinish(new ByteArrayInputStream(chunk.data(), 0, chunk.length()), chunk.length()));
+        logger.trace("Appended {} bytes at offset {} to session {}", chunk.length(), offset, sessionId);
+    }
+
+    /**
+     * Reads up to one chunk from the stream, blocking until the chunk is full or the stream ends.
+     *
+     * @param in The stream to read from
+     * @return The chunk read, which is shorter than the chunk size only at the end of the stream
+     * @throws IOException If there's an error reading the stream
+     */
+    private Chunk readChunk(InputStream in) throws IOException {
+        byte[] data = new byte[chunkSize];
+        int length = in.readNBytes(data, 0, chunkSize);
+        return length == 0 ? Chunk.EMPTY : new Chunk(data, length);
+    }
+
+    /**
+     * A chunk of file content read from the upload stream.
+     *
+     * @param data   The buffer holding the chunk
+     * @param length The number of valid bytes in the buffer
+     */
+    private record Chunk(byte[] data, int length) {
+        private static final Chunk EMPTY = new Chunk(new byte[0], 0);
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persistent index of the files known to exist in Dropbox, keyed by their Dropbox content hash.
+ * It lets uploads of content that is already stored in Dropbox be answered without transferring the content again.
+ * Each path maps to at most one content hash, so overwriting a file replaces its previous entry.
+ * The index is kept in memory and written to a JSON file in the background once it has changed, and on shutdown,
+ * so uploads never wait for the file to be written; changes made shortly before a crash are lost and only cost
+ * a transfer that could have been skipped.
+ */
+@Component
+public class ContentHashIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ContentHashIndex.class);
+
+    private final ObjectMapper objectMapper;
+    private final Path indexFile;
+    private final Map<String, String> pathsByHash = new ConcurrentHashMap<>();
+    private final Map<String, String> hashesByPath = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final Object fileLock = new Object();
+    private final Counter hits;
+    private final Counter savedBytes;
+
+    /**
+     * Constructs a new ContentHashIndex.
+     *
+     * @param objectMapper  The mapper used to read and write the index file
+     * @param meterRegistry The registry the deduplication metrics are published to
+     * @param indexFile     The file the index is persisted to
+     */
+    public ContentHashIndex(ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${dropbox.dedup.index-file:${java.io.tmpdir}/dropbox-content-index.json}") Path indexFile) {
+        this.objectMapper = objectMapper;
+        this.indexFile = indexFile;
+        this.hits = Counter.builder("dropbox.dedup.hits")
+                .description("Uploads answered with content already stored in Dropbox")
+                .register(meterRegistry);
+        this.savedBytes = Counter.builder("dropbox.dedup.saved")
+                .baseUnit("bytes")
+                .description("Bytes that did not have to be transferred to Dropbox thanks to deduplication")
+                .register(meterRegistry);
+        Gauge.builder("dropbox.dedup.index.size", pathsByHash, Map::size)
+                .description("Number of content hashes in the deduplication index")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Loads the persisted index, if there is one.
+     * A missing or unreadable file leaves the index empty; it is then rebuilt as files are uploaded.
+     */
+    @PostConstruct
+    public void load() {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+
+        try {
+            Map<String, String> persisted = objectMapper.readValue(indexFile.toFile(), new TypeReference<Map<String, String>>() {});
+            persisted.forEach(this::put);
+            logger.info("Loaded {} entries into the content hash index", pathsByHash.size());
+        } catch (IOException e) {
+            logger.warn("Could not read content hash index {}: {}", indexFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Finds the Dropbox path of a file with the specified content.
+     * The entry may be stale, so callers should verify the file before relying on it.
+     *
+     * @param contentHash The Dropbox content hash of the content
+     * @return The path of a file with this content, or empty if none is known
+     */
+    public Optional<String> findPath(String contentHash) {
+        return Optional.ofNullable(pathsByHash.get(contentHash));
+    }
+
+    /**
+     * Records that a file with the specified content is stored at the specified path.
+     *
+     * @param contentHash The Dropbox content hash of the file
+     * @param path        The Dropbox path of the file
+     */
+    public void record(String contentHash, String path) {
+        if (contentHash == null || path == null) {
+            return;
+        }
+        synchronized (this) {
+            put(contentHash, path);
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * Records several files at once.
+     *
+     * @param pathsByContentHash The Dropbox paths of the files, keyed by their content hash
+     */
+    public void recordAll(Map<String, String> pathsByContentHash) {
+        synchronized (this) {
+            pathsByContentHash.forEach(this::put);
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * Removes the entry of a path, for example because the file no longer exists or its content changed.
+     *
+     * @param path The Dropbox path of the file
+     */
+    public void remove(String path) {
+        synchronized (this) {
+            String contentHash = hashesByPath.remove(normalize(path));
+            if (contentHash != null && normalize(path).equals(normalize(pathsByHash.get(contentHash)))) {
+                pathsByHash.remove(contentHash);
+            }
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * Records that an upload was answered without transferring its content.
+     *
+     * @param bytes The size of the content that did not have to be transferred
+     */
+    public void recordSaved(long bytes) {
+        hits.increment();
+        savedBytes.increment(bytes);
+    }
+
+    /**
+     * Gets the number of content hashes in the index.
+     *
+     * @return the index size
+     */
+    public int size() {
+        return pathsByHash.size();
+    }
+
+    /**
+     * Adds an entry to the in-memory maps, replacing the previous content hash of the path.
+     * Must be called while holding the index lock, except during loading.
+     *
+     * @param contentHash The Dropbox content hash of the file
+     * @param path        The Dropbox path of the file
+     */
+    private void put(String contentHash, String path) {
+        String key = normalize(path);
+        String previousHash = hashesByPath.put(key, contentHash);
+        if (previousHash != null && !previousHash.equals(contentHash) && key.equals(normalize(pathsByHash.get(previousHash)))) {
+            pathsByHash.remove(previousHash);
+        }
+        pathsByHash.put(contentHash, path);
+    }
+
+    /**
+     * Writes the index to its file if it changed since it was last written, replacing the previous file atomically.
+     * Changes made while the file is written are picked up by the next flush.
+     */
+    @Scheduled(fixedDelayString = "${dropbox.dedup.flush-interval:PT5S}")
+    @PreDestroy
+    public void flush() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        synchronized (fileLock) {
+            try {
+                Files.createDirectories(indexFile.toAbsolutePath().getParent());
+                Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+                Files.write(temp, objectMapper.writeValueAsBytes(pathsByHash));
+                Files.move(temp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                dirty.set(true);
+                logger.warn("Could not write content hash index {}: {}", indexFile, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Normalizes a Dropbox path for comparison; Dropbox paths are case-insensitive.
+     *
+     * @param path The path to normalize
+     * @return The lowercase path, or null if the path is null
+     */
+    private String normalize(String path) {
+        return path == null ? null : path.toLowerCase(Locale.ROOT);
+    }
+}
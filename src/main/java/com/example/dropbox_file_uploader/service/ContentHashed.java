@@ -0,0 +1,15 @@
+package com.example.dropbox_file_uploader.service;
+
+/**
+ * Content whose Dropbox content hash was computed while it was received,
+ * so that it does not have to be read once more to be hashed before it is uploaded.
+ */
+public interface ContentHashed {
+
+    /**
+     * Gets the Dropbox content hash of the content, as computed by {@link DropboxContentHasher}.
+     *
+     * @return the content hash
+     */
+    String getContentHash();
+}
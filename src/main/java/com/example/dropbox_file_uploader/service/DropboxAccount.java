@@ -0,0 +1,222 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.oauth.DbxCredential;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One Dropbox account of the {@link DropboxAccountPool}: a client with its own credential, circuit breaker
+ * and limit on the uploads it runs at once.
+ * <p>
+ * Accounts that act in the same namespace, for example members of a team acting in the team space through the
+ * same path root, store their files in the same place; uploads may go through any of them and they share the
+ * cached state of their folders. An account without a path root acts in its own home namespace.
+ */
+public class DropboxAccount {
+
+    private final String name;
+    private final DbxClientV2 client;
+    private final DbxCredential credential;
+    private final DropboxCircuitBreaker circuitBreaker;
+    private final String namespace;
+    private final Set<String> keys;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Constructs a new DropboxAccount.
+     *
+     * @param name           The name of the account, unique within the pool
+     * @param client         The client calling Dropbox on behalf of the account
+     * @param credential     The credential the client authenticates with
+     * @param circuitBreaker The circuit breaker every call of the account goes through
+     * @param namespace      The id of the namespace the client acts in, or null for the home namespace of the account
+     * @param keys           The routing keys pinned to the account
+     * @param maxConcurrent  The maximum number of uploads run through the account at once, 0 for no limit
+     */
+    public DropboxAccount(String name, DbxClientV2 client, DbxCredential credential, DropboxCircuitBreaker circuitBreaker,
+                          String namespace, Set<String> keys, int maxConcurrent) {
+        this.name = name;
+        this.client = client;
+        this.credential = credential;
+        this.circuitBreaker = circuitBreaker;
+        this.namespace = namespace == null || namespace.isBlank() ? null : namespace.trim();
+        this.keys = Set.copyOf(keys);
+        this.maxConcurrent = maxConcurrent > 0 ? maxConcurrent : Integer.MAX_VALUE;
+        this.permits = new Semaphore(this.maxConcurrent, true);
+    }
+
+    /**
+     * Runs a Dropbox call of the account through its circuit breaker.
+     *
+     * @param operation The name of the Dropbox operation, used to tag the call latency
+     * @param call      The Dropbox call to run
+     * @param <T>       The result type of the call
+     * @param <E>       Any checked exception the call throws besides DbxException
+     * @return The result of the call
+     * @throws DropboxUnavailableException If the call was rejected without being sent
+     * @throws DbxException                If the call fails with a Dropbox error
+     * @throws E                           If the call fails with another checked exception
+     */
+    public <T, E extends Exception> T execute(String operation, DropboxCircuitBreaker.DropboxCall<T, E> call)
+            throws DbxException, E {
+        return circuitBreaker.execute(operation, call);
+    }
+
+    /**
+     * Gets the file operations of the client of the account.
+     *
+     * @return the files routes of the Dropbox client
+     */
+    public DbxUserFilesRequests files() {
+        return client.files();
+    }
+
+    /**
+     * Takes an upload slot of the account if one is free.
+     *
+     * @return true if the slot was taken, false if the account runs as many uploads as it may
+     */
+    boolean tryAcquire() {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+        inFlight.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Takes an upload slot of the account, waiting for one to become free.
+     *
+     * @param timeoutNanos How long to wait at most
+     * @return true if the slot was taken, false if none became free in time
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    boolean tryAcquire(long timeoutNanos) throws InterruptedException {
+        if (!permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        inFlight.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Frees the upload slot taken from the pool once the upload is done.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * Checks whether the account shares its files with another one.
+     *
+     * @param other The other account
+     * @return true if both accounts act in the same namespace, false otherwise
+     */
+    public boolean sharesNamespaceWith(DropboxAccount other) {
+        if (this == other) {
+            return true;
+        }
+        return namespace != null && namespace.equals(other.namespace);
+    }
+
+    /**
+     * Gets the name of the account.
+     *
+     * @return the account name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the client calling Dropbox on behalf of the account.
+     *
+     * @return the Dropbox client
+     */
+    public DbxClientV2 getClient() {
+        return client;
+    }
+
+    /**
+     * Gets the credential the client authenticates with.
+     *
+     * @return the credential of the account
+     */
+    public DbxCredential getCredential() {
+        return credential;
+    }
+
+    /**
+     * Gets the circuit breaker every call of the account goes through.
+     *
+     * @return the circuit breaker of the account
+     */
+    public DropboxCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Gets the key the state of the files of the account is cached under.
+     * Accounts acting in the same namespace have the same key.
+     *
+     * @return the namespace id, or the account name for accounts acting in their home namespace
+     */
+    public String getNamespaceKey() {
+        return namespace != null ? "ns:" + namespace : name;
+    }
+
+    /**
+     * Gets the routing keys pinned to the account.
+     *
+     * @return the client ids and route names whose uploads prefer the account
+     */
+    public Set<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Gets the maximum number of uploads run through the account at once.
+     *
+     * @return the concurrency limit, {@link Integer#MAX_VALUE} if there is none
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Gets the number of uploads currently running through the account.
+     *
+     * @return the uploads in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Gets the share of the upload slots of the account that are taken.
+     *
+     * @return the load of the account, between 0 and 1
+     */
+    public double getLoad() {
+        return (double) inFlight.get() / maxConcurrent;
+    }
+
+    /**
+     * Gets the name of the account, as it appears in log messages.
+     *
+     * @return the account name
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
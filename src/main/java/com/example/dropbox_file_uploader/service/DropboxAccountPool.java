@@ -0,0 +1,257 @@
+package com.example.dropbox_file_uploader.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Dropbox accounts uploads are spread over, so that peak load is not throttled by the rate limit of one account.
+ * <p>
+ * Every upload takes a slot of one account for as long as it runs. The account is chosen by a routing key, the
+ * client id or route of the upload: keys pinned to accounts ({@code dropbox.accounts.<name>.keys}) go to those
+ * accounts only, all other keys to any account, in the order given by the {@link Strategy}. Accounts that are
+ * rate limited or whose circuit breaker is open are skipped, and so are accounts already running as many uploads
+ * as they may, so a throttled account sheds its load to the others. If all candidates are busy, the upload waits
+ * for the first of them to free a slot.
+ * <p>
+ * The account configured with {@code dropbox.access-token} or {@code dropbox.refresh-token} is the primary account,
+ * named "default"; it is always part of the pool and also serves everything that is not an upload.
+ * The uploads running through each account are published as the {@code dropbox.account.in.flight} gauge.
+ */
+public class DropboxAccountPool {
+    private static final Logger logger = LoggerFactory.getLogger(DropboxAccountPool.class);
+
+    /**
+     * How long callers are told to wait when all accounts are busy.
+     */
+    private static final Duration BUSY_RETRY_AFTER = Duration.ofSeconds(1);
+
+    /**
+     * The order in which the accounts eligible for an upload are tried.
+     */
+    public enum Strategy {
+        /**
+         * Each routing key always starts with the same account, so the uploads of one client keep to one account
+         * and its cached folders; uploads without a key go round-robin.
+         */
+        KEY,
+        /**
+         * The account with the smallest share of its upload slots taken first.
+         */
+        LEAST_LOADED,
+        /**
+         * The accounts in turn.
+         */
+        ROUND_ROBIN;
+
+        /**
+         * Parses a strategy name as written in the configuration, such as {@code least-loaded}.
+         *
+         * @param name The name of the strategy
+         * @return The strategy
+         * @throws IllegalArgumentException If the name is unknown
+         */
+        public static Strategy parse(String name) {
+            return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final List<DropboxAccount> accounts;
+    private final Strategy strategy;
+    private final long acquireTimeoutNanos;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Constructs a new DropboxAccountPool.
+     *
+     * @param accounts       The accounts of the pool, the primary account first
+     * @param strategy       The order in which eligible accounts are tried
+     * @param acquireTimeout How long an upload waits for a slot when all eligible accounts are busy
+     * @param meterRegistry  The registry the uploads in flight per account are published to
+     */
+    public DropboxAccountPool(List<DropboxAccount> accounts, Strategy strategy, Duration acquireTimeout,
+                              MeterRegistry meterRegistry) {
+        if (accounts.isEmpty()) {
+            throw new IllegalArgumentException("At least one Dropbox account is required");
+        }
+        this.accounts = List.copyOf(accounts);
+        this.strategy = strategy;
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        for (DropboxAccount account : this.accounts) {
+            Gauge.builder("dropbox.account.in.flight", account, DropboxAccount::getInFlight)
+                    .tag("account", account.getName())
+                    .description("Uploads currently running through the Dropbox account")
+                    .register(meterRegistry);
+        }
+        logger.info("Dropbox account pool: {} accounts {}, routing {}", accounts.size(), accounts, strategy);
+    }
+
+    /**
+     * Takes an upload slot of the account an upload is routed to.
+     *
+     * @param routingKey The client id or route of the upload (can be null)
+     * @return The account, whose slot has to be freed with {@link DropboxAccount#release()} once the upload is done
+     * @throws DropboxUnavailableException If every eligible account is throttled or stays busy
+     */
+    public DropboxAccount acquire(String routingKey) throws DropboxUnavailableException {
+        return acquire(routingKey, Set.of());
+    }
+
+    /**
+     * Takes an upload slot of the account an upload is routed to, leaving out accounts already tried.
+     * Used to fail over to another account after an upload was rate limited.
+     *
+     * @param routingKey The client id or route of the upload (can be null)
+     * @param excluded   The accounts not to use
+     * @return The account, whose slot has to be freed with {@link DropboxAccount#release()} once the upload is done
+     * @throws DropboxUnavailableException If every eligible account is excluded, throttled or stays busy
+     */
+    public DropboxAccount acquire(String routingKey, Set<DropboxAccount> excluded) throws DropboxUnavailableException {
+        Duration retryAfter = null;
+        DropboxAccount busy = null;
+        for (DropboxAccount account : candidates(routingKey)) {
+            if (excluded.contains(account)) continue;
+
+            try {
+                account.getCircuitBreaker().ensureAvailable();
+            } catch (DropboxUnavailableException e) {
+                retryAfter = retryAfter == null || e.getRetryAfter().compareTo(retryAfter) < 0 ? e.getRetryAfter() : retryAfter;
+                continue;
+            }
+            if (account.tryAcquire()) {
+                return account;
+            }
+            if (busy == null) {
+                busy = account;
+            }
+        }
+
+        if (busy != null) {
+            return await(busy);
+        }
+        if (retryAfter != null) {
+            throw new DropboxUnavailableException("All Dropbox accounts are throttled", retryAfter);
+        }
+        throw new DropboxUnavailableException("No Dropbox account left to route the upload to", BUSY_RETRY_AFTER);
+    }
+
+    /**
+     * Takes an upload slot of a specific account, such as the one holding the upload session of a resumable upload.
+     *
+     * @param name The name of the account
+     * @return The account, whose slot has to be freed with {@link DropboxAccount#release()} once the call is done
+     * @throws NoSuchElementException      If no account of that name is configured
+     * @throws DropboxUnavailableException If the account stays busy
+     */
+    public DropboxAccount acquireNamed(String name) throws DropboxUnavailableException {
+        DropboxAccount account = get(name);
+        return account.tryAcquire() ? account : await(account);
+    }
+
+    /**
+     * Gets an account by its name.
+     *
+     * @param name The name of the account, or null for the primary account
+     * @return The account
+     * @throws NoSuchElementException If no account of that name is configured
+     */
+    public DropboxAccount get(String name) {
+        if (name == null) {
+            return getPrimary();
+        }
+        return accounts.stream()
+                .filter(account -> account.getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new NoSuchElementException("Unknown Dropbox account: " + name));
+    }
+
+    /**
+     * Gets the primary account, which serves everything that is not an upload.
+     *
+     * @return the primary account
+     */
+    public DropboxAccount getPrimary() {
+        return accounts.get(0);
+    }
+
+    /**
+     * Gets all accounts of the pool.
+     *
+     * @return the accounts, the primary account first
+     */
+    public List<DropboxAccount> getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * Lists the accounts eligible for an upload in the order they are tried.
+     *
+     * @param routingKey The client id or route of the upload (can be null)
+     * @return The accounts the key is pinned to, or all accounts if it is pinned to none
+     */
+    List<DropboxAccount> candidates(String routingKey) {
+        List<DropboxAccount> eligible = accounts;
+        if (routingKey != null) {
+            List<DropboxAccount> pinned = accounts.stream()
+                    .filter(account -> account.getKeys().contains(routingKey))
+                    .toList();
+            if (!pinned.isEmpty()) {
+                eligible = pinned;
+            }
+        }
+        if (eligible.size() == 1) {
+            return eligible;
+        }
+
+        return switch (strategy) {
+            case KEY -> rotate(eligible, routingKey != null ? routingKey.hashCode() : next.getAndIncrement());
+            case ROUND_ROBIN -> rotate(eligible, next.getAndIncrement());
+            case LEAST_LOADED -> eligible.stream()
+                    .sorted(Comparator.comparingDouble(DropboxAccount::getLoad))
+                    .toList();
+        };
+    }
+
+    /**
+     * Waits for an upload slot of a busy account.
+     *
+     * @param account The account to wait for
+     * @return The account, once a slot was taken
+     * @throws DropboxUnavailableException If no slot became free in time
+     */
+    private DropboxAccount await(DropboxAccount account) throws DropboxUnavailableException {
+        try {
+            if (account.tryAcquire(acquireTimeoutNanos)) {
+                return account;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new DropboxUnavailableException("All Dropbox accounts are busy", BUSY_RETRY_AFTER);
+    }
+
+    /**
+     * Rotates a list of accounts to start at the given position.
+     *
+     * @param accounts The accounts to rotate
+     * @param start    The position to start at, taken modulo the number of accounts
+     * @return The rotated accounts
+     */
+    private static List<DropboxAccount> rotate(List<DropboxAccount> accounts, int start) {
+        int offset = Math.floorMod(start, accounts.size());
+        List<DropboxAccount> rotated = new ArrayList<>(accounts.size());
+        rotated.addAll(accounts.subList(offset, accounts.size()));
+        rotated.addAll(accounts.subList(0, offset));
+        return rotated;
+    }
+}
@@ -0,0 +1,483 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.BadResponseException;
+import com.dropbox.core.DbxException;
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.RateLimitException;
+import com.dropbox.core.RetryException;
+import com.dropbox.core.ServerException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker guarding every call to the Dropbox API.
+ * <p>
+ * The outcomes of the most recent calls are kept in a fixed-size window. When the share of failed
+ * or slow calls in the window crosses its threshold, the breaker opens and calls fail fast with a
+ * {@link DropboxUnavailableException} instead of tying up a thread until Dropbox answers or times out.
+ * After the wait duration a few trial calls are let through (half-open); if they all succeed the breaker
+ * closes again, otherwise it reopens.
+ * <p>
+ * Independently of the breaker state, a rate limit reported by Dropbox blocks all calls until the
+ * requested backoff has passed, so concurrent requests do not keep hitting the limit one after another.
+ * Only network errors, server errors and retry requests count as failures; API errors such as
+ * a conflicting path describe the request rather than the health of Dropbox. Calls that transfer file content
+ * are never counted as slow, since their duration depends on the size of the content and the bandwidth
+ * of the link rather than on Dropbox.
+ * <p>
+ * Being the single path to Dropbox, the breaker also records the latency of every call
+ * as the {@code dropbox.api.calls} timer, by operation and outcome.
+ * <p>
+ * Every Dropbox account of the {@link DropboxAccountPool} has a breaker of its own, created with
+ * {@link #forAccount(String)}, since an outage or rate limit of one account says nothing about the others.
+ * All metrics of a breaker are tagged with the name of its account.
+ */
+@Component
+public class DropboxCircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(DropboxCircuitBreaker.class);
+
+    /**
+     * The backoff applied when Dropbox reports a rate limit without saying how long to wait.
+     */
+    private static final long DEFAULT_RATE_LIMIT_BACKOFF_MS = 1000;
+
+    /**
+     * The operations that send or receive file content, whose duration is left out of the slow call rate.
+     */
+    private static final Set<String> TRANSFER_OPERATIONS = Set.of(
+            "upload", "upload_session_start", "upload_session_append", "upload_session_finish", "download");
+
+    /**
+     * The name of the account the breaker created by Spring guards.
+     */
+    public static final String PRIMARY_ACCOUNT = "default";
+
+    /**
+     * The state of the circuit breaker.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String account;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final long slowCallNanos;
+    private final int slowCallRateThreshold;
+    private final long waitInOpenNanos;
+    private final int halfOpenCalls;
+
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int windowIndex;
+    private int windowCount;
+    private int failureCount;
+    private int slowCount;
+
+    private volatile State state = State.CLOSED;
+    private long openUntilNanos;
+    private int halfOpenInFlight;
+    private int halfOpenSuccesses;
+
+    private final AtomicLong rateLimitedUntilNanos = new AtomicLong(System.nanoTime());
+    private final Counter rejectedOpen;
+    private final Counter rejectedRateLimited;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> callTimers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new DropboxCircuitBreaker.
+     *
+     * @param windowSize            The number of most recent calls the failure and slow call rates are computed over
+     * @param minimumCalls          The number of calls needed in the window before the breaker can open
+     * @param failureRateThreshold  The percentage of failed calls at which the breaker opens
+     * @param slowCallDuration      How long a call may take before it counts as slow
+     * @param slowCallRateThreshold The percentage of slow calls at which the breaker opens
+     * @param waitInOpen            How long the breaker stays open before trial calls are let through
+     * @param halfOpenCalls         The number of successful trial calls needed to close the breaker again
+     * @param meterRegistry         The registry the breaker state is published to
+     */
+    @Autowired
+    public DropboxCircuitBreaker(@Value("${dropbox.circuit-breaker.window-size:20}") int windowSize,
+                                 @Value("${dropbox.circuit-breaker.minimum-calls:10}") int minimumCalls,
+                                 @Value("${dropbox.circuit-breaker.failure-rate-threshold:50}") int failureRateThreshold,
+                                 @Value("${dropbox.circuit-breaker.slow-call-duration:PT30S}") Duration slowCallDuration,
+                                 @Value("${dropbox.circuit-breaker.slow-call-rate-threshold:80}") int slowCallRateThreshold,
+                                 @Value("${dropbox.circuit-breaker.wait-in-open:PT30S}") Duration waitInOpen,
+                                 @Value("${dropbox.circuit-breaker.half-open-calls:3}") int halfOpenCalls,
+                                 MeterRegistry meterRegistry) {
+        this(PRIMARY_ACCOUNT, windowSize, minimumCalls, failureRateThreshold, slowCallDuration, slowCallRateThreshold,
+                waitInOpen, halfOpenCalls, meterRegistry);
+    }
+
+    /**
+     * Constructs a new DropboxCircuitBreaker guarding the calls of one Dropbox account.
+     *
+     * @param account               The name of the account, used to tag the metrics
+     * @param windowSize            The number of most recent calls the failure and slow call rates are computed over
+     * @param minimumCalls          The number of calls needed in the window before the breaker can open
+     * @param failureRateThreshold  The percentage of failed calls at which the breaker opens
+     * @param slowCallDuration      How long a call may take before it counts as slow
+     * @param slowCallRateThreshold The percentage of slow calls at which the breaker opens
+     * @param waitInOpen            How long the breaker stays open before trial calls are let through
+     * @param halfOpenCalls         The number of successful trial calls needed to close the breaker again
+     * @param meterRegistry         The registry the breaker state is published to
+     */
+    private DropboxCircuitBreaker(String account, int windowSize, int minimumCalls, int failureRateThreshold,
+                                  Duration slowCallDuration, int slowCallRateThreshold, Duration waitInOpen,
+                                  int halfOpenCalls, MeterRegistry meterRegistry) {
+        this.account = account;
+        this.failedCalls = new boolean[Math.max(1, windowSize)];
+        this.slowCalls = new boolean[failedCalls.length];
+        this.minimumCalls = Math.min(Math.max(1, minimumCalls), failedCalls.length);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.waitInOpenNanos = waitInOpen.toNanos();
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.meterRegistry = meterRegistry;
+
+        for (State s : State.values()) {
+            Gauge.builder("dropbox.circuit.state", this, breaker -> breaker.state == s ? 1 : 0)
+                    .tag("state", s.name().toLowerCase())
+                    .tag("account", account)
+                    .description("Current state of the Dropbox circuit breaker")
+                    .register(meterRegistry);
+        }
+        Gauge.builder("dropbox.circuit.failure.rate", this, DropboxCircuitBreaker::getFailureRate)
+                .baseUnit("percent")
+                .tag("account", account)
+                .register(meterRegistry);
+        Gauge.builder("dropbox.circuit.slow.rate", this, DropboxCircuitBreaker::getSlowCallRate)
+                .baseUnit("percent")
+                .tag("account", account)
+                .register(meterRegistry);
+        this.rejectedOpen = Counter.builder("dropbox.circuit.rejected")
+                .tag("reason", "open")
+                .tag("account", account)
+                .description("Dropbox calls rejected without being sent")
+                .register(meterRegistry);
+        this.rejectedRateLimited = Counter.builder("dropbox.circuit.rejected")
+                .tag("reason", "rate_limited")
+                .tag("account", account)
+                .description("Dropbox calls rejected without being sent")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Creates a breaker with the same settings for another Dropbox account, starting out closed.
+     *
+     * @param account The name of the account
+     * @return A new breaker guarding the calls of that account
+     */
+    public DropboxCircuitBreaker forAccount(String account) {
+        return new DropboxCircuitBreaker(account, failedCalls.length, minimumCalls, failureRateThreshold,
+                Duration.ofNanos(slowCallNanos), slowCallRateThreshold, Duration.ofNanos(waitInOpenNanos),
+                halfOpenCalls, meterRegistry);
+    }
+
+    /**
+     * Runs a Dropbox call through the breaker.
+     * The call is rejected without running if the breaker is open or Dropbox asked to back off,
+     * otherwise its duration and outcome are recorded. The duration of calls that transfer file content is
+     * recorded in the latency timer but not checked against the slow call duration.
+     *
+     * @param operation The name of the Dropbox operation, used to tag the call latency
+     * @param call      The Dropbox call to run
+     * @param <T>       The result type of the call
+     * @param <E>       Any checked exception the call throws besides DbxException
+     * @return The result of the call
+     * @throws DropboxUnavailableException If the call was rejected without being sent
+     * @throws DbxException                If the call fails with a Dropbox error
+     * @throws E                           If the call fails with another checked exception
+     */
+    public <T, E extends Exception> T execute(String operation, DropboxCall<T, E> call) throws DbxException, E {
+        State permittedIn = acquirePermission();
+        long slowAfter = TRANSFER_OPERATIONS.contains(operation) ? Long.MAX_VALUE : slowCallNanos;
+        long start = System.nanoTime();
+        try {
+            T result = call.run();
+            long elapsed = record(operation, "success", start);
+            onComplete(permittedIn, false, elapsed > slowAfter, false);
+            return result;
+        } catch (RateLimitException e) {
+            record(operation, "rate_limited", start);
+            onRateLimited(e);
+            onComplete(permittedIn, false, false, true);
+            throw e;
+        } catch (DbxException e) {
+            boolean failed = isFailure(e);
+            long elapsed = record(operation, failed ? "failure" : "api_error", start);
+            onComplete(permittedIn, failed, elapsed > slowAfter, false);
+            throw e;
+        } catch (Exception e) {
+            // Local errors such as an unreadable upload stream say nothing about Dropbox
+            record(operation, "local_error", start);
+            onComplete(permittedIn, false, false, true);
+            throw e;
+        }
+    }
+
+    /**
+     * Fails fast if Dropbox calls are currently being rejected, without taking a trial call slot.
+     * Used before starting work whose only purpose is to reach Dropbox, such as reading an upload.
+     *
+     * @throws DropboxUnavailableException If calls are being rejected
+     */
+    public void ensureAvailable() throws DropboxUnavailableException {
+        long now = System.nanoTime();
+        checkRateLimit(now);
+        synchronized (this) {
+            if (state == State.OPEN && now < openUntilNanos) {
+                throw reject(rejectedOpen, "Dropbox circuit breaker is open", openUntilNanos - now);
+            }
+        }
+    }
+
+    /**
+     * Gets the name of the account the breaker guards.
+     *
+     * @return the account name
+     */
+    public String getAccount() {
+        return account;
+    }
+
+    /**
+     * Gets the current state of the breaker.
+     *
+     * @return the breaker state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the percentage of failed calls in the current window.
+     *
+     * @return the failure rate, or 0 if no calls were recorded
+     */
+    public synchronized double getFailureRate() {
+        return windowCount == 0 ? 0 : failureCount * 100.0 / windowCount;
+    }
+
+    /**
+     * Gets the percentage of slow calls in the current window.
+     *
+     * @return the slow call rate, or 0 if no calls were recorded
+     */
+    public synchronized double getSlowCallRate() {
+        return windowCount == 0 ? 0 : slowCount * 100.0 / windowCount;
+    }
+
+    /**
+     * Gets how long calls are still blocked because of a Dropbox rate limit.
+     *
+     * @return the remaining backoff, or zero if calls are not blocked
+     */
+    public Duration getRateLimitRemaining() {
+        return Duration.ofNanos(Math.max(0, rateLimitedUntilNanos.get() - System.nanoTime()));
+    }
+
+    /**
+     * Records the latency of a finished call.
+     *
+     * @param operation The name of the Dropbox operation
+     * @param outcome   How the call ended
+     * @param start     The start time of the call from {@link System#nanoTime()}
+     * @return The duration of the call in nanoseconds
+     */
+    private long record(String operation, String outcome, long start) {
+        long elapsed = System.nanoTime() - start;
+        callTimers.computeIfAbsent(operation + ':' + outcome, key -> Timer.builder("dropbox.api.calls")
+                        .description("Latency of Dropbox API calls")
+                        .tag("operation", operation)
+                        .tag("outcome", outcome)
+                        .tag("account", account)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(elapsed, TimeUnit.NANOSECONDS);
+        return elapsed;
+    }
+
+    /**
+     * Decides whether a call may run and takes a trial call slot if the breaker is half-open.
+     *
+     * @return The state the call was permitted in
+     * @throws DropboxUnavailableException If the call is rejected
+     */
+    private State acquirePermission() throws DropboxUnavailableException {
+        long now = System.nanoTime();
+        checkRateLimit(now);
+
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (now < openUntilNanos) {
+                    throw reject(rejectedOpen, "Dropbox circuit breaker is open", openUntilNanos - now);
+                }
+                transitionTo(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (halfOpenInFlight + halfOpenSuccesses >= halfOpenCalls) {
+                    throw reject(rejectedOpen, "Dropbox circuit breaker is waiting for trial calls", waitInOpenNanos);
+                }
+                halfOpenInFlight++;
+            }
+            return state;
+        }
+    }
+
+    /**
+     * Rejects the call if Dropbox asked to back off and the backoff has not passed yet.
+     *
+     * @param now The current time from {@link System#nanoTime()}
+     * @throws DropboxUnavailableException If calls are blocked by a rate limit
+     */
+    private void checkRateLimit(long now) throws DropboxUnavailableException {
+        long blockedUntil = rateLimitedUntilNanos.get();
+        if (now < blockedUntil) {
+            throw reject(rejectedRateLimited, "Dropbox rate limit reached", blockedUntil - now);
+        }
+    }
+
+    /**
+     * Records the outcome of a call that was permitted to run.
+     *
+     * @param permittedIn The state the call was permitted in
+     * @param failed      Whether the call failed in a way that indicates a problem with Dropbox
+     * @param slow        Whether the call took longer than the slow call duration
+     * @param ignored     Whether the outcome says nothing about the health of Dropbox
+     */
+    private synchronized void onComplete(State permittedIn, boolean failed, boolean slow, boolean ignored) {
+        if (permittedIn == State.HALF_OPEN) {
+            if (state != State.HALF_OPEN) {
+                return;
+            }
+            halfOpenInFlight--;
+            if (ignored) {
+                return;
+            }
+            if (failed || slow) {
+                transitionTo(State.OPEN);
+            } else if (++halfOpenSuccesses >= halfOpenCalls) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+
+        if (state != State.CLOSED || ignored) {
+            return;
+        }
+
+        if (windowCount == failedCalls.length) {
+            failureCount -= failedCalls[windowIndex] ? 1 : 0;
+            slowCount -= slowCalls[windowIndex] ? 1 : 0;
+        } else {
+            windowCount++;
+        }
+        failedCalls[windowIndex] = failed;
+        slowCalls[windowIndex] = slow;
+        failureCount += failed ? 1 : 0;
+        slowCount += slow ? 1 : 0;
+        windowIndex = (windowIndex + 1) % failedCalls.length;
+
+        if (windowCount >= minimumCalls
+                && (failureCount * 100 >= failureRateThreshold * windowCount
+                || slowCount * 100 >= slowCallRateThreshold * windowCount)) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    /**
+     * Blocks all calls until the backoff requested by a rate limit error has passed.
+     * Concurrent rate limit errors only ever extend the block.
+     *
+     * @param e The rate limit error reported by Dropbox
+     */
+    private void onRateLimited(RetryException e) {
+        long backoffMillis = e.getBackoffMillis() > 0 ? e.getBackoffMillis() : DEFAULT_RATE_LIMIT_BACKOFF_MS;
+        long until = System.nanoTime() + Duration.ofMillis(backoffMillis).toNanos();
+        long previous = rateLimitedUntilNanos.getAndAccumulate(until, Math::max);
+        if (previous < until) {
+            logger.warn("Dropbox rate limit reached for account {}, blocking calls for {} ms", account, backoffMillis);
+        }
+    }
+
+    /**
+     * Moves the breaker to a new state and resets the bookkeeping of the state it leaves.
+     * Must be called while holding the breaker lock.
+     *
+     * @param newState The state to move to
+     */
+    private void transitionTo(State newState) {
+        State previous = state;
+        state = newState;
+        halfOpenInFlight = 0;
+        halfOpenSuccesses = 0;
+
+        if (newState == State.OPEN) {
+            openUntilNanos = System.nanoTime() + waitInOpenNanos;
+            logger.warn("Dropbox circuit breaker of account {} opened (was {}, failure rate {}%, slow call rate {}%)",
+                    account, previous, Math.round(getFailureRate()), Math.round(getSlowCallRate()));
+        } else if (newState == State.CLOSED) {
+            windowIndex = 0;
+            windowCount = 0;
+            failureCount = 0;
+            slowCount = 0;
+            logger.info("Dropbox circuit breaker of account {} closed", account);
+        } else {
+            logger.info("Dropbox circuit breaker of account {} half-open, letting {} trial calls through", account, halfOpenCalls);
+        }
+    }
+
+    /**
+     * Counts a rejected call and creates the exception reporting it.
+     *
+     * @param counter         The counter of the rejection reason
+     * @param message         The reason the call was rejected
+     * @param retryAfterNanos How long the caller should wait before trying again
+     * @return The exception to throw
+     */
+    private DropboxUnavailableException reject(Counter counter, String message, long retryAfterNanos) {
+        counter.increment();
+        return new DropboxUnavailableException(message, Duration.ofNanos(retryAfterNanos));
+    }
+
+    /**
+     * Checks whether an error indicates a problem with Dropbox itself rather than with the request.
+     *
+     * @param e The error thrown by the call
+     * @return true if the error counts as a failure of Dropbox, false otherwise
+     */
+    private boolean isFailure(DbxException e) {
+        return e instanceof NetworkIOException
+                || e instanceof ServerException
+                || e instanceof RetryException
+                || e instanceof BadResponseException;
+    }
+
+    /**
+     * A single call to the Dropbox API.
+     *
+     * @param <T> The result type of the call
+     * @param <E> Any checked exception the call throws besides DbxException
+     */
+    @FunctionalInterface
+    public interface DropboxCall<T, E extends Exception> {
+        T run() throws DbxException, E;
+    }
+}
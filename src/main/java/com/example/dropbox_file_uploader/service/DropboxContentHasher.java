@@ -0,0 +1,85 @@
+package com.example.dropbox_file_uploader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Computes the Dropbox content hash of a file.
+ * The content is split into 4 MB blocks, each block is hashed with SHA-256,
+ * and the content hash is the SHA-256 of the concatenated block hashes, encoded as lowercase hex.
+ * This is the same value Dropbox reports as {@code content_hash} in file metadata,
+ * so local content can be matched against files already stored in Dropbox.
+ */
+public class DropboxContentHasher {
+
+    private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MessageDigest overallDigest = newSha256();
+    private final MessageDigest blockDigest = newSha256();
+    private int blockPosition;
+
+    /**
+     * Computes the content hash of everything remaining in the stream.
+     * The stream is read to its end but not closed.
+     *
+     * @param in The stream to hash
+     * @return The Dropbox content hash of the stream
+     * @throws IOException If there's an error reading the stream
+     */
+    public static String hash(InputStream in) throws IOException {
+        DropboxContentHasher hasher = new DropboxContentHasher();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            hasher.update(buffer, 0, read);
+        }
+        return hasher.finish();
+    }
+
+    /**
+     * Feeds more content into the hash.
+     *
+     * @param data   The buffer holding the content
+     * @param offset The offset of the content in the buffer
+     * @param length The number of bytes to hash
+     */
+    public void update(byte[] data, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            if (blockPosition == BLOCK_SIZE) {
+                overallDigest.update(blockDigest.digest());
+                blockPosition = 0;
+            }
+
+            int count = Math.min(end - offset, BLOCK_SIZE - blockPosition);
+            blockDigest.update(data, offset, count);
+            blockPosition += count;
+            offset += count;
+        }
+    }
+
+    /**
+     * Completes the hash. The hasher must not be used afterwards.
+     *
+     * @return The Dropbox content hash of all content fed into the hasher
+     */
+    public String finish() {
+        if (blockPosition > 0) {
+            overallDigest.update(blockDigest.digest());
+            blockPosition = 0;
+        }
+        return HexFormat.of().formatHex(overallDigest.digest());
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
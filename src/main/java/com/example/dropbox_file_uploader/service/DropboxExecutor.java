@@ -0,0 +1,153 @@
+package com.example.dropbox_file_uploader.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dedicated executor for work that waits on Dropbox, so that it never runs on servlet container threads.
+ * Every task gets its own virtual thread, which costs next to nothing while it is blocked on the network.
+ * Concurrency is limited per kind of work by bulkheads, so that for example a burst of uploads
+ * cannot delay health checks, and neither of them can hold the container threads that render pages.
+ * The chunks of large uploads and the files of batch uploads have bulkheads of their own, separate from the
+ * upload that submits them, so that an upload holding an upload slot never waits for a slot it competes for itself.
+ */
+@Component
+public class DropboxExecutor {
+
+    /**
+     * The kinds of work that are isolated from each other.
+     * CHUNK and BATCH_FILE are parts of an upload that already holds an upload slot: they wait for a free slot
+     * as long as it takes, and their wait is part of the transfer of that upload rather than a queue wait.
+     */
+    public enum Bulkhead {
+        UPLOAD, DOWNLOAD, HEALTH, CHUNK, BATCH_FILE
+    }
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("dropbox-io-", 0).factory());
+    private final Semaphore uploads;
+    private final Semaphore downloads;
+    private final Semaphore healthChecks;
+    private final Semaphore chunks;
+    private final Semaphore batchFiles;
+    private final Duration maxWait;
+    private final UploadTracer uploadTracer;
+
+    /**
+     * Constructs a new DropboxExecutor.
+     *
+     * @param maxUploads      The maximum number of uploads transferred to Dropbox at once
+     * @param maxDownloads    The maximum number of files downloaded from Dropbox at once
+     * @param maxHealthChecks The maximum number of health checks running at once
+     * @param maxChunks       The maximum number of chunks of all chunked uploads appended at once
+     * @param maxBatchFiles   The maximum number of files of batch uploads transferred at once
+     * @param maxWait         How long an upload or download may wait for a free slot before it is rejected
+     * @param uploadTracer    The tracer whose current trace is carried over to the tasks
+     */
+    public DropboxExecutor(@Value("${dropbox.bulkhead.uploads:32}") int maxUploads,
+                           @Value("${dropbox.bulkhead.downloads:16}") int maxDownloads,
+                           @Value("${dropbox.bulkhead.health-checks:1}") int maxHealthChecks,
+                           @Value("${dropbox.upload.max-threads:16}") int maxChunks,
+                           @Value("${dropbox.upload.batch.parallel-files:8}") int maxBatchFiles,
+                           @Value("${dropbox.bulkhead.max-wait:PT10S}") Duration maxWait,
+                           UploadTracer uploadTracer) {
+        this.uploads = new Semaphore(Math.max(1, maxUploads), true);
+        this.downloads = new Semaphore(Math.max(1, maxDownloads), true);
+        this.healthChecks = new Semaphore(Math.max(1, maxHealthChecks));
+        this.chunks = new Semaphore(Math.max(1, maxChunks), true);
+        this.batchFiles = new Semaphore(Math.max(1, maxBatchFiles), true);
+        this.maxWait = maxWait;
+        this.uploadTracer = uploadTracer;
+    }
+
+    /**
+     * Runs a task on its own virtual thread once its bulkhead has a free slot.
+     * Uploads and downloads wait up to the configured maximum wait for a slot, health checks do not wait at all,
+     * and chunks and batch files wait until a slot is free.
+     * The returned future fails with a {@link RejectedExecutionException} if no slot became free,
+     * and with the exception thrown by the task if the task fails.
+     * The upload trace of the submitting thread is bound to the task, and the wait for an upload slot is recorded
+     * in it.
+     *
+     * @param bulkhead The bulkhead the task belongs to
+     * @param task     The task to run
+     * @param <T>      The result type of the task
+     * @return A future completing with the result of the task
+     */
+    public <T> CompletableFuture<T> submit(Bulkhead bulkhead, Callable<T> task) {
+        Semaphore permits = permits(bulkhead);
+        boolean partOfUpload = bulkhead == Bulkhead.CHUNK || bulkhead == Bulkhead.BATCH_FILE;
+        long waitMillis = bulkhead == Bulkhead.HEALTH ? 0 : maxWait.toMillis();
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        UploadTrace trace = uploadTracer.current();
+        long submitted = System.nanoTime();
+        executor.execute(() -> {
+            uploadTracer.attach(trace);
+            try {
+                if (partOfUpload) {
+                    permits.acquire();
+                } else if (!permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                    future.completeExceptionally(new RejectedExecutionException(
+                            "Too many concurrent " + bulkhead.name().toLowerCase() + " tasks"));
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(new RejectedExecutionException("Interrupted while waiting for a free slot", e));
+                return;
+            }
+            if (!partOfUpload) {
+                uploadTracer.record(UploadTrace.Phase.QUEUE_WAIT, submitted);
+            }
+
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                permits.release();
+                uploadTracer.attach(null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Gets the number of free slots of a bulkhead.
+     *
+     * @param bulkhead The bulkhead to inspect
+     * @return the number of tasks that could start right now
+     */
+    public int availableSlots(Bulkhead bulkhead) {
+        return permits(bulkhead).availablePermits();
+    }
+
+    private Semaphore permits(Bulkhead bulkhead) {
+        return switch (bulkhead) {
+            case UPLOAD -> uploads;
+            case DOWNLOAD -> downloads;
+            case HEALTH -> healthChecks;
+            case CHUNK -> chunks;
+            case BATCH_FILE -> batchFiles;
+        };
+    }
+
+    /**
+     * Stops accepting tasks when the application stops; running transfers are interrupted.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
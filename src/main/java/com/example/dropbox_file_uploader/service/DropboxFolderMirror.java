@@ -0,0 +1,591 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
+import com.dropbox.core.v2.files.ListFolderErrorException;
+import com.dropbox.core.v2.files.ListFolderLongpollResult;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+import com.example.dropbox_file_uploader.model.dto.FileEntry;
+import com.example.dropbox_file_uploader.model.dto.FileListing;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local mirror of the tree of the target folder, so that the files stored in Dropbox can be listed and searched
+ * without a Dropbox call per request.
+ * <p>
+ * Once the application has started, the target folder (or {@code dropbox.mirror.root}) is listed recursively a
+ * single time through the primary account. From then on a background thread waits for changes with
+ * {@code list_folder/longpoll}, which does not count against the rate limit, and applies them with
+ * {@code list_folder/continue} as soon as Dropbox reports any, so changes made by other clients show up within
+ * seconds. Uploads made through {@link DropboxService} are applied immediately from their metadata. If Dropbox
+ * resets the cursor, the folder is listed again. While the folder does not exist yet, listing it is retried every
+ * {@code dropbox.mirror.missing-root-interval}, and right away once an upload is stored beneath it.
+ * <p>
+ * The entries are kept in a sorted map keyed by their lowercase path, so a page of a folder is read directly from
+ * the map. With {@code dropbox.mirror.state-file} set, the mirror and its cursor are written to that file after
+ * every sync and loaded at the next start, which then only fetches the changes since. The number of mirrored entries
+ * and the time since the last sync are published as {@code dropbox.mirror.entries} and {@code dropbox.mirror.sync.age}.
+ */
+@Component
+public class DropboxFolderMirror {
+    private static final Logger logger = LoggerFactory.getLogger(DropboxFolderMirror.class);
+
+    /**
+     * The largest page of entries returned at once.
+     */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * The range of long poll timeouts accepted by Dropbox, in seconds.
+     */
+    private static final int MIN_LONGPOLL_SECONDS = 30;
+    private static final int MAX_LONGPOLL_SECONDS = 480;
+
+    private final DropboxAccountPool accountPool;
+    private final TargetFolderRouter targetFolderRouter;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final String configuredRoot;
+    private final Path stateFile;
+    private final int longpollSeconds;
+    private final Duration retryInterval;
+    private final Duration missingRootInterval;
+    private final Semaphore rootCreated = new Semaphore(0);
+    private final ExecutorService syncThread;
+
+    private volatile ConcurrentSkipListMap<String, Node> entries = new ConcurrentSkipListMap<>();
+    private volatile ConcurrentSkipListMap<String, Node> rebuilding;
+    private volatile String root;
+    private volatile String rootKey;
+    private volatile String cursor;
+    private volatile Instant syncedAt;
+    private volatile boolean running;
+    private volatile boolean rootMissing;
+
+    /**
+     * Constructs a new DropboxFolderMirror.
+     *
+     * @param accountPool         The Dropbox accounts, whose primary account lists the folder
+     * @param targetFolderRouter  The router whose default folder is mirrored unless another root is configured
+     * @param objectMapper        The mapper used to read and write the state file
+     * @param meterRegistry       The registry the size and age of the mirror are published to
+     * @param enabled             Whether the target folder is mirrored at all
+     * @param root                The Dropbox folder to mirror, empty for the default target folder
+     * @param stateFile           The file the mirror is persisted to, empty to keep it in memory only
+     * @param longpollTimeout     How long one long poll waits for changes, between 30 seconds and 8 minutes
+     * @param retryInterval       How long to wait before syncing again after a failure
+     * @param missingRootInterval How long to wait before listing the folder again while it does not exist
+     */
+    public DropboxFolderMirror(DropboxAccountPool accountPool, TargetFolderRouter targetFolderRouter,
+                               ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                               @Value("${dropbox.mirror.enabled:true}") boolean enabled,
+                               @Value("${dropbox.mirror.root:}") String root,
+                               @Value("${dropbox.mirror.state-file:}") String stateFile,
+                               @Value("${dropbox.mirror.longpoll-timeout:PT30S}") Duration longpollTimeout,
+                               @Value("${dropbox.mirror.retry-interval:PT30S}") Duration retryInterval,
+                               @Value("${dropbox.mirror.missing-root-interval:PT5S}") Duration missingRootInterval) {
+        this.accountPool = accountPool;
+        this.targetFolderRouter = targetFolderRouter;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.configuredRoot = root.trim();
+        this.stateFile = stateFile.isBlank() ? null : Path.of(stateFile.trim());
+        this.longpollSeconds = Math.clamp(longpollTimeout.toSeconds(), MIN_LONGPOLL_SECONDS, MAX_LONGPOLL_SECONDS);
+        this.retryInterval = retryInterval;
+        this.missingRootInterval = missingRootInterval;
+        CustomizableThreadFactory threads = new CustomizableThreadFactory("dropbox-mirror-");
+        threads.setDaemon(true);
+        this.syncThread = Executors.newSingleThreadExecutor(threads);
+
+        Gauge.builder("dropbox.mirror.entries", this, mirror -> mirror.entries.size())
+                .description("Files and folders in the local mirror of the target folder")
+                .register(meterRegistry);
+        Gauge.builder("dropbox.mirror.sync.age", this, mirror -> mirror.getSyncAge().toSeconds())
+                .baseUnit("seconds")
+                .description("Time since the local mirror of the target folder was last in sync with Dropbox")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts mirroring the configured folder once the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        start(configuredRoot.isEmpty() ? targetFolderRouter.getDefaultFolder() : DropboxPaths.formatDropboxFolder(configuredRoot));
+    }
+
+    /**
+     * Starts mirroring a folder: loads the persisted mirror, if it is of the same folder, and starts the
+     * background thread keeping it in sync.
+     *
+     * @param folder The formatted Dropbox folder to mirror
+     */
+    public void start(String folder) {
+        root = folder;
+        rootKey = folder.toLowerCase(Locale.ROOT);
+        load();
+        running = true;
+        syncThread.execute(this::sync);
+        logger.info("Mirroring Dropbox folder {}", folder);
+    }
+
+    /**
+     * Stops the background sync.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        syncThread.shutdownNow();
+    }
+
+    /**
+     * Applies a file just uploaded to the mirror, if it is stored beneath the mirrored folder, together with any
+     * folder on its path that is not mirrored yet. While the mirror is being rebuilt, the file is also applied to
+     * the mirror being built, so that it is not lost when that mirror replaces the current one.
+     *
+     * @param metadata The metadata of the uploaded file
+     */
+    public void record(FileMetadata metadata) {
+        String key = rootKey;
+        if (key == null || !metadata.getPathLower().startsWith(key + "/")) {
+            return;
+        }
+        // Read before the current mirror: the rebuild replaces the mirror before it stops collecting uploads
+        ConcurrentSkipListMap<String, Node> building = rebuilding;
+        ConcurrentSkipListMap<String, Node> current = entries;
+        put(current, key, metadata);
+        if (building != null && building != current) {
+            put(building, key, metadata);
+        }
+        if (rootMissing) {
+            // The upload has created the mirrored folder, so it can be listed now
+            rootCreated.release();
+        }
+    }
+
+    /**
+     * Adds an uploaded file and the folders on its path beneath the mirrored folder to a mirror.
+     *
+     * @param mirror   The mirror to add the file to
+     * @param key      The lowercase path of the mirrored folder
+     * @param metadata The metadata of the uploaded file
+     */
+    private static void put(ConcurrentSkipListMap<String, Node> mirror, String key, FileMetadata metadata) {
+        String path = metadata.getPathDisplay();
+        for (int slash = path.indexOf('/', key.length() + 1); slash != -1; slash = path.indexOf('/', slash + 1)) {
+            String folder = path.substring(0, slash);
+            mirror.putIfAbsent(folder.toLowerCase(Locale.ROOT), Node.of(folderEntry(folder)));
+        }
+        mirror.put(metadata.getPathLower(), Node.of(fileEntry(metadata)));
+    }
+
+    /**
+     * Lists a page of the mirrored entries, ordered by path.
+     *
+     * @param prefix The path prefix of the entries, absolute or relative to the mirrored folder (can be null)
+     * @param query  A part of the name of the entries, matched regardless of case (can be null)
+     * @param page   The number of the page, starting at 0
+     * @param size   The maximum number of entries per page, at most {@link #MAX_PAGE_SIZE}
+     * @return The page of entries, with the number of matching entries across all pages
+     */
+    public FileListing list(String prefix, String query, int page, int size) {
+        int pageSize = Math.clamp(size, 1, MAX_PAGE_SIZE);
+        int pageNumber = Math.max(0, page);
+        String from = rangeStart(prefix);
+        String needle = query == null || query.isBlank() ? null : query.trim().toLowerCase(Locale.ROOT);
+
+        NavigableMap<String, Node> range = entries.subMap(from, true, from + Character.MAX_VALUE, false);
+        long skip = (long) pageNumber * pageSize;
+        int total = 0;
+        List<FileEntry> result = new ArrayList<>(Math.min(pageSize, 64));
+        for (Node node : range.values()) {
+            if (needle != null && !node.nameKey().contains(needle)) continue;
+
+            if (total >= skip && result.size() < pageSize) {
+                result.add(node.entry());
+            }
+            total++;
+        }
+
+        FileListing listing = new FileListing();
+        listing.setRoot(root);
+        listing.setSyncedAt(syncedAt);
+        listing.setTotal(total);
+        listing.setPage(pageNumber);
+        listing.setSize(pageSize);
+        listing.setEntries(result);
+        return listing;
+    }
+
+    /**
+     * Finds a mirrored file or folder.
+     *
+     * @param path The Dropbox path of the entry, matched regardless of case
+     * @return The entry, or empty if it is not mirrored
+     */
+    public Optional<FileEntry> find(String path) {
+        Node node = entries.get(path.toLowerCase(Locale.ROOT));
+        return node == null ? Optional.empty() : Optional.of(node.entry());
+    }
+
+    /**
+     * Gets the mirrored folder.
+     *
+     * @return the formatted Dropbox folder, or null if mirroring has not started
+     */
+    public String getRoot() {
+        return root;
+    }
+
+    /**
+     * Checks whether the mirror has been built, from Dropbox or from the state file.
+     *
+     * @return true if the mirror can be listed, false while it is still being built
+     */
+    public boolean isReady() {
+        return syncedAt != null;
+    }
+
+    /**
+     * Gets the number of mirrored files and folders.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the time since the mirror was last in sync with Dropbox.
+     *
+     * @return the time since the last sync, or {@link Duration#ZERO} if it has never been synced
+     */
+    public Duration getSyncAge() {
+        Instant at = syncedAt;
+        return at == null ? Duration.ZERO : Duration.between(at, Instant.now());
+    }
+
+    /**
+     * Keeps the mirror in sync until it is stopped: lists the folder while there is no cursor,
+     * then waits for and applies changes. Failures are logged and retried after the retry interval.
+     */
+    private void sync() {
+        while (running) {
+            try {
+                if (cursor == null) {
+                    rebuild();
+                } else {
+                    awaitChanges();
+                }
+            } catch (ListFolderContinueErrorException e) {
+                if (e.errorValue.isReset()) {
+                    logger.info("Dropbox reset the cursor of the mirror of {}, listing it again", root);
+                    cursor = null;
+                    continue;
+                }
+                logger.warn("Failed to sync the mirror of {}: {}", root, e.getMessage());
+                if (!pause(retryInterval)) return;
+            } catch (DbxException e) {
+                logger.warn("Failed to sync the mirror of {}: {}", root, e.getMessage());
+                if (!pause(retryInterval)) return;
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error while syncing the mirror of {}", root, e);
+                if (!pause(retryInterval)) return;
+            }
+        }
+    }
+
+    /**
+     * Lists the mirrored folder recursively and replaces the mirror with the result.
+     * Uploads recorded while the folder is listed are applied to the new mirror as well.
+     * If the folder does not exist yet, the mirror is emptied and the listing is tried again after the missing root
+     * interval, or as soon as an upload is stored beneath the folder.
+     *
+     * @throws DbxException If the folder cannot be listed
+     */
+    private void rebuild() throws DbxException {
+        DropboxAccount primary = accountPool.getPrimary();
+        ConcurrentSkipListMap<String, Node> fresh = new ConcurrentSkipListMap<>();
+        rebuilding = fresh;
+        try {
+            list(primary, fresh);
+        } finally {
+            rebuilding = null;
+        }
+    }
+
+    /**
+     * Lists the mirrored folder recursively into a new mirror and makes it the current one.
+     *
+     * @param primary The account the folder is listed through
+     * @param fresh   The new mirror, which also receives the uploads recorded meanwhile
+     * @throws DbxException If the folder cannot be listed
+     */
+    private void list(DropboxAccount primary, ConcurrentSkipListMap<String, Node> fresh) throws DbxException {
+        ListFolderResult result;
+        try {
+            result = primary.execute("list_folder", () -> primary.files().listFolderBuilder(root)
+                    .withRecursive(true)
+                    .start());
+        } catch (ListFolderErrorException e) {
+            if (!e.errorValue.isPath() || !e.errorValue.getPathValue().isNotFound()) {
+                throw e;
+            }
+            if (!rootMissing) {
+                logger.info("Mirrored folder {} does not exist yet", root);
+            }
+            rootMissing = true;
+            entries = fresh;
+            syncedAt = Instant.now();
+            awaitRootCreated();
+            return;
+        }
+        rootMissing = false;
+
+        apply(fresh, result.getEntries());
+        while (result.getHasMore()) {
+            String next = result.getCursor();
+            result = primary.execute("list_folder_continue", () -> primary.files().listFolderContinue(next));
+            apply(fresh, result.getEntries());
+        }
+        entries = fresh;
+        cursor = result.getCursor();
+        syncedAt = Instant.now();
+        save();
+        logger.info("Mirror of {} built with {} entries", root, fresh.size());
+    }
+
+    /**
+     * Waits for changes of the mirrored folder with a long poll and applies them.
+     * The long poll is sent outside the circuit breaker, since it is meant to take long.
+     *
+     * @throws DbxException If the changes cannot be fetched
+     */
+    private void awaitChanges() throws DbxException {
+        DropboxAccount primary = accountPool.getPrimary();
+        ListFolderLongpollResult poll = primary.files().listFolderLongpoll(cursor, longpollSeconds);
+        if (poll.getChanges()) {
+            int applied = 0;
+            ListFolderResult result;
+            do {
+                String next = cursor;
+                result = primary.execute("list_folder_continue", () -> primary.files().listFolderContinue(next));
+                apply(entries, result.getEntries());
+                applied += result.getEntries().size();
+                cursor = result.getCursor();
+            } while (result.getHasMore());
+            syncedAt = Instant.now();
+            save();
+            logger.debug("Applied {} changes to the mirror of {}", applied, root);
+        } else {
+            syncedAt = Instant.now();
+        }
+
+        Long backoff = poll.getBackoff();
+        if (backoff != null && backoff > 0) {
+            pause(Duration.ofSeconds(backoff));
+        }
+    }
+
+    /**
+     * Applies listed entries to a mirror. Deleted folders are removed together with everything beneath them.
+     *
+     * @param mirror   The mirror to apply the entries to
+     * @param metadata The entries listed by Dropbox
+     */
+    private void apply(ConcurrentSkipListMap<String, Node> mirror, List<Metadata> metadata) {
+        for (Metadata entry : metadata) {
+            String key = entry.getPathLower();
+            if (key == null || key.equals(rootKey)) continue;
+
+            if (entry instanceof FileMetadata file) {
+                mirror.put(key, Node.of(fileEntry(file)));
+            } else if (entry instanceof FolderMetadata) {
+                mirror.put(key, Node.of(folderEntry(entry.getPathDisplay())));
+            } else if (entry instanceof DeletedMetadata) {
+                mirror.remove(key);
+                // '0' follows '/', so this range holds exactly the paths beneath the deleted folder
+                mirror.subMap(key + "/", true, key + "0", false).clear();
+            }
+        }
+    }
+
+    /**
+     * Loads the persisted mirror, if there is one of the mirrored folder.
+     * A missing or unreadable file leaves the mirror empty; it is then built from Dropbox.
+     */
+    private void load() {
+        if (stateFile == null || !Files.exists(stateFile)) {
+            return;
+        }
+        try {
+            State state = objectMapper.readValue(stateFile.toFile(), State.class);
+            if (state.root() == null || !state.root().equalsIgnoreCase(root) || state.entries() == null) {
+                logger.info("Ignoring mirror state of {} in {}, now mirroring {}", state.root(), stateFile, root);
+                return;
+            }
+            ConcurrentSkipListMap<String, Node> loaded = new ConcurrentSkipListMap<>();
+            for (FileEntry entry : state.entries()) {
+                loaded.put(entry.getPath().toLowerCase(Locale.ROOT), Node.of(entry));
+            }
+            entries = loaded;
+            cursor = state.cursor();
+            syncedAt = state.syncedAt();
+            logger.info("Loaded {} mirrored entries of {}, synced at {}", loaded.size(), root, syncedAt);
+        } catch (IOException e) {
+            logger.warn("Could not read mirror state {}: {}", stateFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the mirror and its cursor to the state file, replacing the previous file atomically.
+     */
+    private void save() {
+        if (stateFile == null) {
+            return;
+        }
+        try {
+            List<FileEntry> snapshot = entries.values().stream().map(Node::entry).toList();
+            Files.createDirectories(stateFile.toAbsolutePath().getParent());
+            Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            objectMapper.writeValue(temp.toFile(), new State(root, cursor, syncedAt, snapshot));
+            Files.move(temp, stateFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Could not write mirror state {}: {}", stateFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Determines the first key of the entries a listing starts at.
+     *
+     * @param prefix The path prefix, absolute or relative to the mirrored folder (can be null)
+     * @return The lowercase path prefix
+     */
+    private String rangeStart(String prefix) {
+        if (prefix == null || prefix.isBlank()) {
+            return rootKey + "/";
+        }
+        String path = prefix.trim().replace('\\', '/');
+        return (path.startsWith("/") ? path : rootKey + "/" + path).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Waits until an upload is stored beneath the mirrored folder while it does not exist, or the missing root
+     * interval has passed.
+     */
+    private void awaitRootCreated() {
+        try {
+            if (rootCreated.tryAcquire(missingRootInterval.toNanos(), TimeUnit.NANOSECONDS)) {
+                rootCreated.drainPermits();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    /**
+     * Waits before the next sync attempt.
+     *
+     * @param duration How long to wait
+     * @return true if the wait ended normally, false if the sync thread was stopped
+     */
+    private boolean pause(Duration duration) {
+        try {
+            Thread.sleep(duration);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+            return false;
+        }
+    }
+
+    /**
+     * Creates the entry of a file.
+     *
+     * @param file The metadata of the file
+     * @return The entry of the file
+     */
+    private static FileEntry fileEntry(FileMetadata file) {
+        FileEntry entry = new FileEntry();
+        entry.setPath(file.getPathDisplay());
+        entry.setName(file.getName());
+        entry.setSize(file.getSize());
+        entry.setModified(file.getServerModified().toInstant());
+        entry.setRev(file.getRev());
+        entry.setContentHash(file.getContentHash());
+        return entry;
+    }
+
+    /**
+     * Creates the entry of a folder.
+     *
+     * @param path The Dropbox path of the folder
+     * @return The entry of the folder
+     */
+    private static FileEntry folderEntry(String path) {
+        FileEntry entry = new FileEntry();
+        entry.setPath(path);
+        entry.setName(path.substring(path.lastIndexOf('/') + 1));
+        entry.setFolder(true);
+        return entry;
+    }
+
+    /**
+     * A mirrored entry with its name in lowercase, so that searches do not convert names again.
+     *
+     * @param entry   The mirrored file or folder
+     * @param nameKey The lowercase name of the entry
+     */
+    private record Node(FileEntry entry, String nameKey) {
+        static Node of(FileEntry entry) {
+            return new Node(entry, entry.getName().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * The persisted state of the mirror.
+     *
+     * @param root     The mirrored folder
+     * @param cursor   The cursor the changes since the last sync are fetched with
+     * @param syncedAt The time of the last sync
+     * @param entries  The mirrored entries
+     */
+    record State(String root, String cursor, Instant syncedAt, List<FileEntry> entries) {
+    }
+}
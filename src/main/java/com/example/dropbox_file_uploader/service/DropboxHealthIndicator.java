@@ -0,0 +1,188 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.DbxClientV2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Background probe of the connection to Dropbox.
+ * The connection is checked on a fixed schedule and the outcome of the last check is kept in memory,
+ * so that pages and endpoints reporting the connection status never wait for a Dropbox round trip.
+ * Checks run on the health bulkhead of the {@link DropboxExecutor}, so they are neither delayed by uploads
+ * nor do they pile up when Dropbox hangs; a new check only starts once the previous one has finished.
+ * The same status is published as the {@code dropbox} component of the Spring Boot health endpoint.
+ */
+@Component
+public class DropboxHealthIndicator implements HealthIndicator {
+    private static final Logger logger = LoggerFactory.getLogger(DropboxHealthIndicator.class);
+
+    /**
+     * How long a request waits for the very first check before reporting Dropbox as not connected.
+     */
+    private static final long FIRST_CHECK_TIMEOUT_MS = 10_000;
+
+    private final DbxClientV2 dropboxClient;
+    private final DropboxCircuitBreaker circuitBreaker;
+    private final DropboxExecutor dropboxExecutor;
+    private final Duration staleAfter;
+    private volatile Status status;
+    private CompletableFuture<Status> inFlight;
+
+    /**
+     * Constructs a new DropboxHealthIndicator.
+     *
+     * @param dropboxClient  The Dropbox client used to check the connection
+     * @param circuitBreaker  The circuit breaker every Dropbox call goes through
+     * @param dropboxExecutor The executor the checks run on
+     * @param staleAfter      How old the last check may be before the status is no longer trusted
+     */
+    public DropboxHealthIndicator(DbxClientV2 dropboxClient,
+                                  DropboxCircuitBreaker circuitBreaker,
+                                  DropboxExecutor dropboxExecutor,
+                                  @Value("${dropbox.health.stale-after:PT2M}") Duration staleAfter) {
+        this.dropboxClient = dropboxClient;
+        this.circuitBreaker = circuitBreaker;
+        this.dropboxExecutor = dropboxExecutor;
+        this.staleAfter = staleAfter;
+    }
+
+    /**
+     * Starts a background check of the connection, unless the previous check is still running.
+     */
+    @Scheduled(fixedDelayString = "${dropbox.health.interval:PT30S}")
+    public void probe() {
+        probeAsync();
+    }
+
+    /**
+     * Starts a check of the connection on the health bulkhead, or joins the check that is already running.
+     *
+     * @return A future completing with the outcome of the check
+     */
+    private synchronized CompletableFuture<Status> probeAsync() {
+        if (inFlight == null || inFlight.isDone()) {
+            inFlight = dropboxExecutor.submit(DropboxExecutor.Bulkhead.HEALTH, this::check);
+        }
+        return inFlight;
+    }
+
+    /**
+     * Checks the connection to Dropbox by retrieving the current account information and stores the outcome.
+     * The check goes through the circuit breaker, so while the breaker is open it fails without a round trip,
+     * and once the breaker is half-open it serves as one of the trial calls.
+     * Only changes of the connection state are logged, so a lasting outage does not flood the log.
+     *
+     * @return the outcome of the check
+     */
+    private Status check() {
+        long start = System.nanoTime();
+        String error = null;
+        try {
+            circuitBreaker.execute("get_current_account", () -> dropboxClient.users().getCurrentAccount());
+        } catch (DbxException e) {
+            error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+        Status current = new Status(error == null, Duration.ofNanos(System.nanoTime() - start), Instant.now(), error);
+
+        Status previous = status;
+        status = current;
+        if (previous == null || previous.up() != current.up()) {
+            if (current.up()) {
+                logger.info("Successfully connected to Dropbox ({} ms)", current.latency().toMillis());
+            } else {
+                logger.error("Failed to connect to Dropbox: {}", error);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Gets the outcome of the last connection check.
+     * If no check has completed yet, waits a bounded time for the first one.
+     *
+     * @return the last known connection status
+     */
+    public Status getStatus() {
+        Status current = status;
+        if (current != null) {
+            return current;
+        }
+
+        try {
+            return probeAsync().get(FIRST_CHECK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            logger.debug("First Dropbox connection check did not complete: {}", e.toString());
+        }
+        return new Status(false, Duration.ZERO, Instant.now(), "Connection has not been checked yet");
+    }
+
+    /**
+     * Checks whether Dropbox was reachable at the last check and the check is recent enough to be trusted.
+     *
+     * @return true if Dropbox is considered connected, false otherwise
+     */
+    public boolean isConnected() {
+        Status current = getStatus();
+        return current.up() && !isStale(current);
+    }
+
+    /**
+     * Reports the last known connection status to the Spring Boot health endpoint.
+     * A status older than the staleness threshold is reported as unknown, since the probe itself is stuck.
+     *
+     * @return the health of the Dropbox connection
+     */
+    @Override
+    public Health health() {
+        Status current = getStatus();
+        Health.Builder builder = isStale(current)
+                ? Health.unknown()
+                : current.up() ? Health.up() : Health.down();
+        builder.withDetail("latencyMs", current.latency().toMillis())
+                .withDetail("checkedAt", current.checkedAt().toString())
+                .withDetail("circuitBreaker", circuitBreaker.getState().name());
+        if (!circuitBreaker.getRateLimitRemaining().isZero()) {
+            builder.withDetail("rateLimitedForMs", circuitBreaker.getRateLimitRemaining().toMillis());
+        }
+        if (current.error() != null) {
+            builder.withDetail("error", current.error());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Checks whether a status is older than the staleness threshold.
+     *
+     * @param status The status to check
+     * @return true if the status should no longer be trusted, false otherwise
+     */
+    private boolean isStale(Status status) {
+        return status.checkedAt().plus(staleAfter).isBefore(Instant.now());
+    }
+
+    /**
+     * The outcome of a single connection check.
+     *
+     * @param up        Whether Dropbox was reachable
+     * @param latency   How long the check took
+     * @param checkedAt When the check completed
+     * @param error     The error of a failed check, or null if the check succeeded
+     */
+    public record Status(boolean up, Duration latency, Instant checkedAt, String error) {
+    }
+}
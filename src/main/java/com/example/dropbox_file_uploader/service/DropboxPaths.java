@@ -0,0 +1,123 @@
+package com.example.dropbox_file_uploader.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Helpers that turn folder and file names sent by clients into Dropbox paths.
+ * They run for every uploaded file, so they are kept free of state and benchmarked separately.
+ */
+public final class DropboxPaths {
+    private static final Logger logger = LoggerFactory.getLogger(DropboxPaths.class);
+
+    private DropboxPaths() {
+    }
+
+    /**
+     * Formats a Dropbox path by ensuring it starts with a slash, replacing backslashes with forward slashes,
+     * removing duplicate slashes, and ensuring the folder path doesn't end with a slash.
+     *
+     * @param folder   The folder path to format
+     * @param fileName The file name to append to the folder path
+     * @return A properly formatted Dropbox path
+     */
+    public static String formatDropboxPath(String folder, String fileName) {
+        return formatDropboxFolder(folder) + "/" + fileName;
+    }
+
+    /**
+     * Formats a Dropbox folder path by ensuring it starts with a slash, replacing backslashes with forward slashes,
+     * removing duplicate slashes, and ensuring it doesn't end with a slash.
+     *
+     * @param folder The folder path to format
+     * @return A properly formatted Dropbox folder path
+     */
+    public static String formatDropboxFolder(String folder) {
+        if (!folder.startsWith("/")) {
+            folder = "/" + folder;
+        }
+
+        folder = folder.replace("\\", "/");
+
+        folder = folder.replace("//", "/");
+
+        if (folder.endsWith("/")) {
+            folder = folder.substring(0, folder.length() - 1);
+        }
+
+        return folder;
+    }
+
+    /**
+     * Sanitizes a file name by replacing characters that are not allowed in file names.
+     *
+     * @param fileName The file name to sanitize
+     * @return A sanitized file name with invalid characters replaced by underscores
+     */
+    public static String sanitizeFileName(String fileName) {
+        return fileName.replaceAll("[\\\\/:*?\"<>|]", "_");
+    }
+
+    /**
+     * Turns the name of a ZIP archive entry into a path relative to the folder the archive is extracted to.
+     * Backslashes are treated as separators and empty and {@code .} components are dropped; every remaining
+     * component is sanitized like a file name. Names that are absolute, carry a drive letter or climb out of the
+     * folder with {@code ..} are refused, so no entry can be written outside the target folder.
+     *
+     * @param entryName The name of the entry as stored in the archive
+     * @return The relative path without leading or trailing slash, or null if the name is unsafe or empty
+     */
+    public static String relativeArchivePath(String entryName) {
+        String name = entryName.replace('\\', '/');
+        if (name.startsWith("/") || name.matches("^[A-Za-z]:.*")) {
+            return null;
+        }
+
+        StringBuilder path = new StringBuilder();
+        for (String part : name.split("/")) {
+            String component = part.strip();
+            if (component.isEmpty() || component.equals(".")) continue;
+            if (component.equals("..")) {
+                return null;
+            }
+            if (!path.isEmpty()) {
+                path.append('/');
+            }
+            path.append(sanitizeFileName(component));
+        }
+        return path.isEmpty() ? null : path.toString();
+    }
+
+    /**
+     * Extracts the file extension from a file name.
+     *
+     * @param fileName The file name to extract the extension from
+     * @return The file extension including the dot, or an empty string if no extension is found
+     */
+    public static String getFileExtension(String fileName) {
+        int lastDotIndex = fileName.lastIndexOf('.');
+        if (lastDotIndex == -1) {
+            return "";
+        }
+        return fileName.substring(lastDotIndex);
+    }
+
+    /**
+     * Fixes potential encoding issues with Cyrillic characters in the path.
+     * This is useful when the path contains Cyrillic characters that might be incorrectly encoded.
+     *
+     * @param path The path that might contain incorrectly encoded Cyrillic characters
+     * @return The path with corrected encoding for Cyrillic characters
+     */
+    public static String fixCyrillicEncoding(String path) {
+        try {
+            byte[] bytes = path.getBytes("ISO-8859-1");
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            logger.error("Error fixing Cyrillic encoding", e);
+            return path;
+        }
+    }
+}
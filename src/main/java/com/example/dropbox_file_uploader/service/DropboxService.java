@@ -1,97 +1,568 @@
 package com.example.dropbox_file_uploader.service;
 
 import com.dropbox.core.DbxException;
-import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.CommitInfo;
+import com.dropbox.core.v2.files.CreateFolderBatchJobStatus;
+import com.dropbox.core.v2.files.CreateFolderBatchLaunch;
+import com.dropbox.core.v2.files.CreateFolderBatchResult;
+import com.dropbox.core.v2.files.CreateFolderBatchResultEntry;
 import com.dropbox.core.v2.files.CreateFolderErrorException;
 import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.GetMetadataErrorException;
+import com.dropbox.core.v2.files.ListFolderErrorException;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.RelocationErrorException;
+import com.dropbox.core.v2.files.UploadErrorException;
+import com.dropbox.core.v2.files.UploadSessionCursor;
+import com.dropbox.core.v2.files.UploadSessionFinishArg;
+import com.dropbox.core.v2.files.UploadSessionFinishBatchResultEntry;
+import com.dropbox.core.v2.files.UploadSessionFinishErrorException;
 import com.dropbox.core.v2.files.WriteMode;
+import com.example.dropbox_file_uploader.model.dto.FileUploadResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * Service for interacting with Dropbox API to upload files and manage folders.
  * This service provides functionality to upload files to a specified Dropbox folder,
- * create necessary folder structures, and test connection to Dropbox.
+ * and create necessary folder structures.
  */
 @Service
 public class DropboxService {
     private static final Logger logger = LoggerFactory.getLogger(DropboxService.class);
 
-    private final DbxClientV2 dropboxClient;
+    private static final int FOLDER_BATCH_POLL_ATTEMPTS = 5;
+    private static final long FOLDER_BATCH_POLL_INTERVAL_MS = 200;
 
-    @Value("${dropbox.target-folder}")
-    private String targetFolder;
+    /**
+     * The largest file Dropbox accepts through a single upload request.
+     */
+    private static final long MAX_SINGLE_UPLOAD_BYTES = DataSize.ofMegabytes(150).toBytes();
+
+    private final DropboxAccountPool accountPool;
+    private final FolderCache folderCache;
+    private final ChunkedUploadService chunkedUploadService;
+    private final ContentHashIndex contentHashIndex;
+    private final UploadMetrics uploadMetrics;
+    private final TargetFolderRouter targetFolderRouter;
+    private final UploadTracer uploadTracer;
+    private final DropboxFolderMirror folderMirror;
+
+    @Value("${dropbox.upload.session-threshold:8MB}")
+    private DataSize sessionThreshold;
+
+    @Value("${dropbox.dedup.enabled:true}")
+    private boolean dedupEnabled;
+
+    @Value("${dropbox.dedup.seed-on-startup:true}")
+    private boolean seedContentHashIndex;
+
+    @Value("${upload.zip.max-entries:1000}")
+    private int zipMaxEntries;
+
+    @Value("${upload.zip.max-entry-size:${spring.servlet.multipart.max-file-size:10MB}}")
+    private DataSize zipMaxEntrySize;
+
+    @Value("${upload.zip.max-total-size:4GB}")
+    private DataSize zipMaxTotalSize;
+
+    @Value("${upload.zip.buffer-size:32MB}")
+    private DataSize zipBufferSize;
+
+    @Value("${upload.zip.name-charset:UTF-8}")
+    private Charset zipNameCharset;
+
+    /**
+     * Constructs a new DropboxService with the specified Dropbox accounts.
+     *
+     * @param accountPool          The Dropbox accounts uploads are spread over
+     * @param folderCache          The cache of folders known to exist in Dropbox
+     * @param chunkedUploadService The service used to upload large files through upload sessions
+     * @param contentHashIndex     The index of files already stored in Dropbox, keyed by content hash
+     * @param uploadMetrics        The metrics the uploaded bytes are recorded in
+     * @param targetFolderRouter   The router whose fixed root folders are prepared at startup
+     * @param uploadTracer         The tracer the phases of uploads are recorded in
+     * @param folderMirror         The local mirror of the target folder uploaded files are added to
+     */
+    public DropboxService(DropboxAccountPool accountPool, FolderCache folderCache, ChunkedUploadService chunkedUploadService,
+                          ContentHashIndex contentHashIndex, UploadMetrics uploadMetrics,
+                          TargetFolderRouter targetFolderRouter, UploadTracer uploadTracer,
+                          DropboxFolderMirror folderMirror) {
+        this.accountPool = accountPool;
+        this.folderCache = folderCache;
+        this.chunkedUploadService = chunkedUploadService;
+        this.contentHashIndex = contentHashIndex;
+        this.uploadMetrics = uploadMetrics;
+        this.targetFolderRouter = targetFolderRouter;
+        this.uploadTracer = uploadTracer;
+        this.folderMirror = folderMirror;
+    }
+
+    /**
+     * Warms up the folder cache once the application has started.
+     * All components of the fixed root folders of the upload routes are created with a single batch call
+     * in every namespace uploads are stored in, and every component that exists afterwards is recorded
+     * in the folder cache, so that steady-state uploads do not need any folder round trips.
+     * Failures are logged and leave the cache cold; uploads then fall back to per-folder checks.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpFolderCache() {
+        List<String> folderPaths = targetFolderRouter.getRootFolders().stream()
+                .flatMap(root -> listFolderPaths(root).stream())
+                .distinct()
+                .toList();
+        if (folderPaths.isEmpty()) {
+            return;
+        }
+
+        List<DropboxAccount> namespaces = new ArrayList<>();
+        for (DropboxAccount account : accountPool.getAccounts()) {
+            if (namespaces.stream().noneMatch(account::sharesNamespaceWith)) {
+                namespaces.add(account);
+            }
+        }
+        for (DropboxAccount account : namespaces) {
+            warmUpFolderCache(account, folderPaths);
+        }
+    }
+
+    /**
+     * Creates the given folders in the namespace of an account with a single batch call
+     * and records every folder that exists afterwards in the folder cache.
+     *
+     * @param account     The account whose namespace the folders are created in
+     * @param folderPaths The folders to create, parents before their children
+     */
+    private void warmUpFolderCache(DropboxAccount account, List<String> folderPaths) {
+        try {
+            CreateFolderBatchLaunch launch = account.execute("create_folder_batch", () -> account.files().createFolderBatch(folderPaths));
+            CreateFolderBatchResult result = null;
+
+            if (launch.isComplete()) {
+                result = launch.getCompleteValue();
+            } else if (launch.isAsyncJobId()) {
+                result = awaitFolderBatch(account, launch.getAsyncJobIdValue());
+            }
+
+            if (result == null) {
+                logger.warn("Folder batch creation did not complete, folder cache stays cold");
+                return;
+            }
+
+            List<CreateFolderBatchResultEntry> entries = result.getEntries();
+            for (int i = 0; i < entries.size() && i < folderPaths.size(); i++) {
+                CreateFolderBatchResultEntry entry = entries.get(i);
+                boolean exists = entry.isSuccess()
+                        || (entry.getFailureValue().isPath() && entry.getFailureValue().getPathValue().isConflict());
+                if (exists) {
+                    folderCache.markExisting(folderKey(account, folderPaths.get(i)));
+                } else {
+                    logger.warn("Could not create folder {} of account {}: {}", folderPaths.get(i), account, entry.getFailureValue());
+                }
+            }
+            logger.info("Folder cache warmed up for account {}, {} folders cached", account, folderCache.size());
+        } catch (DbxException e) {
+            logger.warn("Failed to warm up folder cache of account {}: {}", account, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while warming up folder cache");
+        }
+    }
+
+    /**
+     * Seeds the content hash index from the metadata of the files already in the upload folders.
+     * The fixed root folders of the upload routes are listed recursively once the application has started, so that content uploaded
+     * before the index existed, or by other clients, is recognized as well. The index covers the namespace of the primary
+     * account only.
+     * Failures are logged and leave the index as it was loaded from disk.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void seedContentHashIndex() {
+        if (!dedupEnabled || !seedContentHashIndex) {
+            return;
+        }
 
-    @Value("${dropbox.fix.encoding:false}")
-    private boolean fixEncoding;
+        Map<String, String> pathsByContentHash = new HashMap<>();
+        for (String folder : targetFolderRouter.getRootFolders()) {
+            listContentHashes(folder, pathsByContentHash);
+        }
+
+        if (!pathsByContentHash.isEmpty()) {
+            contentHashIndex.recordAll(pathsByContentHash);
+            logger.info("Content hash index seeded with {} files", pathsByContentHash.size());
+        }
+    }
 
     /**
-     * Constructs a new DropboxService with the specified Dropbox client.
+     * Lists a folder recursively and collects the content hashes of the files in it.
+     * Failures are logged and leave the files listed so far in the result.
      *
-     * @param dropboxClient The Dropbox client used for API operations
+     * @param folder             The Dropbox folder to list
+     * @param pathsByContentHash The map the path of each file is added to, keyed by its content hash
      */
-    public DropboxService(DbxClientV2 dropboxClient) {
-        this.dropboxClient = dropboxClient;
+    private void listContentHashes(String folder, Map<String, String> pathsByContentHash) {
+        DropboxAccount primary = accountPool.getPrimary();
+        try {
+            ListFolderResult result = primary.execute("list_folder", () -> primary.files().listFolderBuilder(folder)
+                    .withRecursive(true)
+                    .start());
+            while (true) {
+                for (Metadata entry : result.getEntries()) {
+                    if (entry instanceof FileMetadata file && file.getContentHash() != null) {
+                        pathsByContentHash.put(file.getContentHash(), file.getPathDisplay());
+                    }
+                }
+                if (!result.getHasMore()) {
+                    break;
+                }
+                String cursor = result.getCursor();
+                result = primary.execute("list_folder_continue", () -> primary.files().listFolderContinue(cursor));
+            }
+        } catch (ListFolderErrorException e) {
+            if (!e.errorValue.isPath() || !e.errorValue.getPathValue().isNotFound()) {
+                logger.warn("Failed to seed content hash index: {}", e.getMessage());
+            }
+        } catch (DbxException e) {
+            logger.warn("Failed to seed content hash index: {}", e.getMessage());
+        }
     }
 
     /**
      * Uploads a file to Dropbox with an optional custom file name.
      * If a custom file name is provided, the original file extension is preserved.
-     * The file is uploaded to the configured target folder in Dropbox.
+     * The file is uploaded to the given folder in Dropbox, which is created first if it doesn't exist yet.
+     * Files larger than the configured session threshold are sent in chunks through an upload session,
+     * smaller files are sent with a single request.
      *
      * @param file           The MultipartFile to upload to Dropbox
      * @param customFileName Optional custom name for the file in Dropbox (can be null)
+     * @param folder         The formatted Dropbox folder the file is uploaded to, as resolved by {@link TargetFolderRouter}
+     * @param routingKey     The client id or route the Dropbox account is chosen by (can be null)
      * @return The path where the file was uploaded in Dropbox
      * @throws IOException              If there's an error reading the file
      * @throws DbxException             If there's an error with the Dropbox API
      * @throws IllegalArgumentException If the file is empty or the file name is null
      */
-    public String uploadFile(MultipartFile file, String customFileName) throws IOException, DbxException {
-        if (file.isEmpty()) {
+    public String uploadFile(MultipartFile file, String customFileName, String folder, String routingKey)
+            throws IOException, DbxException {
+        return uploadFile(file, file.getSize(), file.getOriginalFilename(), customFileName, folder, routingKey);
+    }
+
+    /**
+     * Uploads content from any stream source to Dropbox with an optional custom file name.
+     * This is the common upload path used for multipart files as well as for files spooled locally,
+     * with the same naming rules as {@link #uploadFile(MultipartFile, String, String, String)}.
+     * The upload runs through a Dropbox account of the pool; since the source can be read again,
+     * an upload that is rate limited or rejected by one account fails over to the next eligible account.
+     *
+     * @param source           The source of the content to upload
+     * @param size             The size of the content in bytes
+     * @param originalFileName The original name of the file as sent by the client
+     * @param customFileName   Optional custom name for the file in Dropbox (can be null)
+     * @param folder           The formatted Dropbox folder the file is uploaded to
+     * @param routingKey       The client id or route the Dropbox account is chosen by (can be null)
+     * @return The path where the file was uploaded in Dropbox
+     * @throws IOException              If there's an error reading the content
+     * @throws DbxException             If there's an error with the Dropbox API
+     * @throws IllegalArgumentException If the content is empty or the file name is null
+     */
+    public String uploadFile(InputStreamSource source, long size, String originalFileName, String customFileName,
+                             String folder, String routingKey) throws IOException, DbxException {
+        if (size <= 0) {
             logger.error("Attempted to upload an empty file");
             throw new IllegalArgumentException("File is empty");
         }
 
-        String originalFileName = file.getOriginalFilename();
-        String fileName = (customFileName != null && !customFileName.isEmpty())
-                ? customFileName
-                : originalFileName;
+        String fileName = resolveFileName(originalFileName, customFileName);
+        String fullPath = folder + "/" + fileName;
+        Set<DropboxAccount> tried = new HashSet<>();
+        DbxException throttled = null;
 
-        if (fileName == null) {
-            logger.error("File name is null");
-            throw new IllegalArgumentException("File name cannot be null");
+        while (true) {
+            DropboxAccount account;
+            try {
+                account = accountPool.acquire(routingKey, tried);
+            } catch (DropboxUnavailableException e) {
+                if (throttled != null) {
+                    throw throttled;
+                }
+                throw e;
+            }
+
+            try {
+                return uploadFile(account, source, size, fileName, fullPath, folder);
+            } catch (DbxException e) {
+                if (DropboxUnavailableException.retryAfterOf(e).isEmpty()) {
+                    throw e;
+                }
+                logger.warn("Upload of {} throttled on account {}, trying another account", fullPath, account);
+                tried.add(account);
+                throttled = e;
+            } finally {
+                account.release();
+            }
         }
+    }
 
-        if (customFileName != null && !customFileName.isEmpty() && originalFileName != null) {
-            String extension = getFileExtension(originalFileName);
-            if (!customFileName.toLowerCase().endsWith(extension.toLowerCase())) {
-                fileName = customFileName + extension;
+    /**
+     * Uploads content from a stream source through one Dropbox account.
+     * When deduplication is enabled and the account stores its files in the namespace of the primary account,
+     * the content hash of the source is taken from a {@link ContentHashed} source, or computed locally first from a
+     * source that was not hashed while it was received; if the same content is already stored in Dropbox,
+     * the existing file is returned or copied server-side to the requested path instead of transferring the content again.
+     *
+     * @param account  The account the content is uploaded through
+     * @param source   The source of the content to upload
+     * @param size     The size of the content in bytes
+     * @param fileName The sanitized name of the file
+     * @param fullPath The full Dropbox path of the file
+     * @param folder   The formatted Dropbox folder the file is uploaded to
+     * @return The path where the file was uploaded in Dropbox
+     * @throws IOException  If there's an error reading the content
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    private String uploadFile(DropboxAccount account, InputStreamSource source, long size, String fileName,
+                              String fullPath, String folder) throws IOException, DbxException {
+        ensureFolderExists(account, folder);
+
+        logger.debug("Uploading to path: {} through account {}", fullPath, account);
+
+        return transfer(account, folder, fullPath, fileName, () -> {
+            String contentHash = null;
+            if (dedupEnabled && account.sharesNamespaceWith(accountPool.getPrimary())) {
+                long dedupStart = System.nanoTime();
+                if (source instanceof ContentHashed hashed) {
+                    contentHash = hashed.getContentHash();
+                } else {
+                    // The check has to happen before the transfer, so a source without a hash is read twice
+                    try (InputStream in = source.getInputStream()) {
+                        contentHash = DropboxContentHasher.hash(in);
+                    }
+                }
+                FileMetadata existing = reuseExisting(account, contentHash, fullPath);
+                uploadTracer.record(UploadTrace.Phase.DEDUP, dedupStart);
+                if (existing != null) {
+                    contentHashIndex.recordSaved(size);
+                    return existing;
+                }
             }
+
+            try (InputStream in = source.getInputStream()) {
+                FileMetadata metadata;
+                if (size > Math.min(sessionThreshold.toBytes(), MAX_SINGLE_UPLOAD_BYTES)) {
+                    logger.debug("Using chunked upload session for {} bytes", size);
+                    CommitInfo commit = CommitInfo.newBuilder(fullPath)
+                            .withMode(WriteMode.OVERWRITE)
+                            .build();
+                    metadata = chunkedUploadService.upload(account, in, commit);
+                } else {
+                    String expectedHash = contentHash;
+                    metadata = account.execute("upload", () -> account.files().uploadBuilder(fullPath)
+                            .withMode(WriteMode.OVERWRITE)
+                            .withContentHash(expectedHash)
+                            .uploadAndFinish(in));
+                }
+                uploadMetrics.bytesUploaded(size);
+                return metadata;
+            }
+        });
+    }
+
+    /**
+     * Looks for a file in Dropbox with the specified content and makes it available at the specified path.
+     * The indexed file is verified first, and stale index entries are dropped. If the file is already at
+     * the requested path it is returned as is, otherwise it is copied server-side to the requested path.
+     *
+     * @param account     The account the upload runs through, acting in the namespace of the primary account
+     * @param contentHash The Dropbox content hash of the content to upload
+     * @param fullPath    The full Dropbox path the content should be stored at
+     * @return The metadata of the file at the requested path, or null if the content has to be uploaded
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    private FileMetadata reuseExisting(DropboxAccount account, String contentHash, String fullPath) throws DbxException {
+        String existingPath = contentHashIndex.findPath(contentHash).orElse(null);
+        if (existingPath == null) {
+            return null;
         }
 
-        fileName = sanitizeFileName(fileName);
+        FileMetadata existing;
+        try {
+            Metadata metadata = account.execute("get_metadata", () -> account.files().getMetadata(existingPath));
+            if (!(metadata instanceof FileMetadata file) || !contentHash.equals(file.getContentHash())) {
+                contentHashIndex.remove(existingPath);
+                return null;
+            }
+            existing = file;
+        } catch (GetMetadataErrorException e) {
+            logger.debug("Indexed file {} no longer exists", existingPath);
+            contentHashIndex.remove(existingPath);
+            return null;
+        }
+
+        if (existing.getPathLower().equals(fullPath.toLowerCase(Locale.ROOT))) {
+            logger.info("Content already stored at {}, skipping upload", existing.getPathDisplay());
+            return existing;
+        }
+
+        try {
+            Metadata copied = account.execute("copy", () -> account.files().copyV2(existing.getPathLower(), fullPath))
+                    .getMetadata();
+            logger.info("Content already stored at {}, copied to {}", existing.getPathDisplay(), copied.getPathDisplay());
+            return (FileMetadata) copied;
+        } catch (RelocationErrorException e) {
+            // Most likely a different file already occupies the requested path, overwrite it with a regular upload
+            logger.debug("Could not copy {} to {}: {}", existing.getPathDisplay(), fullPath, e.errorValue);
+            return null;
+        }
+    }
 
-        String processedTargetFolder = fixEncoding ? fixCyrillicEncoding(targetFolder) : targetFolder;
-        ensureFolderExists(processedTargetFolder);
+    /**
+     * Uploads a stream of unknown length to Dropbox as it arrives, with an optional custom file name.
+     * The stream is forwarded chunk by chunk, so neither the whole file nor a local copy of it is ever held;
+     * the naming rules are the same as for {@link #uploadFile(MultipartFile, String, String, String)}.
+     * A stream cannot be read twice, so the upload stays with the account it started on.
+     *
+     * @param in               The content to upload, read until its end
+     * @param originalFileName The original name of the file as sent by the client
+     * @param customFileName   Optional custom name for the file in Dropbox (can be null)
+     * @param folder           The formatted Dropbox folder the file is uploaded to
+     * @param routingKey       The client id or route the Dropbox account is chosen by (can be null)
+     * @return The path where the file was uploaded in Dropbox
+     * @throws IOException              If there's an error reading the stream
+     * @throws DbxException             If there's an error with the Dropbox API
+     * @throws IllegalArgumentException If the stream is empty or the file name is null
+     */
+    public String uploadStream(InputStream in, String originalFileName, String customFileName, String folder,
+                               String routingKey) throws IOException, DbxException {
+        String fileName = resolveFileName(originalFileName, customFileName);
+        DropboxAccount account = accountPool.acquire(routingKey);
+        try {
+            ensureFolderExists(account, folder);
 
-        String fullPath = formatDropboxPath(processedTargetFolder, fileName);
+            String fullPath = folder + "/" + fileName;
 
-        logger.debug("Uploading to path: {}", fullPath);
+            logger.debug("Streaming upload to path: {} through account {}", fullPath, account);
 
-        try (InputStream in = file.getInputStream()) {
-            FileMetadata metadata = dropboxClient.files().uploadBuilder(fullPath)
+            CommitInfo commit = CommitInfo.newBuilder(fullPath)
                     .withMode(WriteMode.OVERWRITE)
-                    .uploadAndFinish(in);
+                    .build();
+            return transfer(account, folder, fullPath, fileName, () -> {
+                FileMetadata metadata = chunkedUploadService.uploadStream(account, in, commit);
+                uploadMetrics.bytesUploaded(metadata.getSize());
+                return metadata;
+            });
+        } finally {
+            account.release();
+        }
+    }
+
+    /**
+     * Commits a sequential upload session filled by a resumable upload, sending its last chunk in the same request.
+     * The naming rules are the same as for {@link #uploadFile(MultipartFile, String, String, String)}.
+     *
+     * @param account          The account holding the upload session, whose upload slot the caller has taken
+     * @param cursor           The upload session and the offset the last chunk starts at
+     * @param in               The last chunk of the file
+     * @param length           The size of the last chunk in bytes
+     * @param originalFileName The original name of the file as sent by the client
+     * @param customFileName   Optional custom name for the file in Dropbox (can be null)
+     * @param folder           The formatted Dropbox folder the file is uploaded to
+     * @return The path where the file was uploaded in Dropbox
+     * @throws IOException              If there's an error reading the chunk
+     * @throws DbxException             If there's an error with the Dropbox API
+     * @throws IllegalArgumentException If the file name is null
+     */
+    public String finishSession(DropboxAccount account, UploadSessionCursor cursor, InputStream in, long length,
+                                String originalFileName, String customFileName, String folder) throws IOException, DbxException {
+        String fileName = resolveFileName(originalFileName, customFileName);
+        account.getCircuitBreaker().ensureAvailable();
+
+        ensureFolderExists(account, folder);
+
+        String fullPath = folder + "/" + fileName;
+
+        logger.debug("Committing upload session {} ({} bytes) to path: {}", cursor.getSessionId(), cursor.getOffset() + length, fullPath);
+
+        CommitInfo commit = CommitInfo.newBuilder(fullPath)
+                .withMode(WriteMode.OVERWRITE)
+                .build();
+        return transfer(account, folder, fullPath, fileName, () -> {
+            FileMetadata metadata = chunkedUploadService.finishSession(account, cursor, in, length, commit);
+            uploadMetrics.bytesUploaded(length);
+            return metadata;
+        });
+    }
 
+    /**
+     * Runs a transfer to Dropbox and translates its failures into the exceptions thrown by the upload methods.
+     * If Dropbox rejects the target path, the cached state of the target folder is invalidated.
+     * A successful transfer is recorded in the trace of the upload, and in the content hash index
+     * if the file is stored in the namespace of the primary account.
+     *
+     * @param account  The account the transfer runs through
+     * @param folder   The folder the file is uploaded to
+     * @param fullPath The full Dropbox path of the file
+     * @param fileName The name of the file, used in error messages
+     * @param transfer The transfer to run
+     * @return The path where the file was uploaded in Dropbox
+     * @throws IOException  If there's an error reading the content
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    private String transfer(DropboxAccount account, String folder, String fullPath, String fileName, Transfer transfer)
+            throws IOException, DbxException {
+        long start = System.nanoTime();
+        try {
+            FileMetadata metadata = transfer.run();
+            uploadTracer.record(UploadTrace.Phase.TRANSFER, start);
+
+            if (account.sharesNamespaceWith(accountPool.getPrimary())) {
+                contentHashIndex.record(metadata.getContentHash(), metadata.getPathDisplay());
+                folderMirror.record(metadata);
+            }
             logger.info("File uploaded: {}", metadata.getPathDisplay());
             return metadata.getPathDisplay();
+        } catch (DropboxUnavailableException e) {
+            logger.warn("Upload of {} rejected: {}", fullPath, e.getMessage());
+            throw e;
+        } catch (UploadErrorException | UploadSessionFinishErrorException e) {
+            if (isPathError(e)) {
+                // The target folder was removed or replaced behind our back, verify it again next time
+                folderCache.invalidate(folderKey(account, folder));
+            }
+            logger.error("Dropbox API error while uploading file: {}", fullPath, e);
+            throw new DbxException("Failed to upload file to Dropbox: " + fullPath, e);
         } catch (DbxException e) {
             logger.error("Dropbox API error while uploading file: {}", fullPath, e);
             throw new DbxException("Failed to upload file to Dropbox: " + fullPath, e);
@@ -102,54 +573,375 @@ public class DropboxService {
     }
 
     /**
-     * Formats a Dropbox path by ensuring it starts with a slash, replacing backslashes with forward slashes,
-     * removing duplicate slashes, and ensuring the folder path doesn't end with a slash.
+     * Uploads several files, each to its own folder, and commits them together.
+     * The contents of the files are uploaded into upload sessions concurrently, and all sessions are
+     * committed with a single upload_session/finish_batch call, which saves a commit round trip
+     * and a namespace lock per file. The sessions of a batch can only be committed by the account that
+     * started them, so the whole batch runs through one account. Files that cannot be uploaded are reported
+     * individually without failing the rest of the batch.
      *
-     * @param folder   The folder path to format
-     * @param fileName The file name to append to the folder path
-     * @return A properly formatted Dropbox path
+     * @param files      The files to upload
+     * @param folders    The formatted Dropbox folder of each file, in the same order as the files
+     * @param routingKey The client id or route the Dropbox account is chosen by (can be null)
+     * @return The result of each file, in the same order as the files
+     * @throws DbxException If there's an error with the Dropbox API that affects the whole batch
      */
-    private String formatDropboxPath(String folder, String fileName) {
-        if (!folder.startsWith("/")) {
-            folder = "/" + folder;
+    public List<FileUploadResult> uploadFiles(List<MultipartFile> files, List<String> folders, String routingKey)
+            throws DbxException {
+        DropboxAccount account = accountPool.acquire(routingKey);
+        try {
+            return uploadFiles(account, files, folders);
+        } finally {
+            account.release();
         }
+    }
 
-        folder = folder.replace("\\", "/");
+    /**
+     * Uploads several files through one Dropbox account and commits them together.
+     *
+     * @param account The account the files are uploaded through
+     * @param files   The files to upload
+     * @param folders The formatted Dropbox folder of each file, in the same order as the files
+     * @return The result of each file, in the same order as the files
+     * @throws DbxException If there's an error with the Dropbox API that affects the whole batch
+     */
+    private List<FileUploadResult> uploadFiles(DropboxAccount account, List<MultipartFile> files, List<String> folders)
+            throws DbxException {
+        for (String folder : new LinkedHashSet<>(folders)) {
+            ensureFolderExists(account, folder);
+        }
 
-        folder = folder.replace("//", "/");
+        long transferStart = System.nanoTime();
+        FileUploadResult[] results = new FileUploadResult[files.size()];
+        List<CompletableFuture<UploadSessionCursor>> sessions = new ArrayList<>(files.size());
+        List<String> paths = new ArrayList<>(files.size());
 
-        if (folder.endsWith("/")) {
-            folder = folder.substring(0, folder.length() - 1);
+        for (int i = 0; i < files.size(); i++) {
+            MultipartFile file = files.get(i);
+            try {
+                if (file.isEmpty()) {
+                    throw new IllegalArgumentException("File is empty");
+                }
+                String fileName = resolveFileName(file.getOriginalFilename(), null);
+                paths.add(folders.get(i) + "/" + fileName);
+                sessions.add(chunkedUploadService.uploadToSessionAsync(account, file, file.getSize()));
+            } catch (IllegalArgumentException e) {
+                results[i] = FileUploadResult.error(file.getOriginalFilename(), e.getMessage());
+                paths.add(null);
+                sessions.add(null);
+            }
         }
 
-        return folder + "/" + fileName;
+        List<UploadSessionFinishArg> entries = new ArrayList<>();
+        List<Integer> entryIndexes = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            if (sessions.get(i) == null) continue;
+
+            try {
+                UploadSessionCursor cursor = sessions.get(i).join();
+                CommitInfo commit = CommitInfo.newBuilder(paths.get(i))
+                        .withMode(WriteMode.OVERWRITE)
+                        .build();
+                entries.add(new UploadSessionFinishArg(cursor, commit));
+                entryIndexes.add(i);
+            } catch (CompletionException e) {
+                logger.error("Failed to upload content of {}", files.get(i).getOriginalFilename(), e.getCause());
+                results[i] = FileUploadResult.error(files.get(i).getOriginalFilename(), e.getCause().getMessage());
+            }
+        }
+
+        List<String> names = files.stream().map(MultipartFile::getOriginalFilename).toList();
+        commitSessions(account, entries, entryIndexes, names, folders, results);
+
+        uploadTracer.record(UploadTrace.Phase.TRANSFER, transferStart);
+        logger.info("Batch upload finished through account {}: {} of {} files committed", account, entries.size(), files.size());
+        return Arrays.asList(results);
     }
 
     /**
-     * Ensures that the specified folder path exists in Dropbox.
-     * Creates each component of the path if it doesn't already exist.
+     * Uploads the images and PDF files of a ZIP archive, keeping the folders of the archive under their target
+     * folder, and commits them together.
+     * The archive is read as a stream, entry by entry, without being extracted to disk. The type of each file is
+     * detected from its first bytes, whatever its name says. Files that fit into one chunk are uploaded into
+     * upload sessions concurrently while the archive is read on, holding no more than the archive buffer size in
+     * memory at a time; larger files are streamed into pipelined upload sessions as they are read. All sessions are
+     * committed with as few upload_session/finish_batch calls as possible, so the whole archive runs through one
+     * account. Files that are not images or PDFs, too large, or whose path would leave the target folder are
+     * reported individually without failing the rest of the archive.
      *
-     * @param folderPath The folder path to ensure exists
-     * @throws DbxException If there's an error creating the folder structure
+     * @param in             The content of the ZIP archive
+     * @param folderResolver Determines the target folder of a file from its detected content type
+     * @param routingKey     The client id or route the Dropbox account is chosen by (can be null)
+     * @return The result of each file of the archive, in the order of the archive
+     * @throws ArchiveRejectedException If the archive holds too many files or too much content
+     * @throws IOException              If the archive cannot be read
+     * @throws DbxException             If there's an error with the Dropbox API that affects the whole archive
+     * @throws UploadRoutingException   If the target folder of a file cannot be determined
      */
-    private void ensureFolderExists(String folderPath) throws DbxException {
-        String[] pathComponents = folderPath.split("/");
-        StringBuilder currentPath = new StringBuilder();
+    public List<FileUploadResult> uploadArchive(InputStream in, Function<String, String> folderResolver, String routingKey)
+            throws IOException, DbxException {
+        DropboxAccount account = accountPool.acquire(routingKey);
+        try {
+            return uploadArchive(account, in, folderResolver);
+        } finally {
+            account.release();
+        }
+    }
 
-        for (String component : pathComponents) {
-            if (component.isEmpty()) continue;
+    /**
+     * Uploads the files of a ZIP archive through one Dropbox account and commits them together.
+     *
+     * @param account        The account the files are uploaded through
+     * @param in             The content of the ZIP archive
+     * @param folderResolver Determines the target folder of a file from its detected content type
+     * @return The result of each file of the archive, in the order of the archive
+     * @throws IOException  If the archive cannot be read or is rejected
+     * @throws DbxException If there's an error with the Dropbox API that affects the whole archive
+     */
+    private List<FileUploadResult> uploadArchive(DropboxAccount account, InputStream in, Function<String, String> folderResolver)
+            throws IOException, DbxException {
+        long transferStart = System.nanoTime();
+        int bufferUnits = Math.clamp(zipBufferSize.toKilobytes(), 1, Integer.MAX_VALUE);
+        Semaphore buffer = new Semaphore(bufferUnits);
+        AtomicLong archiveBytes = new AtomicLong();
+        List<ArchiveFile> files = new ArrayList<>();
+
+        ZipInputStream zip = new ZipInputStream(in, zipNameCharset);
+        ZipEntry zipEntry;
+        while ((zipEntry = zip.getNextEntry()) != null) {
+            if (zipEntry.isDirectory() || isArchiveMetadata(zipEntry.getName())) continue;
+
+            if (files.size() >= zipMaxEntries) {
+                throw new ArchiveRejectedException("The archive holds more than " + zipMaxEntries + " files");
+            }
+            files.add(readArchiveFile(account, zip, zipEntry.getName(), folderResolver, buffer, bufferUnits, archiveBytes));
+        }
+
+        for (String folder : files.stream().filter(file -> file.error() == null).map(ArchiveFile::folder).distinct().toList()) {
+            ensureFolderExists(account, folder);
+        }
+
+        FileUploadResult[] results = new FileUploadResult[files.size()];
+        List<UploadSessionFinishArg> entries = new ArrayList<>();
+        List<Integer> entryIndexes = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            ArchiveFile file = files.get(i);
+            if (file.error() != null) {
+                results[i] = FileUploadResult.error(file.name(), file.error());
+                continue;
+            }
+
+            try {
+                CommitInfo commit = CommitInfo.newBuilder(file.path())
+                        .withMode(WriteMode.OVERWRITE)
+                        .build();
+                entries.add(new UploadSessionFinishArg(file.session().join(), commit));
+                entryIndexes.add(i);
+            } catch (CompletionException e) {
+                logger.error("Failed to upload content of {}", file.name(), e.getCause());
+                results[i] = FileUploadResult.error(file.name(), e.getCause().getMessage());
+            }
+        }
+
+        List<String> names = files.stream().map(ArchiveFile::name).toList();
+        List<String> folders = files.stream().map(ArchiveFile::folder).toList();
+        commitSessions(account, entries, entryIndexes, names, folders, results);
+
+        uploadTracer.record(UploadTrace.Phase.TRANSFER, transferStart);
+        logger.info("Archive upload finished through account {}: {} of {} files committed", account, entries.size(), files.size());
+        return Arrays.asList(results);
+    }
 
-            if (!currentPath.isEmpty()) {
-                currentPath.append("/");
+    /**
+     * Reads one file of a ZIP archive and starts its upload into an upload session.
+     *
+     * @param account        The account the file is uploaded through
+     * @param zip            The archive, positioned at the content of the file
+     * @param entryName      The name of the file in the archive
+     * @param folderResolver Determines the target folder of the file from its detected content type
+     * @param buffer         The archive buffer, in kilobytes, held by files read but not yet uploaded
+     * @param bufferUnits    The size of the archive buffer, in kilobytes
+     * @param archiveBytes   The uncompressed bytes read from the archive so far
+     * @return The file, with its upload in progress, or with the reason it is not uploaded
+     * @throws IOException If the archive cannot be read or is rejected
+     */
+    private ArchiveFile readArchiveFile(DropboxAccount account, ZipInputStream zip, String entryName,
+                                        Function<String, String> folderResolver, Semaphore buffer, int bufferUnits,
+                                        AtomicLong archiveBytes) throws IOException {
+        String relativePath = DropboxPaths.relativeArchivePath(entryName);
+        if (relativePath == null) {
+            logger.warn("Skipping archive entry with an unsafe path: {}", entryName);
+            return ArchiveFile.failed(entryName, "Недопустим път на файл в архива");
+        }
+
+        BoundedEntryStream content = new BoundedEntryStream(zip, zipMaxEntrySize.toBytes(), archiveBytes, zipMaxTotalSize.toBytes());
+        try {
+            byte[] head = content.readNBytes(FileSignatures.SNIFF_LENGTH);
+            if (head.length == 0) {
+                return ArchiveFile.failed(relativePath, "Файлът е празен");
+            }
+            String contentType = FileSignatures.detect(head, head.length);
+            if (contentType == null) {
+                uploadMetrics.rejected(UploadMetrics.RejectionReason.CONTENT_TYPE);
+                return ArchiveFile.failed(relativePath, "Неподдържан тип файл. Разрешени са само изображения и PDF файлове.");
+            }
+
+            int slash = relativePath.lastIndexOf('/');
+            String targetFolder = folderResolver.apply(contentType);
+            String folder = DropboxPaths.formatDropboxFolder(slash == -1
+                    ? targetFolder
+                    : targetFolder + "/" + relativePath.substring(0, slash));
+            String path = folder + "/" + relativePath.substring(slash + 1);
+
+            int chunkSize = chunkedUploadService.getChunkSize();
+            byte[] data = Arrays.copyOf(head, chunkSize + 1);
+            int length = head.length + content.readNBytes(data, head.length, data.length - head.length);
+            if (length > chunkSize) {
+                UploadSessionCursor cursor = chunkedUploadService.uploadToSession(account,
+                        new SequenceInputStream(new ByteArrayInputStream(data), content));
+                return new ArchiveFile(relativePath, folder, path, CompletableFuture.completedFuture(cursor), null);
+            }
+
+            int units = Math.min(bufferUnits, (int) ((length + 1023L) / 1024));
+            buffer.acquire(units);
+            CompletableFuture<UploadSessionCursor> session = chunkedUploadService.uploadToSessionAsync(
+                    account, new ByteArrayResource(Arrays.copyOf(data, length)), length);
+            session.whenComplete((cursor, error) -> buffer.release(units));
+            return new ArchiveFile(relativePath, folder, path, session, null);
+        } catch (EntryTooLargeException e) {
+            uploadMetrics.rejected(UploadMetrics.RejectionReason.SIZE);
+            content.discard();
+            return ArchiveFile.failed(relativePath, "Файлът е твърде голям. Максималният размер е "
+                    + zipMaxEntrySize.toMegabytes() + "MB.");
+        } catch (DbxException e) {
+            logger.error("Failed to upload content of {}", relativePath, e);
+            return ArchiveFile.failed(relativePath, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading archive entry " + relativePath, e);
+        }
+    }
+
+    /**
+     * Checks whether an archive entry is metadata added by the archiver rather than a file of the user,
+     * such as the resource forks macOS adds under __MACOSX or hidden files like .DS_Store.
+     *
+     * @param entryName The name of the entry in the archive
+     * @return true if the entry is skipped without a result, false otherwise
+     */
+    private boolean isArchiveMetadata(String entryName) {
+        String name = entryName.replace('\\', '/');
+        return name.startsWith("__MACOSX/") || name.substring(name.lastIndexOf('/') + 1).startsWith(".");
+    }
+
+    /**
+     * Commits the upload sessions of a batch with as few upload_session/finish_batch calls as possible,
+     * and records the result of each entry.
+     *
+     * @param account      The account that started the sessions
+     * @param entries      The sessions to commit, with the path of each file
+     * @param entryIndexes The index of the result of each entry
+     * @param names        The name reported for each result
+     * @param folders      The formatted Dropbox folder of each result
+     * @param results      The results, filled in for every committed entry
+     * @throws DbxException If there's an error with the Dropbox API that affects the whole batch
+     */
+    private void commitSessions(DropboxAccount account, List<UploadSessionFinishArg> entries, List<Integer> entryIndexes,
+                                List<String> names, List<String> folders, FileUploadResult[] results) throws DbxException {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        boolean indexed = account.sharesNamespaceWith(accountPool.getPrimary());
+        List<UploadSessionFinishBatchResultEntry> committed = chunkedUploadService.finishBatch(account, entries);
+        for (int e = 0; e < committed.size(); e++) {
+            int i = entryIndexes.get(e);
+            UploadSessionFinishBatchResultEntry entry = committed.get(e);
+            if (entry.isSuccess()) {
+                FileMetadata metadata = entry.getSuccessValue();
+                uploadMetrics.bytesUploaded(metadata.getSize());
+                if (indexed) {
+                    contentHashIndex.record(metadata.getContentHash(), metadata.getPathDisplay());
+                    folderMirror.record(metadata);
+                }
+                results[i] = FileUploadResult.success(names.get(i), metadata.getPathDisplay());
             } else {
-                currentPath.append("/");
+                if (entry.getFailureValue().isPath()) {
+                    folderCache.invalidate(folderKey(account, folders.get(i)));
+                }
+                logger.error("Failed to commit {}: {}", entries.get(e).getCommit().getPath(), entry.getFailureValue());
+                results[i] = FileUploadResult.error(names.get(i), entry.getFailureValue().toString());
             }
-            currentPath.append(component);
+        }
+    }
 
-            String path = currentPath.toString();
+    /**
+     * Determines the name under which a file is stored in Dropbox.
+     * If a custom file name is provided, the original file extension is preserved,
+     * and characters that are not allowed in file names are replaced.
+     *
+     * @param originalFileName The original name of the file as sent by the client
+     * @param customFileName   Optional custom name for the file in Dropbox (can be null)
+     * @return The sanitized file name
+     * @throws IllegalArgumentException If neither a custom nor an original file name is available
+     */
+    private String resolveFileName(String originalFileName, String customFileName) {
+        String fileName = (customFileName != null && !customFileName.isEmpty())
+                ? customFileName
+                : originalFileName;
+
+        if (fileName == null) {
+            logger.error("File name is null");
+            throw new IllegalArgumentException("File name cannot be null");
+        }
+
+        if (customFileName != null && !customFileName.isEmpty() && originalFileName != null) {
+            String extension = DropboxPaths.getFileExtension(originalFileName);
+            if (!customFileName.toLowerCase().endsWith(extension.toLowerCase())) {
+                fileName = customFileName + extension;
+            }
+        }
+
+        return DropboxPaths.sanitizeFileName(fileName);
+    }
+
+    /**
+     * Checks whether an upload failed because of the state of the target path.
+     *
+     * @param e The upload exception thrown by Dropbox
+     * @return true if Dropbox rejected the target path, false otherwise
+     */
+    private boolean isPathError(DbxException e) {
+        if (e instanceof UploadErrorException uploadError) {
+            return uploadError.errorValue.isPath();
+        }
+        if (e instanceof UploadSessionFinishErrorException finishError) {
+            return finishError.errorValue.isPath();
+        }
+        return false;
+    }
+
+    /**
+     * Ensures that the specified folder path exists in Dropbox.
+     * Folders already known to the folder cache are skipped; any other component of the path
+     * is created if it doesn't already exist and then recorded in the cache. The round trips are recorded in the
+     * trace of the upload.
+     *
+     * @param account    The account whose namespace the folder is created in
+     * @param folderPath The folder path to ensure exists
+     * @throws DbxException If there's an error creating the folder structure
+     */
+    private void ensureFolderExists(DropboxAccount account, String folderPath) throws DbxException {
+        if (folderCache.isKnown(folderKey(account, folderPath))) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        for (String path : listFolderPaths(folderPath)) {
+            if (folderCache.isKnown(folderKey(account, path))) continue;
 
             try {
-                dropboxClient.files().createFolderV2(path);
+                account.execute("create_folder", () -> account.files().createFolderV2(path));
                 logger.info("Created folder: {}", path);
             } catch (CreateFolderErrorException e) {
                 if (e.errorValue.isPath() && e.errorValue.getPathValue().isConflict()) {
@@ -159,63 +951,162 @@ public class DropboxService {
                     throw e;
                 }
             }
+            folderCache.markExisting(folderKey(account, path));
         }
+        uploadTracer.record(UploadTrace.Phase.ENSURE_FOLDER, start);
     }
 
     /**
-     * Sanitizes a file name by replacing characters that are not allowed in file names.
+     * Gets the key a folder is cached under in the folder cache.
+     * Folders in the namespace of the primary account are cached under their path,
+     * folders in other namespaces under their path prefixed with the namespace.
      *
-     * @param fileName The file name to sanitize
-     * @return A sanitized file name with invalid characters replaced by underscores
+     * @param account    The account whose namespace the folder is in
+     * @param folderPath The folder path
+     * @return The key of the folder in the folder cache
      */
-    private String sanitizeFileName(String fileName) {
-        return fileName.replaceAll("[\\\\/:*?\"<>|]", "_");
+    private String folderKey(DropboxAccount account, String folderPath) {
+        return account.sharesNamespaceWith(accountPool.getPrimary()) ? folderPath : account.getNamespaceKey() + ":" + folderPath;
     }
 
     /**
-     * Extracts the file extension from a file name.
+     * Lists every folder on the way to the specified folder path, from the top-most folder down.
+     * For example, {@code /a/b/c} yields {@code /a}, {@code /a/b} and {@code /a/b/c}.
      *
-     * @param fileName The file name to extract the extension from
-     * @return The file extension including the dot, or an empty string if no extension is found
+     * @param folderPath The folder path to split
+     * @return The list of folder paths leading to and including the specified folder
      */
-    private String getFileExtension(String fileName) {
-        int lastDotIndex = fileName.lastIndexOf('.');
-        if (lastDotIndex == -1) {
-            return "";
+    private List<String> listFolderPaths(String folderPath) {
+        String[] pathComponents = folderPath.split("/");
+        List<String> folderPaths = new ArrayList<>(pathComponents.length);
+        StringBuilder currentPath = new StringBuilder();
+
+        for (String component : pathComponents) {
+            if (component.isEmpty()) continue;
+
+            currentPath.append("/").append(component);
+            folderPaths.add(currentPath.toString());
         }
-        return fileName.substring(lastDotIndex);
+        return folderPaths;
     }
 
     /**
-     * Tests the connection to Dropbox by attempting to retrieve the current account information.
+     * Polls an asynchronous folder batch job until it completes or the poll attempts are exhausted.
      *
-     * @return true if the connection is successful, false otherwise
+     * @param account    The account that launched the batch job
+     * @param asyncJobId The id of the batch job returned by Dropbox
+     * @return The batch result, or null if the job failed or did not complete in time
+     * @throws DbxException         If there's an error checking the job status
+     * @throws InterruptedException If the thread is interrupted while waiting
      */
-    public boolean testConnection() {
-        try {
-            dropboxClient.users().getCurrentAccount();
-            logger.info("Successfully connected to Dropbox");
-            return true;
-        } catch (DbxException e) {
-            logger.error("Failed to connect to Dropbox", e);
-            return false;
+    private CreateFolderBatchResult awaitFolderBatch(DropboxAccount account, String asyncJobId) throws DbxException, InterruptedException {
+        for (int attempt = 0; attempt < FOLDER_BATCH_POLL_ATTEMPTS; attempt++) {
+            Thread.sleep(FOLDER_BATCH_POLL_INTERVAL_MS);
+            CreateFolderBatchJobStatus status = account.execute("create_folder_batch_check", () -> account.files().createFolderBatchCheck(asyncJobId));
+            if (status.isComplete()) {
+                return status.getCompleteValue();
+            }
+            if (!status.isInProgress()) {
+                return null;
+            }
         }
+        return null;
     }
 
     /**
-     * Fixes potential encoding issues with Cyrillic characters in the path.
-     * This is useful when the path contains Cyrillic characters that might be incorrectly encoded.
+     * A single transfer of file content to Dropbox that yields the metadata of the committed file.
+     */
+    @FunctionalInterface
+    private interface Transfer {
+        FileMetadata run() throws IOException, DbxException;
+    }
+
+    /**
+     * A file of a ZIP archive, with the upload of its content in progress or the reason it is not uploaded.
      *
-     * @param path The path that might contain incorrectly encoded Cyrillic characters
-     * @return The path with corrected encoding for Cyrillic characters
+     * @param name    The path of the file in the archive, reported in its result
+     * @param folder  The formatted Dropbox folder of the file
+     * @param path    The full Dropbox path of the file
+     * @param session The upload of the content of the file into an upload session
+     * @param error   The reason the file is not uploaded, or null
      */
-    private String fixCyrillicEncoding(String path) {
-        try {
-            byte[] bytes = path.getBytes("ISO-8859-1");
-            return new String(bytes, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            logger.error("Error fixing Cyrillic encoding", e);
-            return path;
+    private record ArchiveFile(String name, String folder, String path, CompletableFuture<UploadSessionCursor> session,
+                               String error) {
+        static ArchiveFile failed(String name, String error) {
+            return new ArchiveFile(name, null, null, null, error);
+        }
+    }
+
+    /**
+     * The content of one entry of a ZIP archive, failing the entry once it exceeds the maximum file size and
+     * rejecting the whole archive once the archive exceeds its maximum uncompressed size, so a small archive
+     * cannot expand into unbounded content. Closing it leaves the archive open.
+     */
+    private static final class BoundedEntryStream extends FilterInputStream {
+        private final long maxEntryBytes;
+        private final AtomicLong archiveBytes;
+        private final long maxArchiveBytes;
+        private long entryBytes;
+
+        BoundedEntryStream(InputStream in, long maxEntryBytes, AtomicLong archiveBytes, long maxArchiveBytes) {
+            super(in);
+            this.maxEntryBytes = maxEntryBytes;
+            this.archiveBytes = archiveBytes;
+            this.maxArchiveBytes = maxArchiveBytes;
         }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * Reads the rest of the entry without keeping it, still counting it towards the size of the archive.
+         */
+        void discard() throws IOException {
+            byte[] skipped = new byte[8192];
+            int n;
+            while ((n = in.read(skipped)) > 0) {
+                countArchive(n);
+            }
+        }
+
+        private void count(int n) throws IOException {
+            entryBytes += n;
+            countArchive(n);
+            if (entryBytes > maxEntryBytes) {
+                throw new EntryTooLargeException();
+            }
+        }
+
+        private void countArchive(int n) throws ArchiveRejectedException {
+            if (archiveBytes.addAndGet(n) > maxArchiveBytes) {
+                throw new ArchiveRejectedException("The archive holds more than " + maxArchiveBytes + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Thrown when a file of a ZIP archive exceeds the maximum file size.
+     */
+    private static final class EntryTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,235 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.oauth.DbxCredential;
+import com.dropbox.core.oauth.DbxRefreshResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renews the short-lived Dropbox access tokens in the background, before they expire.
+ * <p>
+ * When an account of the {@link DropboxAccountPool} authenticates with a refresh token (see {@code DropboxConfig}),
+ * its access token is obtained once at startup and from then on refreshed on a schedule as soon as less than the
+ * refresh margin is left. The Dropbox client would otherwise refresh the token itself within a request once it is
+ * about to expire, making that upload wait for the token endpoint while concurrent uploads race to do the same; with
+ * the margin well above the client's own five minutes, uploads never get to do it. Failed refreshes are retried at
+ * every check until the token has expired.
+ * <p>
+ * The age of each token, the time left until it expires and the outcome of the refreshes are published per account
+ * as the metrics {@code dropbox.token.age}, {@code dropbox.token.expires.in} and {@code dropbox.token.refreshes}, and
+ * as the {@code dropboxToken} component of the Spring Boot health endpoint. Accounts with a static access token have
+ * nothing to refresh; if no account has a refresh token the component reports as up.
+ */
+@Component("dropboxTokenHealthIndicator")
+public class DropboxTokenRefresher implements HealthIndicator {
+    private static final Logger logger = LoggerFactory.getLogger(DropboxTokenRefresher.class);
+
+    private final List<AccountToken> tokens;
+    private final Duration refreshMargin;
+
+    /**
+     * Constructs a new DropboxTokenRefresher and registers the metrics of every refreshable account.
+     *
+     * @param accountPool   The Dropbox accounts whose credentials are refreshed
+     * @param refreshMargin How long before a token expires it is refreshed
+     * @param meterRegistry The registry the metrics are published to
+     */
+    public DropboxTokenRefresher(DropboxAccountPool accountPool,
+                                 @Value("${dropbox.token.refresh-margin:PT30M}") Duration refreshMargin,
+                                 MeterRegistry meterRegistry) {
+        this.refreshMargin = refreshMargin;
+        this.tokens = accountPool.getAccounts().stream()
+                .filter(account -> account.getCredential().getRefreshToken() != null)
+                .map(account -> new AccountToken(account, meterRegistry))
+                .toList();
+    }
+
+    /**
+     * Obtains the first access tokens before the application starts serving uploads.
+     * A failure does not stop the startup; the token is requested again at the next check.
+     */
+    @PostConstruct
+    public void refreshAtStartup() {
+        tokens.forEach(AccountToken::refresh);
+    }
+
+    /**
+     * Refreshes every access token that has less than the refresh margin left before it expires.
+     */
+    @Scheduled(fixedDelayString = "${dropbox.token.check-interval:PT1M}")
+    public void refreshIfDue() {
+        for (AccountToken token : tokens) {
+            if (token.getExpiresIn().compareTo(refreshMargin) <= 0) {
+                token.refresh();
+            }
+        }
+    }
+
+    /**
+     * Refreshes the access tokens of all refreshable accounts now. The Dropbox clients read the token from their
+     * credential on every request, so requests sent after the refresh use the new token.
+     *
+     * @return true if every token was refreshed, false if a refresh failed
+     */
+    public boolean refresh() {
+        boolean refreshed = true;
+        for (AccountToken token : tokens) {
+            refreshed &= token.refresh();
+        }
+        return refreshed;
+    }
+
+    /**
+     * Checks whether any account authenticates with a refresh token.
+     *
+     * @return true if there are access tokens to refresh, false if all accounts use static access tokens
+     */
+    public boolean isRefreshable() {
+        return !tokens.isEmpty();
+    }
+
+    /**
+     * Reports the state of the access tokens to the Spring Boot health endpoint.
+     * The component is down once any token has expired, and up otherwise, even while refreshes fail.
+     *
+     * @return the health of the Dropbox access tokens
+     */
+    @Override
+    public Health health() {
+        if (tokens.isEmpty()) {
+            return Health.up().withDetail("refreshable", false).build();
+        }
+        boolean expired = tokens.stream().anyMatch(token -> token.getExpiresIn().isZero());
+        Health.Builder builder = expired ? Health.down() : Health.up();
+        builder.withDetail("refreshable", true);
+        for (AccountToken token : tokens) {
+            builder.withDetail(token.account.getName(), token.details());
+        }
+        return builder.build();
+    }
+
+    /**
+     * The access token of one account, with the outcome of its refreshes.
+     */
+    private static final class AccountToken {
+        private final DropboxAccount account;
+        private final Counter refreshed;
+        private final Counter failed;
+        private volatile Instant refreshedAt;
+        private volatile String lastError;
+        private volatile int consecutiveFailures;
+
+        /**
+         * Constructs a new AccountToken and registers its metrics.
+         *
+         * @param account       The account whose token is refreshed
+         * @param meterRegistry The registry the metrics are published to
+         */
+        AccountToken(DropboxAccount account, MeterRegistry meterRegistry) {
+            this.account = account;
+            this.refreshed = Counter.builder("dropbox.token.refreshes")
+                    .tag("outcome", "success")
+                    .tag("account", account.getName())
+                    .description("Refreshes of the Dropbox access token")
+                    .register(meterRegistry);
+            this.failed = Counter.builder("dropbox.token.refreshes")
+                    .tag("outcome", "failure")
+                    .tag("account", account.getName())
+                    .description("Refreshes of the Dropbox access token")
+                    .register(meterRegistry);
+            Gauge.builder("dropbox.token.age", this, token -> token.getTokenAge().toSeconds())
+                    .baseUnit("seconds")
+                    .tag("account", account.getName())
+                    .description("Time since the Dropbox access token was last refreshed")
+                    .register(meterRegistry);
+            Gauge.builder("dropbox.token.expires.in", this, token -> token.getExpiresIn().toSeconds())
+                    .baseUnit("seconds")
+                    .tag("account", account.getName())
+                    .description("Time until the Dropbox access token expires")
+                    .register(meterRegistry);
+        }
+
+        /**
+         * Refreshes the access token now.
+         *
+         * @return true if the token was refreshed, false if the refresh failed
+         */
+        synchronized boolean refresh() {
+            try {
+                DbxRefreshResult result = account.getClient().refreshAccessToken();
+                refreshedAt = Instant.now();
+                consecutiveFailures = 0;
+                lastError = null;
+                refreshed.increment();
+                logger.info("Dropbox access token of account {} refreshed, valid until {}",
+                        account, Instant.ofEpochMilli(result.getExpiresAt()));
+                return true;
+            } catch (DbxException e) {
+                consecutiveFailures++;
+                lastError = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                failed.increment();
+                logger.error("Failed to refresh the Dropbox access token of account {} ({} failures in a row, expires in {}s): {}",
+                        account, consecutiveFailures, getExpiresIn().toSeconds(), lastError);
+                return false;
+            }
+        }
+
+        /**
+         * Gets the time left until the access token expires.
+         *
+         * @return the remaining lifetime, zero once it has expired
+         */
+        Duration getExpiresIn() {
+            DbxCredential credential = account.getCredential();
+            Long expiresAt = credential.getExpiresAt();
+            if (expiresAt == null) {
+                return Duration.ZERO;
+            }
+            return Duration.ofMillis(Math.max(0, expiresAt - System.currentTimeMillis()));
+        }
+
+        /**
+         * Gets the time since the access token was last refreshed.
+         *
+         * @return the age of the token, or {@link Duration#ZERO} if it has never been refreshed
+         */
+        Duration getTokenAge() {
+            Instant at = refreshedAt;
+            return at == null ? Duration.ZERO : Duration.between(at, Instant.now());
+        }
+
+        /**
+         * Describes the state of the token for the health endpoint.
+         *
+         * @return the health details of the token
+         */
+        Map<String, Object> details() {
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("expiresInS", getExpiresIn().toSeconds());
+            details.put("consecutiveFailures", consecutiveFailures);
+            if (refreshedAt != null) {
+                details.put("refreshedAt", refreshedAt.toString());
+            }
+            if (lastError != null) {
+                details.put("error", lastError);
+            }
+            return details;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.RetryException;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Thrown when a Dropbox call is rejected without being sent,
+ * because the circuit breaker is open or Dropbox asked to back off after a rate limit.
+ * Carries the time after which the call may be tried again.
+ */
+public class DropboxUnavailableException extends DbxException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Duration retryAfter;
+
+    /**
+     * Constructs a new DropboxUnavailableException.
+     *
+     * @param message    The reason the call was rejected
+     * @param retryAfter How long to wait before trying again
+     */
+    public DropboxUnavailableException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Gets how long to wait before trying again.
+     *
+     * @return the time to wait
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Finds out how long to wait before retrying after an error,
+     * if the error or any of its causes is a rejection or a Dropbox backoff request.
+     *
+     * @param error The error to inspect
+     * @return The time to wait, or empty if the error does not ask for a specific delay
+     */
+    public static Optional<Duration> retryAfterOf(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DropboxUnavailableException unavailable) {
+                return Optional.of(unavailable.getRetryAfter());
+            }
+            if (cause instanceof RetryException retry && retry.getBackoffMillis() > 0) {
+                return Optional.of(Duration.ofMillis(retry.getBackoffMillis()));
+            }
+        }
+        return Optional.empty();
+    }
+}
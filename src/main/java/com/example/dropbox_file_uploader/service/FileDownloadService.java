@@ -0,0 +1,475 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.DbxDownloader;
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.DownloadErrorException;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.GetMetadataErrorException;
+import com.dropbox.core.v2.files.Metadata;
+import com.example.dropbox_file_uploader.model.dto.FileEntry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves the content of the files in the target folder from a local disk cache in front of Dropbox.
+ * <p>
+ * Files are cached under their path and revision, so a file changed in Dropbox is downloaded again under its new
+ * revision while the old one ages out. The cache is bounded in size and evicts the least recently read files first.
+ * A file is not evicted while it is being read, nor for a short grace period after it was handed out, since the
+ * container may still open it to send it; a file larger than the whole cache is therefore only kept while it is read.
+ * Concurrent requests for a file that is not cached share one download. The cache is emptied on startup.
+ * <p>
+ * Reads are counted in {@code download.cache.requests} by outcome, and the size of the cache is published as
+ * {@code download.cache.size}.
+ */
+@Service
+public class FileDownloadService {
+    private static final Logger logger = LoggerFactory.getLogger(FileDownloadService.class);
+
+    /**
+     * How long a file handed out is protected from eviction, so that it can still be opened to be sent.
+     */
+    private static final long HANDOUT_GRACE_NANOS = Duration.ofSeconds(10).toNanos();
+
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private final DropboxAccountPool accountPool;
+    private final DropboxFolderMirror folderMirror;
+    private final TargetFolderRouter targetFolderRouter;
+    private final DropboxExecutor dropboxExecutor;
+    private final Path directory;
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, CachedFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<CachedFile>> downloads = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter shared;
+    private long cachedBytes;
+
+    /**
+     * Constructs a new FileDownloadService.
+     *
+     * @param accountPool        The Dropbox accounts, whose primary account downloads the files
+     * @param folderMirror       The local mirror of the target folder, which knows the revisions of the files
+     * @param targetFolderRouter The router whose default folder paths are relative to while the mirror is not started
+     * @param dropboxExecutor    The executor the downloads run on
+     * @param meterRegistry      The registry the reads and the size of the cache are published to
+     * @param directory          The directory the cached files are kept in
+     * @param maxSize            The disk space the cached files may take together
+     */
+    public FileDownloadService(DropboxAccountPool accountPool, DropboxFolderMirror folderMirror,
+                               TargetFolderRouter targetFolderRouter, DropboxExecutor dropboxExecutor,
+                               MeterRegistry meterRegistry,
+                               @Value("${download.cache.directory:${java.io.tmpdir}/dropbox-download-cache}") Path directory,
+                               @Value("${download.cache.max-size:1GB}") DataSize maxSize) {
+        this.accountPool = accountPool;
+        this.folderMirror = folderMirror;
+        this.targetFolderRouter = targetFolderRouter;
+        this.dropboxExecutor = dropboxExecutor;
+        this.directory = directory;
+        this.maxBytes = maxSize.toBytes();
+        this.hits = outcome(meterRegistry, "hit");
+        this.misses = outcome(meterRegistry, "miss");
+        this.shared = outcome(meterRegistry, "shared");
+        Gauge.builder("download.cache.size", this, FileDownloadService::getCachedBytes)
+                .baseUnit("bytes")
+                .description("Disk space taken by the cached content of downloaded files")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Creates the cache directory and removes the files left in it by the last run.
+     *
+     * @throws IOException If the cache directory cannot be created or read
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        int removed = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (Files.isRegularFile(entry) && Files.deleteIfExists(entry)) {
+                    removed++;
+                }
+            }
+        }
+        logger.info("Downloaded files cached in {} up to {} bytes, {} stale files removed", directory, maxBytes, removed);
+    }
+
+    /**
+     * Finds a file of the target folder, from the mirror if it knows the file and from Dropbox otherwise.
+     *
+     * @param path The path of the file, relative to the target folder
+     * @return The file, or null if there is no such file
+     * @throws IllegalArgumentException If the path is empty or leaves the target folder
+     * @throws DbxException             If the file cannot be looked up in Dropbox
+     */
+    public FileEntry locate(String path) throws DbxException {
+        String root = folderMirror.getRoot() != null ? folderMirror.getRoot() : targetFolderRouter.getDefaultFolder();
+        String fullPath = root + "/" + relativePath(path);
+
+        FileEntry mirrored = folderMirror.find(fullPath).orElse(null);
+        if (mirrored != null) {
+            return mirrored.isFolder() ? null : mirrored;
+        }
+
+        DropboxAccount account = accountPool.getPrimary();
+        try {
+            Metadata metadata = account.execute("get_metadata", () -> account.files().getMetadata(fullPath));
+            if (!(metadata instanceof FileMetadata file)) {
+                return null;
+            }
+            FileEntry entry = new FileEntry();
+            entry.setPath(file.getPathDisplay());
+            entry.setName(file.getName());
+            entry.setSize(file.getSize());
+            entry.setModified(file.getServerModified().toInstant());
+            entry.setRev(file.getRev());
+            entry.setContentHash(file.getContentHash());
+            return entry;
+        } catch (GetMetadataErrorException e) {
+            logger.debug("File {} not found in Dropbox: {}", fullPath, e.errorValue);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the cached content of a revision of a file, downloading it first if it is not cached.
+     * If the same revision is already being downloaded, the download is awaited instead of started again.
+     *
+     * @param file The file, with the revision to open
+     * @return The cached content, to be closed once it has been sent
+     * @throws NoSuchElementException If the revision no longer exists in Dropbox
+     * @throws RejectedExecutionException       If too many downloads are running
+     * @throws IOException                      If the content cannot be written to the cache
+     * @throws DbxException                     If there's an error with the Dropbox API
+     */
+    public Download open(FileEntry file) throws IOException, DbxException {
+        String key = file.getPath().toLowerCase(Locale.ROOT) + "@" + file.getRev();
+        Download cached = tryOpen(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        while (true) {
+            CompletableFuture<CachedFile> started = new CompletableFuture<>();
+            CompletableFuture<CachedFile> download = downloads.putIfAbsent(key, started);
+            if (download == null) {
+                misses.increment();
+                download = started;
+                dropboxExecutor.submit(DropboxExecutor.Bulkhead.DOWNLOAD, () -> download(file, key))
+                        .whenComplete((result, error) -> {
+                            downloads.remove(key, started);
+                            if (error != null) {
+                                started.completeExceptionally(error);
+                            } else {
+                                started.complete(result);
+                            }
+                        });
+            } else {
+                shared.increment();
+            }
+
+            CachedFile downloaded = await(download);
+            Download opened = pin(downloaded);
+            if (opened != null) {
+                return opened;
+            }
+            logger.debug("Downloaded file {} was evicted before it was opened, downloading again", key);
+        }
+    }
+
+    /**
+     * Gets the disk space taken by the cached files.
+     *
+     * @return the size of the cache in bytes
+     */
+    public long getCachedBytes() {
+        lock.lock();
+        try {
+            return cachedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Downloads a revision of a file into the cache.
+     *
+     * @param file The file, with the revision to download
+     * @param key  The cache key of the revision
+     * @return The cached file
+     * @throws IOException  If the content cannot be written to the cache
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    private CachedFile download(FileEntry file, String key) throws IOException, DbxException {
+        Path target = directory.resolve(fileName(key));
+        Path partial = directory.resolve(target.getFileName() + PARTIAL_SUFFIX);
+        long start = System.nanoTime();
+        DropboxAccount account = accountPool.getPrimary();
+        try (OutputStream out = Files.newOutputStream(partial)) {
+            account.execute("download", () -> {
+                try (DbxDownloader<FileMetadata> downloader = account.files().download(file.getPath(), file.getRev())) {
+                    return downloader.download(out);
+                }
+            });
+        } catch (IOException | DbxException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        CachedFile cached = new CachedFile(key, target, Files.size(target));
+        logger.info("Downloaded {} ({} bytes) into the cache in {} ms", file.getPath(), cached.size,
+                (System.nanoTime() - start) / 1_000_000);
+        lock.lock();
+        try {
+            CachedFile replaced = files.put(key, cached);
+            if (replaced != null) {
+                cachedBytes -= replaced.size;
+                replaced.evicted = true;
+            }
+            cachedBytes += cached.size;
+            cached.handedOutAt = System.nanoTime();
+            evict();
+        } finally {
+            lock.unlock();
+        }
+        return cached;
+    }
+
+    /**
+     * Opens a cached revision, if the cache holds it.
+     *
+     * @param key The cache key of the revision
+     * @return The cached content, or null if the revision is not cached
+     */
+    private Download tryOpen(String key) {
+        lock.lock();
+        try {
+            CachedFile cached = files.get(key);
+            return cached == null ? null : pin(cached);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a cached file as being read, so it is not evicted until it is closed.
+     *
+     * @param cached The cached file
+     * @return The cached content, or null if the file has been evicted in the meantime
+     */
+    private Download pin(CachedFile cached) {
+        lock.lock();
+        try {
+            if (cached.evicted) {
+                return null;
+            }
+            cached.readers++;
+            cached.handedOutAt = System.nanoTime();
+            return new Download(cached);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the least recently read files until the cache fits in its size, skipping files that are being read
+     * or were handed out within the grace period. Must be called with the lock held.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        Iterator<CachedFile> eldest = files.values().iterator();
+        while (cachedBytes > maxBytes && eldest.hasNext()) {
+            CachedFile cached = eldest.next();
+            if (cached.readers > 0 || now - cached.handedOutAt < HANDOUT_GRACE_NANOS) continue;
+
+            eldest.remove();
+            cachedBytes -= cached.size;
+            cached.evicted = true;
+            try {
+                Files.deleteIfExists(cached.path);
+            } catch (IOException e) {
+                logger.warn("Could not delete evicted cached file {}", cached.path, e);
+            }
+            logger.debug("Evicted {} ({} bytes) from the download cache", cached.key, cached.size);
+        }
+    }
+
+    /**
+     * Waits for a download, passing on the failure of the download as it was thrown.
+     *
+     * @param download The download
+     * @return The downloaded file
+     * @throws IOException  If the content could not be written to the cache, or the wait was interrupted
+     * @throws DbxException If there's an error with the Dropbox API
+     */
+    private static CachedFile await(CompletableFuture<CachedFile> download) throws IOException, DbxException {
+        try {
+            return download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a download", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DownloadErrorException downloadError && downloadError.errorValue.isPath()) {
+                throw new NoSuchElementException("File not found in Dropbox: " + downloadError.errorValue);
+            }
+            if (cause instanceof DbxException dbxException) {
+                throw dbxException;
+            }
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Download failed", cause);
+        }
+    }
+
+    /**
+     * Checks a path requested by a client and normalizes its separators.
+     *
+     * @param path The path of the file, relative to the target folder
+     * @return The path without leading, trailing or repeated slashes
+     * @throws IllegalArgumentException If the path is empty or has a {@code .} or {@code ..} component
+     */
+    private static String relativePath(String path) {
+        StringBuilder relative = new StringBuilder();
+        for (String part : path.replace('\\', '/').split("/")) {
+            if (part.isEmpty()) continue;
+            if (part.equals(".") || part.equals("..")) {
+                throw new IllegalArgumentException("Invalid path: " + path);
+            }
+            if (!relative.isEmpty()) {
+                relative.append('/');
+            }
+            relative.append(part);
+        }
+        if (relative.isEmpty()) {
+            throw new IllegalArgumentException("Empty path");
+        }
+        return relative.toString();
+    }
+
+    /**
+     * Derives the name of the cached file of a revision, which holds no characters of the Dropbox path.
+     *
+     * @param key The cache key of the revision
+     * @return The file name
+     */
+    private static String fileName(String key) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static Counter outcome(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("download.cache.requests")
+                .tag("outcome", outcome)
+                .description("Reads of downloaded files, by whether they were cached, downloaded or shared a download")
+                .register(meterRegistry);
+    }
+
+    /**
+     * A revision of a file held in the cache. Its fields are guarded by the lock of the cache.
+     */
+    private static final class CachedFile {
+        private final String key;
+        private final Path path;
+        private final long size;
+        private int readers;
+        private long handedOutAt;
+        private boolean evicted;
+
+        private CachedFile(String key, Path path, long size) {
+            this.key = key;
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The cached content of a file, protected from eviction until it is closed.
+     * Closing it more than once has no further effect.
+     */
+    public final class Download implements AutoCloseable {
+        private final CachedFile cached;
+        private boolean closed;
+
+        private Download(CachedFile cached) {
+            this.cached = cached;
+        }
+
+        /**
+         * Gets the cached file holding the content.
+         *
+         * @return the path of the cached file
+         */
+        public Path getPath() {
+            return cached.path;
+        }
+
+        /**
+         * Gets the size of the content.
+         *
+         * @return the size in bytes
+         */
+        public long getSize() {
+            return cached.size;
+        }
+
+        /**
+         * Releases the content, making it evictable once the grace period has passed.
+         */
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (!closed) {
+                    closed = true;
+                    cached.readers--;
+                    cached.handedOutAt = System.nanoTime();
+                    evict();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
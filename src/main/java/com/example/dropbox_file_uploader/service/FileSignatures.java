@@ -0,0 +1,119 @@
+package com.example.dropbox_file_uploader.service;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Detects the type of an uploaded file from its first bytes, so that the content type declared by the client
+ * is not trusted blindly. Only the types the uploader accepts are recognized: the common photo and image
+ * formats and PDF.
+ */
+public final class FileSignatures {
+
+    /**
+     * The number of bytes from the start of a file needed to detect its type.
+     * PDF readers accept the header anywhere within the first kilobyte, the image formats have it at the start.
+     */
+    public static final int SNIFF_LENGTH = 1024;
+
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] GIF87 = ascii("GIF87a");
+    private static final byte[] GIF89 = ascii("GIF89a");
+    private static final byte[] RIFF = ascii("RIFF");
+    private static final byte[] WEBP = ascii("WEBP");
+    private static final byte[] BMP = ascii("BM");
+    private static final byte[] TIFF_LITTLE_ENDIAN = {'I', 'I', 42, 0};
+    private static final byte[] TIFF_BIG_ENDIAN = {'M', 'M', 0, 42};
+    private static final byte[] FTYP = ascii("ftyp");
+    private static final byte[] PDF = ascii("%PDF-");
+
+    private FileSignatures() {
+    }
+
+    /**
+     * Detects the type of a file from its first bytes.
+     *
+     * @param head   The first bytes of the file, ideally {@link #SNIFF_LENGTH} of them
+     * @param length The number of valid bytes in the array
+     * @return The media type of the file, or null if it is none of the accepted types
+     */
+    public static String detect(byte[] head, int length) {
+        if (startsWith(head, length, 0, JPEG)) {
+            return "image/jpeg";
+        }
+        if (startsWith(head, length, 0, PNG)) {
+            return "image/png";
+        }
+        if (startsWith(head, length, 0, GIF87) || startsWith(head, length, 0, GIF89)) {
+            return "image/gif";
+        }
+        if (startsWith(head, length, 0, RIFF) && startsWith(head, length, 8, WEBP)) {
+            return "image/webp";
+        }
+        if (startsWith(head, length, 0, TIFF_LITTLE_ENDIAN) || startsWith(head, length, 0, TIFF_BIG_ENDIAN)) {
+            return "image/tiff";
+        }
+        if (startsWith(head, length, 4, FTYP) && length >= 12) {
+            String brand = new String(head, 8, 4, StandardCharsets.US_ASCII);
+            switch (brand) {
+                case "heic", "heix", "hevc", "heim", "heis" -> {
+                    return "image/heic";
+                }
+                case "mif1", "msf1" -> {
+                    return "image/heif";
+                }
+                case "avif", "avis" -> {
+                    return "image/avif";
+                }
+                default -> {
+                }
+            }
+        }
+        if (startsWith(head, length, 0, BMP) && length >= 14) {
+            return "image/bmp";
+        }
+        for (int offset = 0; offset <= Math.min(length, SNIFF_LENGTH) - PDF.length; offset++) {
+            if (startsWith(head, length, offset, PDF)) {
+                return "application/pdf";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the first bytes of a file confirm the type the client declared.
+     * The detected type must be an accepted type of the same kind as the declared one; a PNG photo declared as
+     * JPEG is accepted, an executable or a PDF declared as an image is not.
+     *
+     * @param declaredContentType The content type declared by the client
+     * @param head                The first bytes of the file
+     * @param length              The number of valid bytes in the array
+     * @return true if the content matches the declared type, false otherwise
+     */
+    public static boolean matches(String declaredContentType, byte[] head, int length) {
+        String detected = detect(head, length);
+        if (detected == null || declaredContentType == null) {
+            return false;
+        }
+        if (detected.startsWith("image/")) {
+            return declaredContentType.startsWith("image/");
+        }
+        return declaredContentType.startsWith(detected);
+    }
+
+    private static boolean startsWith(byte[] data, int length, int offset, byte[] prefix) {
+        if (offset + prefix.length > length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
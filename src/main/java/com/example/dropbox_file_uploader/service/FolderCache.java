@@ -0,0 +1,155 @@
+package com.example.dropbox_file_uploader.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of Dropbox folders that are known to exist.
+ * Entries expire after a configurable time-to-live and the cache is bounded in size,
+ * evicting the entries closest to expiry first when it is full.
+ * Paths are compared case-insensitively, matching Dropbox path semantics.
+ * <p>
+ * Lookups are counted in {@code dropbox.folder.cache} by result, and the number of cached folders is published as
+ * {@code dropbox.folder.cache.size}.
+ */
+@Component
+public class FolderCache {
+    private static final Logger logger = LoggerFactory.getLogger(FolderCache.class);
+
+    private final Map<String, Long> knownFolders = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    /**
+     * Constructs a new FolderCache.
+     *
+     * @param ttl           How long a folder is considered to exist after it was last confirmed
+     * @param maxEntries    The maximum number of folders kept in the cache
+     * @param meterRegistry The registry the lookups and the size of the cache are published to
+     */
+    public FolderCache(@Value("${dropbox.folder-cache.ttl:PT6H}") Duration ttl,
+                       @Value("${dropbox.folder-cache.max-entries:1000}") int maxEntries,
+                       MeterRegistry meterRegistry) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        lookups(meterRegistry, "hit", hits);
+        lookups(meterRegistry, "miss", misses);
+        Gauge.builder("dropbox.folder.cache.size", knownFolders, Map::size)
+                .description("Dropbox folders known to exist")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Checks whether the given folder is known to exist and records a hit or a miss.
+     *
+     * @param folderPath The Dropbox folder path to check
+     * @return true if the folder was confirmed to exist within the time-to-live, false otherwise
+     */
+    public boolean isKnown(String folderPath) {
+        String key = normalize(folderPath);
+        Long expiresAt = knownFolders.get(key);
+
+        if (expiresAt != null && expiresAt - System.nanoTime() > 0) {
+            hits.incrementAndGet();
+            return true;
+        }
+
+        if (expiresAt != null) {
+            knownFolders.remove(key, expiresAt);
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records that the given folder exists in Dropbox.
+     *
+     * @param folderPath The Dropbox folder path confirmed to exist
+     */
+    public void markExisting(String folderPath) {
+        if (knownFolders.size() >= maxEntries) {
+            evict();
+        }
+        knownFolders.put(normalize(folderPath), System.nanoTime() + ttlNanos);
+    }
+
+    /**
+     * Removes the given folder and all of its sub-folders from the cache,
+     * so that their existence is verified again on the next upload.
+     *
+     * @param folderPath The Dropbox folder path to invalidate
+     */
+    public void invalidate(String folderPath) {
+        String key = normalize(folderPath);
+        String prefix = key + "/";
+        knownFolders.keySet().removeIf(path -> path.equals(key) || path.startsWith(prefix));
+        logger.info("Invalidated cached folder: {}", folderPath);
+    }
+
+    /**
+     * Gets the number of lookups that found a known folder.
+     *
+     * @return the cache hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that did not find a known folder.
+     *
+     * @return the cache miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of folders currently held in the cache.
+     *
+     * @return the cache size
+     */
+    public int size() {
+        return knownFolders.size();
+    }
+
+    /**
+     * Drops expired entries and, if the cache is still full, the entry closest to expiry.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        knownFolders.values().removeIf(expiresAt -> expiresAt - now <= 0);
+
+        if (knownFolders.size() >= maxEntries) {
+            knownFolders.entrySet().stream()
+                    .min(Map.Entry.comparingByValue())
+                    .ifPresent(eldest -> knownFolders.remove(eldest.getKey(), eldest.getValue()));
+        }
+    }
+
+    private static void lookups(MeterRegistry meterRegistry, String result, AtomicLong count) {
+        FunctionCounter.builder("dropbox.folder.cache", count, AtomicLong::get)
+                .tag("result", result)
+                .description("Lookups of Dropbox folders known to exist, by whether the folder was cached")
+                .register(meterRegistry);
+    }
+
+    private String normalize(String folderPath) {
+        String path = folderPath.endsWith("/") ? folderPath.substring(0, folderPath.length() - 1) : folderPath;
+        return path.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,424 @@
+package com.example.dropbox_file_uploader.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shrinks uploaded images before they are sent to Dropbox.
+ * JPEG and PNG images larger than the configured maximum dimension are downscaled, and all of them are re-encoded
+ * in their own format (JPEG at the configured quality), which drops their metadata. The EXIF orientation of
+ * photos is applied to the pixels first, so they keep showing upright. If the re-encoded image is not smaller
+ * than the original, the original is uploaded.
+ * <p>
+ * Decoding and encoding are CPU bound and run on a fixed pool of platform threads sized to the cores, with a bounded
+ * queue; when the queue is full, or an image cannot be processed, the original is uploaded unchanged, so
+ * recompression can never fail an upload.
+ */
+@Component
+public class ImageRecompressor {
+    private static final Logger logger = LoggerFactory.getLogger(ImageRecompressor.class);
+
+    /**
+     * The EXIF tag holding the orientation of a photo.
+     */
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+    /**
+     * The APP1 marker of JPEG files, which carries the EXIF data.
+     */
+    private static final int JPEG_APP1_MARKER = 0xE1;
+
+    /**
+     * What happened to an image.
+     */
+    public enum Outcome {
+        RECOMPRESSED, KEPT_ORIGINAL, SKIPPED, FAILED
+    }
+
+    private final UploadMetrics uploadMetrics;
+    private final boolean enabled;
+    private final int maxDimension;
+    private final float quality;
+    private final long maxPixels;
+    private final long minSize;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructs a new ImageRecompressor.
+     *
+     * @param uploadMetrics The metrics the processed bytes and processing time are recorded in
+     * @param enabled       Whether images are recompressed at all
+     * @param maxDimension  The largest width or height an image is uploaded with
+     * @param quality       The JPEG quality images are re-encoded with, between 0 and 1
+     * @param maxPixels     The largest number of pixels an image may have to be decoded, guarding the heap
+     * @param minSize       The smallest image worth recompressing
+     * @param workers       The number of worker threads, or 0 for one per core
+     * @param queueCapacity The number of images that may wait for a worker before originals are uploaded unchanged
+     */
+    public ImageRecompressor(UploadMetrics uploadMetrics,
+                             @Value("${upload.image.recompression.enabled:false}") boolean enabled,
+                             @Value("${upload.image.max-dimension:2048}") int maxDimension,
+                             @Value("${upload.image.quality:0.8}") float quality,
+                             @Value("${upload.image.max-pixels:50000000}") long maxPixels,
+                             @Value("${upload.image.min-size:100KB}") DataSize minSize,
+                             @Value("${upload.image.workers:0}") int workers,
+                             @Value("${upload.image.queue-capacity:64}") int queueCapacity) {
+        this.uploadMetrics = uploadMetrics;
+        this.enabled = enabled;
+        this.maxDimension = Math.max(1, maxDimension);
+        this.quality = Math.min(1f, Math.max(0f, quality));
+        this.maxPixels = maxPixels;
+        this.minSize = minSize.toBytes();
+
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), new CustomizableThreadFactory("image-"));
+    }
+
+    /**
+     * Recompresses an uploaded file if it is an image, waiting for the result.
+     *
+     * @param file The uploaded file
+     * @return The recompressed image, or the file itself if it is not an image or was not made smaller
+     */
+    public MultipartFile recompress(MultipartFile file) {
+        return recompressAsync(file).join();
+    }
+
+    /**
+     * Recompresses an uploaded file on the worker pool if it is an image.
+     * The returned future never fails; every problem results in the original file.
+     *
+     * @param file The uploaded file
+     * @return A future of the recompressed image, or of the file itself if it is not an image or was not made smaller
+     */
+    public CompletableFuture<MultipartFile> recompressAsync(MultipartFile file) {
+        String contentType = file.getContentType();
+        if (!enabled || contentType == null || !contentType.startsWith("image/") || file.getSize() < minSize) {
+            return CompletableFuture.completedFuture(file);
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> process(file), executor);
+        } catch (RejectedExecutionException e) {
+            logger.debug("All image workers are busy, uploading {} unchanged", file.getOriginalFilename());
+            uploadMetrics.imageProcessed(Outcome.SKIPPED, file.getSize(), file.getSize(), 0);
+            return CompletableFuture.completedFuture(file);
+        }
+    }
+
+    /**
+     * Recompresses an image and records the outcome.
+     *
+     * @param file The uploaded image
+     * @return The recompressed image, or the original if it was not made smaller
+     */
+    private MultipartFile process(MultipartFile file) {
+        long start = System.nanoTime();
+        long size = file.getSize();
+        try (InputStream in = file.getInputStream()) {
+            byte[] recompressed = recompress(in);
+            long elapsed = System.nanoTime() - start;
+            if (recompressed == null) {
+                uploadMetrics.imageProcessed(Outcome.SKIPPED, size, size, elapsed);
+                return file;
+            }
+            if (recompressed.length >= size) {
+                logger.debug("Recompressed {} is not smaller ({} >= {} bytes), keeping the original",
+                        file.getOriginalFilename(), recompressed.length, size);
+                uploadMetrics.imageProcessed(Outcome.KEPT_ORIGINAL, size, size, elapsed);
+                return file;
+            }
+
+            logger.info("Recompressed {} from {} to {} bytes in {} ms", file.getOriginalFilename(), size,
+                    recompressed.length, TimeUnit.NANOSECONDS.toMillis(elapsed));
+            uploadMetrics.imageProcessed(Outcome.RECOMPRESSED, size, recompressed.length, elapsed);
+            return new RecompressedImage(file, recompressed);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not recompress {}, uploading it unchanged: {}", file.getOriginalFilename(), e.toString());
+            uploadMetrics.imageProcessed(Outcome.FAILED, size, size, System.nanoTime() - start);
+            return file;
+        }
+    }
+
+    /**
+     * Decodes an image, applies its orientation, downscales it to the maximum dimension
+     * and encodes it again in the same format without metadata.
+     *
+     * @param in The encoded image
+     * @return The re-encoded image, or null if the format is not supported or the image is too large to decode
+     * @throws IOException If the image cannot be decoded or encoded
+     */
+    byte[] recompress(InputStream in) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, false);
+                String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+                if (!format.equals("jpeg") && !format.equals("png")) {
+                    return null;
+                }
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > maxPixels) {
+                    logger.debug("Image of {}x{} pixels is too large to recompress", reader.getWidth(0), reader.getHeight(0));
+                    return null;
+                }
+
+                int orientation = format.equals("jpeg") ? exifOrientation(reader.getImageMetadata(0)) : 1;
+                BufferedImage image = reader.read(0);
+                boolean alpha = format.equals("png") && image.getColorModel().hasAlpha();
+                return encode(transform(image, orientation, alpha), format);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Rotates an image upright and scales it down so that neither side exceeds the maximum dimension.
+     * Large reductions are done in halving steps, which keeps the bilinear filtering from dropping detail.
+     *
+     * @param image       The decoded image
+     * @param orientation The EXIF orientation of the image, 1 if it is already upright
+     * @param alpha       Whether the transparency of the image has to be kept
+     * @return The transformed image
+     */
+    private BufferedImage transform(BufferedImage image, int orientation, boolean alpha) {
+        boolean swapped = orientation >= 5 && orientation <= 8;
+        int width = swapped ? image.getHeight() : image.getWidth();
+        int height = swapped ? image.getWidth() : image.getHeight();
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(width, height));
+
+        while (scale < 0.5) {
+            image = draw(image, (image.getWidth() + 1) / 2, (image.getHeight() + 1) / 2, 1, alpha);
+            scale *= 2;
+        }
+        int targetWidth = Math.max(1, (int) Math.round((swapped ? image.getHeight() : image.getWidth()) * scale));
+        int targetHeight = Math.max(1, (int) Math.round((swapped ? image.getWidth() : image.getHeight()) * scale));
+        return draw(image, targetWidth, targetHeight, orientation, alpha);
+    }
+
+    /**
+     * Draws an image into a new image of the specified size, applying an EXIF orientation.
+     *
+     * @param image       The image to draw
+     * @param width       The width of the new image
+     * @param height      The height of the new image
+     * @param orientation The EXIF orientation to apply, 1 for none
+     * @param alpha       Whether the new image has transparency
+     * @return The new image
+     */
+    private BufferedImage draw(BufferedImage image, int width, int height, int orientation, boolean alpha) {
+        BufferedImage target = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+
+            AffineTransform transform = new AffineTransform();
+            switch (orientation) {
+                case 2 -> transform.setTransform(-1, 0, 0, 1, width, 0);
+                case 3 -> transform.setTransform(-1, 0, 0, -1, width, height);
+                case 4 -> transform.setTransform(1, 0, 0, -1, 0, height);
+                case 5 -> transform.setTransform(0, 1, 1, 0, 0, 0);
+                case 6 -> transform.setTransform(0, 1, -1, 0, width, 0);
+                case 7 -> transform.setTransform(0, -1, -1, 0, width, height);
+                case 8 -> transform.setTransform(0, -1, 1, 0, 0, height);
+                default -> {
+                }
+            }
+            boolean swapped = orientation >= 5 && orientation <= 8;
+            transform.scale((double) (swapped ? height : width) / image.getWidth(),
+                    (double) (swapped ? width : height) / image.getHeight());
+            graphics.drawImage(image, transform, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * Encodes an image without metadata.
+     *
+     * @param image  The image to encode
+     * @param format The format to encode it in, jpeg or png
+     * @return The encoded image
+     * @throws IOException If the image cannot be encoded
+     */
+    private byte[] encode(BufferedImage image, String format) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (format.equals("jpeg")) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the EXIF orientation from the metadata of a JPEG image.
+     *
+     * @param metadata The native metadata of the image
+     * @return The orientation from 1 to 8, or 1 if the image has none
+     */
+    private static int exifOrientation(IIOMetadata metadata) {
+        if (metadata == null) {
+            return 1;
+        }
+        Node root = metadata.getAsTree("javax_imageio_jpeg_image_1.0");
+        for (Node markers = root.getFirstChild(); markers != null; markers = markers.getNextSibling()) {
+            if (!markers.getNodeName().equals("markerSequence")) {
+                continue;
+            }
+            for (Node marker = markers.getFirstChild(); marker != null; marker = marker.getNextSibling()) {
+                if (marker instanceof IIOMetadataNode node && node.getNodeName().equals("unknown")
+                        && String.valueOf(JPEG_APP1_MARKER).equals(node.getAttribute("MarkerTag"))
+                        && node.getUserObject() instanceof byte[] data) {
+                    int orientation = exifOrientation(data);
+                    if (orientation != 0) {
+                        return orientation;
+                    }
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Reads the orientation tag from the first image directory of an EXIF segment.
+     *
+     * @param data The content of an APP1 segment
+     * @return The orientation from 1 to 8, or 0 if the segment carries none
+     */
+    static int exifOrientation(byte[] data) {
+        if (data.length < 14 || data[0] != 'E' || data[1] != 'x' || data[2] != 'i' || data[3] != 'f') {
+            return 0;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(data, 6, data.length - 6).slice();
+        tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int directory = tiff.getInt(4);
+        if (directory < 0 || directory + 2 > tiff.limit()) {
+            return 0;
+        }
+        int entries = tiff.getShort(directory) & 0xFFFF;
+        for (int i = 0; i < entries; i++) {
+            int entry = directory + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) {
+                return 0;
+            }
+            if ((tiff.getShort(entry) & 0xFFFF) == EXIF_ORIENTATION_TAG) {
+                int orientation = tiff.getShort(entry + 8) & 0xFFFF;
+                return orientation >= 1 && orientation <= 8 ? orientation : 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Stops the worker threads when the application stops.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * An uploaded image replaced by its recompressed content, keeping the name and content type of the original.
+     */
+    private static final class RecompressedImage implements MultipartFile {
+        private final MultipartFile original;
+        private final byte[] content;
+
+        private RecompressedImage(MultipartFile original, byte[] content) {
+            this.original = original;
+            this.content = content;
+        }
+
+        @Override
+        public String getName() {
+            return original.getName();
+        }
+
+        @Override
+        public String getOriginalFilename() {
+            return original.getOriginalFilename();
+        }
+
+        @Override
+        public String getContentType() {
+            return original.getContentType();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return content.length == 0;
+        }
+
+        @Override
+        public long getSize() {
+            return content.length;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return content;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public void transferTo(File dest) throws IOException {
+            Files.write(dest.toPath(), content);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.dropbox_file_uploader.service;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A compiled Dropbox folder template such as {@code /Orders/{client} {date:ddMMyyyy}}.
+ * The template is parsed once into literal and placeholder segments, so expanding it per upload
+ * only appends strings. Supported placeholders:
+ * <ul>
+ * <li>{@code {client}} - the client id sent with the upload</li>
+ * <li>{@code {date}} or {@code {date:<pattern>}} - the current date, ISO formatted or with a {@link DateTimeFormatter} pattern</li>
+ * <li>{@code {contentType}} - the media subtype of the uploaded file, such as png or pdf</li>
+ * </ul>
+ * Values sent by clients are sanitized like file names, so they can never add folder levels.
+ */
+public final class PathTemplate {
+
+    private enum Kind {
+        LITERAL, CLIENT, DATE, CONTENT_TYPE
+    }
+
+    private record Segment(Kind kind, String literal, DateTimeFormatter dateFormat) {
+    }
+
+    private final String source;
+    private final List<Segment> segments;
+    private final String root;
+    private final boolean usesClient;
+    private final boolean usesDate;
+    private final boolean usesContentType;
+
+    private PathTemplate(String source, List<Segment> segments) {
+        this.source = source;
+        this.segments = segments;
+        this.usesClient = segments.stream().anyMatch(segment -> segment.kind() == Kind.CLIENT);
+        this.usesDate = segments.stream().anyMatch(segment -> segment.kind() == Kind.DATE);
+        this.usesContentType = segments.stream().anyMatch(segment -> segment.kind() == Kind.CONTENT_TYPE);
+
+        String prefix = segments.isEmpty() || segments.get(0).kind() != Kind.LITERAL ? "" : segments.get(0).literal();
+        if (segments.size() > 1) {
+            prefix = prefix.substring(0, Math.max(0, prefix.replace('\\', '/').lastIndexOf('/')));
+        }
+        this.root = DropboxPaths.formatDropboxFolder(prefix);
+    }
+
+    /**
+     * Parses a folder template.
+     *
+     * @param template The template to parse
+     * @return The compiled template
+     * @throws IllegalArgumentException If the template contains an unknown or unclosed placeholder or an invalid date pattern
+     */
+    public static PathTemplate compile(String template) {
+        List<Segment> segments = new ArrayList<>();
+        int position = 0;
+        while (position < template.length()) {
+            int open = template.indexOf('{', position);
+            if (open == -1) {
+                segments.add(new Segment(Kind.LITERAL, template.substring(position), null));
+                break;
+            }
+            if (open > position) {
+                segments.add(new Segment(Kind.LITERAL, template.substring(position, open), null));
+            }
+            int close = template.indexOf('}', open);
+            if (close == -1) {
+                throw new IllegalArgumentException("Unclosed placeholder in path template: " + template);
+            }
+            segments.add(placeholder(template.substring(open + 1, close), template));
+            position = close + 1;
+        }
+        return new PathTemplate(template, List.copyOf(segments));
+    }
+
+    /**
+     * Parses the contents of a single placeholder.
+     *
+     * @param placeholder The text between the braces
+     * @param template    The whole template, used in error messages
+     * @return The placeholder segment
+     */
+    private static Segment placeholder(String placeholder, String template) {
+        int colon = placeholder.indexOf(':');
+        String name = colon == -1 ? placeholder : placeholder.substring(0, colon);
+        return switch (name) {
+            case "client" -> new Segment(Kind.CLIENT, null, null);
+            case "contentType" -> new Segment(Kind.CONTENT_TYPE, null, null);
+            case "date" -> new Segment(Kind.DATE, null, colon == -1
+                    ? DateTimeFormatter.ISO_LOCAL_DATE
+                    : DateTimeFormatter.ofPattern(placeholder.substring(colon + 1)));
+            default -> throw new IllegalArgumentException("Unknown placeholder {" + placeholder + "} in path template: " + template);
+        };
+    }
+
+    /**
+     * Builds the Dropbox folder for an upload.
+     *
+     * @param client      The client id sent with the upload, required if the template uses it
+     * @param date        The date of the upload
+     * @param contentType The content type of the uploaded file (can be null)
+     * @return The formatted Dropbox folder
+     * @throws UploadRoutingException If the template needs a client id and none was sent
+     */
+    public String expand(String client, LocalDate date, String contentType) {
+        StringBuilder folder = new StringBuilder(source.length() + 32);
+        for (Segment segment : segments) {
+            switch (segment.kind()) {
+                case LITERAL -> folder.append(segment.literal());
+                case CLIENT -> folder.append(clientValue(client));
+                case DATE -> folder.append(segment.dateFormat().format(date));
+                case CONTENT_TYPE -> folder.append(contentTypeValue(contentType));
+            }
+        }
+        return DropboxPaths.formatDropboxFolder(folder.toString());
+    }
+
+    /**
+     * Sanitizes the client id sent with an upload.
+     *
+     * @param client The client id
+     * @return The client id as it may appear in a folder name
+     * @throws UploadRoutingException If the client id is missing or blank
+     */
+    private String clientValue(String client) {
+        String value = client == null ? "" : DropboxPaths.sanitizeFileName(client.trim());
+        if (value.isEmpty() || value.equals(".") || value.equals("..")) {
+            throw new UploadRoutingException("A client id is required by path template: " + source);
+        }
+        return value;
+    }
+
+    /**
+     * Derives the folder name of a content type from its media subtype.
+     *
+     * @param contentType The content type of the uploaded file (can be null)
+     * @return The media subtype, or "other" if the content type is unknown
+     */
+    private String contentTypeValue(String contentType) {
+        if (contentType == null) {
+            return "other";
+        }
+        int slash = contentType.indexOf('/');
+        int parameters = contentType.indexOf(';');
+        String subtype = contentType.substring(slash + 1, parameters == -1 ? contentType.length() : parameters).trim();
+        return subtype.isEmpty() ? "other" : DropboxPaths.sanitizeFileName(subtype.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets the part of the folder that is the same for every upload, up to the first placeholder.
+     *
+     * @return the fixed root folder of the template, or an empty string for the Dropbox root
+     */
+    public String getRoot() {
+        return root;
+    }
+
+    /**
+     * Checks whether the template contains placeholders.
+     *
+     * @return false if every upload goes to the same folder, true otherwise
+     */
+    public boolean hasPlaceholders() {
+        return usesClient || usesDate || usesContentType;
+    }
+
+    /**
+     * Checks whether the folder depends on the client id of the upload.
+     *
+     * @return true if the template contains the placeholder, false otherwise
+     */
+    public boolean usesClient() {
+        return usesClient;
+    }
+
+    /**
+     * Checks whether the folder depends on the date of the upload.
+     *
+     * @return true if the template contains the placeholder, false otherwise
+     */
+    public boolean usesDate() {
+        return usesDate;
+    }
+
+    /**
+     * Checks whether the folder depends on the content type of the upload.
+     *
+     * @return true if the template contains the placeholder, false otherwise
+     */
+    public boolean usesContentType() {
+        return usesContentType;
+    }
+
+    /**
+     * Gets the template as it was configured.
+     *
+     * @return the source of the template
+     */
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,352 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.UploadSessionAppendErrorException;
+import com.dropbox.core.v2.files.UploadSessionCursor;
+import com.dropbox.core.v2.files.UploadSessionFinishErrorException;
+import com.dropbox.core.v2.files.UploadSessionLookupError;
+import com.example.dropbox_file_uploader.model.ResumableUpload;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resumable uploads in the style of the tus protocol.
+ * An upload is created with the total size of the file, which starts a sequential Dropbox upload session;
+ * the client then sends the file in chunks, each starting at the offset reached so far. Every chunk is forwarded
+ * into the upload session as it arrives, and the last chunk commits the session, so nothing is spooled locally.
+ * <p>
+ * The session id and offset of every upload are kept in a JSON file per upload, so a client whose connection
+ * dropped asks for the current offset and continues from there, even after the application was restarted.
+ * If Dropbox received more of a chunk than was recorded, the offset is corrected from the offset Dropbox expects.
+ */
+@Service
+public class ResumableUploadService {
+    private static final Logger logger = LoggerFactory.getLogger(ResumableUploadService.class);
+
+    private static final String JOURNAL_SUFFIX = ".json";
+
+    private final DropboxAccountPool accountPool;
+    private final ChunkedUploadService chunkedUploadService;
+    private final DropboxService dropboxService;
+    private final UploadMetrics uploadMetrics;
+    private final ObjectMapper objectMapper;
+    private final Map<String, ResumableUpload> uploads = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    @Value("${upload.resumable.directory:${java.io.tmpdir}/dropbox-resumable-uploads}")
+    private Path directory;
+
+    @Value("${upload.resumable.expiration:PT24H}")
+    private Duration expiration;
+
+    /**
+     * Constructs a new ResumableUploadService.
+     *
+     * @param accountPool          The Dropbox accounts the upload sessions are started in
+     * @param chunkedUploadService The service the chunks are appended to upload sessions with
+     * @param dropboxService       The service committing the upload sessions to their Dropbox folder
+     * @param uploadMetrics        The metrics the forwarded bytes are recorded in
+     * @param objectMapper         The mapper used to read and write the upload state
+     */
+    public ResumableUploadService(DropboxAccountPool accountPool, ChunkedUploadService chunkedUploadService,
+                                  DropboxService dropboxService, UploadMetrics uploadMetrics, ObjectMapper objectMapper) {
+        this.accountPool = accountPool;
+        this.chunkedUploadService = chunkedUploadService;
+        this.dropboxService = dropboxService;
+        this.uploadMetrics = uploadMetrics;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Loads the uploads persisted before the last shutdown, so that their clients can resume them.
+     *
+     * @throws IOException If the upload directory cannot be created or read
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + JOURNAL_SUFFIX)) {
+            for (Path entry : entries) {
+                try {
+                    ResumableUpload upload = objectMapper.readValue(entry.toFile(), ResumableUpload.class);
+                    uploads.put(upload.getId(), upload);
+                } catch (IOException e) {
+                    logger.error("Skipping unreadable resumable upload: {}", entry, e);
+                }
+            }
+        }
+        logger.info("Resumable uploads kept in {}, {} uploads loaded", directory, uploads.size());
+    }
+
+    /**
+     * Creates a resumable upload and starts the Dropbox upload session its chunks are forwarded to.
+     * The session belongs to the account it was started in, so all chunks of the upload go through that account.
+     *
+     * @param length           The total size of the file in bytes
+     * @param originalFileName The original name of the file as sent by the client
+     * @param customFileName   Optional custom name for the file in Dropbox (can be null)
+     * @param contentType      The content type of the file
+     * @param folder           The formatted Dropbox folder the file is uploaded to
+     * @param routingKey       The client id or route the Dropbox account is chosen by (can be null)
+     * @return A snapshot of the new upload
+     * @throws IOException  If the upload cannot be persisted
+     * @throws DbxException If the upload session cannot be started
+     */
+    public ResumableUpload create(long length, String originalFileName, String customFileName, String contentType,
+                                  String folder, String routingKey) throws IOException, DbxException {
+        Instant now = Instant.now();
+        ResumableUpload upload = new ResumableUpload();
+        upload.setId(UUID.randomUUID().toString());
+        DropboxAccount account = accountPool.acquire(routingKey);
+        try {
+            upload.setSessionId(chunkedUploadService.startSession(account));
+            upload.setAccount(account.getName());
+        } finally {
+            account.release();
+        }
+        upload.setLength(length);
+        upload.setOriginalFileName(originalFileName);
+        upload.setCustomFileName(customFileName);
+        upload.setContentType(contentType);
+        upload.setTargetFolder(folder);
+        upload.setCreatedAt(now);
+        upload.setUpdatedAt(now);
+
+        persist(upload);
+        uploads.put(upload.getId(), upload);
+        logger.info("Created resumable upload {} for {} ({} bytes)", upload.getId(), originalFileName, length);
+        return snapshot(upload);
+    }
+
+    /**
+     * Finds an upload by its id.
+     *
+     * @param id The id of the upload
+     * @return A snapshot of the upload, or an empty Optional if no such upload is known
+     */
+    public Optional<ResumableUpload> find(String id) {
+        return Optional.ofNullable(uploads.get(id)).map(this::snapshot);
+    }
+
+    /**
+     * Forwards a chunk of an upload into its Dropbox upload session.
+     * The chunk that reaches the total size of the file commits the session to the target folder.
+     * If reading the chunk fails midway, the offset stays where it was and the client sends the chunk again.
+     *
+     * @param id     The id of the upload
+     * @param offset The offset the chunk starts at, which has to be the current offset of the upload
+     * @param in     The content of the chunk
+     * @param length The size of the chunk in bytes
+     * @return A snapshot of the upload after the chunk, holding the Dropbox path if the upload is complete
+     * @throws NoSuchElementException        If the upload is unknown, its upload session has expired, or the Dropbox
+     *                                       account holding the session is no longer configured
+     * @throws UploadOffsetConflictException If the chunk does not start at the current offset, or another chunk
+     *                                       of the upload is being received
+     * @throws IllegalArgumentException      If the chunk extends beyond the total size of the file
+     * @throws IOException                   If there's an error reading the chunk
+     * @throws DbxException                  If there's an error with the Dropbox API
+     */
+    public ResumableUpload append(String id, long offset, InputStream in, long length) throws IOException, DbxException {
+        ResumableUpload upload = uploads.get(id);
+        if (upload == null) {
+            throw new NoSuchElementException("Unknown upload: " + id);
+        }
+
+        ReentrantLock lock = locks.computeIfAbsent(id, key -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            throw new UploadOffsetConflictException("Another chunk of upload " + id + " is being received", upload.getOffset());
+        }
+        try {
+            if (upload.isComplete() || offset != upload.getOffset()) {
+                throw new UploadOffsetConflictException("Upload " + id + " is at offset " + upload.getOffset() + ", not " + offset,
+                        upload.getOffset());
+            }
+            if (length <= 0 || offset + length > upload.getLength()) {
+                throw new IllegalArgumentException("Chunk of " + length + " bytes at offset " + offset
+                        + " does not fit into a file of " + upload.getLength() + " bytes");
+            }
+
+            UploadSessionCursor cursor = new UploadSessionCursor(upload.getSessionId(), offset);
+            String path = null;
+            DropboxAccount account = accountPool.acquireNamed(upload.getAccount());
+            try {
+                if (offset + length == upload.getLength()) {
+                    path = dropboxService.finishSession(account, cursor, in, length, upload.getOriginalFileName(),
+                            upload.getCustomFileName(), upload.getTargetFolder());
+                } else {
+                    chunkedUploadService.appendToSession(account, cursor, in, length);
+                    uploadMetrics.bytesUploaded(length);
+                }
+            } catch (UploadSessionAppendErrorException e) {
+                Long correctOffset = e.errorValue.isIncorrectOffset()
+                        ? e.errorValue.getIncorrectOffsetValue().getCorrectOffset() : null;
+                throw lookupFailed(upload, correctOffset, e.errorValue.isNotFound() || e.errorValue.isClosed(), e);
+            } catch (DbxException e) {
+                if (e.getCause() instanceof UploadSessionFinishErrorException finishError && finishError.errorValue.isLookupFailed()) {
+                    UploadSessionLookupError lookupError = finishError.errorValue.getLookupFailedValue();
+                    Long correctOffset = lookupError.isIncorrectOffset()
+                            ? lookupError.getIncorrectOffsetValue().getCorrectOffset() : null;
+                    throw lookupFailed(upload, correctOffset, lookupError.isNotFound() || lookupError.isClosed(), e);
+                }
+                throw e;
+            } finally {
+                account.release();
+            }
+
+            update(upload, offset + length, path);
+            return snapshot(upload);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Handles an upload session Dropbox could not continue.
+     * If Dropbox expects a different offset, the upload is moved to it, so that the client resumes from there;
+     * if the session is gone, the upload is removed.
+     *
+     * @param upload        The upload whose chunk was rejected
+     * @param correctOffset The offset Dropbox expects, or null if the offset was not the problem
+     * @param gone          Whether the upload session no longer exists or can no longer be appended to
+     * @param cause         The error returned by Dropbox
+     * @return The exception to throw instead of the Dropbox error
+     * @throws DbxException If the session failed for another reason
+     */
+    private RuntimeException lookupFailed(ResumableUpload upload, Long correctOffset, boolean gone, DbxException cause)
+            throws DbxException {
+        if (correctOffset != null) {
+            logger.warn("Upload session of {} is at offset {}, not {}", upload.getId(), correctOffset, upload.getOffset());
+            update(upload, correctOffset, null);
+            return new UploadOffsetConflictException("Upload " + upload.getId() + " is at offset " + correctOffset, correctOffset);
+        }
+        if (gone) {
+            logger.warn("Upload session of {} has expired", upload.getId());
+            delete(upload.getId());
+            return new NoSuchElementException("Upload session of " + upload.getId() + " has expired");
+        }
+        throw cause;
+    }
+
+    /**
+     * Removes an upload, for example when the client cancels it.
+     * Its Dropbox upload session is not committed and expires on its own.
+     *
+     * @param id The id of the upload
+     * @return true if the upload existed, false otherwise
+     */
+    public boolean delete(String id) {
+        ResumableUpload upload = uploads.remove(id);
+        if (upload == null) {
+            return false;
+        }
+        locks.remove(id);
+        try {
+            Files.deleteIfExists(journalPath(id));
+        } catch (IOException e) {
+            logger.warn("Could not delete resumable upload {}", id, e);
+        }
+        return true;
+    }
+
+    /**
+     * Removes uploads that have not received a chunk within the expiration period.
+     * Upload sessions of incomplete uploads cannot be committed by then, and completed uploads
+     * are only kept so that their clients can learn the Dropbox path.
+     */
+    @Scheduled(fixedDelayString = "${upload.resumable.purge-interval:PT1H}")
+    public void purgeExpiredUploads() {
+        Instant cutoff = Instant.now().minus(expiration);
+        for (ResumableUpload upload : uploads.values()) {
+            boolean expired;
+            synchronized (upload) {
+                expired = upload.getUpdatedAt().isBefore(cutoff);
+            }
+            if (expired) {
+                logger.info("Resumable upload {} expired at offset {} of {}", upload.getId(), upload.getOffset(), upload.getLength());
+                delete(upload.getId());
+            }
+        }
+    }
+
+    /**
+     * Records the offset an upload has reached and writes it to its file.
+     *
+     * @param upload The upload to update
+     * @param offset The new offset
+     * @param path   The Dropbox path if the upload is complete, or null
+     */
+    private void update(ResumableUpload upload, long offset, String path) {
+        synchronized (upload) {
+            upload.setOffset(offset);
+            upload.setPath(path);
+            upload.setUpdatedAt(Instant.now());
+            try {
+                persist(upload);
+            } catch (IOException e) {
+                logger.error("Failed to persist resumable upload {}", upload.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Atomically replaces the file of the upload, so that a crash never leaves a partial file behind.
+     *
+     * @param upload The upload to write
+     * @throws IOException If the file cannot be written
+     */
+    private void persist(ResumableUpload upload) throws IOException {
+        Path target = journalPath(upload.getId());
+        Path temp = directory.resolve(upload.getId() + JOURNAL_SUFFIX + ".tmp");
+        Files.write(temp, objectMapper.writeValueAsBytes(upload));
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Creates a consistent copy of the upload that is safe to hand out while chunks keep arriving.
+     *
+     * @param upload The upload to copy
+     * @return A copy of the upload
+     */
+    private ResumableUpload snapshot(ResumableUpload upload) {
+        synchronized (upload) {
+            ResumableUpload copy = new ResumableUpload();
+            copy.setId(upload.getId());
+            copy.setSessionId(upload.getSessionId());
+            copy.setAccount(upload.getAccount());
+            copy.setLength(upload.getLength());
+            copy.setOffset(upload.getOffset());
+            copy.setOriginalFileName(upload.getOriginalFileName());
+            copy.setCustomFileName(upload.getCustomFileName());
+            copy.setContentType(upload.getContentType());
+            copy.setTargetFolder(upload.getTargetFolder());
+            copy.setPath(upload.getPath());
+            copy.setCreatedAt(upload.getCreatedAt());
+            copy.setUpdatedAt(upload.getUpdatedAt());
+            return copy;
+        }
+    }
+
+    private Path journalPath(String id) {
+        return directory.resolve(id + JOURNAL_SUFFIX);
+    }
+}
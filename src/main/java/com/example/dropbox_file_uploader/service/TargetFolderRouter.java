@@ -0,0 +1,221 @@
+package com.example.dropbox_file_uploader.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chooses the Dropbox folder of each upload from a set of named routes.
+ * Every route is a {@link PathTemplate}; the route is picked per request, and the template may use the client id,
+ * the date and the content type of the upload. The route named "default" is used when a request names none,
+ * and falls back to {@code dropbox.target-folder}.
+ * <p>
+ * Routes are configured as {@code dropbox.routing.templates.<name>} and can additionally be kept in a properties
+ * file ({@code dropbox.routing.templates-file}, UTF-8), which is reloaded when it changes, so new routes need no
+ * redeploy. Templates are compiled when they are loaded and resolved folders are memoized per route and values,
+ * so steady-state uploads resolve their folder with a single map lookup.
+ */
+@Component
+public class TargetFolderRouter {
+    private static final Logger logger = LoggerFactory.getLogger(TargetFolderRouter.class);
+
+    /**
+     * The name of the route used when a request names none.
+     */
+    public static final String DEFAULT_ROUTE = "default";
+
+    private final Environment environment;
+    private final Map<RouteKey, String> resolvedFolders = new ConcurrentHashMap<>();
+    private volatile Map<String, PathTemplate> templates = Map.of();
+    private volatile FileTime templatesFileModified;
+
+    @Value("${dropbox.target-folder}")
+    private String targetFolder;
+
+    @Value("${dropbox.fix.encoding:false}")
+    private boolean fixEncoding;
+
+    @Value("${dropbox.routing.templates-file:}")
+    private String templatesFile;
+
+    @Value("${dropbox.routing.max-resolved-folders:1000}")
+    private int maxResolvedFolders;
+
+    /**
+     * Constructs a new TargetFolderRouter.
+     *
+     * @param environment The environment the configured routes are read from
+     */
+    public TargetFolderRouter(Environment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Compiles the configured routes at startup.
+     * An invalid template fails the startup, so a broken configuration is never deployed silently.
+     *
+     * @throws IOException If the templates file cannot be read
+     */
+    @PostConstruct
+    public void load() throws IOException {
+        reload();
+    }
+
+    /**
+     * Reloads the routes if the templates file has changed since it was last read.
+     * An invalid file is logged and the previous routes stay in effect.
+     */
+    @Scheduled(fixedDelayString = "${dropbox.routing.reload-interval:PT30S}")
+    public void reloadIfChanged() {
+        if (templatesFile.isEmpty()) {
+            return;
+        }
+
+        try {
+            FileTime modified = Files.exists(Path.of(templatesFile)) ? Files.getLastModifiedTime(Path.of(templatesFile)) : null;
+            if (modified != null && !modified.equals(templatesFileModified)) {
+                reload();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Failed to reload upload routes from {}, keeping the previous routes: {}", templatesFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Reads and compiles all routes and replaces the current ones.
+     * Folders resolved with the previous routes are forgotten.
+     *
+     * @throws IOException              If the templates file cannot be read
+     * @throws IllegalArgumentException If a template is invalid
+     */
+    public synchronized void reload() throws IOException {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put(DEFAULT_ROUTE, fixEncoding ? DropboxPaths.fixCyrillicEncoding(targetFolder) : targetFolder);
+        Binder.get(environment)
+                .bind("dropbox.routing.templates", Bindable.mapOf(String.class, String.class))
+                .ifBound(configured -> configured.forEach((route, template) ->
+                        sources.put(route, fixEncoding ? DropboxPaths.fixCyrillicEncoding(template) : template)));
+
+        FileTime modified = null;
+        if (!templatesFile.isEmpty() && Files.exists(Path.of(templatesFile))) {
+            Path file = Path.of(templatesFile);
+            modified = Files.getLastModifiedTime(file);
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            properties.stringPropertyNames().forEach(route -> sources.put(route, properties.getProperty(route)));
+        }
+
+        Map<String, PathTemplate> compiled = new LinkedHashMap<>();
+        sources.forEach((route, template) -> compiled.put(route, PathTemplate.compile(template.trim())));
+
+        templates = Map.copyOf(compiled);
+        templatesFileModified = modified;
+        resolvedFolders.clear();
+        logger.info("Loaded {} upload routes: {}", compiled.size(), compiled);
+    }
+
+    /**
+     * Determines the Dropbox folder of an upload.
+     *
+     * @param route       The name of the route, or null for the default route
+     * @param client      The client id sent with the upload (can be null if the route does not use it)
+     * @param contentType The content type of the uploaded file (can be null)
+     * @return The formatted Dropbox folder the file is uploaded to
+     * @throws UploadRoutingException If the route is unknown or needs a client id that was not sent
+     */
+    public String resolve(String route, String client, String contentType) {
+        String name = route == null || route.isBlank() ? DEFAULT_ROUTE : route.trim();
+        PathTemplate template = templates.get(name);
+        if (template == null) {
+            throw new UploadRoutingException("Unknown upload route: " + name);
+        }
+        if (!template.hasPlaceholders()) {
+            return template.getRoot();
+        }
+
+        LocalDate date = LocalDate.now();
+        RouteKey key = new RouteKey(template,
+                template.usesClient() ? client : null,
+                template.usesDate() ? date : null,
+                template.usesContentType() ? contentType : null);
+        String folder = resolvedFolders.get(key);
+        if (folder == null) {
+            folder = template.expand(client, date, contentType);
+            if (resolvedFolders.size() >= maxResolvedFolders) {
+                resolvedFolders.clear();
+            }
+            resolvedFolders.put(key, folder);
+        }
+        return folder;
+    }
+
+    /**
+     * Gets the folder of the default route, used for uploads that name no route.
+     *
+     * @return the default Dropbox folder, or its fixed root if the default route has placeholders
+     */
+    public String getDefaultFolder() {
+        return templates.get(DEFAULT_ROUTE).getRoot();
+    }
+
+    /**
+     * Gets the fixed root folders of all routes, leaving out the Dropbox root and folders nested in another root.
+     *
+     * @return the folders every upload is stored beneath
+     */
+    public List<String> getRootFolders() {
+        List<String> roots = templates.values().stream()
+                .map(PathTemplate::getRoot)
+                .filter(root -> !root.isEmpty())
+                .distinct()
+                .sorted()
+                .toList();
+        List<String> outermost = new ArrayList<>(roots.size());
+        for (String root : roots) {
+            boolean nested = outermost.stream().anyMatch(other -> root.toLowerCase().startsWith(other.toLowerCase() + "/"));
+            if (!nested) {
+                outermost.add(root);
+            }
+        }
+        return outermost;
+    }
+
+    /**
+     * Gets the names of all routes.
+     *
+     * @return the route names
+     */
+    public Set<String> getRoutes() {
+        return templates.keySet();
+    }
+
+    /**
+     * The values a resolved folder depends on; values the template does not use are left out.
+     * The template itself is part of the key, so folders resolved with replaced templates are never reused.
+     */
+    private record RouteKey(PathTemplate template, String client, LocalDate date, String contentType) {
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.dropbox_file_uploader.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Global admission control of the uploads in progress, against budgets for the heap they hold, the disk their
+ * spooled bodies take and the number of uploads running at once.
+ * <p>
+ * Each upload is charged before its body is read and keeps its charge until it has been answered. An upload that
+ * does not fit waits in a fair queue, in order of arrival, for up to the configured maximum wait; when the queue is
+ * already at its maximum depth, or the wait runs out, the upload is refused, so a burst of uploads is turned away
+ * with 503 instead of exhausting memory, disk or connections. A charge larger than a whole budget is reduced to the
+ * budget, so any single upload can still run once it has the budget to itself.
+ * <p>
+ * The use and limit of every budget are published as {@code upload.admission.used} and
+ * {@code upload.admission.limit}, tagged by resource, and the uploads waiting as {@code upload.admission.waiting}.
+ */
+@Component
+public class UploadAdmission {
+
+    /**
+     * The budgets uploads are charged against.
+     */
+    public enum Resource {
+        MEMORY, DISK, UPLOADS
+    }
+
+    /**
+     * Byte budgets are kept in kilobytes, so budgets of several gigabytes fit in the permits of a semaphore.
+     */
+    private static final long UNIT = 1024;
+
+    private final Semaphore memory;
+    private final Semaphore disk;
+    private final Semaphore uploads;
+    private final int memoryLimit;
+    private final int diskLimit;
+    private final int uploadLimit;
+    private final int maxQueue;
+    private final Duration maxWait;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Constructs a new UploadAdmission.
+     *
+     * @param memoryBudget  The heap all uploads in progress may hold together
+     * @param diskBudget    The disk space the spooled bodies of all uploads in progress may take together
+     * @param maxUploads    The maximum number of uploads in progress, each of which may hold a Dropbox connection
+     * @param maxQueue      The maximum number of uploads waiting for admission; further uploads are refused at once
+     * @param maxWait       How long an upload waits for admission before it is refused
+     * @param meterRegistry The registry the budgets and the queue are published to
+     */
+    public UploadAdmission(@Value("${upload.admission.memory-budget:512MB}") DataSize memoryBudget,
+                           @Value("${upload.admission.disk-budget:4GB}") DataSize diskBudget,
+                           @Value("${upload.admission.max-concurrent:64}") int maxUploads,
+                           @Value("${upload.admission.max-queue:128}") int maxQueue,
+                           @Value("${upload.admission.max-wait:PT2S}") Duration maxWait,
+                           MeterRegistry meterRegistry) {
+        this.memoryLimit = units(memoryBudget.toBytes());
+        this.diskLimit = units(diskBudget.toBytes());
+        this.uploadLimit = Math.max(1, maxUploads);
+        this.memory = new Semaphore(memoryLimit, true);
+        this.disk = new Semaphore(diskLimit, true);
+        this.uploads = new Semaphore(uploadLimit, true);
+        this.maxQueue = Math.max(0, maxQueue);
+        this.maxWait = maxWait;
+
+        Gauge.builder("upload.admission.waiting", waiting, AtomicInteger::get)
+                .description("Uploads waiting for admission under the upload budgets")
+                .register(meterRegistry);
+        for (Resource resource : Resource.values()) {
+            String unit = resource == Resource.UPLOADS ? "uploads" : "bytes";
+            Gauge.builder("upload.admission.used", this, admission -> admission.getUsed(resource))
+                    .tag("resource", resource.name().toLowerCase())
+                    .baseUnit(unit)
+                    .description("Budget held by the uploads in progress")
+                    .register(meterRegistry);
+            Gauge.builder("upload.admission.limit", this, admission -> admission.getLimit(resource))
+                    .tag("resource", resource.name().toLowerCase())
+                    .baseUnit(unit)
+                    .description("Budget available to the uploads in progress")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Admits an upload once its charge fits in every budget, waiting in the fair queue for up to the maximum wait.
+     *
+     * @param memoryBytes The heap the upload may hold
+     * @param diskBytes   The disk space the body of the upload may take
+     * @return The permit of the upload, to be closed once the upload has been answered,
+     * or null if the upload is refused because the queue is full or the wait ran out
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public Permit tryAdmit(long memoryBytes, long diskBytes) throws InterruptedException {
+        int memoryUnits = Math.min(units(memoryBytes), memoryLimit);
+        int diskUnits = Math.min(units(diskBytes), diskLimit);
+
+        if (acquire(memoryUnits, diskUnits, 0)) {
+            return new Permit(memoryUnits, diskUnits);
+        }
+        if (waiting.incrementAndGet() > maxQueue) {
+            waiting.decrementAndGet();
+            return null;
+        }
+        try {
+            return acquire(memoryUnits, diskUnits, maxWait.toNanos()) ? new Permit(memoryUnits, diskUnits) : null;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the number of uploads waiting for admission.
+     *
+     * @return the depth of the queue
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Gets the part of a budget held by the uploads in progress.
+     *
+     * @param resource The budget
+     * @return the bytes or uploads held
+     */
+    public long getUsed(Resource resource) {
+        return switch (resource) {
+            case MEMORY -> (memoryLimit - (long) memory.availablePermits()) * UNIT;
+            case DISK -> (diskLimit - (long) disk.availablePermits()) * UNIT;
+            case UPLOADS -> uploadLimit - uploads.availablePermits();
+        };
+    }
+
+    /**
+     * Gets the size of a budget.
+     *
+     * @param resource The budget
+     * @return the bytes or uploads available in total
+     */
+    public long getLimit(Resource resource) {
+        return switch (resource) {
+            case MEMORY -> memoryLimit * UNIT;
+            case DISK -> diskLimit * UNIT;
+            case UPLOADS -> uploadLimit;
+        };
+    }
+
+    /**
+     * Gets the number of seconds a refused upload is asked to wait before it is sent again.
+     *
+     * @return the maximum wait, rounded up to whole seconds and at least one second
+     */
+    public long getRetryAfterSeconds() {
+        return Math.max(1, (maxWait.toMillis() + 999) / 1000);
+    }
+
+    /**
+     * Takes the charge of an upload from every budget, giving back what was taken if the charge does not fit in time.
+     * The timed acquisitions honour the fairness of the budgets, so uploads already waiting are not overtaken.
+     *
+     * @param memoryUnits  The heap charged, in kilobytes
+     * @param diskUnits    The disk space charged, in kilobytes
+     * @param timeoutNanos How long to wait for the charge to fit, 0 to not wait at all
+     * @return true if the charge was taken, false otherwise
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    private boolean acquire(int memoryUnits, int diskUnits, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        if (!uploads.tryAcquire(1, timeoutNanos, TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        if (!memory.tryAcquire(memoryUnits, remaining(deadline), TimeUnit.NANOSECONDS)) {
+            uploads.release();
+            return false;
+        }
+        if (!disk.tryAcquire(diskUnits, remaining(deadline), TimeUnit.NANOSECONDS)) {
+            memory.release(memoryUnits);
+            uploads.release();
+            return false;
+        }
+        return true;
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    private static int units(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, (Math.max(0, bytes) + UNIT - 1) / UNIT);
+    }
+
+    /**
+     * The charge of an admitted upload, given back to the budgets when it is closed.
+     * Closing it more than once has no further effect.
+     */
+    public final class Permit implements AutoCloseable {
+        private final int memoryUnits;
+        private final int diskUnits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int memoryUnits, int diskUnits) {
+            this.memoryUnits = memoryUnits;
+            this.diskUnits = diskUnits;
+        }
+
+        /**
+         * Gives the charge of the upload back to the budgets.
+         */
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                disk.release(diskUnits);
+                memory.release(memoryUnits);
+                uploads.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.example.dropbox_file_uploader.model.dto.ApiResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Runs each upload sent with an Idempotency-Key header only once.
+ * A request whose key belongs to an upload still in progress is attached to that upload and answered with its
+ * response; a request whose key belongs to a finished upload is answered with the stored response right away.
+ * Responses are stored for a configurable time-to-live in a cache bounded in size, evicting the entries closest
+ * to expiry first when it is full. Server errors are not stored, so a retry after a failure uploads again.
+ * <p>
+ * Each key is bound to the upload it was first sent with by a {@link Fingerprint}: a key reused for a different
+ * file, endpoint, folder or route is answered with 422 Unprocessable Entity instead of the response of the
+ * first upload, and the new file is not uploaded.
+ * <p>
+ * Requests answered from the cache are counted in {@code upload.idempotency} by outcome, and their responses
+ * carry the {@value #REPLAYED_HEADER} header.
+ */
+@Component
+public class UploadIdempotencyCache {
+    private static final Logger logger = LoggerFactory.getLogger(UploadIdempotencyCache.class);
+
+    /**
+     * The request header carrying the idempotency key.
+     */
+    public static final String KEY_HEADER = "Idempotency-Key";
+
+    /**
+     * The response header marking a response that was not produced by the request itself.
+     */
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    /**
+     * Keys accepted from clients, such as UUIDs.
+     */
+    private static final Pattern KEY = Pattern.compile("[A-Za-z0-9._:-]{1,255}");
+
+    /**
+     * The expiry of uploads still in progress, which only expire once they are finished.
+     */
+    private static final long IN_PROGRESS = Long.MAX_VALUE;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final Counter executed;
+    private final Counter coalesced;
+    private final Counter replayed;
+    private final Counter mismatched;
+
+    /**
+     * Constructs a new UploadIdempotencyCache.
+     *
+     * @param ttl           How long the response of a finished upload is returned for retries with the same key
+     * @param maxEntries    The maximum number of keys kept
+     * @param meterRegistry The registry the outcomes and the number of keys are published to
+     */
+    public UploadIdempotencyCache(@Value("${upload.idempotency.ttl:PT1H}") Duration ttl,
+                                  @Value("${upload.idempotency.max-entries:10000}") int maxEntries,
+                                  MeterRegistry meterRegistry) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = Math.max(1, maxEntries);
+        this.executed = outcome(meterRegistry, "executed");
+        this.coalesced = outcome(meterRegistry, "coalesced");
+        this.replayed = outcome(meterRegistry, "replayed");
+        this.mismatched = outcome(meterRegistry, "mismatched");
+        Gauge.builder("upload.idempotency.entries", entries, Map::size)
+                .description("Idempotency keys of uploads in progress or recently finished")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Checks whether a key sent by a client can be used.
+     *
+     * @param key The value of the Idempotency-Key header
+     * @return true if the key is valid, false otherwise
+     */
+    public static boolean isValidKey(String key) {
+        return key != null && KEY.matcher(key).matches();
+    }
+
+    /**
+     * Builds the part of a fingerprint known before the body of a request is read.
+     *
+     * @param endpoint      The path of the upload endpoint
+     * @param query         The query string of the request (can be null)
+     * @param route         The X-Upload-Route header (can be null)
+     * @param client        The X-Client-Id header (can be null)
+     * @param contentLength The length of the request body, or -1 if it is not known
+     * @return The request part of the fingerprint
+     */
+    public static String requestFingerprint(String endpoint, String query, String route, String client,
+                                            long contentLength) {
+        return String.join("\n", endpoint, String.valueOf(query), String.valueOf(route), String.valueOf(client),
+                String.valueOf(contentLength));
+    }
+
+    /**
+     * Runs an upload unless an upload with the same key is in progress or has recently finished.
+     * If that upload was a different one, the new upload is not run and a 422 response is returned.
+     *
+     * @param key         The idempotency key of the upload
+     * @param fingerprint What the upload asks for
+     * @param upload      Starts the upload and returns a future of its response
+     * @return A future of the response of the upload, of the upload with the same key, or of the rejection
+     * of a reused key
+     */
+    public CompletableFuture<ResponseEntity<ApiResponse>> execute(String key, Fingerprint fingerprint,
+                                                                  Supplier<CompletableFuture<ResponseEntity<ApiResponse>>> upload) {
+        CompletableFuture<ResponseEntity<ApiResponse>> result = new CompletableFuture<>();
+        Entry own = new Entry(result, IN_PROGRESS, fingerprint);
+        while (true) {
+            Entry existing = entries.putIfAbsent(key, own);
+            if (existing == null) {
+                break;
+            }
+            if (existing.isExpired(System.nanoTime())) {
+                entries.remove(key, existing);
+                continue;
+            }
+            if (!existing.fingerprint().upload().equals(fingerprint.upload())) {
+                mismatched.increment();
+                logger.warn("Idempotency key {} reused for a different upload, rejecting it", key);
+                return CompletableFuture.completedFuture(keyReused());
+            }
+            boolean inProgress = existing.expiresAt() == IN_PROGRESS;
+            (inProgress ? coalesced : replayed).increment();
+            logger.info("Upload with idempotency key {} {}, reusing its response", key,
+                    inProgress ? "already in progress" : "already finished");
+            return existing.result().thenApply(UploadIdempotencyCache::replayed);
+        }
+
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+        executed.increment();
+        try {
+            upload.get().whenComplete((response, error) -> {
+                if (error == null && isStored(response)) {
+                    entries.replace(key, own, new Entry(result, System.nanoTime() + ttlNanos, fingerprint));
+                } else {
+                    entries.remove(key, own);
+                }
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(response);
+                }
+            });
+        } catch (RuntimeException e) {
+            entries.remove(key, own);
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the stored response of a finished upload sent by the same request.
+     * Since only the parts of a request known before its body is read are compared, a request they do not match
+     * is left to {@link #execute}, which rejects it if it is a different upload.
+     *
+     * @param key     The idempotency key of the upload
+     * @param request The request part of the fingerprint, see {@link #requestFingerprint}
+     * @return The response of the upload, marked as replayed, or empty if it is unknown, in progress, expired or
+     * was stored for a request that does not match
+     */
+    public Optional<ResponseEntity<ApiResponse>> findFinished(String key, String request) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.expiresAt() == IN_PROGRESS || !entry.fingerprint().request().equals(request)) {
+            return Optional.empty();
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            entries.remove(key, entry);
+            return Optional.empty();
+        }
+        replayed.increment();
+        return Optional.of(replayed(entry.result().join()));
+    }
+
+    /**
+     * Gets the number of keys of uploads in progress or recently finished.
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops expired entries and, if the cache is still full, the finished entry closest to expiry.
+     * Uploads in progress are never dropped.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+
+        if (entries.size() > maxEntries) {
+            entries.entrySet().stream()
+                    .filter(entry -> entry.getValue().expiresAt() != IN_PROGRESS)
+                    .min((a, b) -> Long.compare(a.getValue().expiresAt() - now, b.getValue().expiresAt() - now))
+                    .ifPresent(eldest -> entries.remove(eldest.getKey(), eldest.getValue()));
+        }
+    }
+
+    /**
+     * Checks whether a response is returned for retries: successful uploads, queued uploads and rejected requests
+     * are, server errors are not, since the same request may succeed when it is sent again.
+     *
+     * @param response The response of the upload
+     * @return true if the response is stored, false otherwise
+     */
+    private static boolean isStored(ResponseEntity<ApiResponse> response) {
+        return !response.getStatusCode().is5xxServerError() && response.getStatusCode().value() != 429;
+    }
+
+    /**
+     * Copies a response, adding the header marking it as replayed.
+     *
+     * @param response The response of the upload
+     * @return The marked copy of the response
+     */
+    private static ResponseEntity<ApiResponse> replayed(ResponseEntity<ApiResponse> response) {
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header(REPLAYED_HEADER, "true")
+                .body(response.getBody());
+    }
+
+    /**
+     * Builds the 422 response for a key reused for a different upload.
+     *
+     * @return A 422 response with the error message
+     */
+    private static ResponseEntity<ApiResponse> keyReused() {
+        return ResponseEntity.unprocessableEntity().body(ApiResponse.error(
+                "Този Idempotency-Key вече е използван за друго качване. Използвайте нов ключ за всеки файл."));
+    }
+
+    private static Counter outcome(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("upload.idempotency")
+                .tag("outcome", outcome)
+                .description("Uploads with an idempotency key, by whether they ran or reused the response of another")
+                .register(meterRegistry);
+    }
+
+    /**
+     * What an upload sent with an idempotency key asks for, compared when the key is sent again.
+     *
+     * @param request The parts of the request known before its body is read, see {@link #requestFingerprint};
+     *                a stored response is only replayed before the body is read if they match
+     * @param upload  The upload itself: the endpoint, the file name and size, the custom file name, whether it is
+     *                queued, the target folder and the routing key; a key sent with another upload is rejected
+     */
+    public record Fingerprint(String request, String upload) {
+    }
+
+    /**
+     * The response of an upload with an idempotency key.
+     *
+     * @param result      The future of the response
+     * @param expiresAt   When the response stops being returned, in {@link System#nanoTime()} units,
+     *                    or {@link #IN_PROGRESS} while the upload runs
+     * @param fingerprint What the upload asked for
+     */
+    private record Entry(CompletableFuture<ResponseEntity<ApiResponse>> result, long expiresAt,
+                         Fingerprint fingerprint) {
+        boolean isExpired(long now) {
+            return expiresAt != IN_PROGRESS && expiresAt - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.dropbox_file_uploader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Micrometer metrics of the upload hot path.
+ * <ul>
+ * <li>{@code upload.duration} - end-to-end latency of uploads, by endpoint and response status</li>
+ * <li>{@code upload.in.flight} - uploads currently being transferred</li>
+ * <li>{@code upload.bytes} - bytes sent to Dropbox</li>
+ * <li>{@code upload.throughput} - bytes sent to Dropbox per second, averaged over the last minute</li>
+ * <li>{@code upload.rejected} - uploads or files refused before reaching Dropbox, by reason</li>
+ * <li>{@code upload.image.bytes} - bytes of images before and after recompression, by direction</li>
+ * <li>{@code upload.image.processing} - time spent recompressing images, by outcome</li>
+ * </ul>
+ * Latency of the individual Dropbox calls is recorded by {@link DropboxCircuitBreaker}.
+ */
+@Component
+public class UploadMetrics {
+
+    /**
+     * The number of seconds the throughput is averaged over.
+     */
+    private static final int THROUGHPUT_WINDOW_SECONDS = 60;
+
+    /**
+     * Reasons an upload is refused before reaching Dropbox.
+     */
+    public enum RejectionReason {
+        MISSING_FILE, EMPTY_FILE, SIZE, CONTENT_TYPE, ROUTE, BUSY, QUEUE_FULL, DROPBOX_UNAVAILABLE, OVERLOADED
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter bytes;
+    private final Counter imageBytesIn;
+    private final Counter imageBytesOut;
+    private final AtomicLongArray bytesPerSecond = new AtomicLongArray(THROUGHPUT_WINDOW_SECONDS);
+    private final AtomicLongArray bucketSeconds = new AtomicLongArray(THROUGHPUT_WINDOW_SECONDS);
+
+    /**
+     * Constructs a new UploadMetrics and registers the gauges.
+     *
+     * @param meterRegistry The registry the metrics are published to
+     */
+    public UploadMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.bytes = Counter.builder("upload.bytes")
+                .baseUnit("bytes")
+                .description("Bytes sent to Dropbox")
+                .register(meterRegistry);
+        this.imageBytesIn = imageBytes("in");
+        this.imageBytesOut = imageBytes("out");
+        Gauge.builder("upload.in.flight", inFlight, AtomicInteger::get)
+                .description("Uploads currently being transferred to Dropbox")
+                .register(meterRegistry);
+        Gauge.builder("upload.throughput", this, UploadMetrics::getThroughput)
+                .baseUnit("bytes")
+                .description("Bytes sent to Dropbox per second, averaged over the last minute")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Marks the start of an upload.
+     *
+     * @return A sample to pass to {@link #uploadFinished(Timer.Sample, String, int)} when the upload ends
+     */
+    public Timer.Sample uploadStarted() {
+        inFlight.incrementAndGet();
+        return Timer.start(meterRegistry);
+    }
+
+    /**
+     * Records the end of an upload.
+     *
+     * @param sample   The sample returned when the upload started
+     * @param endpoint The kind of upload, such as single, batch or stream
+     * @param status   The HTTP status the upload was answered with
+     */
+    public void uploadFinished(Timer.Sample sample, String endpoint, int status) {
+        inFlight.decrementAndGet();
+        sample.stop(Timer.builder("upload.duration")
+                .description("End-to-end latency of uploads")
+                .tag("endpoint", endpoint)
+                .tag("status", String.valueOf(status))
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    /**
+     * Records bytes sent to Dropbox.
+     *
+     * @param count The number of bytes sent
+     */
+    public void bytesUploaded(long count) {
+        bytes.increment(count);
+
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        int bucket = (int) Math.floorMod(second, (long) THROUGHPUT_WINDOW_SECONDS);
+        long bucketSecond = bucketSeconds.get(bucket);
+        if (bucketSecond != second && bucketSeconds.compareAndSet(bucket, bucketSecond, second)) {
+            bytesPerSecond.set(bucket, 0);
+        }
+        bytesPerSecond.addAndGet(bucket, count);
+    }
+
+    /**
+     * Records an upload or a file refused before reaching Dropbox.
+     *
+     * @param reason Why it was refused
+     */
+    public void rejected(RejectionReason reason) {
+        Counter.builder("upload.rejected")
+                .description("Uploads refused before reaching Dropbox")
+                .tag("reason", reason.name().toLowerCase())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Records an image that went through recompression.
+     * Images uploaded unchanged count with the same size in both directions, so the difference of the
+     * two byte counters is the upstream bandwidth saved.
+     *
+     * @param outcome      What happened to the image
+     * @param bytesIn      The size of the uploaded image
+     * @param bytesOut     The size of the image sent on to Dropbox
+     * @param elapsedNanos The time spent decoding and encoding the image
+     */
+    public void imageProcessed(ImageRecompressor.Outcome outcome, long bytesIn, long bytesOut, long elapsedNanos) {
+        imageBytesIn.increment(bytesIn);
+        imageBytesOut.increment(bytesOut);
+        Timer.builder("upload.image.processing")
+                .description("Time spent recompressing images")
+                .tag("outcome", outcome.name().toLowerCase())
+                .register(meterRegistry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registers the counter of image bytes in one direction.
+     *
+     * @param direction in for the uploaded images, out for the images sent on to Dropbox
+     * @return the registered counter
+     */
+    private Counter imageBytes(String direction) {
+        return Counter.builder("upload.image.bytes")
+                .baseUnit("bytes")
+                .description("Bytes of images before and after recompression")
+                .tag("direction", direction)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Gets the number of bytes sent to Dropbox per second, averaged over the last minute.
+     *
+     * @return the current throughput in bytes per second
+     */
+    public double getThroughput() {
+        long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        long total = 0;
+        for (int i = 0; i < THROUGHPUT_WINDOW_SECONDS; i++) {
+            if (now - bucketSeconds.get(i) < THROUGHPUT_WINDOW_SECONDS) {
+                total += bytesPerSecond.get(i);
+            }
+        }
+        return (double) total / THROUGHPUT_WINDOW_SECONDS;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.dropbox_file_uploader.service;
+
+/**
+ * Thrown when a chunk of a resumable upload does not start where the upload currently ends,
+ * or arrives while another chunk of the same upload is still being received.
+ * The client resumes by sending the content from the current offset.
+ */
+public class UploadOffsetConflictException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long offset;
+
+    /**
+     * Constructs a new UploadOffsetConflictException.
+     *
+     * @param message The reason the chunk was not accepted
+     * @param offset  The offset the upload currently ends at
+     */
+    public UploadOffsetConflictException(String message, long offset) {
+        super(message);
+        this.offset = offset;
+    }
+
+    /**
+     * Gets the offset the next chunk has to start at.
+     *
+     * @return the current offset of the upload
+     */
+    public long getOffset() {
+        return offset;
+    }
+}
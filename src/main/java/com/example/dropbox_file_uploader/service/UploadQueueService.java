@@ -0,0 +1,407 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.DbxException;
+import com.example.dropbox_file_uploader.model.UploadJob;
+import com.example.dropbox_file_uploader.model.UploadJobStatus;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable queue of asynchronous uploads.
+ * Files are spooled to a local queue directory together with a JSON journal entry per job,
+ * and a bounded pool of workers drains the queue into {@link DropboxService}.
+ * Failed attempts are retried with exponential backoff, and unfinished jobs are
+ * picked up again from the journal when the application restarts.
+ */
+@Service
+public class UploadQueueService {
+    private static final Logger logger = LoggerFactory.getLogger(UploadQueueService.class);
+
+    private static final String JOURNAL_SUFFIX = ".json";
+    private static final String DATA_SUFFIX = ".data";
+
+    private final DropboxService dropboxService;
+    private final TargetFolderRouter targetFolderRouter;
+    private final ObjectMapper objectMapper;
+    private final Map<String, UploadJob> jobs = new ConcurrentHashMap<>();
+
+    @Value("${upload.queue.directory:${java.io.tmpdir}/dropbox-upload-queue}")
+    private Path queueDirectory;
+
+    @Value("${upload.queue.workers:2}")
+    private int workers;
+
+    @Value("${upload.queue.max-pending:1000}")
+    private int maxPending;
+
+    @Value("${upload.queue.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${upload.queue.initial-backoff:PT2S}")
+    private Duration initialBackoff;
+
+    @Value("${upload.queue.max-backoff:PT5M}")
+    private Duration maxBackoff;
+
+    @Value("${upload.queue.retention:PT24H}")
+    private Duration retention;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Constructs a new UploadQueueService.
+     *
+     * @param dropboxService     The service used to upload the queued files to Dropbox
+     * @param targetFolderRouter The router giving the folder of jobs journaled without one
+     * @param objectMapper       The mapper used to read and write the job journal
+     */
+    public UploadQueueService(DropboxService dropboxService, TargetFolderRouter targetFolderRouter, ObjectMapper objectMapper) {
+        this.dropboxService = dropboxService;
+        this.targetFolderRouter = targetFolderRouter;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Starts the worker pool and recovers the jobs journaled before the last shutdown.
+     * Unfinished jobs are queued again; finished jobs are kept for status queries until they expire.
+     *
+     * @throws IOException If the queue directory cannot be created or read
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(queueDirectory);
+        executor = new ScheduledThreadPoolExecutor(Math.max(1, workers), new CustomizableThreadFactory("upload-queue-"));
+
+        int recovered = 0;
+        try (DirectoryStream<Path> journal = Files.newDirectoryStream(queueDirectory, "*" + JOURNAL_SUFFIX)) {
+            for (Path entry : journal) {
+                try {
+                    UploadJob job = objectMapper.readValue(entry.toFile(), UploadJob.class);
+                    jobs.put(job.getId(), job);
+                    if (!job.getStatus().isFinished()) {
+                        recover(job);
+                        recovered++;
+                    }
+                } catch (IOException e) {
+                    logger.error("Skipping unreadable journal entry: {}", entry, e);
+                }
+            }
+        }
+
+        executor.scheduleAtFixedRate(this::purgeExpiredJobs, 1, 1, TimeUnit.HOURS);
+        logger.info("Upload queue started in {} with {} workers, {} jobs recovered", queueDirectory, workers, recovered);
+    }
+
+    /**
+     * Spools the file into the queue directory and schedules it for upload.
+     *
+     * @param file           The file to upload
+     * @param customFileName Optional custom name for the file in Dropbox (can be null)
+     * @param folder         The formatted Dropbox folder the file is uploaded to
+     * @param routingKey     The client id or route the Dropbox account is chosen by (can be null)
+     * @return A snapshot of the queued job
+     * @throws IOException                If the file cannot be spooled or journaled
+     * @throws RejectedExecutionException If the queue already holds the maximum number of pending jobs
+     */
+    public UploadJob enqueue(MultipartFile file, String customFileName, String folder, String routingKey)
+            throws IOException {
+        long pending = jobs.values().stream().filter(job -> !job.getStatus().isFinished()).count();
+        if (pending >= maxPending) {
+            throw new RejectedExecutionException("Upload queue is full (" + pending + " pending jobs)");
+        }
+
+        Instant now = Instant.now();
+        UploadJob job = new UploadJob();
+        job.setId(UUID.randomUUID().toString());
+        job.setStatus(UploadJobStatus.QUEUED);
+        job.setOriginalFileName(file.getOriginalFilename());
+        job.setCustomFileName(customFileName);
+        job.setContentType(file.getContentType());
+        job.setSize(file.getSize());
+        job.setTargetFolder(folder);
+        job.setRoutingKey(routingKey);
+        job.setCreatedAt(now);
+        job.setUpdatedAt(now);
+
+        // The data must be on disk before the journal entry that refers to it
+        file.transferTo(dataPath(job.getId()));
+        persist(job);
+        jobs.put(job.getId(), job);
+
+        executor.execute(() -> process(job.getId()));
+        logger.info("Queued upload job {} for {} ({} bytes)", job.getId(), job.getOriginalFileName(), job.getSize());
+        return snapshot(job);
+    }
+
+    /**
+     * Finds a job by its id.
+     *
+     * @param id The id of the job
+     * @return A snapshot of the job, or an empty Optional if no such job is known
+     */
+    public Optional<UploadJob> findJob(String id) {
+        return Optional.ofNullable(jobs.get(id)).map(this::snapshot);
+    }
+
+    /**
+     * Runs one upload attempt for the job and schedules a retry if it fails with a transient error.
+     *
+     * @param id The id of the job to process
+     */
+    private void process(String id) {
+        UploadJob job = jobs.get(id);
+        if (job == null || job.getStatus().isFinished()) {
+            return;
+        }
+
+        update(job, UploadJobStatus.UPLOADING, null);
+        Path data = dataPath(id);
+
+        try {
+            String folder = job.getTargetFolder() != null ? job.getTargetFolder() : targetFolderRouter.getDefaultFolder();
+            String uploadedPath = dropboxService.uploadFile(new FileSystemResource(data), job.getSize(),
+                    job.getOriginalFileName(), job.getCustomFileName(), folder, job.getRoutingKey());
+
+            synchronized (job) {
+                job.setPath(uploadedPath);
+                job.setNextAttemptAt(null);
+            }
+            update(job, UploadJobStatus.COMPLETED, null);
+            logger.info("Upload job {} completed: {}", id, uploadedPath);
+        } catch (IllegalArgumentException e) {
+            fail(job, e.getMessage());
+        } catch (DropboxUnavailableException e) {
+            postpone(job, e);
+        } catch (DbxException | IOException e) {
+            scheduleRetry(job, e);
+        } catch (RuntimeException e) {
+            logger.error("Unexpected error in upload job {}", id, e);
+            scheduleRetry(job, e);
+        }
+
+        if (job.getStatus() == UploadJobStatus.COMPLETED) {
+            try {
+                Files.deleteIfExists(data);
+            } catch (IOException e) {
+                logger.warn("Could not delete data of completed upload job {}", id, e);
+            }
+        }
+    }
+
+    /**
+     * Schedules the next attempt of a failed job with exponential backoff and jitter,
+     * or marks the job as failed once the maximum number of attempts is reached.
+     *
+     * @param job   The job whose attempt failed
+     * @param cause The error of the failed attempt
+     */
+    private void scheduleRetry(UploadJob job, Exception cause) {
+        int attempts;
+        synchronized (job) {
+            attempts = job.getAttempts() + 1;
+            job.setAttempts(attempts);
+        }
+
+        if (attempts >= maxAttempts) {
+            logger.error("Upload job {} failed after {} attempts", job.getId(), attempts, cause);
+            fail(job, cause.getMessage());
+            return;
+        }
+
+        long backoffMillis = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << Math.min(attempts - 1, 20));
+        long delayMillis = backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+
+        synchronized (job) {
+            job.setNextAttemptAt(Instant.now().plusMillis(delayMillis));
+        }
+        update(job, UploadJobStatus.RETRYING, cause.getMessage());
+        logger.warn("Upload job {} attempt {} failed, retrying in {} ms: {}", job.getId(), attempts, delayMillis, cause.getMessage());
+        if (executor.isShutdown()) {
+            // The retry is picked up from the journal on the next start
+            return;
+        }
+        executor.schedule(() -> process(job.getId()), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the job again once Dropbox is expected to accept calls, without counting an attempt,
+     * since the upload was rejected before anything was sent.
+     *
+     * @param job   The job whose attempt was rejected
+     * @param cause The rejection, carrying the time to wait
+     */
+    private void postpone(UploadJob job, DropboxUnavailableException cause) {
+        long retryAfterMillis = cause.getRetryAfter().toMillis();
+        long delayMillis = retryAfterMillis + ThreadLocalRandom.current().nextLong(retryAfterMillis / 10 + 1);
+
+        synchronized (job) {
+            job.setNextAttemptAt(Instant.now().plusMillis(delayMillis));
+        }
+        update(job, UploadJobStatus.RETRYING, cause.getMessage());
+        logger.info("Upload job {} postponed by {} ms: {}", job.getId(), delayMillis, cause.getMessage());
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.schedule(() -> process(job.getId()), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Marks the job as permanently failed and removes its spooled data.
+     *
+     * @param job   The job that failed
+     * @param error The error message to record
+     */
+    private void fail(UploadJob job, String error) {
+        synchronized (job) {
+            job.setNextAttemptAt(null);
+        }
+        update(job, UploadJobStatus.FAILED, error);
+        try {
+            Files.deleteIfExists(dataPath(job.getId()));
+        } catch (IOException e) {
+            logger.warn("Could not delete data of failed upload job {}", job.getId(), e);
+        }
+    }
+
+    /**
+     * Re-schedules an unfinished job recovered from the journal.
+     * A job that was uploading when the application stopped is simply attempted again.
+     *
+     * @param job The recovered job
+     */
+    private void recover(UploadJob job) {
+        if (!Files.exists(dataPath(job.getId()))) {
+            logger.error("Spooled data of upload job {} is missing", job.getId());
+            fail(job, "Spooled data is missing");
+            return;
+        }
+
+        long delayMillis = 0;
+        if (job.getNextAttemptAt() != null) {
+            delayMillis = Math.max(0, Duration.between(Instant.now(), job.getNextAttemptAt()).toMillis());
+        }
+        update(job, job.getAttempts() > 0 ? UploadJobStatus.RETRYING : UploadJobStatus.QUEUED, job.getError());
+        executor.schedule(() -> process(job.getId()), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Changes the status of the job and writes it to the journal.
+     *
+     * @param job    The job to update
+     * @param status The new status
+     * @param error  The error message to record, or null
+     */
+    private void update(UploadJob job, UploadJobStatus status, String error) {
+        synchronized (job) {
+            job.setStatus(status);
+            job.setError(error);
+            job.setUpdatedAt(Instant.now());
+            try {
+                persist(job);
+            } catch (IOException e) {
+                logger.error("Failed to journal upload job {}", job.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Atomically replaces the journal entry of the job, so that a crash never leaves a partial entry behind.
+     *
+     * @param job The job to write
+     * @throws IOException If the journal entry cannot be written
+     */
+    private void persist(UploadJob job) throws IOException {
+        Path target = queueDirectory.resolve(job.getId() + JOURNAL_SUFFIX);
+        Path temp = queueDirectory.resolve(job.getId() + JOURNAL_SUFFIX + ".tmp");
+        Files.write(temp, objectMapper.writeValueAsBytes(job));
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Removes finished jobs older than the retention period from memory and from the queue directory.
+     */
+    private void purgeExpiredJobs() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> {
+            synchronized (job) {
+                if (!job.getStatus().isFinished() || job.getUpdatedAt().isAfter(cutoff)) {
+                    return false;
+                }
+            }
+            try {
+                Files.deleteIfExists(queueDirectory.resolve(job.getId() + JOURNAL_SUFFIX));
+                Files.deleteIfExists(dataPath(job.getId()));
+            } catch (IOException e) {
+                logger.warn("Could not purge upload job {}", job.getId(), e);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Creates a consistent copy of the job that is safe to hand out while workers keep updating it.
+     *
+     * @param job The job to copy
+     * @return A copy of the job
+     */
+    private UploadJob snapshot(UploadJob job) {
+        synchronized (job) {
+            UploadJob copy = new UploadJob();
+            copy.setId(job.getId());
+            copy.setStatus(job.getStatus());
+            copy.setOriginalFileName(job.getOriginalFileName());
+            copy.setCustomFileName(job.getCustomFileName());
+            copy.setContentType(job.getContentType());
+            copy.setSize(job.getSize());
+            copy.setTargetFolder(job.getTargetFolder());
+            copy.setRoutingKey(job.getRoutingKey());
+            copy.setAttempts(job.getAttempts());
+            copy.setPath(job.getPath());
+            copy.setError(job.getError());
+            copy.setCreatedAt(job.getCreatedAt());
+            copy.setUpdatedAt(job.getUpdatedAt());
+            copy.setNextAttemptAt(job.getNextAttemptAt());
+            return copy;
+        }
+    }
+
+    private Path dataPath(String id) {
+        return queueDirectory.resolve(id + DATA_SUFFIX);
+    }
+
+    /**
+     * Stops the workers when the application shuts down.
+     * Jobs that are interrupted stay in the journal and are resumed on the next start.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.dropbox_file_uploader.service;
+
+import org.springframework.web.multipart.MultipartException;
+
+/**
+ * Thrown while a multipart upload is being received, as soon as the first bytes of a file show that its content
+ * is not of the type the client declared or not of a type accepted for upload.
+ * The rest of the request body is not read.
+ */
+public class UploadRejectedException extends MultipartException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String fileName;
+    private final String contentType;
+
+    /**
+     * Constructs a new UploadRejectedException.
+     *
+     * @param fileName    The name of the rejected file
+     * @param contentType The content type declared by the client
+     */
+    public UploadRejectedException(String fileName, String contentType) {
+        super("Content of " + fileName + " does not match the declared type " + contentType);
+        this.fileName = fileName;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Gets the name of the rejected file.
+     *
+     * @return the file name sent by the client
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Gets the content type the client declared for the rejected file.
+     *
+     * @return the declared content type, or null if none was declared
+     */
+    public String getContentType() {
+        return contentType;
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.dropbox_file_uploader.service;
+
+/**
+ * Thrown when the target folder of an upload cannot be determined,
+ * because the requested route is unknown or a value its path template needs was not sent.
+ */
+public class UploadRoutingException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new UploadRoutingException.
+     *
+     * @param message The reason the folder cannot be determined
+     */
+    public UploadRoutingException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.dropbox_file_uploader.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The timeline of a single upload request: when it started, how long each phase took and how it was answered.
+ * Phases are recorded without locking, from whichever thread works on the upload, so recording costs a clock read
+ * and an atomic increment. Phases may overlap, for example the transfer of a file includes its deduplication.
+ * At most {@value #MAX_PHASES} phases are kept per upload.
+ */
+public final class UploadTrace {
+
+    /**
+     * The maximum number of phases recorded per upload; further phases are dropped.
+     */
+    static final int MAX_PHASES = 64;
+
+    /**
+     * The phases an upload goes through.
+     */
+    public enum Phase {
+        /**
+         * Waiting for admission under the global upload budgets, before the body is read.
+         */
+        ADMIT,
+        /**
+         * Receiving and parsing the multipart request body.
+         */
+        RECEIVE,
+        /**
+         * Waiting for a free slot of the upload bulkhead.
+         */
+        QUEUE_WAIT,
+        /**
+         * Recompressing an image before it is sent.
+         */
+        RECOMPRESS,
+        /**
+         * Checking and creating the target folder in Dropbox.
+         */
+        ENSURE_FOLDER,
+        /**
+         * Hashing the content and looking for a copy already stored in Dropbox.
+         */
+        DEDUP,
+        /**
+         * Sending the content to Dropbox and committing it.
+         */
+        TRANSFER,
+        /**
+         * Writing the response to the client.
+         */
+        RESPOND
+    }
+
+    /**
+     * A recorded phase, with times in milliseconds relative to the start of the upload.
+     *
+     * @param phase          The phase
+     * @param startMillis    When the phase started
+     * @param durationMillis How long the phase took
+     */
+    public record PhaseTiming(Phase phase, double startMillis, double durationMillis) {
+    }
+
+    private final String traceId;
+    private final String endpoint;
+    private final Instant startedAt = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger recorded = new AtomicInteger();
+    private final AtomicReferenceArray<Phase> phases = new AtomicReferenceArray<>(MAX_PHASES);
+    private final long[] phaseStarts = new long[MAX_PHASES];
+    private final long[] phaseDurations = new long[MAX_PHASES];
+    private volatile long endNanos;
+    private volatile int status;
+
+    /**
+     * Constructs a new UploadTrace starting now.
+     *
+     * @param traceId  The id of the trace
+     * @param endpoint The method and path of the request
+     */
+    UploadTrace(String traceId, String endpoint) {
+        this.traceId = traceId;
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Records a phase that ends now.
+     *
+     * @param phase      The phase
+     * @param startNanos The {@link System#nanoTime()} at which the phase started
+     */
+    public void record(Phase phase, long startNanos) {
+        long now = System.nanoTime();
+        int index = recorded.getAndIncrement();
+        if (index >= MAX_PHASES) {
+            return;
+        }
+        phaseStarts[index] = startNanos - this.startNanos;
+        phaseDurations[index] = now - startNanos;
+        // Setting the phase last publishes the times written before it to readers
+        phases.set(index, phase);
+    }
+
+    /**
+     * Marks the upload as answered.
+     *
+     * @param status The HTTP status of the response
+     */
+    void finish(int status) {
+        this.status = status;
+        this.endNanos = System.nanoTime();
+    }
+
+    /**
+     * Gets the id of the trace, returned to the client in the X-Trace-Id header.
+     *
+     * @return the trace id
+     */
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Gets the request the trace belongs to.
+     *
+     * @return the method and path of the request
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Gets the time the request arrived.
+     *
+     * @return the start of the upload
+     */
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Checks whether the upload has been answered.
+     *
+     * @return true once the response has been written, false while the upload is in progress
+     */
+    public boolean isComplete() {
+        return endNanos != 0;
+    }
+
+    /**
+     * Gets the HTTP status the upload was answered with.
+     *
+     * @return the status, or 0 while the upload is in progress
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets how long the upload took, or has taken so far if it is still in progress.
+     *
+     * @return the duration in milliseconds
+     */
+    public double getDurationMillis() {
+        return durationNanos() / 1e6;
+    }
+
+    /**
+     * Gets the recorded phases in the order they ended.
+     *
+     * @return the phases with their start and duration
+     */
+    public List<PhaseTiming> getPhases() {
+        int count = Math.min(recorded.get(), MAX_PHASES);
+        List<PhaseTiming> timings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Phase phase = phases.get(i);
+            if (phase != null) {
+                timings.add(new PhaseTiming(phase, phaseStarts[i] / 1e6, phaseDurations[i] / 1e6));
+            }
+        }
+        return timings;
+    }
+
+    /**
+     * Gets how long the upload took, or has taken so far if it is still in progress.
+     *
+     * @return the duration in nanoseconds
+     */
+    long durationNanos() {
+        long end = endNanos;
+        return (end != 0 ? end : System.nanoTime()) - startNanos;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.example.dropbox_file_uploader.service.UploadTrace.Phase;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the timelines of the most recent uploads in a lock-free ring buffer.
+ * Every upload request gets an {@link UploadTrace} when it arrives; the trace is bound to the thread working on
+ * the upload, so services record their phases with {@link #record(Phase, long)} without passing it around.
+ * When the buffer is full the oldest trace is overwritten, so memory stays bounded regardless of traffic.
+ */
+@Component
+public class UploadTracer {
+
+    /**
+     * Trace ids accepted from clients; anything else is replaced by a generated id.
+     */
+    private static final Pattern TRACE_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    private static final ThreadLocal<UploadTrace> CURRENT = new ThreadLocal<>();
+
+    private final AtomicReferenceArray<UploadTrace> traces;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Constructs a new UploadTracer.
+     *
+     * @param capacity The number of most recent uploads whose timelines are kept
+     */
+    public UploadTracer(@Value("${upload.trace.capacity:1024}") int capacity) {
+        this.traces = new AtomicReferenceArray<>(Math.max(1, capacity));
+    }
+
+    /**
+     * Starts the trace of an upload request and adds it to the buffer.
+     *
+     * @param endpoint         The method and path of the request
+     * @param requestedTraceId The trace id sent by the client, used if it is valid (can be null)
+     * @return The new trace
+     */
+    public UploadTrace start(String endpoint, String requestedTraceId) {
+        String traceId = requestedTraceId != null && TRACE_ID.matcher(requestedTraceId).matches()
+                ? requestedTraceId
+                : Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+        UploadTrace trace = new UploadTrace(traceId, endpoint);
+        traces.set((int) (sequence.getAndIncrement() % traces.length()), trace);
+        return trace;
+    }
+
+    /**
+     * Marks an upload as answered.
+     *
+     * @param trace  The trace of the upload
+     * @param status The HTTP status of the response
+     */
+    public void finish(UploadTrace trace, int status) {
+        trace.finish(status);
+    }
+
+    /**
+     * Binds a trace to the current thread, so phases recorded by the thread are added to it.
+     *
+     * @param trace The trace, or null to unbind the current one
+     * @return The trace bound before, to restore with another call once the work is done
+     */
+    public UploadTrace attach(UploadTrace trace) {
+        UploadTrace previous = CURRENT.get();
+        if (trace == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(trace);
+        }
+        return previous;
+    }
+
+    /**
+     * Gets the trace bound to the current thread.
+     *
+     * @return the trace of the upload the thread works on, or null if there is none
+     */
+    public UploadTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Records a phase that ends now in the trace bound to the current thread, if any.
+     *
+     * @param phase      The phase
+     * @param startNanos The {@link System#nanoTime()} at which the phase started
+     */
+    public void record(Phase phase, long startNanos) {
+        UploadTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.record(phase, startNanos);
+        }
+    }
+
+    /**
+     * Looks up the trace of a recent upload.
+     *
+     * @param traceId The id of the trace
+     * @return the trace, or empty if it is unknown or has been overwritten
+     */
+    public Optional<UploadTrace> find(String traceId) {
+        for (int i = 0; i < traces.length(); i++) {
+            UploadTrace trace = traces.get(i);
+            if (trace != null && trace.getTraceId().equals(traceId)) {
+                return Optional.of(trace);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Gets the slowest of the recent uploads that have been answered.
+     *
+     * @param limit The maximum number of traces returned
+     * @return the traces, slowest first
+     */
+    public List<UploadTrace> slowest(int limit) {
+        List<UploadTrace> completed = new ArrayList<>();
+        for (int i = 0; i < traces.length(); i++) {
+            UploadTrace trace = traces.get(i);
+            if (trace != null && trace.isComplete()) {
+                completed.add(trace);
+            }
+        }
+        return completed.stream()
+                .sorted(Comparator.comparingLong(UploadTrace::durationNanos).reversed())
+                .limit(Math.max(0, limit))
+                .toList();
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.dropbox_file_uploader.config;
+
+import com.dropbox.core.DbxHost;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.example.dropbox_file_uploader.load.FakeDropboxServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.core5.pool.PoolStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class PooledHttpRequestorTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private FakeDropboxServer dropbox;
+	private PooledHttpRequestor requestor;
+	private DbxClientV2 client;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		dropbox = FakeDropboxServer.start();
+		requestor = new PooledHttpRequestor(8, 8, Duration.ofSeconds(5), Duration.ofSeconds(30), Duration.ofSeconds(5),
+				Duration.ofSeconds(30), 64 * 1024, 0, meterRegistry);
+		DbxRequestConfig config = DbxRequestConfig.newBuilder("test")
+				.withHttpRequestor(new CustomHostRequestor(requestor, true, dropbox.getPort()))
+				.build();
+		client = new DbxClientV2(config, "fake-token", new DbxHost("localhost", "localhost", "localhost", "localhost"));
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		requestor.close();
+		dropbox.close();
+	}
+
+	@Test
+	void sequentialCallsReuseOneConnection() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			assertNotNull(client.users().getCurrentAccount());
+		}
+
+		PoolStats stats = requestor.getPoolStats();
+		assertEquals(0, stats.getLeased());
+		assertEquals(1, stats.getAvailable());
+		assertEquals(1.0, meterRegistry.get("dropbox.http.pool.available").gauge().value());
+	}
+
+	@Test
+	void bodiesLargerThanTheWriteBufferAreStreamed() throws Exception {
+		byte[] small = new byte[1000];
+		byte[] large = new byte[1024 * 1024 + 17];
+		ThreadLocalRandom.current().nextBytes(large);
+
+		FileMetadata first = client.files().uploadBuilder("/small.bin").uploadAndFinish(new ByteArrayInputStream(small));
+		FileMetadata second = client.files().uploadBuilder("/large.bin").uploadAndFinish(new ByteArrayInputStream(large));
+
+		assertEquals(small.length, first.getSize());
+		assertEquals(large.length, second.getSize());
+		assertEquals(large.length, dropbox.getFile("/large.bin").size());
+		assertEquals(1, requestor.getPoolStats().getAvailable());
+	}
+}
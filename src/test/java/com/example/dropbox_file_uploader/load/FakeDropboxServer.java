@@ -0,0 +1,617 @@
+package com.example.dropbox_file_uploader.load;
+
+import com.example.dropbox_file_uploader.service.DropboxContentHasher;
+import com.fasterxml.jackson.core.json.JsonWriteFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process stand-in for the Dropbox HTTP API, for load and end-to-end tests that must not reach real Dropbox.
+ * It implements the endpoints the uploader uses - uploads, upload sessions, folder creation, listing with change
+ * cursors and long polling, metadata, copies, downloads and the account check - and keeps the size and content hash
+ * of every stored file in memory. The content itself is only kept, and can only be downloaded, after
+ * {@link #setKeepContent(boolean)}.
+ * Latency, server errors and rate limiting (429) can be injected and changed while the server runs.
+ * <p>
+ * The server speaks plain HTTP, so the application has to be started with {@code dropbox.host.api=localhost},
+ * {@code dropbox.host.port} set to {@link #getPort()} and {@code dropbox.host.plain-http=true}.
+ */
+public class FakeDropboxServer implements AutoCloseable {
+
+	private static final int LIST_FOLDER_PAGE_SIZE = 500;
+
+	static {
+		// Without TCP_NODELAY, responses on a kept-alive connection wait for the delayed ACK of the client
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final ObjectMapper json = new ObjectMapper();
+	private final HttpServer server;
+	private final Map<String, StoredFile> files = new ConcurrentHashMap<>();
+	private final Map<String, String> folders = new ConcurrentHashMap<>();
+	private final Map<String, NavigableMap<Long, byte[]>> sessions = new ConcurrentHashMap<>();
+	private final Set<String> closedSessions = ConcurrentHashMap.newKeySet();
+	private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+	private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+	private final AtomicLong revisions = new AtomicLong(0x100000000L);
+	private final List<JsonNode> changes = new ArrayList<>();
+	private final ReentrantLock changeLock = new ReentrantLock();
+	private final Condition changed = changeLock.newCondition();
+
+	private volatile Duration latency = Duration.ZERO;
+	private volatile double errorRate;
+	private volatile double rateLimitRate;
+	private volatile int retryAfterSeconds = 1;
+	private volatile boolean keepContent;
+
+	private FakeDropboxServer(HttpServer server) {
+		this.server = server;
+		server.createContext("/2/", this::handle);
+		// Platform threads: the JDK server reads request bodies in synchronized streams, which pin a virtual thread
+		// to its carrier while it waits for the body, and on a single core that starves the virtual threads of
+		// the application sending it
+		server.setExecutor(Executors.newCachedThreadPool());
+	}
+
+	/**
+	 * Starts a server on a free local port.
+	 *
+	 * @return the running server
+	 * @throws IOException If the server cannot be bound
+	 */
+	public static FakeDropboxServer start() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		FakeDropboxServer fake = new FakeDropboxServer(server);
+		server.start();
+		return fake;
+	}
+
+	/**
+	 * Gets the port to configure as {@code dropbox.host.port}.
+	 *
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Sets the delay added to every request before it is answered.
+	 *
+	 * @param latency The delay
+	 */
+	public void setLatency(Duration latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * Sets the share of requests answered with 500 Internal Server Error.
+	 *
+	 * @param errorRate A share between 0 and 1
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Sets the share of requests answered with 429 Too Many Requests.
+	 *
+	 * @param rateLimitRate     A share between 0 and 1
+	 * @param retryAfterSeconds The back-off announced in the Retry-After header
+	 */
+	public void setRateLimitRate(double rateLimitRate, int retryAfterSeconds) {
+		this.rateLimitRate = rateLimitRate;
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	/**
+	 * Sets whether the content of files stored from now on is kept, so that it can be downloaded.
+	 *
+	 * @param keepContent true to keep the content, false to keep only its size and hash
+	 */
+	public void setKeepContent(boolean keepContent) {
+		this.keepContent = keepContent;
+	}
+
+	/**
+	 * Gets a stored file.
+	 *
+	 * @param path The path of the file, in any case
+	 * @return the file, or null if no file is stored at the path
+	 */
+	public StoredFile getFile(String path) {
+		return files.get(path.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Deletes a stored file, as if it had been deleted by another Dropbox client.
+	 *
+	 * @param path The path of the file, in any case
+	 */
+	public void deleteFile(String path) {
+		StoredFile removed = files.remove(path.toLowerCase(Locale.ROOT));
+		if (removed != null) {
+			recordChange(json.createObjectNode()
+					.put(".tag", "deleted")
+					.put("name", nameOf(removed.path()))
+					.put("path_lower", removed.path().toLowerCase(Locale.ROOT))
+					.put("path_display", removed.path()));
+		}
+	}
+
+	/**
+	 * Gets the number of stored files.
+	 *
+	 * @return the number of files
+	 */
+	public int getFileCount() {
+		return files.size();
+	}
+
+	/**
+	 * Gets how many requests an endpoint received, including the ones answered with an injected failure.
+	 *
+	 * @param endpoint The endpoint, for example {@code files/upload}
+	 * @return the number of requests
+	 */
+	public long getRequestCount(String endpoint) {
+		AtomicLong count = requestCounts.get(endpoint);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Gets the number of requests per endpoint.
+	 *
+	 * @return the request counts keyed by endpoint
+	 */
+	public Map<String, Long> getRequestCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		requestCounts.forEach((endpoint, count) -> counts.put(endpoint, count.get()));
+		return counts;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			String endpoint = exchange.getRequestURI().getPath().substring("/2/".length());
+			requestCounts.computeIfAbsent(endpoint, key -> new AtomicLong()).incrementAndGet();
+
+			String argHeader = exchange.getRequestHeaders().getFirst("Dropbox-API-Arg");
+			byte[] body = exchange.getRequestBody().readAllBytes();
+			JsonNode arg = json.readTree(argHeader != null ? argHeader.getBytes(StandardCharsets.UTF_8) : body);
+
+			if (!latency.isZero()) {
+				Thread.sleep(latency);
+			}
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			if (rateLimitRate > 0 && random.nextDouble() < rateLimitRate) {
+				exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfterSeconds));
+				ObjectNode error = json.createObjectNode();
+				error.putObject("reason").put(".tag", "too_many_requests");
+				error.put("retry_after", retryAfterSeconds);
+				sendError(exchange, 429, "too_many_requests/", error);
+				return;
+			}
+			if (errorRate > 0 && random.nextDouble() < errorRate) {
+				send(exchange, 500, "text/plain", "Injected server error".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+
+			JsonNode result = switch (endpoint) {
+				case "users/get_current_account" -> account();
+				case "files/upload" -> upload(arg, body);
+				case "files/upload_session/start" -> startSession(arg, body);
+				case "files/upload_session/append_v2" -> appendSession(exchange, arg, body);
+				case "files/upload_session/finish" -> finishSession(arg.get("cursor"), arg.get("commit"), body);
+				case "files/upload_session/finish_batch_v2" -> finishSessionBatch(arg);
+				case "files/create_folder_v2" -> createFolder(exchange, arg.get("path").asText());
+				case "files/create_folder_batch" -> createFolderBatch(arg);
+				case "files/list_folder" -> listFolder(exchange, arg.get("path").asText(), arg.path("recursive").asBoolean(), 0);
+				case "files/list_folder/continue" -> continueListFolder(exchange, arg.get("cursor").asText());
+				case "files/list_folder/longpoll" -> longpoll(arg.get("cursor").asText(), arg.path("timeout").asInt(30));
+				case "files/get_metadata" -> getMetadata(exchange, arg.get("path").asText());
+				case "files/download" -> download(exchange, arg.get("path").asText(), arg.path("rev").asText(null));
+				case "files/copy_v2" -> copy(exchange, arg.get("from_path").asText(), arg.get("to_path").asText());
+				default -> {
+					send(exchange, 400, "text/plain", ("Unknown endpoint: " + endpoint).getBytes(StandardCharsets.UTF_8));
+					yield null;
+				}
+			};
+			if (result != null) {
+				send(exchange, 200, "application/json", json.writeValueAsBytes(result));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private JsonNode account() {
+		ObjectNode account = json.createObjectNode();
+		account.put("account_id", "dbid:" + "A".repeat(35));
+		ObjectNode name = account.putObject("name");
+		name.put("given_name", "Load").put("surname", "Test").put("familiar_name", "Load")
+				.put("display_name", "Load Test").put("abbreviated_name", "LT");
+		account.put("email", "load-test@example.com").put("email_verified", true).put("disabled", false)
+				.put("locale", "bg").put("referral_link", "https://www.dropbox.com/referrals/fake")
+				.put("is_paired", false);
+		account.putObject("account_type").put(".tag", "basic");
+		account.putObject("root_info").put(".tag", "user")
+				.put("root_namespace_id", "1").put("home_namespace_id", "1");
+		return account;
+	}
+
+	private JsonNode upload(JsonNode arg, byte[] body) {
+		return fileMetadata(store(arg.get("path").asText(), List.of(body)));
+	}
+
+	private JsonNode startSession(JsonNode arg, byte[] body) {
+		String sessionId = UUID.randomUUID().toString();
+		NavigableMap<Long, byte[]> chunks = new ConcurrentSkipListMap<>();
+		if (body.length > 0) {
+			chunks.put(0L, body);
+		}
+		sessions.put(sessionId, chunks);
+		if (arg.path("close").asBoolean()) {
+			closedSessions.add(sessionId);
+		}
+		return json.createObjectNode().put("session_id", sessionId);
+	}
+
+	private JsonNode appendSession(HttpExchange exchange, JsonNode arg, byte[] body) throws IOException {
+		JsonNode cursor = arg.get("cursor");
+		String sessionId = cursor.get("session_id").asText();
+		NavigableMap<Long, byte[]> chunks = sessions.get(sessionId);
+		// Like Dropbox, reject appends processed after the append that closed the session
+		synchronized (chunks) {
+			if (!closedSessions.contains(sessionId)) {
+				chunks.put(cursor.get("offset").asLong(), body);
+				if (arg.path("close").asBoolean()) {
+					closedSessions.add(sessionId);
+				}
+				return json.nullNode();
+			}
+		}
+		sendError(exchange, 409, "closed/", json.createObjectNode().put(".tag", "closed"));
+		return null;
+	}
+
+	private JsonNode finishSession(JsonNode cursor, JsonNode commit, byte[] body) {
+		String sessionId = cursor.get("session_id").asText();
+		NavigableMap<Long, byte[]> chunks = sessions.remove(sessionId);
+		closedSessions.remove(sessionId);
+		if (body != null && body.length > 0) {
+			chunks.put(cursor.get("offset").asLong(), body);
+		}
+		return fileMetadata(store(commit.get("path").asText(), chunks.values()));
+	}
+
+	private JsonNode finishSessionBatch(JsonNode arg) {
+		ObjectNode result = json.createObjectNode();
+		ArrayNode entries = result.putArray("entries");
+		for (JsonNode entry : arg.get("entries")) {
+			ObjectNode metadata = (ObjectNode) finishSession(entry.get("cursor"), entry.get("commit"), null);
+			metadata.put(".tag", "success");
+			entries.add(metadata);
+		}
+		return result;
+	}
+
+	private JsonNode createFolder(HttpExchange exchange, String path) throws IOException {
+		if (folders.containsKey(path.toLowerCase(Locale.ROOT))) {
+			ObjectNode error = json.createObjectNode().put(".tag", "path");
+			error.putObject("path").put(".tag", "conflict").putObject("conflict").put(".tag", "folder");
+			sendError(exchange, 409, "path/conflict/folder/", error);
+			return null;
+		}
+		addFolders(path);
+		ObjectNode result = json.createObjectNode();
+		result.set("metadata", folderMetadata(path));
+		return result;
+	}
+
+	private JsonNode createFolderBatch(JsonNode arg) {
+		ObjectNode result = json.createObjectNode().put(".tag", "complete");
+		ArrayNode entries = result.putArray("entries");
+		for (JsonNode path : arg.get("paths")) {
+			addFolders(path.asText());
+			entries.addObject().put(".tag", "success").set("metadata", folderMetadata(path.asText()));
+		}
+		return result;
+	}
+
+	private JsonNode listFolder(HttpExchange exchange, String path, boolean recursive, int offset) throws IOException {
+		return listFolder(exchange, path, recursive, offset, changeCount());
+	}
+
+	private JsonNode listFolder(HttpExchange exchange, String path, boolean recursive, int offset, int changesSeen)
+			throws IOException {
+		String folder = path.toLowerCase(Locale.ROOT);
+		if (!folder.isEmpty() && !folders.containsKey(folder)) {
+			sendNotFound(exchange);
+			return null;
+		}
+
+		List<JsonNode> entries = new ArrayList<>();
+		String prefix = folder + "/";
+		folders.forEach((lower, display) -> {
+			if (isListed(lower, prefix, recursive)) {
+				entries.add(folderMetadata(display));
+			}
+		});
+		files.forEach((lower, file) -> {
+			if (isListed(lower, prefix, recursive)) {
+				entries.add(fileMetadata(file));
+			}
+		});
+
+		int end = Math.min(entries.size(), offset + LIST_FOLDER_PAGE_SIZE);
+		ObjectNode result = json.createObjectNode();
+		result.putArray("entries").addAll(entries.subList(Math.min(offset, end), end));
+		boolean hasMore = end < entries.size();
+		result.put("cursor", (hasMore ? "list|" + end : "changes|" + changesSeen) + "|" + recursive + "|" + path);
+		result.put("has_more", hasMore);
+		return result;
+	}
+
+	/**
+	 * Continues a listing: cursors of a listing in progress point at its next page, cursors of a finished
+	 * listing at the position in the change journal up to which the client has seen the changes.
+	 */
+	private JsonNode continueListFolder(HttpExchange exchange, String cursor) throws IOException {
+		String[] parts = cursor.split("\\|", 4);
+		String path = parts[3];
+		boolean recursive = Boolean.parseBoolean(parts[2]);
+		if (parts[0].equals("list")) {
+			return listFolder(exchange, path, recursive, Integer.parseInt(parts[1]));
+		}
+
+		String prefix = path.toLowerCase(Locale.ROOT) + "/";
+		List<JsonNode> newChanges;
+		int seen;
+		changeLock.lock();
+		try {
+			seen = changes.size();
+			newChanges = new ArrayList<>(changes.subList(Math.min(Integer.parseInt(parts[1]), seen), seen));
+		} finally {
+			changeLock.unlock();
+		}
+		ObjectNode result = json.createObjectNode();
+		ArrayNode entries = result.putArray("entries");
+		for (JsonNode change : newChanges) {
+			if (isListed(change.get("path_lower").asText(), prefix, recursive)) {
+				entries.add(change);
+			}
+		}
+		result.put("cursor", "changes|" + seen + "|" + recursive + "|" + path);
+		result.put("has_more", false);
+		return result;
+	}
+
+	private JsonNode longpoll(String cursor, int timeoutSeconds) throws InterruptedException {
+		String[] parts = cursor.split("\\|", 4);
+		int seen = parts[0].equals("changes") ? Integer.parseInt(parts[1]) : 0;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+		changeLock.lock();
+		try {
+			long remaining;
+			while (changes.size() <= seen && (remaining = deadline - System.nanoTime()) > 0) {
+				changed.awaitNanos(remaining);
+			}
+			return json.createObjectNode().put("changes", changes.size() > seen);
+		} finally {
+			changeLock.unlock();
+		}
+	}
+
+	private int changeCount() {
+		changeLock.lock();
+		try {
+			return changes.size();
+		} finally {
+			changeLock.unlock();
+		}
+	}
+
+	private void recordChange(JsonNode metadata) {
+		changeLock.lock();
+		try {
+			changes.add(metadata);
+			changed.signalAll();
+		} finally {
+			changeLock.unlock();
+		}
+	}
+
+	private JsonNode getMetadata(HttpExchange exchange, String path) throws IOException {
+		String lower = path.toLowerCase(Locale.ROOT);
+		StoredFile file = files.get(lower);
+		if (file != null) {
+			return fileMetadata(file);
+		}
+		String folder = folders.get(lower);
+		if (folder != null) {
+			return folderMetadata(folder);
+		}
+		sendNotFound(exchange);
+		return null;
+	}
+
+	private JsonNode download(HttpExchange exchange, String path, String rev) throws IOException {
+		StoredFile file = files.get(path.toLowerCase(Locale.ROOT));
+		byte[] content = file == null ? null : contents.get(rev != null ? rev : file.rev());
+		if (content == null) {
+			sendNotFound(exchange);
+			return null;
+		}
+		// Like Dropbox, escape non-ASCII characters, which cannot be sent in a header
+		exchange.getResponseHeaders().add("Dropbox-API-Result", json.writer()
+				.with(JsonWriteFeature.ESCAPE_NON_ASCII)
+				.writeValueAsString(fileMetadata(file)));
+		send(exchange, 200, "application/octet-stream", content);
+		return null;
+	}
+
+	private JsonNode copy(HttpExchange exchange, String fromPath, String toPath) throws IOException {
+		StoredFile source = files.get(fromPath.toLowerCase(Locale.ROOT));
+		if (source == null) {
+			ObjectNode error = json.createObjectNode().put(".tag", "from_lookup");
+			error.putObject("from_lookup").put(".tag", "not_found");
+			sendError(exchange, 409, "from_lookup/not_found/", error);
+			return null;
+		}
+		StoredFile copy = new StoredFile(toPath, source.size(), source.contentHash(), nextRevision());
+		byte[] content = contents.get(source.rev());
+		if (content != null) {
+			contents.put(copy.rev(), content);
+		}
+		files.put(toPath.toLowerCase(Locale.ROOT), copy);
+		addFolders(parentOf(toPath));
+		recordChange(fileMetadata(copy));
+		ObjectNode result = json.createObjectNode();
+		result.set("metadata", fileMetadata(copy));
+		return result;
+	}
+
+	private StoredFile store(String path, Iterable<byte[]> chunks) {
+		DropboxContentHasher hasher = new DropboxContentHasher();
+		long size = 0;
+		for (byte[] chunk : chunks) {
+			hasher.update(chunk, 0, chunk.length);
+			size += chunk.length;
+		}
+		StoredFile file = new StoredFile(path, size, hasher.finish(), nextRevision());
+		if (keepContent) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			chunks.forEach(content::writeBytes);
+			contents.put(file.rev(), content.toByteArray());
+		}
+		files.put(path.toLowerCase(Locale.ROOT), file);
+		addFolders(parentOf(path));
+		recordChange(fileMetadata(file));
+		return file;
+	}
+
+	private void addFolders(String path) {
+		int slash = 0;
+		while ((slash = path.indexOf('/', slash + 1)) != -1) {
+			String parent = path.substring(0, slash);
+			addFolder(parent);
+		}
+		if (!path.isEmpty()) {
+			addFolder(path);
+		}
+	}
+
+	private void addFolder(String path) {
+		if (folders.putIfAbsent(path.toLowerCase(Locale.ROOT), path) == null) {
+			recordChange(folderMetadata(path));
+		}
+	}
+
+	private boolean isListed(String lowerPath, String prefix, boolean recursive) {
+		return lowerPath.startsWith(prefix) && (recursive || lowerPath.indexOf('/', prefix.length()) == -1);
+	}
+
+	private String nextRevision() {
+		return Long.toHexString(revisions.incrementAndGet());
+	}
+
+	private static String parentOf(String path) {
+		int slash = path.lastIndexOf('/');
+		return slash <= 0 ? "" : path.substring(0, slash);
+	}
+
+	private static String nameOf(String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	private ObjectNode fileMetadata(StoredFile file) {
+		String modified = Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+		return json.createObjectNode()
+				.put(".tag", "file")
+				.put("name", nameOf(file.path()))
+				.put("id", "id:" + file.rev())
+				.put("client_modified", modified)
+				.put("server_modified", modified)
+				.put("rev", file.rev())
+				.put("size", file.size())
+				.put("path_lower", file.path().toLowerCase(Locale.ROOT))
+				.put("path_display", file.path())
+				.put("is_downloadable", true)
+				.put("content_hash", file.contentHash());
+	}
+
+	private ObjectNode folderMetadata(String path) {
+		return json.createObjectNode()
+				.put(".tag", "folder")
+				.put("name", nameOf(path))
+				.put("id", "id:" + Integer.toHexString(path.toLowerCase(Locale.ROOT).hashCode()))
+				.put("path_lower", path.toLowerCase(Locale.ROOT))
+				.put("path_display", path);
+	}
+
+	private void sendNotFound(HttpExchange exchange) throws IOException {
+		ObjectNode error = json.createObjectNode().put(".tag", "path");
+		error.putObject("path").put(".tag", "not_found");
+		sendError(exchange, 409, "path/not_found/", error);
+	}
+
+	private void sendError(HttpExchange exchange, int status, String summary, JsonNode error) throws IOException {
+		ObjectNode body = json.createObjectNode().put("error_summary", summary);
+		body.set("error", error);
+		send(exchange, status, "application/json", json.writeValueAsBytes(body));
+	}
+
+	private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().add("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * A file stored by the fake server; its content is kept apart, and only if content is kept.
+	 *
+	 * @param path        The path the file was stored at, as sent by the client
+	 * @param size        The size of the file in bytes
+	 * @param contentHash The Dropbox content hash of the file
+	 * @param rev         The revision of the file
+	 */
+	public record StoredFile(String path, long size, String contentHash, String rev) {
+	}
+}
@@ -0,0 +1,362 @@
+package com.example.dropbox_file_uploader.load;
+
+import com.example.dropbox_file_uploader.service.DropboxContentHasher;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Year;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class UploadEndToEndTest {
+
+	private static final FakeDropboxServer dropbox = startDropbox();
+	private static final String STAFF_USERNAME = "staff";
+	private static final String STAFF_PASSWORD = "e2e-password";
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@DynamicPropertySource
+	static void dropboxProperties(DynamicPropertyRegistry registry) {
+		registry.add("dropbox.access-token", () -> "fake-token");
+		registry.add("dropbox.host.api", () -> "localhost");
+		registry.add("dropbox.host.port", dropbox::getPort);
+		registry.add("dropbox.host.plain-http", () -> "true");
+		registry.add("dropbox.target-folder", () -> "/e2e");
+		registry.add("dropbox.fix.encoding", () -> "false");
+		registry.add("dropbox.dedup.enabled", () -> "false");
+		registry.add("dropbox.upload.session-threshold", () -> "4MB");
+		registry.add("dropbox.upload.chunk-size", () -> "4MB");
+		registry.add("dropbox.mirror.state-file", () -> "");
+		registry.add("dropbox.mirror.missing-root-interval", () -> "PT0.2S");
+		registry.add("dropbox.routing.templates.orders", () -> "/e2e/orders/{client} {date:yyyy}");
+		registry.add("spring.security.user.name", () -> STAFF_USERNAME);
+		registry.add("spring.security.user.password", () -> STAFF_PASSWORD);
+	}
+
+	@AfterAll
+	static void stopDropbox() {
+		dropbox.close();
+	}
+
+	@Test
+	@Order(1)
+	void uploadIsStoredInDropbox() {
+		byte[] content = "%PDF-1.4 end-to-end".getBytes(StandardCharsets.US_ASCII);
+
+		ResponseEntity<String> response = upload(content, "Фактура");
+
+		assertEquals(HttpStatus.OK, response.getStatusCode(), response.getBody());
+		FakeDropboxServer.StoredFile stored = dropbox.getFile("/e2e/Фактура.pdf");
+		assertNotNull(stored);
+		assertEquals(content.length, stored.size());
+
+		String traceId = response.getHeaders().getFirst("X-Trace-Id");
+		assertNotNull(traceId);
+		assertEquals(HttpStatus.UNAUTHORIZED,
+				restTemplate.getForEntity("/api/uploads/" + traceId + "/timeline", String.class).getStatusCode());
+		ResponseEntity<String> timeline = staff().getForEntity("/api/uploads/" + traceId + "/timeline", String.class);
+		assertEquals(HttpStatus.OK, timeline.getStatusCode());
+		assertTrue(timeline.getBody().contains("\"RECEIVE\""), timeline.getBody());
+		assertTrue(timeline.getBody().contains("\"TRANSFER\""), timeline.getBody());
+	}
+
+	@Test
+	@Order(2)
+	void largeUploadIsAppendedInChunksAndClosedAfterThem() throws IOException {
+		byte[] content = new byte[2 * 4 * 1024 * 1024 + 1024 * 1024];
+		new Random(42).nextBytes(content);
+		byte[] header = "%PDF-1.4 chunked".getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(header, 0, content, 0, header.length);
+		long appends = dropbox.getRequestCount("files/upload_session/append_v2");
+
+		ResponseEntity<String> response = upload(content, "Голям");
+
+		assertEquals(HttpStatus.OK, response.getStatusCode(), response.getBody());
+		FakeDropboxServer.StoredFile stored = dropbox.getFile("/e2e/Голям.pdf");
+		assertNotNull(stored);
+		assertEquals(content.length, stored.size());
+		assertEquals(DropboxContentHasher.hash(new ByteArrayInputStream(content)), stored.contentHash());
+		assertEquals(appends + 3, dropbox.getRequestCount("files/upload_session/append_v2"));
+	}
+
+	@Test
+	@Order(3)
+	void routedUploadIsStoredInTheClientFolder() {
+		byte[] content = "%PDF-1.4 routed".getBytes(StandardCharsets.US_ASCII);
+
+		ResponseEntity<String> response = restTemplate.postForEntity("/api/upload?route=orders&client=5020",
+				multipart(content, "order"), String.class);
+
+		assertEquals(HttpStatus.OK, response.getStatusCode(), response.getBody());
+		assertNotNull(dropbox.getFile("/e2e/orders/5020 " + Year.now() + "/order.pdf"));
+	}
+
+	@Test
+	@Order(4)
+	void resumableUploadContinuesFromTheReceivedOffset() {
+		byte[] content = "%PDF-1.4 resumable".getBytes(StandardCharsets.US_ASCII);
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("Upload-Length", String.valueOf(content.length));
+		headers.set("Upload-Metadata", "filename " + base64("сканиране.pdf") + ",filetype " + base64("application/pdf"));
+
+		ResponseEntity<String> created = restTemplate.postForEntity("/api/upload/resumable", new HttpEntity<>(headers), String.class);
+		assertEquals(HttpStatus.CREATED, created.getStatusCode(), created.getBody());
+		URI upload = created.getHeaders().getLocation();
+
+		assertEquals(HttpStatus.NO_CONTENT, patch(upload, 0, Arrays.copyOfRange(content, 0, 8)).getStatusCode());
+		ResponseEntity<String> repeated = patch(upload, 0, Arrays.copyOfRange(content, 0, 8));
+		assertEquals(HttpStatus.CONFLICT, repeated.getStatusCode());
+		assertEquals("8", repeated.getHeaders().getFirst("Upload-Offset"));
+		assertEquals("8", restTemplate.exchange(upload, HttpMethod.HEAD, null, Void.class).getHeaders().getFirst("Upload-Offset"));
+
+		ResponseEntity<String> completed = patch(upload, 8, Arrays.copyOfRange(content, 8, content.length));
+		assertEquals(HttpStatus.OK, completed.getStatusCode(), completed.getBody());
+		FakeDropboxServer.StoredFile stored = dropbox.getFile("/e2e/сканиране.pdf");
+		assertNotNull(stored);
+		assertEquals(content.length, stored.size());
+	}
+
+	@Test
+	@Order(5)
+	void uploadedAndDeletedFilesAreReflectedInTheListing() throws InterruptedException {
+		assertEquals(HttpStatus.OK, upload("%PDF-1.4 listed".getBytes(StandardCharsets.US_ASCII), "Списък").getStatusCode());
+
+		String listing = awaitListing("/api/files?q=списък", body -> body.contains("/e2e/Списък.pdf"));
+		assertTrue(listing.contains("\"total\":1"), listing);
+		assertTrue(awaitListing("/api/files?prefix=orders&size=10", body -> body.contains("order.pdf")).contains("\"folder\":true"));
+
+		dropbox.deleteFile("/e2e/Списък.pdf");
+
+		listing = awaitListing("/api/files?q=списък", body -> body.contains("\"total\":0"));
+		assertFalse(listing.contains("Списък.pdf"), listing);
+	}
+
+	@Test
+	@Order(6)
+	void retryWithTheSameIdempotencyKeyIsNotUploadedAgain() {
+		byte[] content = "%PDF-1.4 idempotent".getBytes(StandardCharsets.US_ASCII);
+		HttpEntity<MultiValueMap<String, Object>> request = multipart(content, "веднъж");
+		HttpHeaders headers = new HttpHeaders();
+		headers.putAll(request.getHeaders());
+		headers.set("Idempotency-Key", "e2e-retry-1");
+		HttpEntity<MultiValueMap<String, Object>> keyed = new HttpEntity<>(request.getBody(), headers);
+		long uploads = dropbox.getRequestCount("files/upload");
+
+		ResponseEntity<String> first = restTemplate.postForEntity("/api/upload", keyed, String.class);
+		ResponseEntity<String> retry = restTemplate.postForEntity("/api/upload", keyed, String.class);
+
+		assertEquals(HttpStatus.OK, first.getStatusCode(), first.getBody());
+		assertEquals(first.getBody(), retry.getBody());
+		assertEquals("true", retry.getHeaders().getFirst("Idempotent-Replayed"));
+		assertEquals(uploads + 1, dropbox.getRequestCount("files/upload"));
+
+		HttpEntity<MultiValueMap<String, Object>> other = new HttpEntity<>(
+				multipart("%PDF-1.4 another file".getBytes(StandardCharsets.US_ASCII), "друг").getBody(), headers);
+		ResponseEntity<String> reused = restTemplate.postForEntity("/api/upload", other, String.class);
+
+		assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, reused.getStatusCode(), reused.getBody());
+		assertNull(reused.getHeaders().getFirst("Idempotent-Replayed"));
+		assertEquals(uploads + 1, dropbox.getRequestCount("files/upload"));
+	}
+
+	@Test
+	@Order(7)
+	void archiveFilesAreStoredInTheirFoldersAndUnsafeEntriesAreSkipped() throws IOException {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(archive, StandardCharsets.UTF_8)) {
+			addEntry(zip, "сканове/фактура.pdf", "%PDF-1.4 archived".getBytes(StandardCharsets.US_ASCII));
+			addEntry(zip, "../escaped.pdf", "%PDF-1.4 escaped".getBytes(StandardCharsets.US_ASCII));
+			addEntry(zip, "notes.txt", "not a document".getBytes(StandardCharsets.US_ASCII));
+			addEntry(zip, "__MACOSX/сканове/._фактура.pdf", new byte[]{0, 5, 22, 7});
+		}
+		MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+		HttpHeaders fileHeaders = new HttpHeaders();
+		fileHeaders.setContentType(MediaType.parseMediaType("application/zip"));
+		body.add("file", new HttpEntity<>(new ByteArrayResource(archive.toByteArray()) {
+			@Override
+			public String getFilename() {
+				return "scans.zip";
+			}
+		}, fileHeaders));
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+
+		ResponseEntity<String> response = restTemplate.postForEntity("/api/upload/zip", new HttpEntity<>(body, headers), String.class);
+
+		assertEquals(HttpStatus.OK, response.getStatusCode(), response.getBody());
+		assertTrue(response.getBody().contains("1 от 3"), response.getBody());
+		assertNotNull(dropbox.getFile("/e2e/сканове/фактура.pdf"));
+		assertNull(dropbox.getFile("/escaped.pdf"));
+		assertNull(dropbox.getFile("/e2e/escaped.pdf"));
+		assertNull(dropbox.getFile("/e2e/notes.txt"));
+	}
+
+	@Test
+	@Order(8)
+	void downloadIsServedFromTheCacheWithETagAndRanges() {
+		dropbox.setKeepContent(true);
+		byte[] content = "%PDF-1.4 downloaded".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(HttpStatus.OK, upload(content, "Изтегляне").getStatusCode());
+		long downloads = dropbox.getRequestCount("files/download");
+
+		ResponseEntity<byte[]> full = staff().getForEntity("/api/files/Изтегляне.pdf", byte[].class);
+		assertEquals(HttpStatus.OK, full.getStatusCode());
+		assertArrayEquals(content, full.getBody());
+		String etag = full.getHeaders().getETag();
+		assertNotNull(etag);
+
+		HttpHeaders conditional = new HttpHeaders();
+		conditional.setIfNoneMatch(etag);
+		ResponseEntity<byte[]> unchanged = staff().exchange("/api/files/Изтегляне.pdf", HttpMethod.GET,
+				new HttpEntity<>(conditional), byte[].class);
+		assertEquals(HttpStatus.NOT_MODIFIED, unchanged.getStatusCode());
+
+		HttpHeaders ranged = new HttpHeaders();
+		ranged.setRange(List.of(HttpRange.createByteRange(0, 3)));
+		ResponseEntity<byte[]> part = staff().exchange("/api/files/Изтегляне.pdf", HttpMethod.GET,
+				new HttpEntity<>(ranged), byte[].class);
+		assertEquals(HttpStatus.PARTIAL_CONTENT, part.getStatusCode());
+		assertEquals("%PDF", new String(part.getBody(), StandardCharsets.US_ASCII));
+		assertEquals("bytes 0-3/" + content.length, part.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+
+		assertEquals(downloads + 1, dropbox.getRequestCount("files/download"));
+		assertEquals(HttpStatus.NOT_FOUND, staff().getForEntity("/api/files/missing.pdf", String.class).getStatusCode());
+		ResponseEntity<String> anonymous = restTemplate.getForEntity("/api/files/Изтегляне.pdf", String.class);
+		assertEquals(HttpStatus.UNAUTHORIZED, anonymous.getStatusCode());
+		assertNotNull(anonymous.getHeaders().getFirst(HttpHeaders.WWW_AUTHENTICATE));
+		assertEquals(HttpStatus.UNAUTHORIZED, restTemplate.getForEntity("/actuator/metrics", String.class).getStatusCode());
+		assertEquals(HttpStatus.OK, staff().getForEntity("/actuator/metrics", String.class).getStatusCode());
+	}
+
+	@Test
+	@Order(9)
+	void rateLimitedUploadIsAnsweredWithRetryAfter() {
+		dropbox.setRateLimitRate(1, 1);
+		try {
+			ResponseEntity<String> response = upload("%PDF-1.4 limited".getBytes(StandardCharsets.US_ASCII), "limited");
+
+			assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode(), response.getBody());
+			assertNotNull(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+		} finally {
+			dropbox.setRateLimitRate(0, 1);
+		}
+	}
+
+	@Test
+	@Order(10)
+	void fileNotMatchingItsDeclaredTypeIsRejectedBeforeItIsStored() {
+		byte[] content = "MZ\u0090\0 not a document".getBytes(StandardCharsets.ISO_8859_1);
+
+		ResponseEntity<String> response = upload(content, "disguised");
+
+		assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode(), response.getBody());
+		assertNull(dropbox.getFile("/e2e/disguised.pdf"));
+	}
+
+	/**
+	 * Polls the file listing until it is served and matches, since the mirror is built and synced in the background.
+	 */
+	private String awaitListing(String url, Predicate<String> condition) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+		ResponseEntity<String> response;
+		do {
+			response = staff().getForEntity(url, String.class);
+			if (response.getStatusCode() == HttpStatus.OK && condition.test(response.getBody())) {
+				return response.getBody();
+			}
+			Thread.sleep(50);
+		} while (System.nanoTime() < deadline);
+		throw new AssertionError("Listing " + url + " did not match: " + response.getStatusCode() + " " + response.getBody());
+	}
+
+	private TestRestTemplate staff() {
+		return restTemplate.withBasicAuth(STAFF_USERNAME, STAFF_PASSWORD);
+	}
+
+	private static void addEntry(ZipOutputStream zip, String name, byte[] content) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content);
+		zip.closeEntry();
+	}
+
+	private ResponseEntity<String> patch(URI upload, long offset, byte[] chunk) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("Upload-Offset", String.valueOf(offset));
+		headers.setContentType(MediaType.parseMediaType("application/offset+octet-stream"));
+		return restTemplate.exchange(upload, HttpMethod.PATCH, new HttpEntity<>(chunk, headers), String.class);
+	}
+
+	private static String base64(String value) {
+		return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private ResponseEntity<String> upload(byte[] content, String fileName) {
+		return restTemplate.postForEntity("/api/upload", multipart(content, fileName), String.class);
+	}
+
+	private HttpEntity<MultiValueMap<String, Object>> multipart(byte[] content, String fileName) {
+		MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+		HttpHeaders fileHeaders = new HttpHeaders();
+		fileHeaders.setContentType(MediaType.APPLICATION_PDF);
+		body.add("file", new HttpEntity<>(new ByteArrayResource(content) {
+			@Override
+			public String getFilename() {
+				return "document.pdf";
+			}
+		}, fileHeaders));
+		body.add("filename", fileName);
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+		return new HttpEntity<>(body, headers);
+	}
+
+	private static FakeDropboxServer startDropbox() {
+		try {
+			return FakeDropboxServer.start();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package com.example.dropbox_file_uploader.load;
+
+import com.example.dropbox_file_uploader.DropboxFileUploaderApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Load test of the upload endpoints against {@link FakeDropboxServer}, without reaching real Dropbox.
+ * Starts the fake server and the application in this JVM, fires concurrent multipart uploads of random content
+ * at {@code /upload} and {@code /api/upload}, and reports throughput, latency percentiles, the peak heap usage
+ * and the peak size of the temporary directory the application spools uploads to.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.dropbox_file_uploader.load.UploadLoadHarness}; the load is configured with the
+ * system properties {@code load.requests}, {@code load.concurrency}, {@code load.file-size}, {@code load.endpoints},
+ * {@code fake.latency}, {@code fake.error-rate} and {@code fake.rate-limit-rate}.
+ * Heap usage includes the harness itself and the fake server, which keep no file content.
+ */
+public final class UploadLoadHarness {
+
+	private static final String BOUNDARY = "load-test-boundary";
+
+	private final HttpClient client = HttpClient.newBuilder()
+			.executor(Executors.newVirtualThreadPerTaskExecutor())
+			.connectTimeout(Duration.ofSeconds(10))
+			.build();
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final Path workDirectory;
+	private final AtomicLong peakHeap = new AtomicLong();
+	private final AtomicLong peakDisk = new AtomicLong();
+
+	private UploadLoadHarness(Path workDirectory) {
+		this.workDirectory = workDirectory;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int requests = Integer.getInteger("load.requests", 200);
+		int concurrency = Integer.getInteger("load.concurrency", 16);
+		DataSize fileSize = DataSize.parse(System.getProperty("load.file-size", "1MB"));
+		List<String> endpoints = Arrays.asList(System.getProperty("load.endpoints", "/upload,/api/upload").split(","));
+
+		Path workDirectory = Files.createTempDirectory("dropbox-load-");
+		try (FakeDropboxServer dropbox = FakeDropboxServer.start()) {
+			dropbox.setLatency(Duration.parse(System.getProperty("fake.latency", "PT0.05S")));
+			dropbox.setErrorRate(Double.parseDouble(System.getProperty("fake.error-rate", "0")));
+			dropbox.setRateLimitRate(Double.parseDouble(System.getProperty("fake.rate-limit-rate", "0")), 1);
+
+			ConfigurableApplicationContext application = new SpringApplicationBuilder(DropboxFileUploaderApplication.class)
+					.run(
+							"--server.port=0",
+							"--dropbox.access-token=fake-token",
+							"--dropbox.host.api=localhost",
+							"--dropbox.host.port=" + dropbox.getPort(),
+							"--dropbox.host.plain-http=true",
+							"--dropbox.target-folder=/load-test",
+							"--dropbox.dedup.index-file=" + workDirectory.resolve("dropbox-content-index.json"),
+							"--spring.servlet.multipart.location=" + workDirectory,
+							"--upload.queue.directory=" + workDirectory.resolve("queue"),
+							"--logging.level.com.example.dropbox_file_uploader=INFO",
+							"--logging.level.org.springframework.web=INFO");
+			try {
+				int port = application.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+				UploadLoadHarness harness = new UploadLoadHarness(workDirectory);
+
+				System.out.printf("%nRequests per endpoint: %d, concurrency: %d, file size: %s, Dropbox latency: %s%n%n",
+						requests, concurrency, fileSize, System.getProperty("fake.latency", "PT0.05S"));
+				System.out.printf("%-12s %8s %10s %10s %10s %10s %10s %10s  %s%n",
+						"endpoint", "requests", "req/s", "MB/s", "p50 ms", "p99 ms", "max ms", "heap MB", "statuses");
+				for (String endpoint : endpoints) {
+					harness.run(URI.create("http://localhost:" + port + endpoint), requests, concurrency, fileSize)
+							.print(endpoint);
+				}
+				System.out.printf("%nPeak temp disk: %.1f MB, files stored in Dropbox: %d%nDropbox requests: %s%n",
+						harness.peakDisk.get() / 1048576.0, dropbox.getFileCount(), dropbox.getRequestCounts());
+			} finally {
+				application.close();
+			}
+		} finally {
+			deleteRecursively(workDirectory);
+		}
+	}
+
+	/**
+	 * Uploads files of random content to an endpoint with bounded concurrency and collects the latencies.
+	 */
+	private Result run(URI uri, int requests, int concurrency, DataSize fileSize) throws Exception {
+		peakHeap.set(0);
+		ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+		sampler.scheduleAtFixedRate(this::sample, 0, 50, TimeUnit.MILLISECONDS);
+
+		Semaphore permits = new Semaphore(concurrency);
+		Map<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+		long[] latencies = new long[requests];
+		List<Future<?>> futures = new ArrayList<>(requests);
+		long start = System.nanoTime();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < requests; i++) {
+				int index = i;
+				permits.acquire();
+				futures.add(executor.submit(() -> {
+					try {
+						long requestStart = System.nanoTime();
+						int status = upload(uri, index, fileSize);
+						latencies[index] = System.nanoTime() - requestStart;
+						statuses.computeIfAbsent(status, key -> new AtomicLong()).incrementAndGet();
+					} finally {
+						permits.release();
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			sampler.shutdownNow();
+		}
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+		Map<Integer, Long> statusCounts = new TreeMap<>();
+		statuses.forEach((status, count) -> statusCounts.put(status, count.get()));
+		Arrays.sort(latencies);
+		return new Result(requests, (long) requests * fileSize.toBytes(), elapsed, latencies, peakHeap.get(), statusCounts);
+	}
+
+	/**
+	 * Sends a single multipart upload.
+	 *
+	 * @return the HTTP status of the response
+	 */
+	private int upload(URI uri, int index, DataSize fileSize) throws IOException, InterruptedException {
+		byte[] content = new byte[(int) fileSize.toBytes()];
+		ThreadLocalRandom.current().nextBytes(content);
+		System.arraycopy("%PDF-".getBytes(StandardCharsets.US_ASCII), 0, content, 0, Math.min(5, content.length));
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream(content.length + 512);
+		body.writeBytes(("--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"filename\"\r\n\r\n"
+				+ "натоварване-" + index + "-" + UUID.randomUUID() + "\r\n"
+				+ "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"file\"; filename=\"load-" + index + ".pdf\"\r\n"
+				+ "Content-Type: application/pdf\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+		body.writeBytes(content);
+		body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+		HttpRequest request = HttpRequest.newBuilder(uri)
+				.header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+				.POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+				.build();
+		return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+	}
+
+	/**
+	 * Records the current heap usage and size of the temporary directory, if they are the highest so far.
+	 */
+	private void sample() {
+		peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+		try (Stream<Path> files = Files.walk(workDirectory)) {
+			long size = files.filter(Files::isRegularFile).mapToLong(path -> {
+				try {
+					return Files.size(path);
+				} catch (IOException e) {
+					return 0;
+				}
+			}).sum();
+			peakDisk.accumulateAndGet(size, Math::max);
+		} catch (IOException | UncheckedIOException e) {
+			// files come and go while the directory is walked; the next sample catches up
+		}
+	}
+
+	private static void deleteRecursively(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).toList()) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	/**
+	 * The outcome of the load on one endpoint.
+	 */
+	private record Result(int requests, long bytes, Duration elapsed, long[] sortedLatencies, long peakHeap,
+						  Map<Integer, Long> statuses) {
+
+		void print(String endpoint) {
+			double seconds = elapsed.toNanos() / 1e9;
+			System.out.printf("%-12s %8d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f  %s%n",
+					endpoint, requests, requests / seconds, bytes / 1048576.0 / seconds,
+					percentile(0.50), percentile(0.99), sortedLatencies[sortedLatencies.length - 1] / 1e6,
+					peakHeap / 1048576.0, statuses);
+		}
+
+		double percentile(double percentile) {
+			int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+			return sortedLatencies[Math.max(0, index)] / 1e6;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.RateLimitException;
+import com.dropbox.core.oauth.DbxCredential;
+import com.dropbox.core.v2.DbxClientV2;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DropboxAccountPoolTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final DropboxCircuitBreaker breaker = new DropboxCircuitBreaker(4, 4, 50, Duration.ofSeconds(30), 100,
+			Duration.ofMinutes(1), 1, meterRegistry);
+
+	private DropboxAccount account(String name, int maxConcurrent, String... keys) {
+		DbxClientV2 client = new DbxClientV2(DbxRequestConfig.newBuilder("test").build(), "token-" + name);
+		return new DropboxAccount(name, client, new DbxCredential("token-" + name), breaker.forAccount(name),
+				null, Set.of(keys), maxConcurrent);
+	}
+
+	private DropboxAccountPool pool(DropboxAccountPool.Strategy strategy, DropboxAccount... accounts) {
+		return new DropboxAccountPool(List.of(accounts), strategy, Duration.ZERO, meterRegistry);
+	}
+
+	@Test
+	void pinnedKeysStayWithTheirAccountAndOtherKeysAreSharded() throws Exception {
+		DropboxAccount primary = account("default", 0);
+		DropboxAccount orders = account("orders", 0, "5020");
+		DropboxAccountPool pool = pool(DropboxAccountPool.Strategy.KEY, primary, orders);
+
+		for (int i = 0; i < 3; i++) {
+			DropboxAccount account = pool.acquire("5020");
+			assertSame(orders, account);
+			account.release();
+		}
+		assertEquals(pool.candidates("client-7"), pool.candidates("client-7"));
+		assertEquals(2, pool.candidates(null).size());
+	}
+
+	@Test
+	void busyAndRateLimitedAccountsAreSkipped() throws Exception {
+		DropboxAccount first = account("first", 1);
+		DropboxAccount second = account("second", 1);
+		DropboxAccountPool pool = pool(DropboxAccountPool.Strategy.LEAST_LOADED, first, second);
+
+		DropboxAccount taken = pool.acquire(null);
+		DropboxAccount other = pool.acquire(null);
+		assertEquals(Set.of(first, second), Set.of(taken, other));
+		assertThrows(DropboxUnavailableException.class, () -> pool.acquire(null));
+		taken.release();
+		other.release();
+
+		assertThrows(RateLimitException.class, () -> first.execute("test", () -> {
+			throw new RateLimitException("req", "too_many_requests", 60, TimeUnit.SECONDS);
+		}));
+		for (int i = 0; i < 3; i++) {
+			DropboxAccount account = pool.acquire(null);
+			assertSame(second, account);
+			account.release();
+		}
+		DropboxUnavailableException exhausted = assertThrows(DropboxUnavailableException.class,
+				() -> pool.acquire(null, Set.of(second)));
+		assertTrue(exhausted.getRetryAfter().toSeconds() > 0);
+	}
+}
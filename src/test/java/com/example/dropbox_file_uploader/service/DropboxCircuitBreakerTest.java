@@ -0,0 +1,95 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.RateLimitException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DropboxCircuitBreakerTest {
+
+	private static DropboxCircuitBreaker breaker(Duration waitInOpen) {
+		return new DropboxCircuitBreaker(4, 4, 50, Duration.ofSeconds(30), 100, waitInOpen, 1, new SimpleMeterRegistry());
+	}
+
+	private static void fail(DropboxCircuitBreaker breaker) {
+		assertThrows(NetworkIOException.class, () -> breaker.execute("test", () -> {
+			throw new NetworkIOException(new IOException("connection reset"));
+		}));
+	}
+
+	@Test
+	void opensWhenFailureRateIsReachedAndFailsFast() throws Exception {
+		DropboxCircuitBreaker breaker = breaker(Duration.ofMinutes(1));
+
+		breaker.execute("test", () -> "ok");
+		breaker.execute("test", () -> "ok");
+		fail(breaker);
+		assertEquals(DropboxCircuitBreaker.State.CLOSED, breaker.getState());
+		fail(breaker);
+
+		assertEquals(DropboxCircuitBreaker.State.OPEN, breaker.getState());
+		DropboxUnavailableException rejected = assertThrows(DropboxUnavailableException.class,
+				() -> breaker.execute("test", () -> "never sent"));
+		assertTrue(rejected.getRetryAfter().toSeconds() > 0);
+		assertThrows(DropboxUnavailableException.class, breaker::ensureAvailable);
+	}
+
+	@Test
+	void closesAfterSuccessfulTrialCall() throws Exception {
+		DropboxCircuitBreaker breaker = breaker(Duration.ZERO);
+		for (int i = 0; i < 4; i++) {
+			fail(breaker);
+		}
+		assertEquals(DropboxCircuitBreaker.State.OPEN, breaker.getState());
+
+		assertEquals("ok", breaker.execute("test", () -> "ok"));
+
+		assertEquals(DropboxCircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	void rateLimitBlocksAllCallsWithoutOpening() {
+		DropboxCircuitBreaker breaker = breaker(Duration.ofMinutes(1));
+
+		assertThrows(RateLimitException.class, () -> breaker.execute("test", () -> {
+			throw new RateLimitException("req", "too_many_requests", 10, TimeUnit.SECONDS);
+		}));
+
+		DropboxUnavailableException rejected = assertThrows(DropboxUnavailableException.class,
+				() -> breaker.execute("test", () -> "never sent"));
+		assertTrue(rejected.getRetryAfter().toSeconds() >= 9);
+		assertFalse(breaker.getRateLimitRemaining().isZero());
+		assertEquals(DropboxCircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	void slowTransfersDoNotOpenTheBreaker() throws Exception {
+		DropboxCircuitBreaker breaker = new DropboxCircuitBreaker(4, 4, 50, Duration.ZERO, 100, Duration.ofMinutes(1), 1,
+				new SimpleMeterRegistry());
+		for (int i = 0; i < 4; i++) {
+			breaker.execute("upload_session_append", () -> {
+				Thread.sleep(2);
+				return "appended";
+			});
+		}
+		assertEquals(DropboxCircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.getSlowCallRate());
+
+		for (int i = 0; i < 4; i++) {
+			breaker.execute("get_metadata", () -> {
+				Thread.sleep(2);
+				return "metadata";
+			});
+		}
+		assertEquals(DropboxCircuitBreaker.State.OPEN, breaker.getState());
+	}
+}
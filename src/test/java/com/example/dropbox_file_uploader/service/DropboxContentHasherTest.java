@@ -0,0 +1,45 @@
+package com.example.dropbox_file_uploader.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DropboxContentHasherTest {
+
+	private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+	@Test
+	void hashesEachBlockAndThenTheBlockHashes() throws Exception {
+		byte[] content = new byte[BLOCK_SIZE + 10];
+		Arrays.fill(content, (byte) 'x');
+
+		MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+		byte[] first = sha256.digest(Arrays.copyOfRange(content, 0, BLOCK_SIZE));
+		byte[] second = sha256.digest(Arrays.copyOfRange(content, BLOCK_SIZE, content.length));
+		sha256.update(first);
+		sha256.update(second);
+		String expected = HexFormat.of().formatHex(sha256.digest());
+
+		assertEquals(expected, DropboxContentHasher.hash(new ByteArrayInputStream(content)));
+	}
+
+	@Test
+	void resultDoesNotDependOnUpdateSizes() throws Exception {
+		byte[] content = new byte[BLOCK_SIZE * 2 + 123];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+
+		DropboxContentHasher hasher = new DropboxContentHasher();
+		for (int offset = 0; offset < content.length; offset += 1_000_003) {
+			hasher.update(content, offset, Math.min(1_000_003, content.length - offset));
+		}
+
+		assertEquals(DropboxContentHasher.hash(new ByteArrayInputStream(content)), hasher.finish());
+	}
+}
@@ -0,0 +1,40 @@
+package com.example.dropbox_file_uploader.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSignaturesTest {
+
+	@Test
+	void detectsImagesAndPdfFromTheirFirstBytes() {
+		assertEquals("image/jpeg", detect(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0}));
+		assertEquals("image/png", detect(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}));
+		assertEquals("image/webp", detect("RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.US_ASCII)));
+		assertEquals("image/heic", detect("\0\0\0\u0018ftypheic".getBytes(StandardCharsets.US_ASCII)));
+		assertEquals("application/pdf", detect("\r\n%PDF-1.7".getBytes(StandardCharsets.US_ASCII)));
+		assertNull(detect("MZ\u0090\0".getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	@Test
+	void contentMustMatchTheKindOfTheDeclaredType() {
+		byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+		byte[] executable = "MZ\u0090\0\u0003\0\0\0".getBytes(StandardCharsets.US_ASCII);
+		byte[] pdf = "%PDF-1.4".getBytes(StandardCharsets.US_ASCII);
+
+		assertTrue(FileSignatures.matches("image/jpeg", png, png.length));
+		assertFalse(FileSignatures.matches("image/png", executable, executable.length));
+		assertFalse(FileSignatures.matches("image/png", pdf, pdf.length));
+		assertTrue(FileSignatures.matches("application/pdf", pdf, pdf.length));
+		assertFalse(FileSignatures.matches(null, pdf, pdf.length));
+	}
+
+	private static String detect(byte[] head) {
+		return FileSignatures.detect(head, head.length);
+	}
+}
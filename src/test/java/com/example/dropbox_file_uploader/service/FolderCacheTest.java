@@ -0,0 +1,67 @@
+package com.example.dropbox_file_uploader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FolderCacheTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void knownFoldersAreCountedAsHits() {
+		FolderCache cache = new FolderCache(Duration.ofHours(1), 10, meterRegistry);
+
+		assertFalse(cache.isKnown("/DFD Group/Orders"));
+		cache.markExisting("/DFD Group/Orders");
+
+		assertTrue(cache.isKnown("/dfd group/orders/"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, meterRegistry.get("dropbox.folder.cache").tag("result", "hit").functionCounter().count());
+		assertEquals(1, meterRegistry.get("dropbox.folder.cache").tag("result", "miss").functionCounter().count());
+		assertEquals(1, meterRegistry.get("dropbox.folder.cache.size").gauge().value());
+	}
+
+	@Test
+	void expiredFoldersAreMisses() {
+		FolderCache cache = new FolderCache(Duration.ZERO, 10, meterRegistry);
+
+		cache.markExisting("/a");
+
+		assertFalse(cache.isKnown("/a"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	void invalidateRemovesSubFolders() {
+		FolderCache cache = new FolderCache(Duration.ofHours(1), 10, meterRegistry);
+		cache.markExisting("/a");
+		cache.markExisting("/a/b");
+		cache.markExisting("/ab");
+
+		cache.invalidate("/A");
+
+		assertFalse(cache.isKnown("/a"));
+		assertFalse(cache.isKnown("/a/b"));
+		assertTrue(cache.isKnown("/ab"));
+	}
+
+	@Test
+	void cacheIsBounded() {
+		FolderCache cache = new FolderCache(Duration.ofHours(1), 2, meterRegistry);
+
+		cache.markExisting("/a");
+		cache.markExisting("/b");
+		cache.markExisting("/c");
+
+		assertEquals(2, cache.size());
+		assertTrue(cache.isKnown("/c"));
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.example.dropbox_file_uploader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageRecompressorTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final ImageRecompressor recompressor = new ImageRecompressor(new UploadMetrics(meterRegistry),
+			true, 1024, 0.8f, 50_000_000, DataSize.ofBytes(0), 2, 4);
+
+	@AfterEach
+	void shutdown() {
+		recompressor.shutdown();
+	}
+
+	@Test
+	void largePhotosAreDownscaledAndShrunk() throws IOException {
+		MockMultipartFile photo = new MockMultipartFile("file", "photo.jpg", "image/jpeg", jpeg(3000, 2000, 1.0f));
+
+		MultipartFile recompressed = recompressor.recompress(photo);
+
+		assertNotSame(photo, recompressed);
+		assertEquals("photo.jpg", recompressed.getOriginalFilename());
+		assertTrue(recompressed.getSize() < photo.getSize());
+		BufferedImage image = ImageIO.read(recompressed.getInputStream());
+		assertEquals(1024, image.getWidth());
+		assertEquals(683, image.getHeight());
+		assertEquals((double) photo.getSize(), meterRegistry.get("upload.image.bytes").tag("direction", "in").counter().count());
+		assertEquals((double) recompressed.getSize(), meterRegistry.get("upload.image.bytes").tag("direction", "out").counter().count());
+	}
+
+	@Test
+	void originalIsKeptWhenRecompressionDoesNotShrinkIt() throws IOException {
+		MockMultipartFile photo = new MockMultipartFile("file", "small.jpg", "image/jpeg", jpeg(200, 100, 0.2f));
+
+		assertSame(photo, recompressor.recompress(photo));
+		assertEquals(1, meterRegistry.get("upload.image.processing").tag("outcome", "kept_original").timer().count());
+	}
+
+	@Test
+	void otherFilesAreNotTouched() {
+		MockMultipartFile pdf = new MockMultipartFile("file", "invoice.pdf", "application/pdf", new byte[]{'%', 'P', 'D', 'F'});
+		MockMultipartFile broken = new MockMultipartFile("file", "broken.jpg", "image/jpeg", new byte[]{1, 2, 3});
+
+		assertSame(pdf, recompressor.recompress(pdf));
+		assertSame(broken, recompressor.recompress(broken));
+	}
+
+	@Test
+	void exifOrientationIsRead() {
+		byte[] bigEndian = {'E', 'x', 'i', 'f', 0, 0, 'M', 'M', 0, 42, 0, 0, 0, 8,
+				0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0};
+		byte[] littleEndian = {'E', 'x', 'i', 'f', 0, 0, 'I', 'I', 42, 0, 8, 0, 0, 0,
+				1, 0, 0x12, 0x01, 3, 0, 1, 0, 0, 0, 8, 0, 0, 0};
+
+		assertEquals(6, ImageRecompressor.exifOrientation(bigEndian));
+		assertEquals(8, ImageRecompressor.exifOrientation(littleEndian));
+		assertEquals(0, ImageRecompressor.exifOrientation(new byte[]{'J', 'F', 'I', 'F', 0}));
+	}
+
+	private static byte[] jpeg(int width, int height, float quality) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(42);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | random.nextInt(64));
+			}
+		}
+
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(bytes)) {
+			writer.setOutput(output);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return bytes.toByteArray();
+	}
+}
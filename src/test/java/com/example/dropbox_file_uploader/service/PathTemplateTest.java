@@ -0,0 +1,39 @@
+package com.example.dropbox_file_uploader.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PathTemplateTest {
+
+	private static final LocalDate DATE = LocalDate.of(2025, 6, 13);
+
+	@Test
+	void expandsPlaceholdersAndFormatsTheFolder() {
+		PathTemplate template = PathTemplate.compile("DFD Group\\Поръчки//{client} Client {date:ddMMyyyy}/{contentType}/");
+
+		assertEquals("/DFD Group/Поръчки/5020 Client 13062025/pdf", template.expand("5020", DATE, "application/pdf"));
+		assertEquals("/DFD Group/Поръчки", template.getRoot());
+	}
+
+	@Test
+	void clientValuesCannotAddFolderLevels() {
+		PathTemplate template = PathTemplate.compile("/Orders/{client}/{date}");
+
+		assertEquals("/Orders/.._secret/2025-06-13", template.expand("../secret", DATE, null));
+		assertThrows(UploadRoutingException.class, () -> template.expand(" ", DATE, null));
+	}
+
+	@Test
+	void templateWithoutPlaceholdersIsItsOwnRoot() {
+		PathTemplate template = PathTemplate.compile("/Uploads/");
+
+		assertFalse(template.hasPlaceholders());
+		assertEquals("/Uploads", template.getRoot());
+		assertThrows(IllegalArgumentException.class, () -> PathTemplate.compile("/Orders/{customer}"));
+	}
+}
@@ -0,0 +1,46 @@
+package com.example.dropbox_file_uploader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class UploadAdmissionTest {
+
+	@Test
+	void uploadsAreRefusedOnceABudgetIsUsedUpAndAdmittedAgainWhenItIsGivenBack() throws InterruptedException {
+		UploadAdmission admission = new UploadAdmission(DataSize.ofMegabytes(10), DataSize.ofMegabytes(100), 8, 4,
+				Duration.ofMillis(20), new SimpleMeterRegistry());
+
+		UploadAdmission.Permit first = admission.tryAdmit(DataSize.ofMegabytes(6).toBytes(), 0);
+		assertNotNull(first);
+		assertEquals(DataSize.ofMegabytes(6).toBytes(), admission.getUsed(UploadAdmission.Resource.MEMORY));
+
+		assertNull(admission.tryAdmit(DataSize.ofMegabytes(6).toBytes(), 0));
+		assertEquals(1, admission.getUsed(UploadAdmission.Resource.UPLOADS));
+
+		first.close();
+		first.close();
+		assertEquals(0, admission.getUsed(UploadAdmission.Resource.MEMORY));
+		assertNotNull(admission.tryAdmit(DataSize.ofMegabytes(6).toBytes(), DataSize.ofMegabytes(50).toBytes()));
+		assertEquals(DataSize.ofMegabytes(50).toBytes(), admission.getUsed(UploadAdmission.Resource.DISK));
+	}
+
+	@Test
+	void chargesLargerThanTheBudgetAreReducedToIt() throws InterruptedException {
+		UploadAdmission admission = new UploadAdmission(DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), 1, 0,
+				Duration.ZERO, new SimpleMeterRegistry());
+
+		UploadAdmission.Permit permit = admission.tryAdmit(DataSize.ofGigabytes(1).toBytes(), DataSize.ofGigabytes(1).toBytes());
+
+		assertNotNull(permit);
+		assertNull(admission.tryAdmit(1, 0));
+		permit.close();
+		assertNotNull(admission.tryAdmit(1, 0));
+	}
+}
@@ -0,0 +1,93 @@
+package com.example.dropbox_file_uploader.service;
+
+import com.example.dropbox_file_uploader.model.dto.ApiResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.example.dropbox_file_uploader.service.UploadIdempotencyCache.Fingerprint;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadIdempotencyCacheTest {
+
+	private static final Fingerprint PDF = new Fingerprint("/api/upload\n512", "/api/upload\na.pdf\n500");
+
+	@Test
+	void retriesAttachToTheUploadInProgressAndThenGetItsStoredResponse() {
+		UploadIdempotencyCache cache = new UploadIdempotencyCache(Duration.ofHours(1), 10, new SimpleMeterRegistry());
+		CompletableFuture<ResponseEntity<ApiResponse>> upload = new CompletableFuture<>();
+		AtomicInteger uploads = new AtomicInteger();
+
+		CompletableFuture<ResponseEntity<ApiResponse>> first = cache.execute("key-1", PDF, () -> {
+			uploads.incrementAndGet();
+			return upload;
+		});
+		CompletableFuture<ResponseEntity<ApiResponse>> retry = cache.execute("key-1", PDF, () -> {
+			uploads.incrementAndGet();
+			return upload;
+		});
+		assertTrue(cache.findFinished("key-1", PDF.request()).isEmpty());
+
+		upload.complete(ResponseEntity.ok(ApiResponse.success("ok", "/a.pdf")));
+
+		assertEquals(1, uploads.get());
+		assertEquals("/a.pdf", first.join().getBody().getPath());
+		assertNull(first.join().getHeaders().getFirst(UploadIdempotencyCache.REPLAYED_HEADER));
+		assertEquals("true", retry.join().getHeaders().getFirst(UploadIdempotencyCache.REPLAYED_HEADER));
+		assertEquals("/a.pdf", cache.findFinished("key-1", PDF.request()).orElseThrow().getBody().getPath());
+	}
+
+	@Test
+	void serverErrorsAreNotStored() {
+		UploadIdempotencyCache cache = new UploadIdempotencyCache(Duration.ofHours(1), 10, new SimpleMeterRegistry());
+
+		cache.execute("key-1", PDF, () -> CompletableFuture.completedFuture(
+				ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(ApiResponse.error("busy")))).join();
+
+		assertTrue(cache.findFinished("key-1", PDF.request()).isEmpty());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	void expiredResponsesAreNotReturned() {
+		UploadIdempotencyCache cache = new UploadIdempotencyCache(Duration.ZERO, 10, new SimpleMeterRegistry());
+
+		cache.execute("key-1", PDF, () -> CompletableFuture.completedFuture(ResponseEntity.ok(ApiResponse.success("ok", "/a.pdf")))).join();
+
+		assertTrue(cache.findFinished("key-1", PDF.request()).isEmpty());
+	}
+
+	@Test
+	void keyReusedForAnotherUploadIsRejectedWithoutUploading() {
+		UploadIdempotencyCache cache = new UploadIdempotencyCache(Duration.ofHours(1), 10, new SimpleMeterRegistry());
+		Fingerprint other = new Fingerprint("/api/upload\n612", "/api/upload\nb.pdf\n600");
+		AtomicInteger uploads = new AtomicInteger();
+
+		cache.execute("key-1", PDF, () -> CompletableFuture.completedFuture(ResponseEntity.ok(ApiResponse.success("ok", "/a.pdf")))).join();
+		ResponseEntity<ApiResponse> reused = cache.execute("key-1", other, () -> {
+			uploads.incrementAndGet();
+			return CompletableFuture.completedFuture(ResponseEntity.ok(ApiResponse.success("ok", "/b.pdf")));
+		}).join();
+
+		assertEquals(0, uploads.get());
+		assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, reused.getStatusCode());
+		assertTrue(cache.findFinished("key-1", other.request()).isEmpty());
+		assertEquals("/a.pdf", cache.findFinished("key-1", PDF.request()).orElseThrow().getBody().getPath());
+	}
+
+	@Test
+	void onlySimpleKeysAreAccepted() {
+		assertTrue(UploadIdempotencyCache.isValidKey("3f2b8c1e-7a4d-4e1b-9c0a-5d6e7f8a9b0c"));
+		assertFalse(UploadIdempotencyCache.isValidKey(""));
+		assertFalse(UploadIdempotencyCache.isValidKey("ключ"));
+		assertFalse(UploadIdempotencyCache.isValidKey("a".repeat(256)));
+	}
+}